@@ -0,0 +1,29 @@
+package com.scaleunlimited.wikiwords;
+
+/**
+ * A link to another article, and the index (in the list of terms for the page) of
+ * the term for the link's anchor text.
+ *
+ */
+public class ArticleLinkPosition {
+    private String _article;
+    private int _linkPosition;
+    
+    public ArticleLinkPosition(String article, int linkPosition) {
+        _article = article;
+        _linkPosition = linkPosition;
+    }
+
+    public String getArticle() {
+        return _article;
+    }
+
+    public int getLinkPosition() {
+        return _linkPosition;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s@%d", _article, _linkPosition);
+    }
+}
@@ -0,0 +1,291 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.output.FileWriterWithEncoding;
+import org.apache.log4j.Logger;
+
+/**
+ * Support for the list of articles processed by the WikiDumpTool, which is used to
+ * find the articles that have changed between two dumps. The manifest is a text file
+ * with one line per article, sorted by page id:
+ *
+ * <page id><tab><revision id><tab><content hash><tab><title>
+ *
+ * Page ids are zero-padded to 10 digits, so that text (and numeric) ordering match.
+ * The content hash is the first 64 bits of the MD5 digest of the article's text, as
+ * a hex string.
+ *
+ * A changes file, created by comparing two manifests, has one line per added, changed,
+ * renamed or deleted article:
+ *
+ * <page id><tab><change><tab><title>
+ *
+ * A renamed article (which might also have changed text) has its previous title as well:
+ *
+ * <page id><tab>renamed<tab><title><tab><previous title>
+ *
+ */
+public class ArticleManifest {
+    private static final Logger LOGGER = Logger.getLogger(ArticleManifest.class);
+
+    public static final String MANIFEST_FILENAME = "articles.txt";
+    public static final String CHANGES_FILENAME = "changes.txt";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int HASH_BYTES = 8;
+
+    public enum Change {
+        ADDED,
+        CHANGED,
+        RENAMED,
+        DELETED;
+
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    public static String formatPageId(long pageId) {
+        return String.format("%010d", pageId);
+    }
+
+    public static MessageDigest makeDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Impossible error, MD5 digest isn't available", e);
+        }
+    }
+
+    /**
+     * @param digest Result of makeDigest(), which is reused for each call
+     * @param text Article text
+     * @return hash of the text, as used in the manifest.
+     */
+    public static String hashText(MessageDigest digest, String text) {
+        digest.reset();
+        byte[] hash = digest.digest(text.getBytes(UTF_8));
+        return new String(Hex.encodeHex(hash)).substring(0, HASH_BYTES * 2);
+    }
+
+    /**
+     * @return the manifest line for an article, without the page id (which is the key).
+     */
+    public static String makeValue(String revisionId, String hash, String title) {
+        return String.format("%s\t%s\t%s", revisionId, hash, title);
+    }
+
+    /**
+     * Compare the <previous> and <current> manifests, and write out a changes file.
+     *
+     * @return count of each type of change.
+     * @throws IOException
+     */
+    public static Map<Change, Integer> writeChanges(File previous, File current, File changesFile) throws IOException {
+        Map<Change, Integer> result = new EnumMap<>(Change.class);
+        for (Change change : Change.values()) {
+            result.put(change, 0);
+        }
+
+        try (EntryReader previousReader = new EntryReader(previous);
+             EntryReader currentReader = new EntryReader(current);
+             BufferedWriter bw = new BufferedWriter(new FileWriterWithEncoding(changesFile, UTF_8))) {
+
+            Entry prevEntry = previousReader.next();
+            Entry curEntry = currentReader.next();
+            while ((prevEntry != null) || (curEntry != null)) {
+                Change change;
+                Entry entry;
+                String previousTitle = null;
+                if ((curEntry == null) || ((prevEntry != null) && (prevEntry.getPageId() < curEntry.getPageId()))) {
+                    change = Change.DELETED;
+                    entry = prevEntry;
+                    prevEntry = previousReader.next();
+                } else if ((prevEntry == null) || (curEntry.getPageId() < prevEntry.getPageId())) {
+                    change = Change.ADDED;
+                    entry = curEntry;
+                    curEntry = currentReader.next();
+                } else {
+                    change = getChange(prevEntry, curEntry);
+                    entry = curEntry;
+                    previousTitle = prevEntry.getTitle();
+                    prevEntry = previousReader.next();
+                    curEntry = currentReader.next();
+                }
+
+                if (change == Change.RENAMED) {
+                    bw.write(String.format("%s\t%s\t%s\t%s\n", formatPageId(entry.getPageId()), change.getName(), entry.getTitle(), previousTitle));
+                } else if (change != null) {
+                    bw.write(String.format("%s\t%s\t%s\n", formatPageId(entry.getPageId()), change.getName(), entry.getTitle()));
+                }
+
+                if (change != null) {
+                    result.put(change, result.get(change) + 1);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param previous Entry from the previous manifest
+     * @param current Entry for the same page in the current manifest
+     * @return how the page has changed, or null if it hasn't. A new title takes precedence
+     *         over new text, since data for the article is keyed by its title.
+     */
+    public static Change getChange(Entry previous, Entry current) {
+        if (!previous.getTitle().equals(current.getTitle())) {
+            return Change.RENAMED;
+        } else if (!previous.getHash().equals(current.getHash())) {
+            return Change.CHANGED;
+        } else {
+            return null;
+        }
+    }
+
+    public static class Entry {
+        private long _pageId;
+        private String _revisionId;
+        private String _hash;
+        private String _title;
+
+        public Entry(long pageId, String revisionId, String hash, String title) {
+            _pageId = pageId;
+            _revisionId = revisionId;
+            _hash = hash;
+            _title = title;
+        }
+
+        public long getPageId() {
+            return _pageId;
+        }
+
+        public String getRevisionId() {
+            return _revisionId;
+        }
+
+        public String getHash() {
+            return _hash;
+        }
+
+        public String getTitle() {
+            return _title;
+        }
+
+        public static Entry fromString(String line) throws IOException {
+            String[] fields = line.split("\t", 4);
+            if (fields.length != 4) {
+                throw new IOException("Invalid article manifest line: " + line);
+            }
+
+            try {
+                return new Entry(Long.parseLong(fields[0]), fields[1], fields[2], fields[3]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid article manifest line: " + line, e);
+            }
+        }
+    }
+
+    /**
+     * Sequential reader for the entries in a manifest file.
+     */
+    public static class EntryReader implements Closeable {
+        private BufferedReader _reader;
+        private long _lastPageId;
+
+        public EntryReader(File manifestFile) throws IOException {
+            _reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), UTF_8));
+            _lastPageId = Long.MIN_VALUE;
+        }
+
+        /**
+         * @return next entry, or null if there are no more entries.
+         * @throws IOException
+         */
+        public Entry next() throws IOException {
+            String line = _reader.readLine();
+            if (line == null) {
+                return null;
+            }
+
+            Entry result = Entry.fromString(line);
+            if (result.getPageId() <= _lastPageId) {
+                throw new IOException("Article manifest isn't sorted by page id at: " + line);
+            }
+
+            _lastPageId = result.getPageId();
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _reader.close();
+        }
+    }
+
+    /**
+     * Lookup of entries in a previous manifest, for pages that are (mostly) in increasing
+     * page id order, as they are in a dump file. We make a single pass through the manifest,
+     * so memory use doesn't depend on its size.
+     */
+    public static class EntryLookup implements Closeable {
+        private EntryReader _reader;
+        private Entry _entry;
+        private long _lastPageId;
+        private boolean _warnedOrder;
+
+        public EntryLookup(File manifestFile) throws IOException {
+            _reader = new EntryReader(manifestFile);
+            _entry = _reader.next();
+            _lastPageId = Long.MIN_VALUE;
+            _warnedOrder = false;
+        }
+
+        /**
+         * @param pageId Page id to look up, which should be greater than the last one.
+         * @return the page's entry in the manifest, or null if it's not in the manifest, or the
+         *         page id is out of order (so we can't find it).
+         * @throws IOException
+         */
+        public Entry getEntry(long pageId) throws IOException {
+            if (pageId <= _lastPageId) {
+                if (!_warnedOrder) {
+                    LOGGER.warn(String.format("Page id %d is out of order, so out-of-order pages will be treated as changed", pageId));
+                    _warnedOrder = true;
+                }
+
+                return null;
+            }
+
+            _lastPageId = pageId;
+            while ((_entry != null) && (_entry.getPageId() < pageId)) {
+                _entry = _reader.next();
+            }
+
+            if ((_entry != null) && (_entry.getPageId() == pageId)) {
+                return _entry;
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            _reader.close();
+        }
+    }
+}
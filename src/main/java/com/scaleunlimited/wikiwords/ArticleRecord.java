@@ -0,0 +1,45 @@
+package com.scaleunlimited.wikiwords;
+
+/**
+ * One article read from a binary part file, via the ArticleRecordReader.
+ *
+ */
+public class ArticleRecord {
+
+    private String _title;
+    private long _pageId;
+    private String _text;
+    
+    public ArticleRecord() {
+    }
+    
+    public ArticleRecord(String title, long pageId, String text) {
+        _title = title;
+        _pageId = pageId;
+        _text = text;
+    }
+
+    public String getTitle() {
+        return _title;
+    }
+
+    public void setTitle(String title) {
+        _title = title;
+    }
+
+    public long getPageId() {
+        return _pageId;
+    }
+
+    public void setPageId(long pageId) {
+        _pageId = pageId;
+    }
+
+    public String getText() {
+        return _text;
+    }
+
+    public void setText(String text) {
+        _text = text;
+    }
+}
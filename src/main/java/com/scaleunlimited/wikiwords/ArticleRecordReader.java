@@ -0,0 +1,313 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+/**
+ * Reader for binary part files created by the ArticleRecordWriter.
+ *
+ * For version 2 (and later) files, a reader can also be used to read just the
+ * blocks in one split of a file. Call seek() to move to the start of the split,
+ * sync() to find the next block, and setEnd() to stop reading at the end of the
+ * split.
+ *
+ */
+public class ArticleRecordReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CountingInputStream _counter;
+    private DataInputStream _in;
+    private int _version;
+    private boolean _compressed;
+    private byte[] _sync;
+
+    private long _end;
+    private boolean _syncConsumed;
+    private long _blockStart;
+
+    private byte[] _block;
+    private int _blockLength;
+    private int _blockOffset;
+    private int _recordsLeft;
+
+    private Inflater _inflater;
+    private byte[] _stored;
+
+    /**
+     * @param is Stream positioned at the start of the file.
+     * @throws IOException
+     */
+    public ArticleRecordReader(InputStream is) throws IOException {
+        _counter = new CountingInputStream(new BufferedInputStream(is));
+        _in = new DataInputStream(_counter);
+
+        byte[] magic = new byte[ArticleRecordWriter.MAGIC.length];
+        _in.readFully(magic);
+        if (!Arrays.equals(magic, ArticleRecordWriter.MAGIC)) {
+            throw new IOException("Not an article record file, invalid magic bytes");
+        }
+
+        _version = _in.readByte();
+        if ((_version < 1) || (_version > ArticleRecordWriter.VERSION)) {
+            throw new IOException("Unsupported article record file version: " + _version);
+        }
+
+        _compressed = (_in.readByte() & ArticleRecordWriter.FLAG_COMPRESSED) != 0;
+        if (_compressed) {
+            _inflater = new Inflater();
+            _stored = new byte[0];
+        }
+
+        if (isSplittable()) {
+            _sync = new byte[ArticleRecordWriter.SYNC_SIZE];
+            _in.readFully(_sync);
+        }
+
+        _end = Long.MAX_VALUE;
+        _syncConsumed = false;
+        _block = new byte[0];
+        _recordsLeft = 0;
+    }
+
+    /**
+     * @return true if the file has sync markers, so that it can be read in splits.
+     */
+    public boolean isSplittable() {
+        return _version >= 2;
+    }
+
+    /**
+     * @return number of bytes from the start of the file that we've consumed.
+     */
+    public long getPosition() {
+        return _counter.getByteCount();
+    }
+
+    /**
+     * @return offset of the start of the current block (version 2 and later).
+     */
+    public long getBlockStart() {
+        return _blockStart;
+    }
+
+    /**
+     * Skip forward to <position> in the file. This must be followed by a call
+     * to sync(), to find the start of the next block.
+     *
+     * @param position Offset from start of file, which can't be before our current position.
+     * @throws IOException
+     */
+    public void seek(long position) throws IOException {
+        long toSkip = position - getPosition();
+        if (toSkip < 0) {
+            throw new IllegalArgumentException("Can't seek backwards to " + position);
+        }
+
+        while (toSkip > 0) {
+            long skipped = _counter.skip(toSkip);
+            if (skipped <= 0) {
+                // At EOF, there's nothing more to read.
+                break;
+            }
+
+            toSkip -= skipped;
+        }
+
+        _recordsLeft = 0;
+    }
+
+    /**
+     * Scan forward for the next sync marker, which is where the next block starts.
+     *
+     * @return true if a sync marker was found.
+     * @throws IOException
+     */
+    public boolean sync() throws IOException {
+        if (!isSplittable()) {
+            throw new IllegalStateException("Version " + _version + " files don't have sync markers");
+        }
+
+        int syncSize = _sync.length;
+        byte[] window = new byte[syncSize];
+        int numRead = 0;
+
+        while (true) {
+            int b = _in.read();
+            if (b == -1) {
+                return false;
+            }
+
+            window[numRead % syncSize] = (byte)b;
+            numRead += 1;
+
+            if ((numRead >= syncSize) && matchesSync(window, numRead % syncSize)) {
+                _blockStart = getPosition() - syncSize;
+                _syncConsumed = true;
+                _recordsLeft = 0;
+                return true;
+            }
+        }
+    }
+
+    private boolean matchesSync(byte[] window, int start) {
+        for (int i = 0; i < _sync.length; i++) {
+            if (window[(start + i) % _sync.length] != _sync[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Don't read any blocks that start at or after <end>.
+     *
+     * @param end Offset from start of file
+     */
+    public void setEnd(long end) {
+        _end = end;
+    }
+
+    /**
+     * Read the next article into <record>
+     *
+     * @param record Record to fill in
+     * @return true if we read a record, false if we're at the end of the file (or split).
+     * @throws IOException
+     */
+    public boolean next(ArticleRecord record) throws IOException {
+        while (_recordsLeft == 0) {
+            if (!readBlock()) {
+                return false;
+            }
+        }
+
+        int titleLength = readInt();
+        record.setTitle(new String(_block, _blockOffset, titleLength, UTF_8));
+        _blockOffset += titleLength;
+
+        record.setPageId(readLong());
+
+        int textLength = readInt();
+        record.setText(new String(_block, _blockOffset, textLength, UTF_8));
+        _blockOffset += textLength;
+
+        _recordsLeft -= 1;
+        return true;
+    }
+
+    private boolean readBlock() throws IOException {
+        if (isSplittable()) {
+            if (!_syncConsumed) {
+                _blockStart = getPosition();
+            }
+
+            if (_blockStart >= _end) {
+                return false;
+            }
+
+            if (!_syncConsumed) {
+                byte[] sync = new byte[_sync.length];
+                int numRead = _in.read(sync);
+                if (numRead == -1) {
+                    return false;
+                }
+
+                if (numRead < sync.length) {
+                    _in.readFully(sync, numRead, sync.length - numRead);
+                }
+
+                if (!Arrays.equals(sync, _sync)) {
+                    throw new IOException("Invalid sync marker at offset " + _blockStart);
+                }
+            }
+
+            _syncConsumed = false;
+        }
+
+        int numRecords;
+        try {
+            numRecords = _in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+
+        int rawLength = _in.readInt();
+        int storedLength = _in.readInt();
+
+        if (_block.length < rawLength) {
+            _block = new byte[rawLength];
+        }
+
+        if (_compressed) {
+            if (_stored.length < storedLength) {
+                _stored = new byte[storedLength];
+            }
+
+            _in.readFully(_stored, 0, storedLength);
+
+            _inflater.reset();
+            _inflater.setInput(_stored, 0, storedLength);
+
+            try {
+                int inflatedLength = 0;
+                while (inflatedLength < rawLength) {
+                    int count = _inflater.inflate(_block, inflatedLength, rawLength - inflatedLength);
+                    if ((count == 0) && (_inflater.finished() || _inflater.needsInput())) {
+                        throw new IOException("Truncated compressed block");
+                    }
+
+                    inflatedLength += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed block", e);
+            }
+        } else {
+            _in.readFully(_block, 0, rawLength);
+        }
+
+        _blockLength = rawLength;
+        _blockOffset = 0;
+        _recordsLeft = numRecords;
+        return true;
+    }
+
+    private int readInt() throws IOException {
+        if (_blockOffset + 4 > _blockLength) {
+            throw new IOException("Corrupt record block");
+        }
+
+        int result = ((_block[_blockOffset] & 0xFF) << 24)
+                        | ((_block[_blockOffset + 1] & 0xFF) << 16)
+                        | ((_block[_blockOffset + 2] & 0xFF) << 8)
+                        | (_block[_blockOffset + 3] & 0xFF);
+        _blockOffset += 4;
+        return result;
+    }
+
+    private long readLong() throws IOException {
+        long high = readInt() & 0xFFFFFFFFL;
+        long low = readInt() & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+
+        if (_inflater != null) {
+            _inflater.end();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+/**
+ * Writer for binary part files, which contain length-prefixed article records. This
+ * avoids the size increase (and encode/decode work) of the Base64 text format.
+ *
+ * The file starts with a header:
+ *
+ *  - 4 magic bytes ("WWAR")
+ *  - 1 byte version
+ *  - 1 byte of flags (FLAG_COMPRESSED means block data is deflated)
+ *  - 16 byte sync marker (version 2 and later)
+ *
+ * This is followed by blocks of records, where each block is:
+ *
+ *  - sync marker (version 2 and later)
+ *  - int number of records
+ *  - int length of the raw (uncompressed) record data
+ *  - int length of the stored (possibly compressed) record data
+ *  - stored record data
+ *
+ * And each record in the raw record data is:
+ *
+ *  - int length of title, followed by UTF-8 title bytes
+ *  - long page id
+ *  - int length of text, followed by UTF-8 text bytes
+ *
+ * The sync marker lets a reader start at an arbitrary offset in the file, and find
+ * the next block, which is how Hadoop can split (potentially compressed) files.
+ *
+ */
+public class ArticleRecordWriter implements Closeable {
+
+    public static final byte[] MAGIC = {'W', 'W', 'A', 'R'};
+    public static final int VERSION = 2;
+    public static final int FLAG_COMPRESSED = 0x01;
+    public static final int SYNC_SIZE = 16;
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    // Page id we use for records when we don't know the id (e.g. converted text files)
+    public static final long UNKNOWN_PAGE_ID = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private DataOutputStream _out;
+    private boolean _compress;
+    private int _blockSize;
+
+    private BlockBuffer _block;
+    private int _numRecords;
+    private Deflater _deflater;
+    private byte[] _compressed;
+    private byte[] _sync;
+
+    public ArticleRecordWriter(OutputStream os, boolean compress) throws IOException {
+        this(os, compress, DEFAULT_BLOCK_SIZE);
+    }
+
+    public ArticleRecordWriter(OutputStream os, boolean compress, int blockSize) throws IOException {
+        _out = new DataOutputStream(os);
+        _compress = compress;
+        _blockSize = blockSize;
+
+        _block = new BlockBuffer(blockSize);
+        _numRecords = 0;
+
+        if (_compress) {
+            _deflater = new Deflater();
+            _compressed = new byte[blockSize];
+        }
+
+        _sync = makeSync();
+
+        _out.write(MAGIC);
+        _out.writeByte(VERSION);
+        _out.writeByte(compress ? FLAG_COMPRESSED : 0);
+        _out.write(_sync);
+    }
+
+    private static byte[] makeSync() {
+        UUID uuid = UUID.randomUUID();
+        ByteBuffer result = ByteBuffer.allocate(SYNC_SIZE);
+        result.putLong(uuid.getMostSignificantBits());
+        result.putLong(uuid.getLeastSignificantBits());
+        return result.array();
+    }
+
+    /**
+     * Convert an article into the binary record format. This can be done in a
+     * separate thread from the one calling writeRecord().
+     *
+     * @param title Title of the article
+     * @param pageId Wikipedia page id
+     * @param text MediaWiki markup for the article
+     * @return encoded record
+     */
+    public static byte[] encode(String title, long pageId, String text) {
+        byte[] titleBytes = title.getBytes(UTF_8);
+        byte[] textBytes = text.getBytes(UTF_8);
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(4 + titleBytes.length + 8 + 4 + textBytes.length);
+        DataOutputStream out = new DataOutputStream(result);
+
+        try {
+            out.writeInt(titleBytes.length);
+            out.write(titleBytes);
+            out.writeLong(pageId);
+            out.writeInt(textBytes.length);
+            out.write(textBytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Impossible IO exception", e);
+        }
+
+        return result.toByteArray();
+    }
+
+    public void write(String title, long pageId, String text) throws IOException {
+        writeRecord(encode(title, pageId, text));
+    }
+
+    /**
+     * Write a record that was created by encode().
+     *
+     * @param record Encoded article
+     * @throws IOException
+     */
+    public void writeRecord(byte[] record) throws IOException {
+        if ((_numRecords > 0) && (_block.size() + record.length > _blockSize)) {
+            writeBlock();
+        }
+
+        _block.write(record);
+        _numRecords += 1;
+    }
+
+    private void writeBlock() throws IOException {
+        int rawLength = _block.size();
+        _out.write(_sync);
+        _out.writeInt(_numRecords);
+        _out.writeInt(rawLength);
+
+        if (_compress) {
+            _deflater.reset();
+            _deflater.setInput(_block.getBuffer(), 0, rawLength);
+            _deflater.finish();
+
+            int compressedLength = 0;
+            while (!_deflater.finished()) {
+                if (compressedLength == _compressed.length) {
+                    byte[] newCompressed = new byte[_compressed.length * 2];
+                    System.arraycopy(_compressed, 0, newCompressed, 0, compressedLength);
+                    _compressed = newCompressed;
+                }
+
+                compressedLength += _deflater.deflate(_compressed, compressedLength, _compressed.length - compressedLength);
+            }
+
+            _out.writeInt(compressedLength);
+            _out.write(_compressed, 0, compressedLength);
+        } else {
+            _out.writeInt(rawLength);
+            _out.write(_block.getBuffer(), 0, rawLength);
+        }
+
+        _block.reset();
+        _numRecords = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_numRecords > 0) {
+            writeBlock();
+        }
+
+        _out.close();
+
+        if (_deflater != null) {
+            _deflater.end();
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream that lets us get at the buffer without making a copy.
+     *
+     */
+    private static class BlockBuffer extends ByteArrayOutputStream {
+
+        public BlockBuffer(int size) {
+            super(size);
+        }
+
+        public byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
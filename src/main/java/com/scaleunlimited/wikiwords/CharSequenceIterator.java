@@ -0,0 +1,97 @@
+package com.scaleunlimited.wikiwords;
+
+import java.text.CharacterIterator;
+
+/**
+ * A CharacterIterator over a CharSequence (e.g. a reused StringBuilder), so that we can
+ * find word breaks with a BreakIterator without first making a String copy of the text.
+ *
+ * The text must not be changed while it's being iterated over.
+ *
+ */
+public class CharSequenceIterator implements CharacterIterator {
+
+    private CharSequence _text;
+    private int _end;
+    private int _index;
+    
+    public CharSequenceIterator() {
+        setText("");
+    }
+    
+    public void setText(CharSequence text) {
+        _text = text;
+        _end = text.length();
+        _index = 0;
+    }
+    
+    @Override
+    public char first() {
+        _index = 0;
+        return current();
+    }
+
+    @Override
+    public char last() {
+        _index = Math.max(0, _end - 1);
+        return current();
+    }
+
+    @Override
+    public char current() {
+        return _index < _end ? _text.charAt(_index) : DONE;
+    }
+
+    @Override
+    public char next() {
+        if (_index < _end) {
+            _index++;
+        }
+        
+        return current();
+    }
+
+    @Override
+    public char previous() {
+        if (_index == 0) {
+            return DONE;
+        }
+        
+        _index--;
+        return current();
+    }
+
+    @Override
+    public char setIndex(int position) {
+        if ((position < 0) || (position > _end)) {
+            throw new IllegalArgumentException("Invalid index: " + position);
+        }
+        
+        _index = position;
+        return current();
+    }
+
+    @Override
+    public int getBeginIndex() {
+        return 0;
+    }
+
+    @Override
+    public int getEndIndex() {
+        return _end;
+    }
+
+    @Override
+    public int getIndex() {
+        return _index;
+    }
+    
+    @Override
+    public Object clone() {
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Impossible clone exception", e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Reader that returns the characters from a sequence of CharSequence ranges, without
+ * copying them into a single String first. This lets us pass a document that's built up
+ * from pieces of a (reused) StringBuilder to a parser that wants a Reader.
+ *
+ * The segments must not be changed while they're being read. Call clear() to reuse the
+ * reader for a new document.
+ *
+ */
+public class CharSequenceReader extends Reader {
+
+    private List<Segment> _segments;
+    private int _numSegments;
+    private int _curSegment;
+    private int _curOffset;
+
+    public CharSequenceReader() {
+        _segments = new ArrayList<>();
+        clear();
+    }
+
+    /**
+     * Remove all segments, so that the reader can be used for a new document.
+     */
+    public void clear() {
+        // Don't hang on to the text from the previous document.
+        for (int i = 0; i < _numSegments; i++) {
+            _segments.get(i).set(null, 0, 0);
+        }
+
+        _numSegments = 0;
+        _curSegment = 0;
+        _curOffset = 0;
+    }
+
+    public CharSequenceReader add(CharSequence text) {
+        return add(text, 0, text.length());
+    }
+
+    /**
+     * Add text[start, end) to the end of the characters returned by the reader.
+     */
+    public CharSequenceReader add(CharSequence text, int start, int end) {
+        if (start == end) {
+            return this;
+        }
+
+        if (_numSegments == _segments.size()) {
+            _segments.add(new Segment());
+        }
+
+        _segments.get(_numSegments++).set(text, start, end);
+        return this;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+
+        int numRead = 0;
+        while ((numRead < len) && (_curSegment < _numSegments)) {
+            Segment segment = _segments.get(_curSegment);
+            int start = segment.getStart() + _curOffset;
+            int numChars = Math.min(len - numRead, segment.getEnd() - start);
+            getChars(segment.getText(), start, start + numChars, cbuf, off + numRead);
+            numRead += numChars;
+
+            _curOffset += numChars;
+            if (segment.getStart() + _curOffset == segment.getEnd()) {
+                _curSegment += 1;
+                _curOffset = 0;
+            }
+        }
+
+        return numRead == 0 ? -1 : numRead;
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private static void getChars(CharSequence text, int start, int end, char[] dest, int destOffset) {
+        if (text instanceof String) {
+            ((String)text).getChars(start, end, dest, destOffset);
+        } else if (text instanceof StringBuilder) {
+            ((StringBuilder)text).getChars(start, end, dest, destOffset);
+        } else {
+            for (int i = start; i < end; i++) {
+                dest[destOffset++] = text.charAt(i);
+            }
+        }
+    }
+
+    private static class Segment {
+        private CharSequence _text;
+        private int _start;
+        private int _end;
+
+        public void set(CharSequence text, int start, int end) {
+            _text = text;
+            _start = start;
+            _end = end;
+        }
+
+        public CharSequence getText() {
+            return _text;
+        }
+
+        public int getStart() {
+            return _start;
+        }
+
+        public int getEnd() {
+            return _end;
+        }
+    }
+}
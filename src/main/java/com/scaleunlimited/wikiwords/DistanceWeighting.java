@@ -0,0 +1,68 @@
+package com.scaleunlimited.wikiwords;
+
+/**
+ * Ways of converting the distance between a term and an article link into the weight
+ * of that term for the article, in the GenerateTermsFlow. All of them are symmetric,
+ * so a term before the link gets the same weight as a term the same distance after it,
+ * and never increase with distance.
+ *
+ */
+public enum DistanceWeighting {
+
+    LINEAR,         // 1 - (decay * distance), so terms are ignored past 1/decay
+    EXPONENTIAL,    // e^(-decay * distance)
+    FLAT;           // 1, so only the max distance matters
+    
+    public static DistanceWeighting fromName(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown distance weighting: " + name);
+        }
+    }
+    
+    /**
+     * @param distance Number of terms between the term and the link, which can be negative.
+     * @param decay How quickly the weight falls off with distance.
+     * @return weight of the term, between 0 and 1.
+     */
+    public float getWeight(int distance, float decay) {
+        distance = Math.abs(distance);
+        
+        switch (this) {
+            case LINEAR:
+                return Math.max(0.0f, 1.0f - (decay * distance));
+            
+            case EXPONENTIAL:
+                return (float)Math.exp(-decay * distance);
+                
+            case FLAT:
+                return 1.0f;
+                
+            default:
+                throw new IllegalStateException("Unknown distance weighting: " + this);
+        }
+    }
+    
+    /**
+     * Calculate the weights for all distances that we want to keep, so they don't have to be
+     * calculated for every term. Since the weight never increases with distance, we can stop
+     * at the first one that's below the cutoff.
+     * 
+     * @return array of weights, where the weight for a term <n> terms before or after the link
+     *         is at index <n>. Terms that are further away should be skipped.
+     */
+    public float[] getWeights(int maxDistance, float decay, float cutoff) {
+        int numWeights = 0;
+        while ((numWeights <= maxDistance) && (getWeight(numWeights, decay) >= cutoff)) {
+            numWeights += 1;
+        }
+        
+        float[] result = new float[numWeights];
+        for (int i = 0; i < numWeights; i++) {
+            result[i] = getWeight(i, decay);
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,158 @@
+package com.scaleunlimited.wikiwords;
+
+import info.bliki.wiki.model.WikiModel;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.ccil.cowan.tagsoup.Parser;
+import org.xml.sax.InputSource;
+
+/**
+ * Extract terms by converting the MediaWiki markup to HTML (using bliki), replacing the
+ * templates that we know how to handle, and then parsing the HTML with TagSoup.
+ *
+ */
+public class HTMLTermExtractor implements TermExtractor {
+    private static final Logger LOGGER = Logger.getLogger(HTMLTermExtractor.class);
+
+    // Search for {{ or }}, across lines.
+    private static Pattern TEMPLATE_PATTERN = Pattern.compile("(\\{\\{|\\}\\})", Pattern.DOTALL);
+
+    private static final String PAGE_HEADER_START = "<html lang=\"en\"><head><meta http-equiv=\"content-type\" content=\"text/html; charset=utf-8\"><title>";
+    private static final String PAGE_HEADER_END = "</title></head><body>";
+    private static final String PAGE_FOOTER = "</body></html>";
+
+    private WikiTemplates _templates;
+    private StringBuilder _html;
+    private CharSequenceReader _reader;
+    private Parser _htmlParser;
+    private HTMLTermsHandler _handler;
+    private Map<String, Integer> _templateCounts;
+
+    public HTMLTermExtractor() throws IOException {
+        this(new WikiTemplates());
+    }
+    
+    public HTMLTermExtractor(WikiTemplates templates) {
+        this(templates, TermAnalyzer.SIMPLE);
+    }
+    
+    public HTMLTermExtractor(WikiTemplates templates, TermAnalyzer analyzer) {
+        _templates = templates;
+        _html = new StringBuilder();
+        _reader = new CharSequenceReader();
+        _htmlParser = new Parser();
+
+        _handler = new HTMLTermsHandler(analyzer);
+        _htmlParser.setContentHandler(_handler);
+        _htmlParser.setErrorHandler(_handler);
+
+        _templateCounts = new HashMap<>();
+    }
+    
+    @Override
+    public void extract(String title, String markup) throws Exception {
+        // Render into our (reused) buffer, versus creating a new String for every page.
+        _html.setLength(0);
+        WikiModel.toHtml(markup, _html);
+
+        // The page is passed to TagSoup as a sequence of pieces of the HTML (and template
+        // snippets), so we never have a second copy of the HTML.
+        _reader.clear();
+        _reader.add(PAGE_HEADER_START);
+        _reader.add(title);
+        _reader.add(PAGE_HEADER_END);
+
+        Matcher m = TEMPLATE_PATTERN.matcher(_html);
+
+        int curOffset = 0;
+        int curDepth = 0;
+        int templateStart = 0;
+
+        while (m.find()) {
+            if (m.group(1).equals("{{")) {
+                curDepth++;
+                if (curDepth == 1) {
+                    templateStart = m.start();
+                }
+
+                continue;
+            } else if (curDepth == 0) {
+                // We got an ending }} but we're not nested - ignore it.
+                LOGGER.warn("Invalid template nesting at offset " + m.start());
+                continue;
+            } else {
+                curDepth--;
+
+                if (curDepth > 0) {
+                    continue;
+                }
+            }
+
+            // At this point we know we've found the end of the template.
+            // First output everything from curOffset to start of this chunk.
+            _reader.add(_html, curOffset, templateStart);
+
+            int templateEnd = m.start() + 2;
+            String templatePlusArgs = _html.substring(templateStart + 2, templateEnd - 2);
+
+            // Now run the template through our system
+            String htmlSnippet = _templates.convertToHTML(templatePlusArgs);
+
+            // Keep track of unknown templates
+            if (htmlSnippet == null) {
+                String template = _templates.getTemplateName(templatePlusArgs);
+                Integer curCount = _templateCounts.get(template);
+                if (curCount == null) {
+                    _templateCounts.put(template, 1);
+                } else {
+                    _templateCounts.put(template, curCount + 1);
+                }
+            } else {
+                _reader.add(htmlSnippet);
+            }
+
+            // Advance to the next position.
+            curOffset = templateEnd;
+        }
+
+        // Output the last bit
+        _reader.add(_html, curOffset, _html.length());
+        _reader.add(PAGE_FOOTER);
+
+        // Run TagSoup and our handler on the HTML result
+        try {
+            _htmlParser.parse(new InputSource(_reader));
+        } finally {
+            _reader.clear();
+            
+            // Don't hang on to the buffer for an unusually large page.
+            if (_html.capacity() > MAX_RETAINED_CHARS) {
+                _html = new StringBuilder();
+            }
+        }
+    }
+    
+    @Override
+    public List<String> getTerms() {
+        return _handler.getTerms();
+    }
+    
+    @Override
+    public List<ArticleLinkPosition> getArticleLinks() {
+        return _handler.getArticleLinks();
+    }
+    
+    /**
+     * @return count of each template that we didn't know how to handle.
+     */
+    public Map<String, Integer> getUnknownTemplateCounts() {
+        return _templateCounts;
+    }
+}
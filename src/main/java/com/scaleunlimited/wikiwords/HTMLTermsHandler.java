@@ -0,0 +1,166 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX handler for the HTML generated from a page's MediaWiki markup, which collects the
+ * page's terms and the positions of links to other articles.
+ *
+ */
+public class HTMLTermsHandler extends DefaultHandler {
+    private static final Logger LOGGER = Logger.getLogger(HTMLTermsHandler.class);
+    
+    @SuppressWarnings("serial")
+    private static Set<String> INLINE_HTML_ELEMNTS = new HashSet<String>() {{
+        add("b");
+        add("big");
+        add("i");
+        add("small");
+        add("tt");
+
+        add("abbr");
+        add("acronym");
+        add("cite");
+        add("code");
+        add("dfn");
+        add("em");
+        add("kbd");
+        add("strong");
+        add("samp");
+        add("time");
+        add("var");
+
+        add("a");
+        add("bdo");
+        add("img");
+        add("map");
+        add("object");
+        add("q");
+        add("script");
+        add("span");
+        add("sub");
+        add("sup");
+
+        add("button");
+        add("input");
+        add("label");
+        add("select");
+        add("textarea");
+    }};
+    
+    private XMLPath _path;
+    private XMLPath.Matcher _titleMatcher;
+    private XMLPath.Matcher _linkMatcher;
+    private StringBuilder _titleText;
+    private TermCollector _collector;
+    
+    public HTMLTermsHandler() {
+        this(TermAnalyzer.SIMPLE);
+    }
+    
+    public HTMLTermsHandler(TermAnalyzer analyzer) {
+        _collector = new TermCollector(analyzer);
+        _titleText = new StringBuilder();
+        
+        _path = new XMLPath();
+        _titleMatcher = _path.compile("head/title");
+        _linkMatcher = _path.compile("a");
+    }
+    
+    public static boolean isInlineElement(String name) {
+        return INLINE_HTML_ELEMNTS.contains(name);
+    }
+    
+    @Override
+    public void startDocument() throws SAXException {
+        super.startDocument();
+        
+        _path.clear();
+        _titleText.setLength(0);
+        _collector.reset();
+    }
+    
+    @Override
+    public void endDocument() throws SAXException {
+        // Flush out terms from preceeding text.
+        _collector.finish();
+
+        super.endDocument();
+    }
+    
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        super.startElement(uri, localName, qName, attributes);
+        _path.pushNode(qName);
+        
+        if (_titleMatcher.atNode()) {
+            _titleText.setLength(0);
+        } else if (_linkMatcher.atNode()) {
+            // Now if this is a Wikipedia link, we want to save the index of the title.
+            String article = null;
+            String url = attributes.getValue("href");
+            if (url != null) {
+                try {
+                    url = URLDecoder.decode(url, "UTF-8");
+                    
+                    // Screen out /File:xxx and /<lang>:xxx links, and links to other wikis
+                    // (e.g. //fr.wikipedia.org/wiki/xxx), which are protocol-relative.
+                    if (url.startsWith("/") && !url.startsWith("//") && (url.indexOf(':') == -1)) {
+                        int endIndex = url.indexOf('#') == -1 ? url.length() : url.indexOf('#');
+                        article = url.substring(1, endIndex);
+                    }
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException("Impossible encoding exception", e);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("Invalid URL hex sequence in " + url, e);
+                }
+            }
+            
+            _collector.startLink(article);
+        } else if (!isInlineElement(qName)) {
+            // depending on element, insert " " to break up text so we don't get words appended together
+            _collector.addBreak();
+        }
+    }
+    
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (_titleMatcher.atNode()) {
+            _collector.addTitle(_titleText.toString());
+        } else  if (_linkMatcher.atNode()) {
+            _collector.endLink();
+        }
+        
+        _path.popNode(qName);
+        super.endElement(uri, localName, qName);
+    }
+    
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        super.characters(ch, start, length);
+        
+        if (_titleMatcher.atNode()) {
+            _titleText.append(ch, start, length);
+        } else {
+            // TODO do we need to worry about text in a <script> tag?
+            _collector.addText(ch, start, length);
+        }
+    }
+    
+    public List<ArticleLinkPosition> getArticleLinks() {
+        return _collector.getArticleLinks();
+    }
+    
+    public List<String> getTerms() {
+        return _collector.getTerms();
+    }
+}
@@ -0,0 +1,34 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.IOException;
+
+/**
+ * Ways of extracting terms from the MediaWiki markup in the GenerateTermsFlow.
+ *
+ */
+public enum MarkupParser {
+
+    HTML,       // Convert to HTML with bliki, then parse the HTML, see HTMLTermExtractor
+    WIKITEXT;   // Tokenize the markup directly, see WikitextTermExtractor
+    
+    public static MarkupParser fromName(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown markup parser: " + name);
+        }
+    }
+    
+    public TermExtractor makeExtractor(WikiTemplates templates, TermAnalyzer analyzer) throws IOException {
+        switch (this) {
+            case HTML:
+                return new HTMLTermExtractor(templates, analyzer);
+            
+            case WIKITEXT:
+                return new WikitextTermExtractor(templates, analyzer);
+                
+            default:
+                throw new IllegalStateException("Unknown markup parser: " + this);
+        }
+    }
+}
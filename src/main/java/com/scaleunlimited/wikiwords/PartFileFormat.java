@@ -0,0 +1,20 @@
+package com.scaleunlimited.wikiwords;
+
+/**
+ * Formats for the part files generated by the WikiDumpTool, and read by
+ * the GenerateTermsFlow.
+ *
+ */
+public enum PartFileFormat {
+
+    TEXT,       // One <title><tab><Base64 encoded text> line per article
+    BINARY;     // Length-prefixed article records, see ArticleRecordWriter
+    
+    public static PartFileFormat fromName(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown part file format: " + name);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.io.output.FileWriterWithEncoding;
+
+/**
+ * List of the part files generated by the WikiDumpTool, with stats for each file
+ * that can be used when planning how to split up the work of processing them.
+ *
+ * The manifest is a text file with one line per part file:
+ *
+ * <file name><tab><pages><tab><bytes><tab><text length><tab><links><tab><estimated cost>
+ *
+ * where <bytes> is the size of the file on disk, <text length> is the total number of
+ * characters of page text, <links> is the total number of wiki links, and <estimated
+ * cost> is what the WikiDumpTool used to decide when to roll over to a new part file.
+ *
+ */
+public class PartManifest {
+
+    public static final String MANIFEST_FILENAME = "parts.txt";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Comparator<Part> NAME_COMPARATOR = new Comparator<Part>() {
+
+        @Override
+        public int compare(Part p1, Part p2) {
+            return p1.getName().compareTo(p2.getName());
+        }
+    };
+
+    private List<Part> _parts;
+
+    public PartManifest() {
+        _parts = new ArrayList<>();
+    }
+
+    public synchronized void add(Part part) {
+        _parts.add(part);
+    }
+
+    public synchronized List<Part> getParts() {
+        return new ArrayList<>(_parts);
+    }
+
+    public synchronized int size() {
+        return _parts.size();
+    }
+
+    /**
+     * Remove all but the first <numParts> parts.
+     *
+     * @param numParts Number of parts to keep
+     */
+    public synchronized void truncate(int numParts) {
+        if (numParts < _parts.size()) {
+            _parts.subList(numParts, _parts.size()).clear();
+        }
+    }
+
+    /**
+     * Add all of the parts from <other> to this manifest.
+     *
+     * @param other Manifest with parts to add
+     */
+    public synchronized void merge(PartManifest other) {
+        _parts.addAll(other.getParts());
+    }
+
+    /**
+     * Write the manifest, sorted by part file name.
+     *
+     * @param manifestFile Text file to create
+     * @throws IOException
+     */
+    public void write(File manifestFile) throws IOException {
+        List<Part> parts = getParts();
+        Collections.sort(parts, NAME_COMPARATOR);
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriterWithEncoding(manifestFile, UTF_8))) {
+            for (Part part : parts) {
+                bw.write(part.toString());
+                bw.write('\n');
+            }
+        }
+    }
+
+    /**
+     * @param manifestFile File created by write()
+     * @return manifest with all of the parts in <manifestFile>
+     * @throws IOException
+     */
+    public static PartManifest read(File manifestFile) throws IOException {
+        PartManifest result = new PartManifest();
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    result.add(Part.fromString(line));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public static class Part {
+        private String _name;
+        private int _numPages;
+        private long _numBytes;
+        private long _textLength;
+        private long _numLinks;
+        private long _cost;
+
+        public Part() {
+        }
+
+        public Part(String name, int numPages, long numBytes, long textLength, long numLinks, long cost) {
+            _name = name;
+            _numPages = numPages;
+            _numBytes = numBytes;
+            _textLength = textLength;
+            _numLinks = numLinks;
+            _cost = cost;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public void setName(String name) {
+            _name = name;
+        }
+
+        public int getNumPages() {
+            return _numPages;
+        }
+
+        public void setNumPages(int numPages) {
+            _numPages = numPages;
+        }
+
+        public long getNumBytes() {
+            return _numBytes;
+        }
+
+        public void setNumBytes(long numBytes) {
+            _numBytes = numBytes;
+        }
+
+        public long getTextLength() {
+            return _textLength;
+        }
+
+        public void setTextLength(long textLength) {
+            _textLength = textLength;
+        }
+
+        public long getNumLinks() {
+            return _numLinks;
+        }
+
+        public void setNumLinks(long numLinks) {
+            _numLinks = numLinks;
+        }
+
+        public long getCost() {
+            return _cost;
+        }
+
+        public void setCost(long cost) {
+            _cost = cost;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%d\t%d\t%d\t%d\t%d", _name, _numPages, _numBytes, _textLength, _numLinks, _cost);
+        }
+
+        public static Part fromString(String line) throws IOException {
+            String[] fields = line.split("\t");
+            if (fields.length != 6) {
+                throw new IOException("Invalid part manifest line: " + line);
+            }
+
+            try {
+                return new Part(fields[0], Integer.parseInt(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid part manifest line: " + line, e);
+            }
+        }
+    }
+}
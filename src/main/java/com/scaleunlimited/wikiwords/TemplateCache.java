@@ -0,0 +1,121 @@
+package com.scaleunlimited.wikiwords;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of template conversions, keyed by the template name plus arguments. The same
+ * templates with the same arguments show up over and over in a dump, so this saves us from
+ * converting them again.
+ *
+ * The cache size is the number of characters in the keys and values, plus a fixed overhead
+ * per entry, so that a few huge templates can't use up all of the memory. Once it's full,
+ * the least recently used entries are evicted.
+ *
+ * Templates that we don't know about are cached as well (with a null value).
+ *
+ */
+public class TemplateCache {
+
+    // Rough size of a map entry plus two Strings, in chars.
+    private static final int ENTRY_OVERHEAD = 64;
+
+    // Marks a cached template that doesn't have a conversion.
+    private static final String NO_VALUE = new String("no value");
+
+    private int _maxSize;
+    private int _size;
+    private LinkedHashMap<String, String> _entries;
+
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+
+    public TemplateCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be greater than zero");
+        }
+
+        _maxSize = maxSize;
+        _size = 0;
+        _entries = new LinkedHashMap<>(1024, 0.75f, true);
+    }
+
+    /**
+     * @return true if we have an entry for <key>. If so, the value can be retrieved
+     *         with get(). This counts as a hit or a miss.
+     */
+    public boolean contains(String key) {
+        // Values are never null, and get() (unlike containsKey()) makes this the most
+        // recently used entry.
+        if (_entries.get(key) != null) {
+            _hits++;
+            return true;
+        } else {
+            _misses++;
+            return false;
+        }
+    }
+
+    /**
+     * @return value for <key>, which can be null. Use contains() to see if there's an entry
+     *         for the key.
+     */
+    public String get(String key) {
+        String value = _entries.get(key);
+        return value == NO_VALUE ? null : value;
+    }
+
+    public void put(String key, String value) {
+        int entrySize = getEntrySize(key, value);
+        if (entrySize > _maxSize) {
+            return;
+        }
+
+        String oldValue = _entries.put(key, value == null ? NO_VALUE : value);
+        if (oldValue != null) {
+            _size -= getEntrySize(key, oldValue);
+        }
+
+        _size += entrySize;
+
+        Iterator<Map.Entry<String, String>> iter = _entries.entrySet().iterator();
+        while (_size > _maxSize) {
+            Map.Entry<String, String> eldest = iter.next();
+            _size -= getEntrySize(eldest.getKey(), eldest.getValue());
+            iter.remove();
+            _evictions++;
+        }
+    }
+
+    public void clear() {
+        _entries.clear();
+        _size = 0;
+    }
+
+    public int getSize() {
+        return _size;
+    }
+
+    public int getNumEntries() {
+        return _entries.size();
+    }
+
+    public long getHits() {
+        return _hits;
+    }
+
+    public long getMisses() {
+        return _misses;
+    }
+
+    public long getEvictions() {
+        return _evictions;
+    }
+
+    private static int getEntrySize(String key, String value) {
+        int valueSize = ((value == null) || (value == NO_VALUE)) ? 0 : value.length();
+        return key.length() + valueSize + ENTRY_OVERHEAD;
+    }
+}
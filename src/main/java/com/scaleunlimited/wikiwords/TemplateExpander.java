@@ -0,0 +1,705 @@
+package com.scaleunlimited.wikiwords;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expands templates into MediaWiki markup, using the template sources in a TemplateStore.
+ *
+ * Each template's source is parsed once into a tree of nodes (text, {{{parameters}}}, and
+ * {{calls}} of other templates or parser functions), which is cached. Expanding a template
+ * is then just a walk over its nodes, with arguments only being expanded if they're used.
+ *
+ * We support the basics that most templates need: parameters with defaults, named and
+ * positional arguments, nested templates, template redirects, and the #if, #ifeq, #switch,
+ * lc, uc, lcfirst and ucfirst parser functions, plus the {{!}} and {{=}} magic words. Other
+ * parser functions (e.g. #invoke for Lua modules) and magic words expand to nothing.
+ *
+ * Nesting is limited to <maxDepth> templates, so recursive templates terminate. All of the
+ * text generated while expanding one template, including the values of arguments, counts
+ * against a budget of MAX_EXPANSION_LENGTH chars, and once that's used up we stop, so a
+ * template that repeats its parameters at each level can't blow up.
+ *
+ */
+public class TemplateExpander {
+
+    public static final int DEFAULT_MAX_DEPTH = 10;
+
+    // Max number of compiled templates that we keep around.
+    private static final int MAX_COMPILED_TEMPLATES = 10000;
+
+    static final int MAX_EXPANSION_LENGTH = 64 * 1024;
+
+    private static final int MAX_REDIRECTS = 4;
+
+    private static final Pattern REDIRECT_PATTERN = Pattern.compile("^\\s*#redirect\\s*:?\\s*\\[\\[([^\\]\\|#]+)", Pattern.CASE_INSENSITIVE);
+
+    private static final Node[] NO_NODES = new Node[0];
+
+    // Marks a template that isn't in the store.
+    private static final Node[] MISSING_TEMPLATE = new Node[0];
+
+    private static final Frame ROOT_FRAME = new Frame(null, new HashMap<String, Node[]>(), 0);
+
+    private TemplateStore _store;
+    private int _maxDepth;
+    private Map<String, Node[]> _compiled;
+
+    // Chars that we can still generate for the current expansion.
+    private int _remaining;
+
+    public TemplateExpander(TemplateStore store) {
+        this(store, DEFAULT_MAX_DEPTH);
+    }
+
+    @SuppressWarnings("serial")
+    public TemplateExpander(TemplateStore store, int maxDepth) {
+        _store = store;
+        _maxDepth = maxDepth;
+        _compiled = new LinkedHashMap<String, Node[]>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Node[]> eldest) {
+                return size() > MAX_COMPILED_TEMPLATES;
+            }
+        };
+    }
+
+    /**
+     * Expand a template (or parser function) used in an article.
+     *
+     * @param templatePlusArgs Template name and arguments, without the surrounding braces
+     * @return expanded markup, or null if it's a template that we don't have.
+     */
+    public String expand(String templatePlusArgs) {
+        Node[] nodes = new Parser("{{" + templatePlusArgs + "}}").parse();
+        if ((nodes.length != 1) || !(nodes[0] instanceof CallNode)) {
+            return null;
+        }
+
+        _remaining = MAX_EXPANSION_LENGTH;
+        StringBuilder result = new StringBuilder();
+        if (!((CallNode)nodes[0]).expandCall(this, ROOT_FRAME, 0, result)) {
+            return null;
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * @return compiled nodes for the template with <name>, or null if we don't have it.
+     */
+    private Node[] getTemplate(String name) {
+        Node[] result = _compiled.get(name);
+        if (result == null) {
+            result = compile(name);
+            _compiled.put(name, result);
+        }
+
+        return result == MISSING_TEMPLATE ? null : result;
+    }
+
+    /**
+     * Append as much of <text> to <result> as fits in what's left of the budget.
+     */
+    private void append(StringBuilder result, CharSequence text) {
+        int length = Math.min(text.length(), _remaining);
+        if (length > 0) {
+            result.append(text, 0, length);
+            _remaining -= length;
+        }
+    }
+
+    private boolean isOverBudget() {
+        return _remaining <= 0;
+    }
+
+    private Node[] compile(String name) {
+        String source = _store.getSource(name);
+        for (int i = 0; (source != null) && (i < MAX_REDIRECTS); i++) {
+            Matcher m = REDIRECT_PATTERN.matcher(source);
+            if (!m.find()) {
+                break;
+            }
+
+            source = _store.getSource(TemplateStore.normalizeName(m.group(1)));
+        }
+
+        if (source == null) {
+            return MISSING_TEMPLATE;
+        }
+
+        return new Parser(source).parse();
+    }
+
+    private static String expandToString(TemplateExpander expander, Node[] nodes, Frame frame, int depth) {
+        // Most names and arguments are plain text, which we don't need to copy.
+        if ((nodes.length == 1) && (nodes[0] instanceof TextNode)) {
+            return ((TextNode)nodes[0]).getText();
+        }
+
+        StringBuilder result = new StringBuilder();
+        expandNodes(expander, nodes, frame, depth, result);
+        return result.toString();
+    }
+
+    private static void expandNodes(TemplateExpander expander, Node[] nodes, Frame frame, int depth, StringBuilder result) {
+        for (Node node : nodes) {
+            if (expander.isOverBudget()) {
+                break;
+            }
+
+            node.expand(expander, frame, depth, result);
+        }
+    }
+
+    /**
+     * Part of a parsed template.
+     *
+     */
+    private static interface Node {
+
+        /**
+         * Append the expansion of this node to <result>.
+         *
+         * @param expander Expander, for finding templates
+         * @param frame Arguments of the template being expanded
+         * @param depth Number of templates being expanded
+         * @param result Expanded markup
+         */
+        public void expand(TemplateExpander expander, Frame frame, int depth, StringBuilder result);
+    }
+
+    private static class TextNode implements Node {
+        private String _text;
+
+        public TextNode(String text) {
+            _text = text;
+        }
+
+        public String getText() {
+            return _text;
+        }
+
+        @Override
+        public void expand(TemplateExpander expander, Frame frame, int depth, StringBuilder result) {
+            expander.append(result, _text);
+        }
+    }
+
+    /**
+     * A {{{name|default}}} parameter.
+     *
+     */
+    private static class ParamNode implements Node {
+        private Node[] _name;
+        private Node[] _default;
+
+        public ParamNode(Node[] name, Node[] defaultValue) {
+            _name = name;
+            _default = defaultValue;
+        }
+
+        @Override
+        public void expand(TemplateExpander expander, Frame frame, int depth, StringBuilder result) {
+            String value = frame.getArg(expander, expandToString(expander, _name, frame, depth).trim());
+            if (value != null) {
+                expander.append(result, value);
+            } else if (_default != null) {
+                expandNodes(expander, _default, frame, depth, result);
+            }
+        }
+    }
+
+    /**
+     * A {{name|arg|...}} call of a template or parser function. Arguments are kept as
+     * parsed, and also split into names (null for positional arguments) and values.
+     *
+     */
+    private static class CallNode implements Node {
+        private Node[] _name;
+        private Node[][] _args;
+        private Node[][] _argNames;
+        private Node[][] _argValues;
+
+        public CallNode(Node[] name, List<Node[]> args) {
+            _name = name;
+            _args = args.toArray(new Node[args.size()][]);
+            _argNames = new Node[_args.length][];
+            _argValues = new Node[_args.length][];
+            for (int i = 0; i < _args.length; i++) {
+                splitArg(i);
+            }
+        }
+
+        /**
+         * Split argument <index> at the first '=' in its top-level text, if any.
+         */
+        private void splitArg(int index) {
+            Node[] arg = _args[index];
+            _argValues[index] = arg;
+            for (int i = 0; i < arg.length; i++) {
+                if (!(arg[i] instanceof TextNode)) {
+                    continue;
+                }
+
+                String text = ((TextNode)arg[i]).getText();
+                int equalsIndex = text.indexOf('=');
+                if (equalsIndex == -1) {
+                    continue;
+                }
+
+                List<Node> name = new ArrayList<>();
+                for (int j = 0; j < i; j++) {
+                    name.add(arg[j]);
+                }
+
+                name.add(new TextNode(text.substring(0, equalsIndex)));
+
+                List<Node> value = new ArrayList<>();
+                value.add(new TextNode(text.substring(equalsIndex + 1)));
+                for (int j = i + 1; j < arg.length; j++) {
+                    value.add(arg[j]);
+                }
+
+                _argNames[index] = name.toArray(new Node[name.size()]);
+                _argValues[index] = value.toArray(new Node[value.size()]);
+                return;
+            }
+        }
+
+        @Override
+        public void expand(TemplateExpander expander, Frame frame, int depth, StringBuilder result) {
+            // Templates that we don't have expand to nothing.
+            expandCall(expander, frame, depth, result);
+        }
+
+        /**
+         * @return true if this is a template that we have, or a parser function.
+         */
+        public boolean expandCall(TemplateExpander expander, Frame frame, int depth, StringBuilder result) {
+            String name = expandToString(expander, _name, frame, depth);
+            int colonIndex = name.indexOf(':');
+            if (colonIndex != -1) {
+                String function = name.substring(0, colonIndex).trim().toLowerCase();
+                if (function.startsWith("#") || isCaseFunction(function)) {
+                    expandFunction(expander, frame, depth, function, name.substring(colonIndex + 1).trim(), result);
+                    return true;
+                }
+            }
+
+            String trimmedName = name.trim();
+            if (trimmedName.equals("!")) {
+                expander.append(result, "|");
+                return true;
+            } else if (trimmedName.equals("=")) {
+                expander.append(result, "=");
+                return true;
+            }
+
+            Node[] template = expander.getTemplate(TemplateStore.normalizeName(trimmedName));
+            if (template == null) {
+                return false;
+            }
+
+            // Too deep (probably recursive), or too much output, so we stop here.
+            if ((depth >= expander._maxDepth) || expander.isOverBudget()) {
+                return true;
+            }
+
+            expandNodes(expander, template, makeFrame(expander, frame, depth), depth + 1, result);
+            return true;
+        }
+
+        private Frame makeFrame(TemplateExpander expander, Frame frame, int depth) {
+            Map<String, Node[]> args = new HashMap<>();
+            int position = 0;
+            for (int i = 0; i < _args.length; i++) {
+                if (_argNames[i] == null) {
+                    position += 1;
+                    args.put(Integer.toString(position), _argValues[i]);
+                } else {
+                    args.put(expandToString(expander, _argNames[i], frame, depth).trim(), _argValues[i]);
+                }
+            }
+
+            return new Frame(frame, args, depth);
+        }
+
+        private void expandFunction(TemplateExpander expander, Frame frame, int depth, String function, String firstArg, StringBuilder result) {
+            switch (function) {
+                case "#if":
+                    expandArg(expander, firstArg.isEmpty() ? 1 : 0, frame, depth, result);
+                    break;
+
+                case "#ifeq":
+                    String other = (_args.length > 0) ? expandToString(expander, _args[0], frame, depth).trim() : "";
+                    expandArg(expander, firstArg.equals(other) ? 1 : 2, frame, depth, result);
+                    break;
+
+                case "#switch":
+                    expandSwitch(expander, frame, depth, firstArg, result);
+                    break;
+
+                case "lc":
+                    expander.append(result, firstArg.toLowerCase());
+                    break;
+
+                case "uc":
+                    expander.append(result, firstArg.toUpperCase());
+                    break;
+
+                case "lcfirst":
+                    if (!firstArg.isEmpty()) {
+                        expander.append(result, Character.toLowerCase(firstArg.charAt(0)) + firstArg.substring(1));
+                    }
+                    break;
+
+                case "ucfirst":
+                    if (!firstArg.isEmpty()) {
+                        expander.append(result, Character.toUpperCase(firstArg.charAt(0)) + firstArg.substring(1));
+                    }
+                    break;
+
+                default:
+                    // Not supported, so it expands to nothing.
+                    break;
+            }
+        }
+
+        /**
+         * Append the trimmed expansion of (unsplit) argument <index>, if it exists.
+         */
+        private void expandArg(TemplateExpander expander, int index, Frame frame, int depth, StringBuilder result) {
+            if (index < _args.length) {
+                expander.append(result, expandToString(expander, _args[index], frame, depth).trim());
+            }
+        }
+
+        /**
+         * {{#switch: value | case1 = result1 | case2 | case3 = result23 | #default = result}}
+         * A case without a value falls through to the next case with a value, and a final
+         * argument without a case name is the default.
+         */
+        private void expandSwitch(TemplateExpander expander, Frame frame, int depth, String value, StringBuilder result) {
+            boolean matched = false;
+            int defaultIndex = -1;
+            for (int i = 0; i < _args.length; i++) {
+                if (_argNames[i] == null) {
+                    String caseName = expandToString(expander, _args[i], frame, depth).trim();
+                    if (i == _args.length - 1) {
+                        expander.append(result, caseName);
+                        return;
+                    } else if (caseName.equals(value)) {
+                        matched = true;
+                    }
+                } else {
+                    String caseName = expandToString(expander, _argNames[i], frame, depth).trim();
+                    if (matched || caseName.equals(value)) {
+                        expander.append(result, expandToString(expander, _argValues[i], frame, depth).trim());
+                        return;
+                    } else if (caseName.equals("#default")) {
+                        defaultIndex = i;
+                    }
+                }
+            }
+
+            if (defaultIndex != -1) {
+                expander.append(result, expandToString(expander, _argValues[defaultIndex], frame, depth).trim());
+            }
+        }
+
+        private static boolean isCaseFunction(String function) {
+            return function.equals("lc") || function.equals("uc") || function.equals("lcfirst") || function.equals("ucfirst");
+        }
+    }
+
+    /**
+     * The arguments for one template call. Arguments are expanded (in the caller's frame)
+     * the first time they're used.
+     *
+     */
+    private static class Frame {
+        private Frame _parent;
+        private Map<String, Node[]> _args;
+        private int _depth;
+        private Map<String, String> _values;
+
+        public Frame(Frame parent, Map<String, Node[]> args, int depth) {
+            _parent = parent;
+            _args = args;
+            _depth = depth;
+        }
+
+        /**
+         * @return the expanded value of the argument with <name>, or null if there's no
+         *         such argument. Named arguments are trimmed.
+         */
+        public String getArg(TemplateExpander expander, String name) {
+            Node[] arg = _args.get(name);
+            if (arg == null) {
+                return null;
+            }
+
+            if (_values == null) {
+                _values = new HashMap<>();
+            }
+
+            String result = _values.get(name);
+            if (result == null) {
+                result = expandToString(expander, arg, _parent, _depth);
+                if (!isPositional(name)) {
+                    result = result.trim();
+                }
+
+                _values.put(name, result);
+            }
+
+            return result;
+        }
+
+        private static boolean isPositional(String name) {
+            for (int i = 0; i < name.length(); i++) {
+                if (!Character.isDigit(name.charAt(i))) {
+                    return false;
+                }
+            }
+
+            return !name.isEmpty();
+        }
+    }
+
+    /**
+     * Parses markup into nodes, in one pass. As in MediaWiki, each run of opening braces is
+     * pushed on a stack, and a run of closing braces is matched against the top of the
+     * stack: three (or more) on both sides make a parameter, and otherwise it's a call. Any
+     * braces left over stay open, so "{{{{{1}}}}}" is a call of the template named by
+     * parameter 1. Braces that are never closed are left as text.
+     *
+     */
+    private static class Parser {
+        private String _text;
+
+        public Parser(String text) {
+            _text = text;
+        }
+
+        public Node[] parse() {
+            Part root = new Part();
+            List<Braces> stack = new ArrayList<>();
+            int pos = 0;
+            while (pos < _text.length()) {
+                Braces top = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+                Part part = (top == null) ? root : top.getPart();
+                char c = _text.charAt(pos);
+                if (c == '{') {
+                    int count = countRun(pos, '{');
+                    if (count >= 2) {
+                        stack.add(new Braces(count));
+                    } else {
+                        part.addText("{");
+                    }
+
+                    pos += count;
+                } else if ((top != null) && _text.startsWith("}}", pos)) {
+                    int count = (Math.min(countRun(pos, '}'), top.getCount()) >= 3) ? 3 : 2;
+                    Node node = top.close(count);
+                    stack.remove(stack.size() - 1);
+
+                    // Extra opening braces stay open, with this node at the start.
+                    int remaining = top.getCount() - count;
+                    if (remaining >= 2) {
+                        Braces reopened = new Braces(remaining);
+                        reopened.getPart().addNode(node);
+                        stack.add(reopened);
+                    } else {
+                        Part parent = stack.isEmpty() ? root : stack.get(stack.size() - 1).getPart();
+                        if (remaining == 1) {
+                            parent.addText("{");
+                        }
+
+                        parent.addNode(node);
+                    }
+
+                    pos += count;
+                } else if ((top != null) && (c == '|') && (top.getLinkDepth() == 0)) {
+                    top.addPart();
+                    pos += 1;
+                } else if (_text.startsWith("[[", pos)) {
+                    if (top != null) {
+                        top.openLink();
+                    }
+
+                    part.addText("[[");
+                    pos += 2;
+                } else if ((top != null) && (top.getLinkDepth() > 0) && _text.startsWith("]]", pos)) {
+                    top.closeLink();
+                    part.addText("]]");
+                    pos += 2;
+                } else if (_text.startsWith("<!--", pos)) {
+                    int end = _text.indexOf("-->", pos + 4);
+                    pos = (end == -1) ? _text.length() : end + 3;
+                } else if (_text.startsWith("<nowiki>", pos)) {
+                    int end = _text.indexOf("</nowiki>", pos);
+                    end = (end == -1) ? _text.length() : end + "</nowiki>".length();
+                    part.addText(_text.substring(pos, end));
+                    pos = end;
+                } else {
+                    part.addText(c);
+                    pos += 1;
+                }
+            }
+
+            // Braces that weren't closed are text, though anything inside them that was
+            // closed is still a node.
+            for (Braces braces : stack) {
+                braces.addTo(root);
+            }
+
+            return root.toNodes();
+        }
+
+        private int countRun(int pos, char c) {
+            int end = pos;
+            while ((end < _text.length()) && (_text.charAt(end) == c)) {
+                end += 1;
+            }
+
+            return end - pos;
+        }
+    }
+
+    /**
+     * A sequence of nodes, with adjacent text combined into one node.
+     *
+     */
+    private static class Part {
+        private List<Node> _nodes;
+        private StringBuilder _text;
+
+        public Part() {
+            _nodes = new ArrayList<>();
+            _text = new StringBuilder();
+        }
+
+        public void addText(CharSequence text) {
+            _text.append(text);
+        }
+
+        public void addText(char c) {
+            _text.append(c);
+        }
+
+        public void addNode(Node node) {
+            flushText();
+            _nodes.add(node);
+        }
+
+        public void addAll(Part part) {
+            for (Node node : part._nodes) {
+                if (node instanceof TextNode) {
+                    addText(((TextNode)node).getText());
+                } else {
+                    addNode(node);
+                }
+            }
+
+            addText(part._text);
+        }
+
+        public Node[] toNodes() {
+            flushText();
+            return _nodes.isEmpty() ? NO_NODES : _nodes.toArray(new Node[_nodes.size()]);
+        }
+
+        private void flushText() {
+            if (_text.length() > 0) {
+                _nodes.add(new TextNode(_text.toString()));
+                _text.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * A run of opening braces that hasn't been closed yet, with the '|'-separated parts
+     * that follow it. A '|' inside of a link doesn't start a new part.
+     *
+     */
+    private static class Braces {
+        private int _count;
+        private List<Part> _parts;
+        private int _linkDepth;
+
+        public Braces(int count) {
+            _count = count;
+            _parts = new ArrayList<>();
+            _parts.add(new Part());
+        }
+
+        public int getCount() {
+            return _count;
+        }
+
+        /**
+         * @return the current (last) part.
+         */
+        public Part getPart() {
+            return _parts.get(_parts.size() - 1);
+        }
+
+        public void addPart() {
+            _parts.add(new Part());
+        }
+
+        public int getLinkDepth() {
+            return _linkDepth;
+        }
+
+        public void openLink() {
+            _linkDepth += 1;
+        }
+
+        public void closeLink() {
+            _linkDepth -= 1;
+        }
+
+        /**
+         * @return parameter (if <count> is 3) or call node for these braces.
+         */
+        public Node close(int count) {
+            if (count == 3) {
+                // Anything after a second '|' is ignored.
+                Node[] defaultValue = (_parts.size() > 1) ? _parts.get(1).toNodes() : null;
+                return new ParamNode(_parts.get(0).toNodes(), defaultValue);
+            }
+
+            List<Node[]> args = new ArrayList<>();
+            for (int i = 1; i < _parts.size(); i++) {
+                args.add(_parts.get(i).toNodes());
+            }
+
+            return new CallNode(_parts.get(0).toNodes(), args);
+        }
+
+        /**
+         * Add these (unclosed) braces and their parts to <part> as text.
+         */
+        public void addTo(Part part) {
+            for (int i = 0; i < _count; i++) {
+                part.addText('{');
+            }
+
+            for (int i = 0; i < _parts.size(); i++) {
+                if (i > 0) {
+                    part.addText('|');
+                }
+
+                part.addAll(_parts.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * The source of Template: pages, keyed by normalized template name. The WikiDumpTool saves
+ * template sources (see cleanSource()) to a templates.txt metadata file, with one
+ * "<name><tab><Base64-encoded source>" line per template, which can be read back in here
+ * and used by a TemplateExpander.
+ *
+ * Sources are kept as UTF-8 bytes, which is about half the size of Strings for the mostly
+ * ASCII markup in templates, as only a small fraction of them are ever used at the same time.
+ *
+ */
+public class TemplateStore {
+
+    public static final String TEMPLATES_FILENAME = "templates.txt";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String TEMPLATE_PREFIX = "template:";
+
+    private static final Pattern ONLYINCLUDE_PATTERN = Pattern.compile("<onlyinclude>(.*?)(</onlyinclude>|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern NOINCLUDE_PATTERN = Pattern.compile("<noinclude>.*?(</noinclude>|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern INCLUDEONLY_TAG_PATTERN = Pattern.compile("</?includeonly\\s*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMMENT_PATTERN = Pattern.compile("<!--.*?(-->|$)", Pattern.DOTALL);
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("[\\s_]+");
+
+    private Map<String, byte[]> _sources;
+
+    public TemplateStore() {
+        _sources = new HashMap<>();
+    }
+
+    /**
+     * Read templates from <is>, in the format written by the WikiDumpTool. The stream
+     * isn't closed.
+     *
+     * @param is Stream with lines of template names and Base64-encoded sources
+     * @return store with all of the templates.
+     * @throws IOException
+     */
+    public static TemplateStore read(InputStream is) throws IOException {
+        TemplateStore result = new TemplateStore();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int tabIndex = line.indexOf('\t');
+            if (tabIndex == -1) {
+                throw new IOException("Invalid line in template store: " + line);
+            }
+
+            result._sources.put(line.substring(0, tabIndex), Base64.decodeBase64(line.substring(tabIndex + 1)));
+        }
+
+        return result;
+    }
+
+    /**
+     * @return source encoded for a line in the templates.txt file.
+     */
+    public static String encodeSource(String source) {
+        // Not chunked, so it's all on one line.
+        return new String(Base64.encodeBase64(source.getBytes(UTF_8)), UTF_8);
+    }
+
+    /**
+     * Normalize a template name, from a page title (without the namespace) or from where the
+     * template is used, so that they can be matched up. Case is ignored, and underscores and
+     * runs of whitespace are the same as a single space. An explicit "Template:" prefix is
+     * removed.
+     *
+     * @param name Template name
+     * @return normalized name
+     */
+    public static String normalizeName(String name) {
+        String result = WHITESPACE_PATTERN.matcher(name).replaceAll(" ").trim().toLowerCase();
+        if (result.startsWith(TEMPLATE_PREFIX)) {
+            result = result.substring(TEMPLATE_PREFIX.length()).trim();
+        }
+
+        return result;
+    }
+
+    /**
+     * Return the part of a template's source that's used when it's transcluded. If there
+     * are <onlyinclude> sections then only they are kept, <noinclude> sections (typically
+     * documentation) and comments are removed, and <includeonly> tags are removed but
+     * their contents are kept.
+     *
+     * @param source Source of a Template: page
+     * @return cleaned source
+     */
+    public static String cleanSource(String source) {
+        String result = source;
+        if (result.toLowerCase().contains("<onlyinclude>")) {
+            StringBuilder included = new StringBuilder();
+            Matcher m = ONLYINCLUDE_PATTERN.matcher(result);
+            while (m.find()) {
+                included.append(m.group(1));
+            }
+
+            result = included.toString();
+        }
+
+        result = NOINCLUDE_PATTERN.matcher(result).replaceAll("");
+        result = INCLUDEONLY_TAG_PATTERN.matcher(result).replaceAll("");
+        return COMMENT_PATTERN.matcher(result).replaceAll("");
+    }
+
+    /**
+     * Add a template, replacing any previous template with the same name.
+     *
+     * @param name Template name, which will be normalized.
+     * @param source Cleaned source of the template
+     */
+    public void add(String name, String source) {
+        _sources.put(normalizeName(name), source.getBytes(UTF_8));
+    }
+
+    /**
+     * @param name Normalized template name
+     * @return source of the template, or null if we don't have it.
+     */
+    public String getSource(String name) {
+        byte[] source = _sources.get(name);
+        return source == null ? null : new String(source, UTF_8);
+    }
+
+    public int size() {
+        return _sources.size();
+    }
+}
@@ -0,0 +1,87 @@
+package com.scaleunlimited.wikiwords;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.de.GermanAnalyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.es.SpanishAnalyzer;
+import org.apache.lucene.analysis.fr.FrenchAnalyzer;
+import org.apache.lucene.analysis.it.ItalianAnalyzer;
+import org.apache.lucene.analysis.nl.DutchAnalyzer;
+import org.apache.lucene.analysis.pt.PortugueseAnalyzer;
+import org.apache.lucene.analysis.ru.RussianAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.util.CharArraySet;
+
+/**
+ * Ways of splitting the text of a page into terms, in the TermCollector. Other than SIMPLE,
+ * these use a Lucene Analyzer. Link anchor text is always a single term, no matter which
+ * analyzer is used.
+ *
+ */
+public enum TermAnalyzer {
+
+    SIMPLE,         // Split on word boundaries with a BreakIterator, and lower-case
+    STANDARD,       // Lucene StandardAnalyzer, without stopwords
+    STOPWORDS,      // Lucene StandardAnalyzer, with English stopwords removed
+    
+    // Language-specific Lucene analyzers, with stopwords removed and stemming.
+    ENGLISH,
+    GERMAN,
+    FRENCH,
+    SPANISH,
+    ITALIAN,
+    PORTUGUESE,
+    DUTCH,
+    RUSSIAN;
+    
+    public static TermAnalyzer fromName(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown term analyzer: " + name);
+        }
+    }
+    
+    /**
+     * @return new Lucene analyzer, or null if we don't use one.
+     */
+    public Analyzer makeAnalyzer() {
+        switch (this) {
+            case SIMPLE:
+                return null;
+                
+            case STANDARD:
+                return new StandardAnalyzer(CharArraySet.EMPTY_SET);
+                
+            case STOPWORDS:
+                return new StandardAnalyzer();
+                
+            case ENGLISH:
+                return new EnglishAnalyzer();
+                
+            case GERMAN:
+                return new GermanAnalyzer();
+                
+            case FRENCH:
+                return new FrenchAnalyzer();
+                
+            case SPANISH:
+                return new SpanishAnalyzer();
+                
+            case ITALIAN:
+                return new ItalianAnalyzer();
+                
+            case PORTUGUESE:
+                return new PortugueseAnalyzer();
+                
+            case DUTCH:
+                return new DutchAnalyzer();
+                
+            case RUSSIAN:
+                return new RussianAnalyzer();
+                
+            default:
+                throw new IllegalStateException("Unknown term analyzer: " + this);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.IOException;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/**
+ * Builds up the list of terms and article links for a page, from a sequence of text,
+ * breaks and links. Text is split into words, and the anchor text of each link is
+ * a single term. A word break is needed between text from separate (block) elements.
+ *
+ * This is shared by the term extractors, so that terms are normalized the same way
+ * for every type of extractor. How text is split into words depends on the TermAnalyzer.
+ * Lucene analyzers are created once, and reuse their TokenStream for every flush of text.
+ *
+ * Terms are found in place in the text buffer, and then looked up in a TermTable, so that
+ * each distinct term is one String (shared by all pages). Once the table is warmed up, most
+ * terms don't need any allocation.
+ *
+ */
+public class TermCollector {
+
+    // Characters that are removed from the start and end of each term.
+    private static final String STRIP_CHARS = "[](),?!;:.'\"";
+    
+    // Lucene analyzers can vary the analysis by field, but we only have one.
+    private static final String TEXT_FIELD_NAME = "text";
+    
+    // Limit on the number of distinct terms we keep in the term table.
+    private static final int MAX_INTERNED_TERMS = 256 * 1024;
+    
+    // Lower-casing of ASCII chars can be done one char at a time, unless we're in a locale
+    // (e.g. Turkish) where String.toLowerCase() does something different.
+    private static final boolean ASCII_LOWERCASE = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+    
+    private BreakIterator _wordIterator;
+    private CharSequenceIterator _textIterator;
+    private TermTable _termTable;
+    private char[] _termBuffer;
+    private Analyzer _analyzer;
+    private CharSequenceReader _reader;
+    private StringBuilder _text;
+    private StringBuilder _linkText;
+    private boolean _inLink;
+    private List<String> _terms;
+    private List<ArticleLinkPosition> _articleLinks;
+    
+    public TermCollector() {
+        this(TermAnalyzer.SIMPLE);
+    }
+    
+    public TermCollector(TermAnalyzer analyzer) {
+        _analyzer = analyzer.makeAnalyzer();
+        if (_analyzer == null) {
+            _wordIterator = BreakIterator.getWordInstance();
+            _textIterator = new CharSequenceIterator();
+        } else {
+            _reader = new CharSequenceReader();
+        }
+        
+        _termTable = new TermTable(MAX_INTERNED_TERMS);
+        _termBuffer = new char[256];
+        _text = new StringBuilder();
+        _linkText = new StringBuilder();
+        _terms = new ArrayList<>();
+        _articleLinks = new ArrayList<>();
+        reset();
+    }
+    
+    /**
+     * Get ready for a new page.
+     */
+    public void reset() {
+        if (_text.capacity() > TermExtractor.MAX_RETAINED_CHARS) {
+            _text = new StringBuilder();
+        }
+        
+        _text.setLength(0);
+        _linkText.setLength(0);
+        _inLink = false;
+        _terms.clear();
+        _articleLinks.clear();
+    }
+    
+    /**
+     * The title of a page is a single term.
+     */
+    public void addTitle(String title) {
+        _text.setLength(0);
+        addTerm(title);
+    }
+    
+    public void addText(char[] ch, int start, int length) {
+        if (_inLink) {
+            _linkText.append(ch, start, length);
+        } else {
+            _text.append(ch, start, length);
+        }
+    }
+    
+    public void addText(CharSequence text) {
+        if (_inLink) {
+            _linkText.append(text);
+        } else {
+            _text.append(text);
+        }
+    }
+    
+    public void addText(char c) {
+        if (_inLink) {
+            _linkText.append(c);
+        } else {
+            _text.append(c);
+        }
+    }
+    
+    /**
+     * Make sure words before and after this point aren't joined together.
+     */
+    public void addBreak() {
+        _text.append(' ');
+    }
+    
+    /**
+     * Start a link, where all text up to the call to endLink() is the anchor text.
+     * 
+     * @param article Name of the linked article, or null if it's not an article link.
+     */
+    public void startLink(String article) {
+        _linkText.setLength(0);
+        
+        // Flush out terms from preceeding text.
+        flushText();
+        
+        if (article != null) {
+            _articleLinks.add(new ArticleLinkPosition(article, _terms.size()));
+        }
+        
+        _inLink = true;
+    }
+    
+    public void endLink() {
+        addTerm(_linkText, 0, _linkText.length());
+        _inLink = false;
+    }
+    
+    public boolean inLink() {
+        return _inLink;
+    }
+    
+    /**
+     * Add terms from any remaining text, once the page is done.
+     */
+    public void finish() {
+        flushText();
+    }
+    
+    public List<String> getTerms() {
+        return _terms;
+    }
+    
+    public List<ArticleLinkPosition> getArticleLinks() {
+        return _articleLinks;
+    }
+    
+    private void flushText() {
+        if (_text.length() == 0) {
+            return;
+        }
+        
+        if (_analyzer == null) {
+            addWords();
+        } else {
+            addTokens();
+        }
+        
+        _text.setLength(0);
+    }
+
+    private void addWords() {
+        _textIterator.setText(_text);
+        _wordIterator.setText(_textIterator);
+        
+        int start = _wordIterator.first();
+        for (int end = _wordIterator.next(); end != BreakIterator.DONE; start = end, end = _wordIterator.next()) {
+             addTerm(_text, start, end);
+        }
+    }
+    
+    private void addTokens() {
+        // The analyzer reuses the same TokenStream for every call, and just resets it to
+        // read from our reader, which is reading directly from the text buffer.
+        _reader.clear();
+        _reader.add(_text);
+        
+        try (TokenStream tokens = _analyzer.tokenStream(TEXT_FIELD_NAME, _reader)) {
+            CharTermAttribute termAtt = tokens.addAttribute(CharTermAttribute.class);
+            tokens.reset();
+            while (tokens.incrementToken()) {
+                if ((termAtt.length() > 0) && Character.isLetter(termAtt.charAt(0))) {
+                    _terms.add(_termTable.intern(termAtt.buffer(), 0, termAtt.length()));
+                }
+            }
+            
+            tokens.end();
+        } catch (IOException e) {
+            throw new RuntimeException("Impossible IO exception reading from text buffer", e);
+        }
+    }
+    
+    private void addTerm(String term) {
+        addTerm(term, 0, term.length());
+    }
+    
+    /**
+     * Add text[start, end) as a term, if it starts with a letter once whitespace and
+     * punctuation have been stripped off of both ends. We find the term's boundaries
+     * before lower-casing it, so only terms we keep are processed.
+     */
+    private void addTerm(CharSequence text, int start, int end) {
+        while ((start < end) && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        
+        while ((end > start) && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        
+        while ((start < end) && (STRIP_CHARS.indexOf(text.charAt(start)) != -1)) {
+            start++;
+        }
+        
+        while ((end > start) && (STRIP_CHARS.indexOf(text.charAt(end - 1)) != -1)) {
+            end--;
+        }
+        
+        if ((start < end) && Character.isLetter(Character.toLowerCase(text.charAt(start)))) {
+            _terms.add(lowerCaseTerm(text, start, end));
+        }
+    }
+    
+    /**
+     * @return canonical lower-cased version of text[start, end).
+     */
+    private String lowerCaseTerm(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length > _termBuffer.length) {
+            _termBuffer = new char[Math.max(length, _termBuffer.length * 2)];
+        }
+        
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(start + i);
+            if ((c >= 0x80) || !ASCII_LOWERCASE) {
+                // Use the same (locale and context sensitive) lower-casing as String does.
+                String term = text.subSequence(start, end).toString().toLowerCase();
+                if (term.length() > _termBuffer.length) {
+                    _termBuffer = new char[term.length()];
+                }
+                
+                term.getChars(0, term.length(), _termBuffer, 0);
+                return _termTable.intern(_termBuffer, 0, term.length());
+            } else if ((c >= 'A') && (c <= 'Z')) {
+                c += 'a' - 'A';
+            }
+            
+            _termBuffer[i] = c;
+        }
+        
+        return _termTable.intern(_termBuffer, 0, length);
+    }
+}
@@ -0,0 +1,26 @@
+package com.scaleunlimited.wikiwords;
+
+import java.util.List;
+
+/**
+ * Extracts the terms and article links from the MediaWiki markup for a page.
+ *
+ */
+public interface TermExtractor {
+
+    // Buffers are reused between pages, unless a page makes them grow bigger than this.
+    public static final int MAX_RETAINED_CHARS = 1024 * 1024;
+
+    /**
+     * Process one page, replacing the results for the previous page.
+     *
+     * @param title Title of the page
+     * @param markup MediaWiki markup for the page's text
+     * @throws Exception
+     */
+    public void extract(String title, String markup) throws Exception;
+    
+    public List<String> getTerms();
+    
+    public List<ArticleLinkPosition> getArticleLinks();
+}
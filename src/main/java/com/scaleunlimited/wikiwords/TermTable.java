@@ -0,0 +1,114 @@
+package com.scaleunlimited.wikiwords;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed hash table of terms, which returns one canonical String for each distinct
+ * term. Lookups are done with a slice of a char array, so a String is only created the first
+ * time that we see a term.
+ * 
+ * The table is cleared once it has <maxTerms> terms, so that memory use is bounded when it's
+ * used for many pages.
+ *
+ */
+public class TermTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    private int _maxTerms;
+    private String[] _terms;
+    private int[] _hashes;
+    private int _numTerms;
+    
+    public TermTable(int maxTerms) {
+        _maxTerms = maxTerms;
+        _terms = new String[INITIAL_CAPACITY];
+        _hashes = new int[INITIAL_CAPACITY];
+        _numTerms = 0;
+    }
+    
+    /**
+     * @return the canonical String for the term in buffer[offset, offset + length).
+     */
+    public String intern(char[] buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        int mask = _terms.length - 1;
+        int slot = hash & mask;
+        
+        String term;
+        while ((term = _terms[slot]) != null) {
+            if ((_hashes[slot] == hash) && matches(term, buffer, offset, length)) {
+                return term;
+            }
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        if (_numTerms >= _maxTerms) {
+            clear();
+            slot = hash & (_terms.length - 1);
+        } else if ((_numTerms + 1) * 2 > _terms.length) {
+            grow();
+            return intern(buffer, offset, length);
+        }
+        
+        term = new String(buffer, offset, length);
+        _terms[slot] = term;
+        _hashes[slot] = hash;
+        _numTerms += 1;
+        return term;
+    }
+    
+    public int size() {
+        return _numTerms;
+    }
+    
+    public void clear() {
+        Arrays.fill(_terms, null);
+        _numTerms = 0;
+    }
+    
+    private void grow() {
+        String[] oldTerms = _terms;
+        int[] oldHashes = _hashes;
+        _terms = new String[oldTerms.length * 2];
+        _hashes = new int[oldTerms.length * 2];
+        
+        int mask = _terms.length - 1;
+        for (int i = 0; i < oldTerms.length; i++) {
+            if (oldTerms[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (_terms[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                
+                _terms[slot] = oldTerms[i];
+                _hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+    
+    private static int hash(char[] buffer, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (31 * hash) + buffer[i];
+        }
+        
+        // Spread the bits, as we only use the low bits to pick a slot.
+        return hash ^ (hash >>> 16);
+    }
+    
+    private static boolean matches(String term, char[] buffer, int offset, int length) {
+        if (term.length() != length) {
+            return false;
+        }
+        
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != buffer[offset + i]) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+}
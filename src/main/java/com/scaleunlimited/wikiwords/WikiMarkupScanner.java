@@ -0,0 +1,217 @@
+package com.scaleunlimited.wikiwords;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scanner that makes a single pass over MediaWiki markup, and collects:
+ *
+ *  - the names of all templates ({{name|...}} or {{name}})
+ *  - the names of all categories ([[Category:name|...]] or [[Category:name]])
+ *  - the target of the first #REDIRECT directive ("#REDIRECT [[target#anchor]]")
+ *  - the number of (non-category) wiki links ([[...]])
+ *
+ * This replaces running separate regular expressions over the same text. Template
+ * names are lower-cased, with runs of spaces/tabs collapsed to a single space, so
+ * that they can be looked up in a set. Category names and the redirect target are
+ * returned as-is (but without any trailing "|sort key" or "#anchor").
+ *
+ * A scanner can be reused for multiple pages, but isn't thread-safe.
+ *
+ */
+public class WikiMarkupScanner {
+
+    private static final String CATEGORY_PREFIX = "Category:";
+    private static final String REDIRECT_DIRECTIVE = "#REDIRECT";
+
+    private String _text;
+    private int _length;
+
+    private List<String> _templateNames;
+    private List<String> _categories;
+    private String _redirect;
+    private int _numLinks;
+
+    private StringBuilder _name;
+
+    public WikiMarkupScanner() {
+        _templateNames = new ArrayList<>();
+        _categories = new ArrayList<>();
+        _name = new StringBuilder();
+    }
+
+    public void scan(String text) {
+        _text = text;
+        _length = text.length();
+
+        _templateNames.clear();
+        _categories.clear();
+        _redirect = null;
+        _numLinks = 0;
+
+        int offset = 0;
+        while (offset < _length - 1) {
+            char c = text.charAt(offset);
+            if ((c == '{') && (text.charAt(offset + 1) == '{')) {
+                // Only skip the first '{', so that we handle "{{{{" and nested templates.
+                scanTemplateName(offset + 2);
+                offset += 1;
+            } else if ((c == '[') && (text.charAt(offset + 1) == '[')) {
+                offset = scanCategory(offset + 2);
+            } else if ((c == '#') && (_redirect == null)) {
+                offset = scanRedirect(offset);
+            } else {
+                offset += 1;
+            }
+        }
+
+        _text = null;
+    }
+
+    public List<String> getTemplateNames() {
+        return _templateNames;
+    }
+
+    public List<String> getCategories() {
+        return _categories;
+    }
+
+    /**
+     * @return target of first #REDIRECT directive, or null if there wasn't one.
+     */
+    public String getRedirect() {
+        return _redirect;
+    }
+
+    /**
+     * @return number of "[[" link openings, other than for categories (or a redirect).
+     */
+    public int getNumLinks() {
+        return _numLinks;
+    }
+
+    private void scanTemplateName(int offset) {
+        offset = skipSpaces(offset);
+
+        _name.setLength(0);
+        boolean inSpaces = false;
+        while (offset < _length) {
+            char c = _text.charAt(offset);
+            if ((c == '|') || ((c == '}') && (offset < _length - 1) && (_text.charAt(offset + 1) == '}'))) {
+                if (_name.length() > 0) {
+                    _templateNames.add(_name.toString());
+                }
+
+                return;
+            } else if ((c == ' ') || (c == '\t')) {
+                inSpaces = true;
+            } else if ((c == '{') || (c == '}') || (c == '\n') || (c == '\r')) {
+                // Not a template name we can use.
+                return;
+            } else {
+                if (inSpaces) {
+                    _name.append(' ');
+                    inSpaces = false;
+                }
+
+                _name.append(Character.toLowerCase(c));
+            }
+
+            offset += 1;
+        }
+    }
+
+    /**
+     * See if we've got [[Category:xxx]], otherwise count it as a link.
+     *
+     * @param offset Position just past the opening "[["
+     * @return offset of where to continue scanning.
+     */
+    private int scanCategory(int offset) {
+        if (!_text.regionMatches(true, offset, CATEGORY_PREFIX, 0, CATEGORY_PREFIX.length())) {
+            _numLinks += 1;
+            return offset;
+        }
+
+        int nameStart = offset + CATEGORY_PREFIX.length();
+        int nameEnd = findLinkEnd(nameStart);
+        if (nameEnd <= nameStart) {
+            return nameStart;
+        }
+
+        int barIndex = _text.indexOf('|', nameStart);
+        if ((barIndex != -1) && (barIndex < nameEnd)) {
+            _categories.add(_text.substring(nameStart, barIndex));
+        } else {
+            _categories.add(_text.substring(nameStart, nameEnd));
+        }
+
+        return nameEnd + 2;
+    }
+
+    /**
+     * See if we've got #REDIRECT [[xxx]], where the directive can be followed by spaces, tabs,
+     * and colons, and then spaces and newlines, before the link.
+     *
+     * @param offset Position of the '#'
+     * @return offset of where to continue scanning.
+     */
+    private int scanRedirect(int offset) {
+        if (!_text.regionMatches(true, offset, REDIRECT_DIRECTIVE, 0, REDIRECT_DIRECTIVE.length())) {
+            return offset + 1;
+        }
+
+        int linkStart = skipSpaces(offset + REDIRECT_DIRECTIVE.length());
+        while ((linkStart < _length) && (_text.charAt(linkStart) == ':')) {
+            linkStart += 1;
+        }
+
+        while ((linkStart < _length) && ((_text.charAt(linkStart) == ' ') || (_text.charAt(linkStart) == '\n'))) {
+            linkStart += 1;
+        }
+
+        if (!_text.startsWith("[[", linkStart)) {
+            return linkStart;
+        }
+
+        int targetStart = linkStart + 2;
+        int targetEnd = findLinkEnd(targetStart);
+        if (targetEnd <= targetStart) {
+            return targetStart;
+        }
+
+        // Strip off any "#anchor", but a leading '#' is part of the target.
+        int anchorIndex = _text.indexOf('#', targetStart + 1);
+        if ((anchorIndex != -1) && (anchorIndex < targetEnd - 1)) {
+            targetEnd = anchorIndex;
+        }
+
+        _redirect = _text.substring(targetStart, targetEnd);
+        return targetEnd;
+    }
+
+    /**
+     * @param offset Start of link text
+     * @return offset of the closing "]]", or -1 if there isn't one before the end of the line.
+     */
+    private int findLinkEnd(int offset) {
+        for (int i = offset; i < _length - 1; i++) {
+            char c = _text.charAt(i);
+            if ((c == ']') && (_text.charAt(i + 1) == ']')) {
+                return i;
+            } else if ((c == '\n') || (c == '\r')) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private int skipSpaces(int offset) {
+        while ((offset < _length) && ((_text.charAt(offset) == ' ') || (_text.charAt(offset) == '\t'))) {
+            offset += 1;
+        }
+
+        return offset;
+    }
+}
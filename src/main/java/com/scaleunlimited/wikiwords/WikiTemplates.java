@@ -2,7 +2,9 @@ package com.scaleunlimited.wikiwords;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
@@ -11,14 +13,61 @@ import org.apache.log4j.Logger;
 public class WikiTemplates {
     private static final Logger LOGGER = Logger.getLogger(WikiTemplates.class);
 
+    // Internal links, external links and bare URLs, which all become HTML anchors.
+    private static final Pattern LINK_PATTERN = Pattern.compile("(\\[\\[|\\[//|\\[mailto:|(https?|ftp)://)", Pattern.CASE_INSENSITIVE);
+
+    // Characters that make a template pattern more than a literal name.
+    private static final String REGEX_CHARS = "\\^$.|?*+()[]{}";
+    
+    private static final String ANY_CHARS = ".+";
+    
+    private static final String ALIAS_PREFIX = "alias:";
+    
+    // Max number of template names that we remember the action for, before we start over.
+    private static final int MAX_CACHED_NAMES = 64 * 1024;
+    
+    // Marks a cached template name that doesn't have an action.
+    private static final String NO_ACTION = new String("no action");
+    
     private List<Pattern> _patterns;
     private List<String> _actions;
     
+    // Rules for exact template names, and names with a fixed prefix or suffix, map to the
+    // index of the rule. Everything else is a regex that we have to try.
+    private Map<String, Integer> _exactRules;
+    private AffixTrie _prefixRules;
+    private AffixTrie _suffixRules;
+    private List<Integer> _regexRules;
+    
+    private Map<String, String> _cachedActions;
+    
+    // Optional caches of converted templates.
+    private TemplateCache _htmlCache;
+    private TemplateCache _markupCache;
+    
+    // Optional expander for templates that don't have a rule.
+    private TemplateExpander _expander;
+    
     public WikiTemplates() throws IOException {
+        this(IOUtils.readLines(WikiTemplates.class.getResourceAsStream("/wiki-templates.txt")));
+    }
+    
+    /**
+     * Create templates from <lines> of "pattern => action" rules. Lines can have "#" comments,
+     * and the first rule that matches a template name wins.
+     * 
+     * @param lines Rules
+     * @throws IllegalArgumentException if a line is invalid, or aliases form a loop.
+     */
+    WikiTemplates(List<String> lines) {
         _patterns = new ArrayList<>();
         _actions = new ArrayList<>();
+        _exactRules = new HashMap<>();
+        _prefixRules = new AffixTrie();
+        _suffixRules = new AffixTrie();
+        _regexRules = new ArrayList<>();
+        _cachedActions = new HashMap<>();
         
-        List<String> lines = IOUtils.readLines(WikiTemplates.class.getResourceAsStream("/wiki-templates.txt"));
         for (String line : lines) {
             line = line.trim();
             if (line.isEmpty() || line.startsWith("#")) {
@@ -30,21 +79,68 @@ public class WikiTemplates {
                 throw new IllegalArgumentException("Invalid line in template patterns: " + line);
             }
             
-            Pattern p = Pattern.compile(pieces[0].trim(), Pattern.DOTALL);
+            String regex = pieces[0].trim();
+            Pattern p = Pattern.compile(regex, Pattern.DOTALL);
             String action = pieces[1];
             if (action.indexOf('#') != -1) {
                 action = action.substring(0, action.indexOf('#'));
             }
             
             action = action.trim();
+            addRule(regex, _patterns.size());
             _patterns.add(p);
             _actions.add(action);
         }
+        
+        checkRules();
+    }
+    
+    /**
+     * Cache the results of convertToHTML() and convertToMarkup(), for up to <maxSize> chars
+     * of templates and results for each. A size of 0 turns off caching.
+     * 
+     * @param maxSize Max size of each cache
+     */
+    public void setCacheSize(int maxSize) {
+        if (maxSize > 0) {
+            _htmlCache = new TemplateCache(maxSize);
+            _markupCache = new TemplateCache(maxSize);
+        } else {
+            _htmlCache = null;
+            _markupCache = null;
+        }
+    }
+    
+    /**
+     * Use <expander> to convert templates that don't match any of our rules into markup,
+     * versus skipping them. Rules still win, so templates that we want to ignore (e.g.
+     * citations) are still ignored. This is only used by convertToMarkup().
+     * 
+     * @param expander Expander, or null to skip templates that don't have a rule.
+     */
+    public void setExpander(TemplateExpander expander) {
+        _expander = expander;
+        if (_markupCache != null) {
+            _markupCache.clear();
+        }
+    }
+    
+    public long getCacheHits() {
+        return _htmlCache == null ? 0 : _htmlCache.getHits() + _markupCache.getHits();
+    }
+    
+    public long getCacheMisses() {
+        return _htmlCache == null ? 0 : _htmlCache.getMisses() + _markupCache.getMisses();
+    }
+    
+    public long getCacheEvictions() {
+        return _htmlCache == null ? 0 : _htmlCache.getEvictions() + _markupCache.getEvictions();
     }
     
     public String getTemplateName(String templatePlusArgs) {
-        String[] pieces = templatePlusArgs.split("\\|");
-        String template = pieces[0];
+        // Find the end of the name ourselves, versus splitting up all of the arguments.
+        int nameEnd = templatePlusArgs.indexOf('|');
+        String template = nameEnd == -1 ? templatePlusArgs : templatePlusArgs.substring(0, nameEnd);
         int namespaceIndex = template.indexOf(':');
         if (namespaceIndex != -1) {
             template = template.substring(0, namespaceIndex);
@@ -54,39 +150,101 @@ public class WikiTemplates {
     }
 
     public String convertToHTML(String templatePlusArgs) {
+        if (_htmlCache == null) {
+            return makeHTML(templatePlusArgs);
+        } else if (_htmlCache.contains(templatePlusArgs)) {
+            return _htmlCache.get(templatePlusArgs);
+        }
+        
+        String result = makeHTML(templatePlusArgs);
+        _htmlCache.put(templatePlusArgs, result);
+        return result;
+    }
+    
+    private String makeHTML(String templatePlusArgs) {
         String template = getTemplateName(templatePlusArgs);
         String action = getAction(template);
         
-        // Handle aliases by looping.
-        while (true) {
-            if (action == null) {
-                return null;
-            } else if (action.equals("ignore") || action.equals("unknown")) {
-                return "";
-            } else if (action.startsWith("alias:")) {
-                action = getAction(action.substring("alias:".length()));
-            } else if (action.startsWith("constant:")) {
-                return action.substring("constant:".length());
-            } else if (action.equals("text")) {
-                StringBuilder result = new StringBuilder();
-                for (String param : getAnonymousParameters(templatePlusArgs)) {
-                    result.append(' ');
-                    result.append(convertMarkupToHTML(param));
-                }
-                
-                result.append(", ");
-                return result.toString();
-            } else if (action.equals("articles")) {
-                StringBuilder result = new StringBuilder();
-                for (String param : getAnonymousParameters(templatePlusArgs)) {
-                    result.append(String.format(" <a href=\"http://en.wikipedia.org/wiki/%s\">%s</a> ", param.replaceAll(" ", "_"), param));
-                }
-                
-                return result.toString();
-            } else {
-                LOGGER.warn(String.format("Template '%s' has unknown action '%s'", template, action));
-                return "";
+        if (action == null) {
+            return null;
+        } else if (action.equals("ignore") || action.equals("unknown")) {
+            return "";
+        } else if (action.startsWith("constant:")) {
+            return action.substring("constant:".length());
+        } else if (action.equals("text")) {
+            StringBuilder result = new StringBuilder();
+            for (String param : getAnonymousParameters(templatePlusArgs)) {
+                result.append(' ');
+                result.append(convertMarkupToHTML(param));
             }
+            
+            result.append(", ");
+            return result.toString();
+        } else if (action.equals("articles")) {
+            StringBuilder result = new StringBuilder();
+            for (String param : getAnonymousParameters(templatePlusArgs)) {
+                result.append(String.format(" <a href=\"http://en.wikipedia.org/wiki/%s\">%s</a> ", param.replaceAll(" ", "_"), param));
+            }
+            
+            return result.toString();
+        } else {
+            LOGGER.warn(String.format("Template '%s' has unknown action '%s'", template, action));
+            return "";
+        }
+    }
+    
+    /**
+     * Convert a template into MediaWiki markup, for extracting terms directly from markup.
+     * This matches what convertToHTML generates, where parameters are in the HTML that
+     * bliki generated from the markup, so we skip parameters that would contain links, as
+     * the link's HTML attributes make them look like named parameters.
+     *
+     * If we have an expander, templates without a rule are expanded from their source.
+     *
+     * @param templatePlusArgs Template name and parameters, without the surrounding braces
+     * @return markup for the template, or null if it's not a template that we know about.
+     */
+    public String convertToMarkup(String templatePlusArgs) {
+        if (_markupCache == null) {
+            return makeMarkup(templatePlusArgs);
+        } else if (_markupCache.contains(templatePlusArgs)) {
+            return _markupCache.get(templatePlusArgs);
+        }
+        
+        String result = makeMarkup(templatePlusArgs);
+        _markupCache.put(templatePlusArgs, result);
+        return result;
+    }
+    
+    private String makeMarkup(String templatePlusArgs) {
+        String template = getTemplateName(templatePlusArgs);
+        String action = getAction(template);
+        
+        if (action == null) {
+            return _expander == null ? null : _expander.expand(templatePlusArgs);
+        } else if (action.equals("ignore") || action.equals("unknown")) {
+            return "";
+        } else if (action.startsWith("constant:")) {
+            return action.substring("constant:".length());
+        } else if (action.equals("text")) {
+            StringBuilder result = new StringBuilder();
+            for (String param : getAnonymousMarkupParameters(templatePlusArgs)) {
+                result.append(' ');
+                result.append(param);
+            }
+            
+            result.append(", ");
+            return result.toString();
+        } else if (action.equals("articles")) {
+            StringBuilder result = new StringBuilder();
+            for (String param : getAnonymousMarkupParameters(templatePlusArgs)) {
+                result.append(String.format(" [http://en.wikipedia.org/wiki/%s %s] ", param.replaceAll(" ", "_"), param));
+            }
+            
+            return result.toString();
+        } else {
+            LOGGER.warn(String.format("Template '%s' has unknown action '%s'", template, action));
+            return "";
         }
     }
     
@@ -95,39 +253,34 @@ public class WikiTemplates {
 
         String action = getAction(template);
         
-        // Handle aliases by looping.
-        while (true) {
-            if (action == null) {
-                return null;
-            } else if (action.equals("ignore") || action.equals("unknown")) {
-                return "";
-            } else if (action.startsWith("alias:")) {
-                action = getAction(action.substring("alias:".length()));
-            } else if (action.startsWith("constant:")) {
-                return action.substring("constant:".length());
-            } else if (action.equals("text")) {
-                StringBuilder result = new StringBuilder();
-                for (String param : getAnonymousParameters(templatePlusArgs)) {
-                    result.append(' ');
-                    result.append(convertMarkupToText(param));
-                }
-                
-                result.append(", ");
-                return result.toString();
-            } else if (action.equals("articles")) {
-                StringBuilder result = new StringBuilder();
-                for (String param : getAnonymousParameters(templatePlusArgs)) {
-                    result.append(' ');
-                    result.append("_wikiarticle_");
-                    result.append(param.replaceAll(" ", "_"));
-                }
-                
+        if (action == null) {
+            return null;
+        } else if (action.equals("ignore") || action.equals("unknown")) {
+            return "";
+        } else if (action.startsWith("constant:")) {
+            return action.substring("constant:".length());
+        } else if (action.equals("text")) {
+            StringBuilder result = new StringBuilder();
+            for (String param : getAnonymousParameters(templatePlusArgs)) {
                 result.append(' ');
-                return result.toString();
-            } else {
-                LOGGER.warn(String.format("Template '%s' has unknown action '%s'", template, action));
-                return "";
+                result.append(convertMarkupToText(param));
             }
+            
+            result.append(", ");
+            return result.toString();
+        } else if (action.equals("articles")) {
+            StringBuilder result = new StringBuilder();
+            for (String param : getAnonymousParameters(templatePlusArgs)) {
+                result.append(' ');
+                result.append("_wikiarticle_");
+                result.append(param.replaceAll(" ", "_"));
+            }
+            
+            result.append(' ');
+            return result.toString();
+        } else {
+            LOGGER.warn(String.format("Template '%s' has unknown action '%s'", template, action));
+            return "";
         }
     }
 
@@ -166,21 +319,226 @@ public class WikiTemplates {
         return result;
     }
 
+    /**
+     * Like getAnonymousParameters, but for parameters that haven't been converted to HTML.
+     * We don't split on '|' inside of links and nested templates, and skip parameters with
+     * links, since those would have HTML attributes after conversion.
+     */
+    private List<String> getAnonymousMarkupParameters(String templatePlusArgs) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        int paramStart = -1;
+        for (int i = 0; i <= templatePlusArgs.length(); i++) {
+            if (i == templatePlusArgs.length()) {
+                addAnonymousMarkupParameter(result, templatePlusArgs, paramStart, i);
+            } else if (templatePlusArgs.startsWith("[[", i) || templatePlusArgs.startsWith("{{", i)) {
+                depth++;
+                i++;
+            } else if ((depth > 0) && (templatePlusArgs.startsWith("]]", i) || templatePlusArgs.startsWith("}}", i))) {
+                depth--;
+                i++;
+            } else if ((depth == 0) && (templatePlusArgs.charAt(i) == '|')) {
+                addAnonymousMarkupParameter(result, templatePlusArgs, paramStart, i);
+                paramStart = i + 1;
+            }
+        }
+        
+        return result;
+    }
+
+    private void addAnonymousMarkupParameter(List<String> result, String templatePlusArgs, int start, int end) {
+        // Skip the template name.
+        if (start == -1) {
+            return;
+        }
+        
+        String param = templatePlusArgs.substring(start, end);
+        if ((param.indexOf('=') == -1) && !LINK_PATTERN.matcher(param).find()) {
+            result.add(param);
+        }
+    }
+
+    /**
+     * @return the action for <template>, after following any aliases, or null if we
+     * don't have a rule for it.
+     */
     private String getAction(String template) {
-        String action = null;
-        Pattern matchedPattern = null;
-        for (int i = 0; i < _patterns.size(); i++) {
-            Pattern curPattern = _patterns.get(i);
-            if (curPattern.matcher(template).matches()) {
-                if (matchedPattern != null) {
-                    LOGGER.warn(String.format("'%s' matched by '%s' and '%s'", template, matchedPattern, curPattern));
-                } else {
-                    matchedPattern = curPattern;
-                    action = _actions.get(i);
-                }
+        String action = _cachedActions.get(template);
+        if (action == null) {
+            action = resolveAction(template, 0);
+            if (_cachedActions.size() >= MAX_CACHED_NAMES) {
+                _cachedActions.clear();
             }
+            
+            _cachedActions.put(template, action == null ? NO_ACTION : action);
+        } else if (action == NO_ACTION) {
+            action = null;
         }
         
         return action;
     }
+    
+    private String resolveAction(String template, int numAliases) {
+        int rule = findRule(template);
+        if (rule == -1) {
+            return null;
+        }
+        
+        String action = _actions.get(rule);
+        if (!action.startsWith(ALIAS_PREFIX)) {
+            return action;
+        }
+
+        // checkRules() resolves every alias, so a loop is caught when we load the rules.
+        if (numAliases == _actions.size()) {
+            throw new IllegalArgumentException(String.format("Alias loop for template '%s'", template));
+        }
+        
+        return resolveAction(action.substring(ALIAS_PREFIX.length()), numAliases + 1);
+    }
+    
+    /**
+     * @return index of the first rule that matches <template>, or -1 if none match.
+     */
+    private int findRule(String template) {
+        int result = Integer.MAX_VALUE;
+        int numMatches = 0;
+        
+        Integer exactRule = _exactRules.get(template);
+        if (exactRule != null) {
+            result = exactRule;
+            numMatches++;
+        }
+        
+        List<Integer> affixRules = new ArrayList<>();
+        _prefixRules.findRules(template, false, affixRules);
+        _suffixRules.findRules(template, true, affixRules);
+        for (int rule : affixRules) {
+            result = Math.min(result, rule);
+            numMatches++;
+        }
+        
+        for (int rule : _regexRules) {
+            if (_patterns.get(rule).matcher(template).matches()) {
+                result = Math.min(result, rule);
+                numMatches++;
+            }
+        }
+        
+        if (numMatches == 0) {
+            return -1;
+        }
+        
+        // Results are cached, so we only warn once per template name.
+        if (numMatches > 1) {
+            LOGGER.warn(String.format("'%s' matched by %d patterns, using '%s'", template, numMatches, _patterns.get(result)));
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Index rule <index> by whether <regex> is a literal template name, a literal prefix
+     * or suffix with ".+", or something else.
+     */
+    private void addRule(String regex, int index) {
+        if (isLiteral(regex)) {
+            if (_exactRules.containsKey(regex)) {
+                LOGGER.warn(String.format("Duplicate template pattern '%s'", regex));
+            } else {
+                _exactRules.put(regex, index);
+            }
+        } else if (regex.endsWith(ANY_CHARS) && isLiteral(regex.substring(0, regex.length() - ANY_CHARS.length()))) {
+            _prefixRules.add(regex.substring(0, regex.length() - ANY_CHARS.length()), false, index);
+        } else if (regex.startsWith(ANY_CHARS) && isLiteral(regex.substring(ANY_CHARS.length()))) {
+            _suffixRules.add(regex.substring(ANY_CHARS.length()), true, index);
+        } else {
+            _regexRules.add(index);
+        }
+    }
+    
+    /**
+     * Do the checks that we'd otherwise have to do for every template: literal names
+     * that are also matched by another pattern, and aliases that don't resolve.
+     */
+    private void checkRules() {
+        for (Map.Entry<String, Integer> entry : _exactRules.entrySet()) {
+            String name = entry.getKey();
+            for (int i = 0; i < _patterns.size(); i++) {
+                if ((i != entry.getValue()) && _patterns.get(i).matcher(name).matches()) {
+                    LOGGER.warn(String.format("'%s' matched by '%s' and '%s'", name, _patterns.get(entry.getValue()), _patterns.get(i)));
+                }
+            }
+        }
+        
+        for (String action : _actions) {
+            if (action.startsWith(ALIAS_PREFIX)) {
+                String target = action.substring(ALIAS_PREFIX.length());
+                if (getAction(target) == null) {
+                    LOGGER.warn(String.format("Alias to template '%s' that has no action", target));
+                }
+            }
+        }
+    }
+    
+    private static boolean isLiteral(String regex) {
+        if (regex.isEmpty()) {
+            return false;
+        }
+        
+        for (int i = 0; i < regex.length(); i++) {
+            if (REGEX_CHARS.indexOf(regex.charAt(i)) != -1) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Trie of literal prefixes (or suffixes, stored in reverse), for rules where the rest of
+     * the template name can be anything (but not empty).
+     *
+     */
+    private static class AffixTrie {
+        private Map<Character, AffixTrie> _children = new HashMap<>();
+        private int _rule = -1;
+        
+        public void add(String affix, boolean reversed, int rule) {
+            AffixTrie node = this;
+            for (int i = 0; i < affix.length(); i++) {
+                char c = affix.charAt(reversed ? affix.length() - 1 - i : i);
+                AffixTrie child = node._children.get(c);
+                if (child == null) {
+                    child = new AffixTrie();
+                    node._children.put(c, child);
+                }
+                
+                node = child;
+            }
+            
+            if (node._rule != -1) {
+                LOGGER.warn(String.format("Duplicate template pattern for '%s'", affix));
+            } else {
+                node._rule = rule;
+            }
+        }
+        
+        /**
+         * Add the rules for all affixes of <name> (which are shorter than <name>) to <result>.
+         */
+        public void findRules(String name, boolean reversed, List<Integer> result) {
+            AffixTrie node = this;
+            for (int i = 0; i < name.length() - 1; i++) {
+                node = node._children.get(name.charAt(reversed ? name.length() - 1 - i : i));
+                if (node == null) {
+                    return;
+                }
+                
+                if (node._rule != -1) {
+                    result.add(node._rule);
+                }
+            }
+        }
+    }
 }
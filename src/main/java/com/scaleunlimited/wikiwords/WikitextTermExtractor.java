@@ -0,0 +1,989 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+/**
+ * Extract terms by tokenizing the MediaWiki markup directly, versus converting it to
+ * HTML and then parsing the HTML (see HTMLTermExtractor). The goal is to generate the
+ * same terms and article links as the HTML conversion does, for the markup that we
+ * see in articles, so this follows what bliki does with links, images, references,
+ * tables, etc. Templates are handled by WikiTemplates, as with the HTML conversion.
+ *
+ * The markup is scanned once, and text is sent straight to a TermCollector, so no HTML
+ * is generated or parsed.
+ *
+ */
+public class WikitextTermExtractor implements TermExtractor {
+
+    private static final Pattern TAG_PATTERN = Pattern.compile("<(/?)([a-zA-Z][a-zA-Z0-9]*)([^<>]*?)(/?)>");
+    private static final Pattern ENTITY_PATTERN = Pattern.compile("&(#[0-9]+|#[xX][0-9a-fA-F]+|[a-zA-Z][a-zA-Z0-9]*);");
+    private static final Pattern REF_NAME_PATTERN = Pattern.compile("name\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s/>]+))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MAGIC_WORD_PATTERN = Pattern.compile("__[A-Z]+__");
+    private static final Pattern HEADING_PATTERN = Pattern.compile("^=+([^\n]*?[^=\n][^\n]*?)=+[ \t\r]*$", Pattern.MULTILINE);
+    private static final Pattern ISBN_PATTERN = Pattern.compile("(?i)isbn [0-9][0-9-]*");
+
+    // Markup that's removed when generating the table of contents entry for a heading.
+    private static final Pattern LINK_TARGET_PATTERN = Pattern.compile("\\[\\[(?:[^\\]|]*\\|)?([^\\]]*)\\]\\]");
+    private static final Pattern FORMATTING_PATTERN = Pattern.compile("('{2,}|<[^<>]*>)");
+
+    // bliki generates a table of contents if there are at least this many headings.
+    private static final int MIN_TOC_HEADINGS = 4;
+
+    private static final String[] URL_PREFIXES = {"http://", "https://", "ftp://", "mailto:", "//"};
+
+    // Bare URLs, which are turned into links. Protocol-relative ones aren't.
+    private static final String[] BARE_URL_PREFIXES = {"http://", "https://", "ftp://"};
+
+    // HTML tags that can be used in markup. Other tags are treated as text.
+    private static final Set<String> HTML_TAGS = new HashSet<>(Arrays.asList(
+        "abbr", "b", "bdi", "bdo", "big", "blockquote", "br", "caption", "center", "cite",
+        "code", "data", "dd", "del", "dfn", "div", "dl", "dt", "em", "font", "h1", "h2",
+        "h3", "h4", "h5", "h6", "hr", "i", "ins", "kbd", "li", "mark", "ol", "p", "q",
+        "rb", "rp", "rt", "ruby", "s", "samp", "small", "span", "strike", "strong", "sub",
+        "sup", "table", "td", "th", "time", "tr", "tt", "u", "ul", "var", "wbr"));
+
+    // Extension tags where the content isn't output.
+    private static final Set<String> SKIPPED_TAGS = new HashSet<>(Arrays.asList(
+        "gallery", "timeline", "source", "syntaxhighlight", "score", "hiero", "graph",
+        "templatedata", "includeonly", "imagemap", "categorytree"));
+
+    // Image options, which aren't used as the caption.
+    private static final Set<String> IMAGE_OPTIONS = new HashSet<>(Arrays.asList(
+        "thumb", "thumbnail", "frame", "framed", "frameless", "border", "left", "right",
+        "center", "centre", "none", "baseline", "sub", "super", "top", "text-top", "middle",
+        "bottom", "text-bottom", "upright"));
+    private static final Pattern IMAGE_OPTION_PATTERN = Pattern.compile("(\\d*x?\\d+\\s*px|(upright|link|alt|page|class|lang)\\s*=.*)", Pattern.DOTALL);
+
+    // Image types where the caption is displayed.
+    private static final Set<String> CAPTIONED_IMAGE_TYPES = new HashSet<>(Arrays.asList(
+        "thumb", "thumbnail", "frame", "framed"));
+
+    private static final char UP_ARROW = '\u2191';
+
+    private WikiTemplates _templates;
+    private TermCollector _collector;
+    private StringBuilder _markup;
+
+    // References, in the order that they're first used.
+    private List<Reference> _refs;
+    private Map<String, Reference> _namedRefs;
+    private int _numExternalLinks;
+    private int _tableDepth;
+
+    // True while we're parsing the markup generated for a template.
+    private boolean _inTemplateOutput;
+
+    // Entries for the table of contents, which is output (and cleared) before the first
+    // heading, or where the __TOC__ magic word is.
+    private List<String> _tocEntries;
+    private boolean _tocAtMagicWord;
+
+    public WikitextTermExtractor() throws IOException {
+        this(new WikiTemplates());
+    }
+
+    public WikitextTermExtractor(WikiTemplates templates) {
+        this(templates, TermAnalyzer.SIMPLE);
+    }
+
+    public WikitextTermExtractor(WikiTemplates templates, TermAnalyzer analyzer) {
+        _templates = templates;
+        _collector = new TermCollector(analyzer);
+        _markup = new StringBuilder();
+        _refs = new ArrayList<>();
+        _namedRefs = new HashMap<>();
+        _tocEntries = new ArrayList<>();
+    }
+
+    @Override
+    public void extract(String title, String markup) {
+        _collector.reset();
+        _refs.clear();
+        _namedRefs.clear();
+        _numExternalLinks = 0;
+        _tableDepth = 0;
+        _inTemplateOutput = false;
+
+        _collector.addTitle(title);
+        _collector.addBreak();
+
+        String text = removeComments(markup);
+        findTableOfContents(text);
+        parse(text, 0, text.length(), true);
+        _collector.finish();
+
+        if (_markup.capacity() > MAX_RETAINED_CHARS) {
+            _markup = new StringBuilder();
+        }
+    }
+
+    @Override
+    public List<String> getTerms() {
+        return _collector.getTerms();
+    }
+
+    @Override
+    public List<ArticleLinkPosition> getArticleLinks() {
+        return _collector.getArticleLinks();
+    }
+
+    private String removeComments(String markup) {
+        int commentStart = markup.indexOf("<!--");
+        if (commentStart == -1) {
+            return markup;
+        }
+
+        _markup.setLength(0);
+        int offset = 0;
+        while (commentStart != -1) {
+            _markup.append(markup, offset, commentStart);
+            int commentEnd = markup.indexOf("-->", commentStart + 4);
+            if (commentEnd == -1) {
+                offset = markup.length();
+                break;
+            }
+
+            offset = commentEnd + 3;
+            commentStart = markup.indexOf("<!--", offset);
+        }
+
+        _markup.append(markup, offset, markup.length());
+        return _markup.toString();
+    }
+
+    /**
+     * Set up the table of contents entries, if bliki would generate a table of contents.
+     * The entry for each heading is a link to the section, where the text is the heading
+     * without any markup.
+     */
+    private void findTableOfContents(String text) {
+        _tocEntries.clear();
+        if (text.contains("__NOTOC__")) {
+            return;
+        }
+
+        Matcher m = HEADING_PATTERN.matcher(text);
+        while (m.find()) {
+            String entry = LINK_TARGET_PATTERN.matcher(m.group(1)).replaceAll("$1");
+            entry = FORMATTING_PATTERN.matcher(entry).replaceAll("");
+            _tocEntries.add(StringEscapeUtils.unescapeHtml(entry.trim()));
+        }
+
+        _tocAtMagicWord = text.contains("__TOC__");
+        if ((_tocEntries.size() < MIN_TOC_HEADINGS) && !_tocAtMagicWord && !text.contains("__FORCETOC__")) {
+            _tocEntries.clear();
+        }
+    }
+
+    private void addTableOfContents() {
+        if (_tocEntries.isEmpty()) {
+            return;
+        }
+
+        _collector.addBreak();
+        _collector.addText("Contents");
+        for (String entry : _tocEntries) {
+            _collector.addBreak();
+            _collector.startLink(null);
+            _collector.addText(entry);
+            _collector.endLink();
+        }
+
+        _collector.addBreak();
+        _tocEntries.clear();
+    }
+
+    /**
+     * Process the markup in text[start, end).
+     *
+     * @param lineStart true if <start> is at the start of a line
+     */
+    private void parse(String text, int start, int end, boolean lineStart) {
+        int i = start;
+        while (i < end) {
+            if (lineStart) {
+                i = parseLineStart(text, i, end);
+                lineStart = false;
+                continue;
+            }
+
+            char c = text.charAt(i);
+            switch (c) {
+                case '\n':
+                    _collector.addText(c);
+                    lineStart = true;
+                    i += 1;
+                    break;
+
+                case '{':
+                    i = parseTemplate(text, i, end);
+                    break;
+
+                case '[':
+                    if (text.startsWith("[[", i)) {
+                        i = parseLink(text, i, end);
+                    } else {
+                        i = parseExternalLink(text, i, end);
+                    }
+                    break;
+
+                case '\'':
+                    i = parseApostrophes(text, i, end);
+                    break;
+
+                case '<':
+                    i = parseTag(text, i, end);
+                    break;
+
+                case '&':
+                    i = parseEntity(text, i, end);
+                    break;
+
+                case '_':
+                    i = parseMagicWord(text, i, end);
+                    break;
+
+                case '|':
+                case '!':
+                    i = parseTableCellSeparator(text, i, end);
+                    break;
+
+                case 'h':
+                case 'f':
+                    i = parseBareUrl(text, i, end);
+                    break;
+
+                case 'I':
+                case 'i':
+                    i = parseIsbn(text, i, end);
+                    break;
+
+                default:
+                    _collector.addText(c);
+                    i += 1;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Handle markup that's only special at the start of a line (headings, lists,
+     * tables and horizontal rules).
+     *
+     * @return offset of the first character that still needs to be processed.
+     */
+    private int parseLineStart(String text, int start, int end) {
+        char c = text.charAt(start);
+        if (c == '=') {
+            int lineEnd = findLineEnd(text, start, end);
+            int headingStart = start;
+            while ((headingStart < lineEnd) && (text.charAt(headingStart) == '=')) {
+                headingStart += 1;
+            }
+
+            int headingEnd = lineEnd;
+            while ((headingEnd > headingStart) && Character.isWhitespace(text.charAt(headingEnd - 1))) {
+                headingEnd -= 1;
+            }
+
+            int trailingEnd = headingEnd;
+            while ((headingEnd > headingStart) && (text.charAt(headingEnd - 1) == '=')) {
+                headingEnd -= 1;
+            }
+
+            if ((headingEnd == trailingEnd) || (headingEnd == headingStart)) {
+                // Not a heading.
+                return start;
+            }
+
+            if (!_tocAtMagicWord) {
+                addTableOfContents();
+            }
+
+            _collector.addBreak();
+            parse(text, headingStart, headingEnd, false);
+            _collector.addBreak();
+            return lineEnd;
+        } else if ((c == '*') || (c == '#') || (c == ':') || (c == ';')) {
+            int i = start;
+            boolean definition = false;
+            while ((i < end) && ("*#:;".indexOf(text.charAt(i)) != -1)) {
+                definition = (text.charAt(i) == ';');
+                i += 1;
+            }
+
+            _collector.addBreak();
+            if (!definition) {
+                return i;
+            }
+
+            // The term and definition can be on the same line, separated by a colon.
+            int lineEnd = findLineEnd(text, i, end);
+            int colon = findOutsideMarkup(text, i, lineEnd, ":");
+            if (colon == -1) {
+                return i;
+            }
+
+            parse(text, i, colon, false);
+            _collector.addBreak();
+            return colon + 1;
+        } else if (text.startsWith("----", start)) {
+            _collector.addBreak();
+            int i = start;
+            while ((i < end) && (text.charAt(i) == '-')) {
+                i += 1;
+            }
+
+            return i;
+        }
+
+        // Tables can be indented.
+        int i = start;
+        while ((i < end) && ((text.charAt(i) == ' ') || (text.charAt(i) == '\t'))) {
+            i += 1;
+        }
+
+        if (text.startsWith("{|", i)) {
+            _tableDepth += 1;
+            _collector.addBreak();
+            return findLineEnd(text, i, end);
+        } else if (_tableDepth == 0) {
+            return start;
+        } else if (text.startsWith("|}", i)) {
+            _tableDepth -= 1;
+            _collector.addBreak();
+            return i + 2;
+        } else if (text.startsWith("|-", i)) {
+            _collector.addBreak();
+            return findLineEnd(text, i, end);
+        } else if (text.startsWith("|+", i)) {
+            _collector.addBreak();
+            return skipCellAttributes(text, i + 2, end);
+        } else if ((text.charAt(i) == '|') || (text.charAt(i) == '!')) {
+            _collector.addBreak();
+            return skipCellAttributes(text, i + 1, end);
+        } else {
+            return start;
+        }
+    }
+
+    /**
+     * Output one character of text, and return the offset of the next character. This
+     * is used when a character could have been markup, but isn't.
+     */
+    private int parseText(String text, int start, int end) {
+        _collector.addText(text.charAt(start));
+        return start + 1;
+    }
+
+    /**
+     * Table cells can start with attributes, separated from the content by a single '|'.
+     *
+     * @return offset of the cell content.
+     */
+    private int skipCellAttributes(String text, int start, int end) {
+        int lineEnd = findLineEnd(text, start, end);
+        int cellEnd = findOutsideMarkup(text, start, lineEnd, "||");
+        if (cellEnd == -1) {
+            cellEnd = findOutsideMarkup(text, start, lineEnd, "!!");
+        }
+
+        if (cellEnd == -1) {
+            cellEnd = lineEnd;
+        }
+
+        int separator = findOutsideMarkup(text, start, cellEnd, "|");
+        return (separator == -1) ? start : separator + 1;
+    }
+
+    private int parseTableCellSeparator(String text, int start, int end) {
+        if ((_tableDepth > 0) && (start + 1 < end) && (text.charAt(start + 1) == text.charAt(start))) {
+            _collector.addBreak();
+            return skipCellAttributes(text, start + 2, end);
+        }
+
+        return parseText(text, start, end);
+    }
+
+    /**
+     * Handle a template, using WikiTemplates to convert the ones we know about into
+     * markup, and skipping all others.
+     */
+    private int parseTemplate(String text, int start, int end) {
+        // As in MediaWiki, braces in the output of a template are just text. Otherwise
+        // a template could generate a call of itself, and we'd never stop.
+        if (_inTemplateOutput || !text.startsWith("{{", start)) {
+            return parseText(text, start, end);
+        }
+
+        // We find the end the same way as the HTML converter, by counting {{ and }}.
+        int depth = 1;
+        int i = start + 2;
+        while ((i < end) && (depth > 0)) {
+            if (text.startsWith("{{", i)) {
+                depth += 1;
+                i += 2;
+            } else if (text.startsWith("}}", i)) {
+                depth -= 1;
+                i += 2;
+            } else {
+                i += 1;
+            }
+        }
+
+        if (depth > 0) {
+            _collector.addText("{{");
+            return start + 2;
+        }
+
+        // References in templates still show up in the list of references.
+        collectRefs(text, start + 2, i - 2);
+
+        String converted = _templates.convertToMarkup(text.substring(start + 2, i - 2));
+        if (converted != null) {
+            _inTemplateOutput = true;
+            try {
+                parse(converted, 0, converted.length(), false);
+            } finally {
+                _inTemplateOutput = false;
+            }
+        }
+
+        return i;
+    }
+
+    private int parseLink(String text, int start, int end) {
+        // Links can be nested inside of image captions.
+        int depth = 1;
+        int i = start + 2;
+        while ((i < end) && (depth > 0)) {
+            if (text.startsWith("[[", i)) {
+                depth += 1;
+                i += 2;
+            } else if (text.startsWith("]]", i)) {
+                depth -= 1;
+                i += 2;
+            } else {
+                i += 1;
+            }
+        }
+
+        if (depth > 0) {
+            _collector.addText("[[");
+            return start + 2;
+        }
+
+        int linkEnd = i;
+        int contentStart = start + 2;
+        int contentEnd = linkEnd - 2;
+        int pipe = findOutsideMarkup(text, contentStart, contentEnd, "|");
+        String target = text.substring(contentStart, pipe == -1 ? contentEnd : pipe).trim();
+        if (target.isEmpty() || !isValidTarget(target) || _collector.inLink()) {
+            _collector.addText("[[");
+            return start + 2;
+        }
+
+        boolean leadingColon = target.startsWith(":");
+        if (leadingColon) {
+            target = target.substring(1).trim();
+        }
+
+        String namespace = getNamespace(target);
+        if (!leadingColon && namespace.equals("category")) {
+            return linkEnd;
+        } else if (!leadingColon && (namespace.equals("file") || namespace.equals("image"))) {
+            parseImage(text, pipe == -1 ? contentEnd : pipe + 1, contentEnd);
+            return linkEnd;
+        }
+
+        _collector.startLink(getArticle(target));
+        if ((pipe == -1) || (pipe + 1 == contentEnd)) {
+            _collector.addText(target);
+        } else {
+            parse(text, pipe + 1, contentEnd, false);
+        }
+
+        // Letters following the link are part of the anchor text.
+        while ((linkEnd < end) && Character.isLetter(text.charAt(linkEnd))) {
+            _collector.addText(text.charAt(linkEnd));
+            linkEnd += 1;
+        }
+
+        _collector.endLink();
+        return linkEnd;
+    }
+
+    private boolean isValidTarget(String target) {
+        for (int i = 0; i < target.length(); i++) {
+            if ("\n[]{}<>".indexOf(target.charAt(i)) != -1) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String getNamespace(String target) {
+        int colon = target.indexOf(':');
+        return (colon == -1) ? "" : target.substring(0, colon).trim().toLowerCase();
+    }
+
+    /**
+     * Return the article name for a link target, the same as we'd get from the URL in
+     * the HTML for the link, or null if it's not a link to an article.
+     */
+    private String getArticle(String target) {
+        // Links to sections of the current page, and to other namespaces or wikis.
+        if (target.startsWith("#") || (target.indexOf(':') != -1)) {
+            return null;
+        }
+
+        int hash = target.indexOf('#');
+        if (hash != -1) {
+            target = target.substring(0, hash);
+        }
+
+        StringBuilder result = new StringBuilder(target.length());
+        boolean space = false;
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if ((c == ' ') || (c == '_')) {
+                space = true;
+            } else {
+                if (space && (result.length() > 0)) {
+                    result.append('_');
+                }
+
+                space = false;
+                result.append(result.length() == 0 ? Character.toUpperCase(c) : c);
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Handle an image, where <text[start, end)> is everything after the image name. The
+     * link for the image doesn't have any text, but for thumbnails and framed images the
+     * caption is displayed.
+     */
+    private void parseImage(String text, int start, int end) {
+        boolean captioned = false;
+        int captionStart = -1;
+        int captionEnd = -1;
+
+        int i = start;
+        while (i < end) {
+            int paramEnd = findOutsideMarkup(text, i, end, "|");
+            if (paramEnd == -1) {
+                paramEnd = end;
+            }
+
+            String param = text.substring(i, paramEnd).trim();
+            if (CAPTIONED_IMAGE_TYPES.contains(param)) {
+                captioned = true;
+            } else if (!IMAGE_OPTIONS.contains(param) && !IMAGE_OPTION_PATTERN.matcher(param).matches()) {
+                captionStart = i;
+                captionEnd = paramEnd;
+            }
+
+            i = paramEnd + 1;
+        }
+
+        _collector.startLink(null);
+        _collector.endLink();
+
+        if (captioned) {
+            _collector.addBreak();
+            if (captionStart != -1) {
+                parse(text, captionStart, captionEnd, false);
+            }
+
+            _collector.addBreak();
+        }
+    }
+
+    private int parseExternalLink(String text, int start, int end) {
+        if (_collector.inLink() || !startsWithUrl(text, start + 1, URL_PREFIXES)) {
+            return parseText(text, start, end);
+        }
+
+        int lineEnd = findLineEnd(text, start, end);
+        int linkEnd = text.indexOf(']', start);
+        if ((linkEnd == -1) || (linkEnd > lineEnd)) {
+            return parseText(text, start, end);
+        }
+
+        int labelStart = start + 1;
+        while ((labelStart < linkEnd) && (text.charAt(labelStart) != ' ')) {
+            labelStart += 1;
+        }
+
+        _collector.startLink(null);
+        if (labelStart + 1 >= linkEnd) {
+            _numExternalLinks += 1;
+            _collector.addText("[" + _numExternalLinks + "]");
+        } else {
+            parse(text, labelStart + 1, linkEnd, false);
+        }
+
+        _collector.endLink();
+        return linkEnd + 1;
+    }
+
+    private int parseBareUrl(String text, int start, int end) {
+        if (_collector.inLink() || ((start > 0) && Character.isLetterOrDigit(text.charAt(start - 1))) || !startsWithUrl(text, start, BARE_URL_PREFIXES)) {
+            return parseText(text, start, end);
+        }
+
+        int urlEnd = start;
+        while ((urlEnd < end) && !Character.isWhitespace(text.charAt(urlEnd)) && ("[]<>\"{}|".indexOf(text.charAt(urlEnd)) == -1)) {
+            urlEnd += 1;
+        }
+
+        // Trailing punctuation isn't part of the URL.
+        String url = text.substring(start, urlEnd);
+        while (!url.isEmpty()) {
+            char lastChar = url.charAt(url.length() - 1);
+            if ((".,;:!?".indexOf(lastChar) != -1) || ((lastChar == ')') && (url.indexOf('(') == -1))) {
+                url = url.substring(0, url.length() - 1);
+            } else {
+                break;
+            }
+        }
+
+        _collector.startLink(null);
+        _collector.addText(StringEscapeUtils.unescapeHtml(url));
+        _collector.endLink();
+        return start + url.length();
+    }
+
+    /**
+     * bliki turns "ISBN <number>" into an external link to the book.
+     */
+    private int parseIsbn(String text, int start, int end) {
+        if (_collector.inLink() || ((start > 0) && Character.isLetterOrDigit(text.charAt(start - 1)))) {
+            return parseText(text, start, end);
+        }
+
+        Matcher m = ISBN_PATTERN.matcher(text);
+        m.region(start, end);
+        if (!m.lookingAt()) {
+            return parseText(text, start, end);
+        }
+
+        _collector.startLink(null);
+        _collector.addText(m.group());
+        _collector.endLink();
+        return m.end();
+    }
+
+    private boolean startsWithUrl(String text, int start, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (text.regionMatches(true, start, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Skip bold and italic markup. A run of four apostrophes is one apostrophe followed
+     * by bold, and more than five means extra apostrophes.
+     */
+    private int parseApostrophes(String text, int start, int end) {
+        int i = start;
+        while ((i < end) && (text.charAt(i) == '\'')) {
+            i += 1;
+        }
+
+        int count = i - start;
+        if (count == 1) {
+            _collector.addText('\'');
+        } else if (count == 4) {
+            _collector.addText('\'');
+        } else if (count > 5) {
+            for (int j = 5; j < count; j++) {
+                _collector.addText('\'');
+            }
+        }
+
+        return i;
+    }
+
+    private int parseEntity(String text, int start, int end) {
+        Matcher m = ENTITY_PATTERN.matcher(text);
+        m.region(start, end);
+        if (!m.lookingAt()) {
+            return parseText(text, start, end);
+        }
+
+        _collector.addText(StringEscapeUtils.unescapeHtml(m.group()));
+        return m.end();
+    }
+
+    private int parseMagicWord(String text, int start, int end) {
+        Matcher m = MAGIC_WORD_PATTERN.matcher(text);
+        m.region(start, end);
+        if (m.lookingAt()) {
+            if (m.group().equals("__TOC__")) {
+                addTableOfContents();
+            }
+
+            return m.end();
+        }
+
+        return parseText(text, start, end);
+    }
+
+    private int parseTag(String text, int start, int end) {
+        Matcher m = TAG_PATTERN.matcher(text);
+        m.region(start, end);
+        if (!m.lookingAt()) {
+            return parseText(text, start, end);
+        }
+
+        boolean closing = !m.group(1).isEmpty();
+        String name = m.group(2).toLowerCase();
+        boolean selfClosing = !m.group(4).isEmpty();
+        int tagEnd = m.end();
+
+        if (name.equals("ref")) {
+            return closing ? tagEnd : parseRef(text, m.group(3), selfClosing, tagEnd, end, true);
+        } else if (name.equals("references")) {
+            if (!closing) {
+                addReferences();
+            }
+
+            return selfClosing || closing ? tagEnd : skipToClosingTag(text, name, tagEnd, end);
+        } else if (name.equals("nowiki") || name.equals("pre") || name.equals("math")) {
+            if (closing || selfClosing) {
+                return tagEnd;
+            }
+
+            int contentEnd = findClosingTag(text, name, tagEnd, end);
+            if (contentEnd == -1) {
+                return parseText(text, start, end);
+            }
+
+            if (name.equals("pre")) {
+                _collector.addBreak();
+            }
+
+            _collector.addText(StringEscapeUtils.unescapeHtml(text.substring(tagEnd, contentEnd)));
+            return skipToClosingTag(text, name, tagEnd, end);
+        } else if (SKIPPED_TAGS.contains(name)) {
+            return (closing || selfClosing) ? tagEnd : skipToClosingTag(text, name, tagEnd, end);
+        } else if (name.equals("noinclude") || name.equals("onlyinclude")) {
+            return tagEnd;
+        } else if (HTML_TAGS.contains(name)) {
+            if (!closing && !HTMLTermsHandler.isInlineElement(name)) {
+                _collector.addBreak();
+            }
+
+            return tagEnd;
+        } else {
+            return parseText(text, start, end);
+        }
+    }
+
+    /**
+     * Handle a <ref> element, where <tagEnd> is the offset following the start tag.
+     *
+     * @param output true to output the reference marker, false to just collect the reference.
+     * @return offset following the element.
+     */
+    private int parseRef(String text, String attributes, boolean selfClosing, int tagEnd, int end, boolean output) {
+        String name = null;
+        Matcher m = REF_NAME_PATTERN.matcher(attributes);
+        if (m.find()) {
+            name = m.group(1) != null ? m.group(1) : (m.group(2) != null ? m.group(2) : m.group(3));
+        }
+
+        int contentEnd = tagEnd;
+        int refEnd = tagEnd;
+        if (!selfClosing) {
+            contentEnd = findClosingTag(text, "ref", tagEnd, end);
+            if (contentEnd == -1) {
+                contentEnd = tagEnd;
+            } else {
+                refEnd = skipToClosingTag(text, "ref", tagEnd, end);
+            }
+        }
+
+        String content = text.substring(tagEnd, contentEnd);
+        Reference ref = (name == null) ? null : _namedRefs.get(name);
+        if (ref == null) {
+            ref = new Reference(content);
+            _refs.add(ref);
+            if (name != null) {
+                _namedRefs.put(name, ref);
+            }
+        } else {
+            ref.addUse(content);
+        }
+
+        // The marker is a link, with the reference number as the text.
+        if (output) {
+            _collector.startLink(null);
+            _collector.addText("[" + (_refs.indexOf(ref) + 1) + "]");
+            _collector.endLink();
+        }
+
+        return refEnd;
+    }
+
+    /**
+     * Find any references in text[start, end) that won't be output, e.g. because they're
+     * in a template, so that they're included in the list of references.
+     */
+    private void collectRefs(String text, int start, int end) {
+        int i = text.indexOf("<ref", start);
+        while ((i != -1) && (i < end)) {
+            Matcher m = TAG_PATTERN.matcher(text);
+            m.region(i, end);
+            if (m.lookingAt() && m.group(1).isEmpty() && m.group(2).equalsIgnoreCase("ref")) {
+                i = parseRef(text, m.group(3), !m.group(4).isEmpty(), m.end(), end, false);
+            } else {
+                i += 4;
+            }
+
+            i = text.indexOf("<ref", i);
+        }
+    }
+
+    /**
+     * Output the list of references, for a <references> tag. A reference that's used more
+     * than once has a link back to each use, with a letter as the link text.
+     */
+    private void addReferences() {
+        for (Reference ref : _refs) {
+            _collector.addBreak();
+            if (ref.getNumUses() == 1) {
+                _collector.startLink(null);
+                _collector.addText(UP_ARROW);
+                _collector.endLink();
+            } else {
+                _collector.addText(UP_ARROW);
+                for (int i = 0; i < ref.getNumUses(); i++) {
+                    _collector.addText(' ');
+                    _collector.startLink(null);
+                    _collector.addText((char)('a' + (i % 26)));
+                    _collector.endLink();
+                }
+            }
+
+            _collector.addText(' ');
+            String content = ref.getContent();
+            parse(content, 0, content.length(), false);
+            _collector.addBreak();
+        }
+
+        _refs.clear();
+        _namedRefs.clear();
+    }
+
+    /**
+     * @return offset of the closing tag for <name>, or -1 if it's not found.
+     */
+    private int findClosingTag(String text, String name, int start, int end) {
+        String closingTag = "</" + name;
+        for (int i = text.indexOf('<', start); (i != -1) && (i < end); i = text.indexOf('<', i + 1)) {
+            if (text.regionMatches(true, i, closingTag, 0, closingTag.length())) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return offset following the closing tag for <name>, or <end> if it's not found.
+     */
+    private int skipToClosingTag(String text, String name, int start, int end) {
+        int closingTag = findClosingTag(text, name, start, end);
+        if (closingTag == -1) {
+            return end;
+        }
+
+        int tagEnd = text.indexOf('>', closingTag);
+        return (tagEnd == -1) || (tagEnd >= end) ? end : tagEnd + 1;
+    }
+
+    private int findLineEnd(String text, int start, int end) {
+        int lineEnd = text.indexOf('\n', start);
+        return (lineEnd == -1) || (lineEnd > end) ? end : lineEnd;
+    }
+
+    /**
+     * Find <target> in text[start, end), skipping anything inside of links and templates.
+     *
+     * @return offset of <target>, or -1 if not found.
+     */
+    private static int findOutsideMarkup(String text, int start, int end, String target) {
+        int linkDepth = 0;
+        int templateDepth = 0;
+        int i = start;
+        while (i < end) {
+            if (text.startsWith("[[", i)) {
+                linkDepth += 1;
+                i += 2;
+            } else if ((linkDepth > 0) && text.startsWith("]]", i)) {
+                linkDepth -= 1;
+                i += 2;
+            } else if (text.startsWith("{{", i)) {
+                templateDepth += 1;
+                i += 2;
+            } else if ((templateDepth > 0) && text.startsWith("}}", i)) {
+                templateDepth -= 1;
+                i += 2;
+            } else if ((linkDepth == 0) && (templateDepth == 0) && text.startsWith(target, i) && (i + target.length() <= end)) {
+                return i;
+            } else {
+                i += 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static class Reference {
+        private String _content;
+        private int _numUses;
+
+        public Reference(String content) {
+            _content = content;
+            _numUses = 1;
+        }
+
+        /**
+         * A named reference can be used again, and the content can be defined by any use.
+         */
+        public void addUse(String content) {
+            _numUses += 1;
+            if (_content.isEmpty()) {
+                _content = content;
+            }
+        }
+
+        public String getContent() {
+            return _content;
+        }
+
+        public int getNumUses() {
+            return _numUses;
+        }
+    }
+}
@@ -6,5 +6,10 @@ public enum WikiwordsCounters {
     HTML_PARSE,         // Number of articles we parsed successfully
     
     WIKITERM,           // Number of article ref/term pairs we generated.
-    ARTICLES            // Number of articles read by GenerateTerms
+    WIKITERM_WEIGHT,    // Number of combined term weight records we generated.
+    ARTICLES,           // Number of articles read by GenerateTerms
+    
+    TEMPLATE_CACHE_HIT,         // Number of templates we found in the template cache.
+    TEMPLATE_CACHE_MISS,        // Number of templates we had to convert.
+    TEMPLATE_CACHE_EVICTION     // Number of templates removed from the (full) template cache.
 }
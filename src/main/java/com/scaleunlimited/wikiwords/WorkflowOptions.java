@@ -121,6 +121,10 @@ public abstract class WorkflowOptions extends BaseOptions {
     // TODO this should be a static method in FlowResult, since that is where we get a map
     // of counter names to counts.
     public static String getFlowCounterName(Enum<?> counter) {
-        return String.format("%s.%s", counter.getClass().getName(), counter.name());
+        return getFlowCounterName(counter.getClass().getName(), counter.name());
+    }
+    
+    public static String getFlowCounterName(String group, String counter) {
+        return String.format("%s.%s", group, counter);
     }
 }
@@ -4,8 +4,14 @@ public interface WorkingConfig {
 
     // Names of sub-directories found inside of the working directory.
     public static final String TERMS_SUBDIR_NAME = "terms";
+    public static final String TERM_WEIGHTS_SUBDIR_NAME = "term_weights";
+    public static final String TERM_IDS_SUBDIR_NAME = "term_ids";
+    public static final String TERM_DICTIONARY_SUBDIR_NAME = "term_dictionary";
+    public static final String ARTICLE_DICTIONARY_SUBDIR_NAME = "article_dictionary";
     public static final String TERMDF_SUBDIR_NAME = "term_df";
     public static final String COUNTERS_SUBDIR_NAME = "counters";
     public static final String TERM_SCORES_SUBDIR_NAME = "term_scores";
+    public static final String PARTS_SUBDIR_NAME = "parts";
+    public static final String METADATA_SUBDIR_NAME = "metadata";
 
 }
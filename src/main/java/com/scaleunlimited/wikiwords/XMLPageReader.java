@@ -0,0 +1,253 @@
+package com.scaleunlimited.wikiwords;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Reader that finds the <page> elements in a Wikipedia dump file, without parsing the
+ * XML. Page text in a dump is escaped, so "<page>" and "</page>" can only occur as the
+ * start and end tags of a page element.
+ *
+ * A reader can also be used to read just the pages in one split of a file. Skip to the
+ * start of the split before creating the reader (passing in that offset), and call
+ * setEnd() with the end of the split. A page belongs to the split that contains the
+ * start of its <page> tag.
+ *
+ */
+public class XMLPageReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] PAGE_START_TAG = "<page>".getBytes(UTF_8);
+    private static final byte[] PAGE_END_TAG = "</page>".getBytes(UTF_8);
+
+    // Max number of bytes before the first page, when reading the header.
+    public static final int MAX_HEADER_LENGTH = 1024 * 1024;
+
+    private InputStream _in;
+    private long _position;
+    private long _end;
+
+    private long _pageStart;
+    private byte[] _page;
+    private int _pageLength;
+
+    /**
+     * @param is Stream of uncompressed XML, positioned at the start of the file.
+     */
+    public XMLPageReader(InputStream is) {
+        this(is, 0);
+    }
+
+    /**
+     * @param is Stream of uncompressed XML
+     * @param startPosition Offset in the file of the stream's current position.
+     */
+    public XMLPageReader(InputStream is, long startPosition) {
+        _in = new BufferedInputStream(is);
+        _position = startPosition;
+        _end = Long.MAX_VALUE;
+
+        _page = new byte[64 * 1024];
+        _pageLength = 0;
+    }
+
+    /**
+     * @return number of bytes from the start of the file that we've consumed.
+     */
+    public long getPosition() {
+        return _position;
+    }
+
+    /**
+     * Don't return any pages that start at or after <end>.
+     *
+     * @param end Offset from start of file
+     */
+    public void setEnd(long end) {
+        _end = end;
+    }
+
+    /**
+     * Read the next complete <page> element.
+     *
+     * @return true if we read a page, false if we're at the end of the file (or split).
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if (!findPage()) {
+            return false;
+        }
+
+        readPage();
+        return true;
+    }
+
+    /**
+     * Skip forward to (and consume) the next <page> tag. Call readPage() to read the
+     * rest of the page.
+     *
+     * @return true if a page tag was found that starts before the end of the split.
+     * @throws IOException
+     */
+    public boolean findPage() throws IOException {
+        if (_position >= _end) {
+            return false;
+        }
+
+        if (!skipTo(PAGE_START_TAG, false)) {
+            return false;
+        }
+
+        _pageStart = _position - PAGE_START_TAG.length;
+        if (_pageStart >= _end) {
+            return false;
+        }
+
+        System.arraycopy(PAGE_START_TAG, 0, _page, 0, PAGE_START_TAG.length);
+        _pageLength = PAGE_START_TAG.length;
+        return true;
+    }
+
+    /**
+     * Read the rest of the page found by findPage(), up to and including the </page> tag.
+     *
+     * @throws IOException
+     */
+    public void readPage() throws IOException {
+        if (!skipTo(PAGE_END_TAG, true)) {
+            throw new EOFException("Missing </page> tag for page at offset " + _pageStart);
+        }
+    }
+
+    /**
+     * @return offset from start of file of the current page's <page> tag.
+     */
+    public long getPageStart() {
+        return _pageStart;
+    }
+
+    /**
+     * @return buffer containing the current page, which is reused for the next page.
+     */
+    public byte[] getPageBytes() {
+        return _page;
+    }
+
+    public int getPageLength() {
+        return _pageLength;
+    }
+
+    public String getPage() {
+        return new String(_page, 0, _pageLength, UTF_8);
+    }
+
+    /**
+     * Read bytes up to and including <tag>, optionally saving them in the page buffer.
+     *
+     * @return true if the tag was found, false if we hit the end of the stream.
+     */
+    private boolean skipTo(byte[] tag, boolean save) throws IOException {
+        int matched = 0;
+        while (true) {
+            int b = _in.read();
+            if (b == -1) {
+                return false;
+            }
+
+            _position += 1;
+            if (save) {
+                if (_pageLength == _page.length) {
+                    byte[] newPage = new byte[_page.length * 2];
+                    System.arraycopy(_page, 0, newPage, 0, _pageLength);
+                    _page = newPage;
+                }
+
+                _page[_pageLength++] = (byte)b;
+            }
+
+            if (b == tag[matched]) {
+                matched += 1;
+                if (matched == tag.length) {
+                    return true;
+                }
+            } else {
+                // Tags only contain '<' as their first character, so we never have to back up
+                // more than to the start of the tag.
+                matched = (b == tag[0]) ? 1 : 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    /**
+     * Return the XML from the start of a dump file up to the first <page> element, which
+     * contains the <siteinfo> element with the namespaces.
+     *
+     * @param is Stream of uncompressed XML, positioned at the start of the file.
+     * @return header
+     * @throws IOException
+     */
+    public static String readHeader(InputStream is) throws IOException {
+        InputStream in = new BufferedInputStream(is);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+        int matched = 0;
+        while (header.size() < MAX_HEADER_LENGTH) {
+            int b = in.read();
+            if (b == -1) {
+                break;
+            }
+
+            header.write(b);
+            if (b == PAGE_START_TAG[matched]) {
+                matched += 1;
+                if (matched == PAGE_START_TAG.length) {
+                    byte[] bytes = header.toByteArray();
+                    return new String(bytes, 0, bytes.length - PAGE_START_TAG.length, UTF_8);
+                }
+            } else {
+                matched = (b == PAGE_START_TAG[0]) ? 1 : 0;
+            }
+        }
+
+        throw new IOException("No <page> element found in the first " + header.size() + " bytes");
+    }
+
+    /**
+     * Wrap <is> with a decompressing stream if it's bzip2 (including multistream) or
+     * gzip compressed, based on the magic bytes at the start of the stream.
+     *
+     * @param is Stream positioned at the start of the file.
+     * @return stream of uncompressed data.
+     * @throws IOException
+     */
+    public static InputStream decompress(InputStream is) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(is);
+        bis.mark(3);
+        int b1 = bis.read();
+        int b2 = bis.read();
+        int b3 = bis.read();
+        bis.reset();
+
+        if ((b1 == 'B') && (b2 == 'Z') && (b3 == 'h')) {
+            return new BZip2CompressorInputStream(bis, true);
+        } else if ((b1 == 0x1f) && (b2 == 0x8b)) {
+            return new GZIPInputStream(bis);
+        } else {
+            return bis;
+        }
+    }
+}
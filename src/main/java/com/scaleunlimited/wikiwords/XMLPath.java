@@ -1,104 +1,244 @@
 package com.scaleunlimited.wikiwords;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Tracks the path of elements to the current node, while parsing an XML document with
+ * a SAX handler, so that the handler can check whether it's at or in a given node.
+ *
+ * Paths are element names separated by '/', e.g. "head/title". A path that starts with
+ * a '/' is absolute, and must match from the root. Otherwise it can match anywhere.
+ *
+ * For speed, paths should be compiled once into a Matcher, which keeps track of where it
+ * matches as nodes are pushed and popped. Checking a Matcher is then O(1), and pushing or
+ * popping a node doesn't allocate anything once the path has been as deep as it's going
+ * to get, and all of the element names have been seen. Element names are stored as symbols
+ * (ints), so matching never compares strings.
+ *
+ */
 public class XMLPath {
-    
-    private List<String> _path;
-    
+
+    private Map<String, Integer> _symbols;
+    private List<Matcher> _matchers;
+    private Map<String, Matcher> _compiledPaths;
+    private int[] _path;
+    private int _depth;
+
     public XMLPath() {
-        _path = new ArrayList<>();
+        _symbols = new HashMap<>();
+        _matchers = new ArrayList<>();
+        _compiledPaths = new HashMap<>();
+        _path = new int[16];
+        _depth = 0;
     }
 
-    public void pushNode(String qName) {
-        _path.add(qName);
-    }
-    
-    public void popNode(String qName) {
-        // TODO verify that last item is == qName
-        _path.remove(_path.size() - 1);
+    /**
+     * Compile <nodePath> into a Matcher for this path. The Matcher's state is kept up to
+     * date as nodes are pushed and popped.
+     *
+     * @param nodePath Path to match
+     * @return Matcher for the path
+     * @throws IllegalArgumentException if the path has any empty elements.
+     */
+    public Matcher compile(String nodePath) {
+        Matcher result = new Matcher(this, nodePath);
+        _matchers.add(result);
+        return result;
     }
-    
-    public boolean atNode(String nodePath) {
-        if (isRootPath(nodePath)) {
-            return _path.isEmpty();
-        }
 
-        boolean isAbsolutePath = nodePath.startsWith("/");
-        String[] nodeNames = getNodeNames(nodePath);
-        
-        if (nodeNames.length > _path.size()) {
-            return false;
-        } else if (isAbsolutePath && (nodeNames.length != _path.size())) {
-            return false;
+    /**
+     * Remove all nodes, so that we're back at the root.
+     */
+    public void clear() {
+        while (_depth > 0) {
+            popNode(null);
         }
+    }
 
-        int targetPathIndex = nodeNames.length - 1;
-        int curPathIndex = _path.size() - 1;
-        for (; targetPathIndex >= 0; targetPathIndex--, curPathIndex--) {
-            if (!nodeNames[targetPathIndex].equals(_path.get(curPathIndex))) {
-                return false;
-            }
+    public void pushNode(String qName) {
+        if (_depth == _path.length) {
+            _path = Arrays.copyOf(_path, _path.length * 2);
         }
 
-        return true;
-    }
-    
-    private boolean isRootPath(String nodePath) {
-        return nodePath.equals("/");
+        _path[_depth++] = getSymbol(qName);
+
+        for (int i = 0; i < _matchers.size(); i++) {
+            _matchers.get(i).push();
+        }
     }
-    
-    private String[] getNodeNames(String nodePath) {
-        if (nodePath.startsWith("/")) {
-            nodePath = nodePath.substring(1);
+
+    public void popNode(String qName) {
+        // TODO verify that last item is == qName
+        if (_depth == 0) {
+            throw new IllegalStateException("Can't pop node from empty path");
         }
-        
-        String[] nodeNames = nodePath.split("/");
-        for (String nodeName : nodeNames) {
-            if (nodeName.isEmpty()) {
-                throw new IllegalArgumentException("Empty path elements are not allowed, but we got " + nodePath);
-            }
+
+        for (int i = 0; i < _matchers.size(); i++) {
+            _matchers.get(i).pop();
         }
 
-        return nodeNames;
+        _depth -= 1;
     }
-    
+
+    /**
+     * Return true if our current path ends with <nodePath>. This is slower than using a
+     * compiled Matcher, as we have to find the Matcher for the path.
+     */
+    public boolean atNode(String nodePath) {
+        return getMatcher(nodePath).atNode();
+    }
+
     /**
      * Return true if our current path contains <nodePath>. This means we're at or
-     * below (deeper) in the document hierarchy than whatever is in <nodePath>
-     * 
+     * below (deeper) in the document hierarchy than whatever is in <nodePath>. This is
+     * slower than using a compiled Matcher, as we have to find the Matcher for the path.
+     *
      * @param nodePath
      * @return
      */
     public boolean inNode(String nodePath) {
-        if (isRootPath(nodePath)) {
-            return true;
+        return getMatcher(nodePath).inNode();
+    }
+
+    private Matcher getMatcher(String nodePath) {
+        Matcher result = _compiledPaths.get(nodePath);
+        if (result == null) {
+            result = compile(nodePath);
+            _compiledPaths.put(nodePath, result);
         }
-        
-        boolean isAbsolutePath = nodePath.startsWith("/");
-        String[] nodeNames = getNodeNames(nodePath);
-
-        for (int startIndex = 0; startIndex <= _path.size() - nodeNames.length; startIndex++) {
-            int targetPathIndex = 0;
-            int curPathIndex = startIndex;
-
-            for (; targetPathIndex < nodeNames.length; targetPathIndex++, curPathIndex++) {
-                if (!nodeNames[targetPathIndex].equals(_path.get(curPathIndex))) {
-                    if (isAbsolutePath) {
-                        return false;
-                    } else {
-                        break;
+
+        return result;
+    }
+
+    private int getSymbol(String nodeName) {
+        Integer symbol = _symbols.get(nodeName);
+        if (symbol == null) {
+            symbol = _symbols.size() + 1;
+            _symbols.put(nodeName, symbol);
+        }
+
+        return symbol;
+    }
+
+    /**
+     * A compiled path, which tracks whether the current path matches it.
+     *
+     */
+    public static class Matcher {
+
+        private XMLPath _xmlPath;
+        private int[] _nodeSymbols;
+        private boolean _isAbsolute;
+
+        // Whether we matched at each depth of the current path, and the number of depths
+        // where we matched.
+        private boolean[] _matchedAt;
+        private int _numMatches;
+
+        private Matcher(XMLPath xmlPath, String nodePath) {
+            _xmlPath = xmlPath;
+
+            if (nodePath.isEmpty()) {
+                throw new IllegalArgumentException("Empty path elements are not allowed, but we got " + nodePath);
+            }
+
+            // The root node is an absolute path with no elements.
+            String path = nodePath;
+            _isAbsolute = path.startsWith("/");
+            if (_isAbsolute) {
+                path = path.substring(1);
+            }
+
+            // We ignore one trailing slash.
+            if (path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+
+            if (path.isEmpty()) {
+                if (!_isAbsolute || (nodePath.length() > 1)) {
+                    throw new IllegalArgumentException("Empty path elements are not allowed, but we got " + nodePath);
+                }
+
+                _nodeSymbols = new int[0];
+            } else {
+                String[] nodeNames = path.split("/", -1);
+                _nodeSymbols = new int[nodeNames.length];
+                for (int i = 0; i < nodeNames.length; i++) {
+                    if (nodeNames[i].isEmpty()) {
+                        throw new IllegalArgumentException("Empty path elements are not allowed, but we got " + nodePath);
                     }
+
+                    _nodeSymbols[i] = xmlPath.getSymbol(nodeNames[i]);
                 }
             }
-            
-            // If we matched the entire <nodePath> we're good.
-            if (targetPathIndex == nodeNames.length){
-                return true;
+
+            // Catch up with the current path, in case nodes have already been pushed.
+            _matchedAt = new boolean[xmlPath._path.length + 1];
+            _numMatches = 0;
+            for (int depth = 0; depth <= xmlPath._depth; depth++) {
+                update(depth);
             }
         }
 
-        return false;
+        /**
+         * @return true if the current path ends with our path.
+         */
+        public boolean atNode() {
+            return _matchedAt[_xmlPath._depth];
+        }
+
+        /**
+         * @return true if we're at or below our path.
+         */
+        public boolean inNode() {
+            return _numMatches > 0;
+        }
+
+        private void push() {
+            if (_xmlPath._depth >= _matchedAt.length) {
+                _matchedAt = Arrays.copyOf(_matchedAt, _xmlPath._path.length + 1);
+            }
+
+            update(_xmlPath._depth);
+        }
+
+        private void pop() {
+            int depth = _xmlPath._depth;
+            if (_matchedAt[depth]) {
+                _matchedAt[depth] = false;
+                _numMatches -= 1;
+            }
+        }
+
+        /**
+         * Set whether we match the path that ends at <depth>.
+         */
+        private void update(int depth) {
+            boolean matched;
+            if (depth < _nodeSymbols.length) {
+                matched = false;
+            } else if (_isAbsolute && (depth != _nodeSymbols.length)) {
+                matched = false;
+            } else {
+                matched = true;
+                int[] path = _xmlPath._path;
+                int offset = depth - _nodeSymbols.length;
+                for (int i = 0; i < _nodeSymbols.length; i++) {
+                    if (path[offset + i] != _nodeSymbols[i]) {
+                        matched = false;
+                        break;
+                    }
+                }
+            }
+
+            _matchedAt[depth] = matched;
+            if (matched) {
+                _numMatches += 1;
+            }
+        }
     }
 }
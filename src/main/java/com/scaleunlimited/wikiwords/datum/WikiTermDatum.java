@@ -14,20 +14,20 @@ public class WikiTermDatum extends BaseDatum {
     public static final String ARTICLE_NAME_FN = fieldName(WikiTermDatum.class, "articleName");
     public static final String TERM_FN = fieldName(WikiTermDatum.class, "term");
     public static final String ARTICLE_REF_FN = fieldName(WikiTermDatum.class, "articleRef");
-    public static final String TERM_DISTANCE_FN = fieldName(WikiTermDatum.class, "termDistance");
+    public static final String TERM_WEIGHT_FN = fieldName(WikiTermDatum.class, "termWeight");
     
     private static final Comparable<?>[] FIELD_NAMES = {
         ARTICLE_NAME_FN, 
         TERM_FN, 
         ARTICLE_REF_FN,
-        TERM_DISTANCE_FN
+        TERM_WEIGHT_FN
     };
     
     private static final Type[] FIELD_TYPES = {
         String.class, 
         String.class, 
         String.class, 
-        int.class, 
+        float.class, 
     };
     
     public static final Fields FIELDS = new Fields (FIELD_NAMES, FIELD_TYPES);
@@ -49,13 +49,13 @@ public class WikiTermDatum extends BaseDatum {
         super(fields, tuple);
     }
     
-    public WikiTermDatum(String article, String term, String articleRef, int distance) {
+    public WikiTermDatum(String article, String term, String articleRef, float weight) {
         super(FIELDS);
         
         setArticle(article);
         setTerm(term);
         setArticleRef(articleRef);
-        setDistance(distance);
+        setWeight(weight);
     }
     
     public void setArticle(String article) {
@@ -82,11 +82,11 @@ public class WikiTermDatum extends BaseDatum {
         return _tupleEntry.getString(ARTICLE_REF_FN);
     }
     
-    public void setDistance(int distance) {
-        _tupleEntry.setInteger(TERM_DISTANCE_FN, distance);
+    public void setWeight(float weight) {
+        _tupleEntry.setFloat(TERM_WEIGHT_FN, weight);
     }
 
-    public int getDistance() {
-        return _tupleEntry.getInteger(TERM_DISTANCE_FN);
+    public float getWeight() {
+        return _tupleEntry.getFloat(TERM_WEIGHT_FN);
     }
 }
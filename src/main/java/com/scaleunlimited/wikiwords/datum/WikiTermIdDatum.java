@@ -0,0 +1,97 @@
+package com.scaleunlimited.wikiwords.datum;
+
+import java.lang.reflect.Type;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.cascading.BaseDatum;
+
+/**
+ * Dictionary-encoded version of a WikiTermDatum, where the article, term and article ref
+ * are replaced by their ids in the term and article dictionaries (see TermDictionaryFlow).
+ *
+ */
+@SuppressWarnings("serial")
+public class WikiTermIdDatum extends BaseDatum {
+
+    public static final String ARTICLE_ID_FN = fieldName(WikiTermIdDatum.class, "articleId");
+    public static final String TERM_ID_FN = fieldName(WikiTermIdDatum.class, "termId");
+    public static final String ARTICLE_REF_ID_FN = fieldName(WikiTermIdDatum.class, "articleRefId");
+    public static final String TERM_WEIGHT_FN = fieldName(WikiTermIdDatum.class, "termWeight");
+    
+    private static final Comparable<?>[] FIELD_NAMES = {
+        ARTICLE_ID_FN, 
+        TERM_ID_FN, 
+        ARTICLE_REF_ID_FN,
+        TERM_WEIGHT_FN
+    };
+    
+    private static final Type[] FIELD_TYPES = {
+        int.class, 
+        int.class, 
+        int.class, 
+        float.class, 
+    };
+    
+    public static final Fields FIELDS = new Fields (FIELD_NAMES, FIELD_TYPES);
+
+
+    public WikiTermIdDatum() {
+        super(FIELDS);
+    }
+
+    public WikiTermIdDatum(Fields fields) {
+        super(fields);
+    }
+
+    public WikiTermIdDatum(TupleEntry tupleEntry) {
+        super(tupleEntry);
+    }
+
+    public WikiTermIdDatum(Fields fields, Tuple tuple) {
+        super(fields, tuple);
+    }
+    
+    public WikiTermIdDatum(int articleId, int termId, int articleRefId, float weight) {
+        super(FIELDS);
+        
+        setArticleId(articleId);
+        setTermId(termId);
+        setArticleRefId(articleRefId);
+        setWeight(weight);
+    }
+    
+    public void setArticleId(int articleId) {
+        _tupleEntry.setInteger(ARTICLE_ID_FN, articleId);
+    }
+    
+    public int getArticleId() {
+        return _tupleEntry.getInteger(ARTICLE_ID_FN);
+    }
+    
+    public void setTermId(int termId) {
+        _tupleEntry.setInteger(TERM_ID_FN, termId);
+    }
+    
+    public int getTermId() {
+        return _tupleEntry.getInteger(TERM_ID_FN);
+    }
+    
+    public void setArticleRefId(int articleRefId) {
+        _tupleEntry.setInteger(ARTICLE_REF_ID_FN, articleRefId);
+    }
+    
+    public int getArticleRefId() {
+        return _tupleEntry.getInteger(ARTICLE_REF_ID_FN);
+    }
+    
+    public void setWeight(float weight) {
+        _tupleEntry.setFloat(TERM_WEIGHT_FN, weight);
+    }
+
+    public float getWeight() {
+        return _tupleEntry.getFloat(TERM_WEIGHT_FN);
+    }
+}
@@ -0,0 +1,109 @@
+package com.scaleunlimited.wikiwords.datum;
+
+import java.lang.reflect.Type;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.cascading.BaseDatum;
+
+/**
+ * Pre-aggregated version of WikiTermDatum records, generated by the GenerateTermsFlow
+ * when combining is enabled. Each record has the summed weight of a term for links to
+ * an article ref, and the number of (link, term) pairs that were summed.
+ * 
+ * Since the article containing the link is no longer known, the document frequency of
+ * each term is carried by records with an empty article ref, where the count is the
+ * number of articles that had the term near a link.
+ *
+ */
+@SuppressWarnings("serial")
+public class WikiTermWeightDatum extends BaseDatum {
+
+    public static final String TERM_FN = fieldName(WikiTermWeightDatum.class, "term");
+    public static final String ARTICLE_REF_FN = fieldName(WikiTermWeightDatum.class, "articleRef");
+    public static final String WEIGHT_FN = fieldName(WikiTermWeightDatum.class, "weight");
+    public static final String COUNT_FN = fieldName(WikiTermWeightDatum.class, "count");
+    
+    // Article ref for records that have the number of articles containing the term.
+    public static final String ARTICLE_COUNT_REF = "";
+    
+    private static final Comparable<?>[] FIELD_NAMES = {
+        TERM_FN, 
+        ARTICLE_REF_FN,
+        WEIGHT_FN,
+        COUNT_FN
+    };
+    
+    private static final Type[] FIELD_TYPES = {
+        String.class, 
+        String.class, 
+        float.class, 
+        int.class, 
+    };
+    
+    public static final Fields FIELDS = new Fields (FIELD_NAMES, FIELD_TYPES);
+
+
+    public WikiTermWeightDatum() {
+        super(FIELDS);
+    }
+
+    public WikiTermWeightDatum(Fields fields) {
+        super(fields);
+    }
+
+    public WikiTermWeightDatum(TupleEntry tupleEntry) {
+        super(tupleEntry);
+    }
+
+    public WikiTermWeightDatum(Fields fields, Tuple tuple) {
+        super(fields, tuple);
+    }
+    
+    public WikiTermWeightDatum(String term, String articleRef, float weight, int count) {
+        super(FIELDS);
+        
+        setTerm(term);
+        setArticleRef(articleRef);
+        setWeight(weight);
+        setCount(count);
+    }
+    
+    public void setTerm(String term) {
+        _tupleEntry.setString(TERM_FN, term);
+    }
+    
+    public String getTerm() {
+        return _tupleEntry.getString(TERM_FN);
+    }
+    
+    public void setArticleRef(String articleRef) {
+        _tupleEntry.setString(ARTICLE_REF_FN, articleRef);
+    }
+    
+    public String getArticleRef() {
+        return _tupleEntry.getString(ARTICLE_REF_FN);
+    }
+    
+    public boolean isArticleCount() {
+        return ARTICLE_COUNT_REF.equals(getArticleRef());
+    }
+    
+    public void setWeight(float weight) {
+        _tupleEntry.setFloat(WEIGHT_FN, weight);
+    }
+
+    public float getWeight() {
+        return _tupleEntry.getFloat(WEIGHT_FN);
+    }
+    
+    public void setCount(int count) {
+        _tupleEntry.setInteger(COUNT_FN, count);
+    }
+
+    public int getCount() {
+        return _tupleEntry.getInteger(COUNT_FN);
+    }
+}
@@ -16,6 +16,7 @@ import cascading.pipe.Pipe;
 import cascading.pipe.assembly.CountBy;
 import cascading.pipe.assembly.Rename;
 import cascading.pipe.assembly.Retain;
+import cascading.pipe.assembly.SumBy;
 import cascading.pipe.assembly.Unique;
 import cascading.tap.SinkMode;
 import cascading.tap.Tap;
@@ -25,6 +26,8 @@ import com.scaleunlimited.cascading.BasePath;
 import com.scaleunlimited.cascading.BasePlatform;
 import com.scaleunlimited.wikiwords.WorkingConfig;
 import com.scaleunlimited.wikiwords.datum.WikiTermDatum;
+import com.scaleunlimited.wikiwords.datum.WikiTermIdDatum;
+import com.scaleunlimited.wikiwords.datum.WikiTermWeightDatum;
 import com.scaleunlimited.wikiwords.tools.AnalyzeTermsTool.AnalyzeTermsOptions;
 
 public class AnalyzeTermsFlow {
@@ -36,52 +39,147 @@ public class AnalyzeTermsFlow {
     
     public static Flow createFlow(AnalyzeTermsOptions options) throws Exception {
         
-        // We're reading in files generated by GenerateTermsFlow, which contain WikiTermDatum records
+        // We're reading in files generated by GenerateTermsFlow, which contain WikiTermDatum records,
+        // or the dictionary-encoded version of those files generated by TermDictionaryFlow.
         
         BasePlatform platform = options.getPlatform(AnalyzeTermsFlow.class);
         FlowDef flowDef = new FlowDef()
             .setName("analyze terms")
             .setDebugLevel(options.isDebug() ? DebugLevel.VERBOSE : DebugLevel.NONE);
         
-        BasePath inputPath = options.getWorkingSubdirPath(WorkingConfig.TERMS_SUBDIR_NAME);
-        Tap sourceTap = platform.makeTap(platform.makeBinaryScheme(WikiTermDatum.FIELDS), inputPath, SinkMode.KEEP);
+        if (options.isUseWeights()) {
+            if (options.isUseIds()) {
+                throw new IllegalArgumentException("Combined term weights can't be dictionary-encoded");
+            }
+            
+            return createWeightsFlow(options, platform, flowDef);
+        }
+        
+        String termFN;
+        String articleFN;
+        String articleRefFN;
+        String weightFN;
+        Pipe termDictionary = null;
+        Pipe articleDictionary = null;
         Pipe p = new Pipe("terms");
-        flowDef.addSource(p, sourceTap);
+        
+        if (options.isUseIds()) {
+            termFN = WikiTermIdDatum.TERM_ID_FN;
+            articleFN = WikiTermIdDatum.ARTICLE_ID_FN;
+            articleRefFN = WikiTermIdDatum.ARTICLE_REF_ID_FN;
+            weightFN = WikiTermIdDatum.TERM_WEIGHT_FN;
+            
+            BasePath inputPath = options.getWorkingSubdirPath(WorkingConfig.TERM_IDS_SUBDIR_NAME);
+            flowDef.addSource(p, platform.makeTap(platform.makeBinaryScheme(WikiTermIdDatum.FIELDS), inputPath, SinkMode.KEEP));
+            
+            termDictionary = new Pipe("term dictionary");
+            flowDef.addSource(termDictionary, TermDictionaryFlow.makeDictionaryTap(options, WorkingConfig.TERM_DICTIONARY_SUBDIR_NAME, SinkMode.KEEP));
+            articleDictionary = new Pipe("article dictionary");
+            flowDef.addSource(articleDictionary, TermDictionaryFlow.makeDictionaryTap(options, WorkingConfig.ARTICLE_DICTIONARY_SUBDIR_NAME, SinkMode.KEEP));
+        } else {
+            termFN = WikiTermDatum.TERM_FN;
+            articleFN = WikiTermDatum.ARTICLE_NAME_FN;
+            articleRefFN = WikiTermDatum.ARTICLE_REF_FN;
+            weightFN = WikiTermDatum.TERM_WEIGHT_FN;
+            
+            BasePath inputPath = options.getWorkingSubdirPath(WorkingConfig.TERMS_SUBDIR_NAME);
+            flowDef.addSource(p, platform.makeTap(platform.makeBinaryScheme(WikiTermDatum.FIELDS), inputPath, SinkMode.KEEP));
+        }
         
         // Calculate the DF for each term.
         Pipe termDF = new Pipe("term DF", p);
-        termDF = new Retain(termDF, new Fields(WikiTermDatum.TERM_FN, WikiTermDatum.ARTICLE_NAME_FN));
-        termDF = new Unique(termDF, new Fields(WikiTermDatum.TERM_FN, WikiTermDatum.ARTICLE_NAME_FN));
-        termDF = new CountBy(termDF, new Fields(WikiTermDatum.TERM_FN), new Fields("num_articles"));
+        termDF = new Retain(termDF, new Fields(termFN, articleFN));
+        termDF = new Unique(termDF, new Fields(termFN, articleFN));
+        termDF = new CountBy(termDF, new Fields(termFN), new Fields("num_articles"));
         // termDF = new Each(termDF, DebugLevel.VERBOSE, new Debug("docs per term", true));
         
-        termDF = new GroupBy(termDF, Fields.NONE, new Fields("num_articles"), true);
-        termDF = new Each(termDF, new Fields("num_articles"), new ExpressionFunction(new Fields("df"), "(float)num_articles / " + options.getTotalArticles(), Float.class), Fields.SWAP);
-        Tap termDFSink = platform.makeTap(platform.makeTextScheme(), options.getWorkingSubdirPath(WorkingConfig.TERMDF_SUBDIR_NAME), SinkMode.REPLACE);
-        flowDef.addTailSink(termDF, termDFSink);
+        // There's one result per term, so now we can switch back to the actual terms.
+        if (options.isUseIds()) {
+            termDF = TermDictionaryFlow.decode(termDF, termFN, WikiTermDatum.TERM_FN, termDictionary);
+            termDF = new Retain(termDF, new Fields(WikiTermDatum.TERM_FN, "num_articles"));
+        }
         
-        // Calculate the TF*IDF value for term/article ref pairs.
-        Pipe termTFIDF = new Pipe("term TF*IDF pipe", p);
-        termTFIDF = new Retain(termTFIDF, new Fields(WikiTermDatum.TERM_FN, WikiTermDatum.ARTICLE_REF_FN, WikiTermDatum.TERM_DISTANCE_FN));
-        termTFIDF = new Each(termTFIDF, new Fields(WikiTermDatum.TERM_DISTANCE_FN), new ExpressionFunction(new Fields(TfIdfAssembly.TERM_COUNT_FN), "Math.max(1, 10-$0)", Integer.class), Fields.SWAP);
-        termTFIDF = new Each(termTFIDF, new Fields(TfIdfAssembly.TERM_COUNT_FN), new ExpressionFilter("$0 == 0", Integer.class));
+        addTermDFSink(options, platform, flowDef, termDF);
         
+        // Calculate the TF*IDF value for term/article ref pairs, using the term weights (which
+        // GenerateTermsFlow calculated from the distance to the link) as the term count.
+        Pipe termTFIDF = new Pipe("term TF*IDF pipe", p);
+        termTFIDF = new Retain(termTFIDF, new Fields(termFN, articleRefFN, weightFN));
         termTFIDF = new Rename( termTFIDF,
-                                new Fields(WikiTermDatum.TERM_FN, WikiTermDatum.ARTICLE_REF_FN),
-                                new Fields(TfIdfAssembly.TERM_FN, TfIdfAssembly.DOC_FN));
+                                new Fields(termFN, articleRefFN, weightFN),
+                                new Fields(TfIdfAssembly.TERM_FN, TfIdfAssembly.DOC_FN, TfIdfAssembly.TERM_COUNT_FN));
         
         termTFIDF = new TfIdfAssembly(termTFIDF);
 
         // Group by term sort by score, take the top N, and reorder so terms are first
         termTFIDF = new GroupBy(termTFIDF, new Fields(TfIdfAssembly.TERM_FN), new Fields(TfIdfAssembly.TF_IDF_FN), true);
         termTFIDF = new Every(termTFIDF, new First(20), Fields.RESULTS);
+        
+        // We only have the top N results for each term, so now we can switch back to the
+        // actual terms and article names, and then group them again.
+        if (options.isUseIds()) {
+            termTFIDF = TermDictionaryFlow.decode(termTFIDF, TfIdfAssembly.TERM_FN, TfIdfAssembly.TERM_FN, termDictionary);
+            termTFIDF = TermDictionaryFlow.decode(termTFIDF, TfIdfAssembly.DOC_FN, TfIdfAssembly.DOC_FN, articleDictionary);
+            termTFIDF = new GroupBy(termTFIDF, new Fields(TfIdfAssembly.TERM_FN), new Fields(TfIdfAssembly.TF_IDF_FN), true);
+        }
+        
+        addTermScoresSink(options, platform, flowDef, termTFIDF);
+        return platform.makeFlowConnector().connect(flowDef);
+    }
+
+    /**
+     * Create a flow that reads the WikiTermWeightDatum records generated by GenerateTermsFlow
+     * when it's combining term weights. The weights have already been summed per term/article
+     * ref pair in each map task, and the TfIdfAssembly sums them again, so the results are the
+     * same as when we start with the WikiTermDatum records.
+     */
+    private static Flow createWeightsFlow(AnalyzeTermsOptions options, BasePlatform platform, FlowDef flowDef) throws Exception {
+        Pipe p = new Pipe("term weights");
+        BasePath inputPath = options.getWorkingSubdirPath(WorkingConfig.TERM_WEIGHTS_SUBDIR_NAME);
+        flowDef.addSource(p, platform.makeTap(platform.makeBinaryScheme(WikiTermWeightDatum.FIELDS), inputPath, SinkMode.KEEP));
+        
+        // The DF for each term is the sum of the per-task article counts, which are in the
+        // records with an empty (WikiTermWeightDatum.ARTICLE_COUNT_REF) article ref.
+        Pipe termDF = new Pipe("term DF", p);
+        termDF = new Each(termDF, new Fields(WikiTermWeightDatum.ARTICLE_REF_FN), new ExpressionFilter("!$0.isEmpty()", String.class));
+        termDF = new SumBy(termDF, new Fields(WikiTermWeightDatum.TERM_FN), new Fields(WikiTermWeightDatum.COUNT_FN), new Fields("num_articles"), Integer.class);
+        termDF = new Rename(termDF, new Fields(WikiTermWeightDatum.TERM_FN), new Fields(WikiTermDatum.TERM_FN));
+        addTermDFSink(options, platform, flowDef, termDF);
+        
+        // Calculate the TF*IDF value for term/article ref pairs, using the summed weights as the term count.
+        Pipe termTFIDF = new Pipe("term TF*IDF pipe", p);
+        termTFIDF = new Each(termTFIDF, new Fields(WikiTermWeightDatum.ARTICLE_REF_FN), new ExpressionFilter("$0.isEmpty()", String.class));
+        termTFIDF = new Retain(termTFIDF, new Fields(WikiTermWeightDatum.TERM_FN, WikiTermWeightDatum.ARTICLE_REF_FN, WikiTermWeightDatum.WEIGHT_FN));
+        termTFIDF = new Rename( termTFIDF,
+                                new Fields(WikiTermWeightDatum.TERM_FN, WikiTermWeightDatum.ARTICLE_REF_FN, WikiTermWeightDatum.WEIGHT_FN),
+                                new Fields(TfIdfAssembly.TERM_FN, TfIdfAssembly.DOC_FN, TfIdfAssembly.TERM_COUNT_FN));
+        
+        termTFIDF = new TfIdfAssembly(termTFIDF);
+
+        termTFIDF = new GroupBy(termTFIDF, new Fields(TfIdfAssembly.TERM_FN), new Fields(TfIdfAssembly.TF_IDF_FN), true);
+        termTFIDF = new Every(termTFIDF, new First(20), Fields.RESULTS);
+        
+        addTermScoresSink(options, platform, flowDef, termTFIDF);
+        return platform.makeFlowConnector().connect(flowDef);
+    }
+    
+    /**
+     * Sort the (term, num_articles) tuples in <termDF> by count, convert the count to a DF, and
+     * save the results.
+     */
+    private static void addTermDFSink(AnalyzeTermsOptions options, BasePlatform platform, FlowDef flowDef, Pipe termDF) throws Exception {
+        termDF = new GroupBy(termDF, Fields.NONE, new Fields("num_articles"), true);
+        termDF = new Each(termDF, new Fields("num_articles"), new ExpressionFunction(new Fields("df"), "(float)num_articles / " + options.getTotalArticles(), Float.class), Fields.SWAP);
+        Tap termDFSink = platform.makeTap(platform.makeTextScheme(), options.getWorkingSubdirPath(WorkingConfig.TERMDF_SUBDIR_NAME), SinkMode.REPLACE);
+        flowDef.addTailSink(termDF, termDFSink);
+    }
+    
+    private static void addTermScoresSink(AnalyzeTermsOptions options, BasePlatform platform, FlowDef flowDef, Pipe termTFIDF) throws Exception {
         termTFIDF = new Retain(termTFIDF, new Fields(TfIdfAssembly.TERM_FN, TfIdfAssembly.DOC_FN, TfIdfAssembly.TF_IDF_FN));
         
         BasePath outputPath = options.getWorkingSubdirPath(WorkingConfig.TERM_SCORES_SUBDIR_NAME);
         Tap sinkTap = platform.makeTap(platform.makeTextScheme(), outputPath, SinkMode.REPLACE);
         flowDef.addTailSink(termTFIDF, sinkTap);
-
-        return platform.makeFlowConnector().connect(flowDef);
     }
 
 }
@@ -0,0 +1,104 @@
+package com.scaleunlimited.wikiwords.flow;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.scaleunlimited.wikiwords.ArticleRecord;
+import com.scaleunlimited.wikiwords.ArticleRecordReader;
+
+/**
+ * Hadoop input format for binary part files generated by the WikiDumpTool. Files are
+ * split on block boundaries, using the sync marker that precedes each block, so a large
+ * (compressed) part file can be processed by multiple map tasks. A block belongs to
+ * the split containing the start of its sync marker. Older (version 1) files don't
+ * have sync markers, so they're only read by the split that starts at offset 0.
+ *
+ * The key is the offset of the block that contains the record.
+ *
+ */
+public class ArticleRecordInputFormat extends FileInputFormat<LongWritable, ArticleRecord> {
+
+    @Override
+    public RecordReader<LongWritable, ArticleRecord> getRecordReader(InputSplit split, JobConf job, Reporter reporter) throws IOException {
+        reporter.setStatus(split.toString());
+        return new ArticleRecordRecordReader(job, (FileSplit)split);
+    }
+
+    private static class ArticleRecordRecordReader implements RecordReader<LongWritable, ArticleRecord> {
+
+        private ArticleRecordReader _reader;
+        private long _start;
+        private long _end;
+        private boolean _done;
+
+        public ArticleRecordRecordReader(JobConf job, FileSplit split) throws IOException {
+            Path path = split.getPath();
+            FileSystem fs = path.getFileSystem(job);
+
+            FSDataInputStream in = fs.open(path);
+            _reader = new ArticleRecordReader(in);
+            _start = split.getStart();
+            _end = _start + split.getLength();
+            _done = false;
+
+            if (!_reader.isSplittable()) {
+                _done = (_start > 0);
+            } else if (_start > 0) {
+                _reader.seek(Math.max(_start, _reader.getPosition()));
+                _done = !_reader.sync();
+            }
+
+            _reader.setEnd(_end);
+        }
+
+        @Override
+        public boolean next(LongWritable key, ArticleRecord value) throws IOException {
+            if (_done || !_reader.next(value)) {
+                _done = true;
+                return false;
+            }
+
+            key.set(_reader.getBlockStart());
+            return true;
+        }
+
+        @Override
+        public LongWritable createKey() {
+            return new LongWritable();
+        }
+
+        @Override
+        public ArticleRecord createValue() {
+            return new ArticleRecord();
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return _reader.getPosition();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            if (_done || (_end == _start)) {
+                return 1.0f;
+            } else {
+                return Math.min(1.0f, (_reader.getPosition() - _start) / (float)(_end - _start));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            _reader.close();
+        }
+    }
+}
@@ -1,30 +1,18 @@
 package com.scaleunlimited.wikiwords.flow;
 
-import info.bliki.wiki.model.WikiModel;
-
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.text.BreakIterator;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
-import org.ccil.cowan.tagsoup.Parser;
-import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 import cascading.flow.Flow;
 import cascading.flow.FlowDef;
@@ -36,42 +24,85 @@ import cascading.operation.FunctionCall;
 import cascading.operation.OperationCall;
 import cascading.pipe.Each;
 import cascading.pipe.Pipe;
+import cascading.scheme.Scheme;
 import cascading.tap.SinkMode;
 import cascading.tap.Tap;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
 
 import com.scaleunlimited.cascading.BasePath;
 import com.scaleunlimited.cascading.BasePlatform;
 import com.scaleunlimited.cascading.LoggingFlowProcess;
+import com.scaleunlimited.cascading.local.LocalPlatform;
+import com.scaleunlimited.wikiwords.ArticleLinkPosition;
+import com.scaleunlimited.wikiwords.MarkupParser;
+import com.scaleunlimited.wikiwords.PartFileFormat;
+import com.scaleunlimited.wikiwords.TemplateExpander;
+import com.scaleunlimited.wikiwords.TemplateStore;
+import com.scaleunlimited.wikiwords.TermAnalyzer;
+import com.scaleunlimited.wikiwords.TermExtractor;
 import com.scaleunlimited.wikiwords.WikiTemplates;
 import com.scaleunlimited.wikiwords.WikiwordsCounters;
 import com.scaleunlimited.wikiwords.WorkingConfig;
-import com.scaleunlimited.wikiwords.XMLPath;
 import com.scaleunlimited.wikiwords.datum.WikiTermDatum;
+import com.scaleunlimited.wikiwords.datum.WikiTermWeightDatum;
 import com.scaleunlimited.wikiwords.tools.GenerateTermsTool.GenerateTermsOptions;
 
 public class GenerateTermsFlow {
     private static final Logger LOGGER = Logger.getLogger(GenerateTermsFlow.class);
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private final static String ARTICLE_NAME_FN = "article_name";
+    private final static String ARTICLE_ID_FN = "article_id";
     private final static String ARTICLE_TEXT_FN = "article_text";
     
     private final static Fields ARTICLE_FIELDS = new Fields(ARTICLE_NAME_FN, ARTICLE_TEXT_FN);
+    private final static Fields ARTICLE_RECORD_FIELDS = new Fields(ARTICLE_NAME_FN, ARTICLE_ID_FN, ARTICLE_TEXT_FN);
 
     public static Flow createFlow(GenerateTermsOptions options) throws Exception {
         
-        // We're reading in text files, which we have to run through an HTML generator.
+        // We're reading in part files, where we have to extract terms from the markup.
         BasePlatform platform = options.getPlatform(GenerateTermsFlow.class);
         BasePath inputPath = platform.makePath(options.getInputDirname());
-        Tap sourceTap = platform.makeTap(platform.makeTextScheme(), inputPath, SinkMode.KEEP);
-        Pipe p = new Pipe("text lines");
-        p = new Each(p, new Fields("line"), new ExtractFields(), Fields.RESULTS);
-        p = new Each(p, new ConvertToTerms(options.getMaxDistanceToLink()), Fields.RESULTS);
         
-        BasePath outputPath = options.getWorkingSubdirPath(WorkingConfig.TERMS_SUBDIR_NAME);
-        Tap sinkTap = platform.makeTap(platform.makeBinaryScheme(WikiTermDatum.FIELDS), outputPath, SinkMode.REPLACE);
+        Tap sourceTap;
+        Pipe p;
+        if (options.getInputFormat() == PartFileFormat.BINARY) {
+            // Records already have the title and (decoded) text as separate fields.
+            Scheme scheme;
+            if (platform instanceof LocalPlatform) {
+                scheme = new LocalArticleRecordScheme(ARTICLE_RECORD_FIELDS);
+            } else {
+                scheme = new HadoopArticleRecordScheme(ARTICLE_RECORD_FIELDS);
+            }
+            
+            sourceTap = platform.makeTap(scheme, inputPath, SinkMode.KEEP);
+            p = new Pipe("article records");
+        } else {
+            sourceTap = platform.makeTap(platform.makeTextScheme(), inputPath, SinkMode.KEEP);
+            p = new Pipe("text lines");
+            p = new Each(p, new Fields("line"), new ExtractFields(), Fields.RESULTS);
+        }
+        
+        String templateStore = options.getTemplateStore();
+        if ((templateStore != null) && !platform.makePath(templateStore).exists()) {
+            throw new IllegalArgumentException("Template store must exist: " + templateStore);
+        }
+        
+        p = new Each(p, ARTICLE_FIELDS, new ConvertToTerms(options.getDistanceWeights(), options.getParser(), options.getAnalyzer(), options.getCombineSize(), options.getTemplateCacheSize(), templateStore), Fields.RESULTS);
+        
+        // When combining, we write out pre-aggregated term weights instead of the terms.
+        Tap sinkTap;
+        if (options.isCombine()) {
+            BasePath outputPath = options.getWorkingSubdirPath(WorkingConfig.TERM_WEIGHTS_SUBDIR_NAME);
+            sinkTap = platform.makeTap(platform.makeBinaryScheme(WikiTermWeightDatum.FIELDS), outputPath, SinkMode.REPLACE);
+        } else {
+            BasePath outputPath = options.getWorkingSubdirPath(WorkingConfig.TERMS_SUBDIR_NAME);
+            sinkTap = platform.makeTap(platform.makeBinaryScheme(WikiTermDatum.FIELDS), outputPath, SinkMode.REPLACE);
+        }
         
         FlowDef flowDef = new FlowDef()
             .setName("Generate terms")
@@ -108,49 +139,86 @@ public class GenerateTermsFlow {
         @Override
         public void operate(FlowProcess flowProcess, FunctionCall<Void> functionCall) {
             String line = functionCall.getArguments().getString("line");
-            String[] pieces = line.split("\t");
-            if (pieces.length != 2) {
+            
+            // Find the tab ourselves, versus splitting, so we don't make a copy of the
+            // (potentially large) encoded text.
+            int tabIndex = line.indexOf('\t');
+            if ((tabIndex == -1) || (line.indexOf('\t', tabIndex + 1) != -1)) {
                 throw new IllegalArgumentException("Got invalid line: " + line);
             }
             
-            
-            _result.setString(ARTICLE_NAME_FN, pieces[0]);
-            try {
-                _result.setString(ARTICLE_TEXT_FN, new String(Base64.decodeBase64(pieces[1].getBytes("us-ascii")), "UTF-8"));
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException("Impossible encoding exception", e);
-            }
+            _result.setString(ARTICLE_NAME_FN, line.substring(0, tabIndex));
+            _result.setString(ARTICLE_TEXT_FN, new String(Base64.decodeBase64(getAsciiBytes(line, tabIndex + 1)), UTF_8));
             
             functionCall.getOutputCollector().add(_result);
-            _flowProcess.increment(WikiwordsCounters.ARTICLES, 1);
         }
         
+        /**
+         * Get the bytes for line[offset, end), without first making a substring. This is
+         * only safe because the text is Base64 encoded (so all ASCII).
+         */
+        private static byte[] getAsciiBytes(String line, int offset) {
+            byte[] result = new byte[line.length() - offset];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = (byte)line.charAt(offset + i);
+            }
+            
+            return result;
+        }
     }
     
     /**
-     * Convert the MediaWiki markup to HTML, then parse that and extract the terms.
+     * Extract the terms from the MediaWiki markup, either directly or by converting it to
+     * HTML and then parsing that, and generate a WikiTermDatum for each term near a link
+     * to another article. The weight of each term is based on its distance to the link, and
+     * terms that are too far away (where the weight is below the cutoff) are skipped.
+     * 
+     * If <combineSize> is greater than zero, we instead sum up the weights of each term/article
+     * ref pair in memory, and emit WikiTermWeightDatum records whenever we have <combineSize>
+     * entries, and when the task is done. Common terms appear near links to the same article
+     * over and over, so this greatly reduces the number of records we have to shuffle.
+     * 
+     * If <templateCacheSize> is greater than zero, converted templates are cached, as the
+     * same templates (with the same arguments) are used in many articles.
+     * 
+     * If <templateStorePath> isn't null, it's the templates.txt file saved by the WikiDumpTool,
+     * which is loaded by each task and used to expand templates that don't have a rule.
      *
      */
     @SuppressWarnings("serial")
     private static class ConvertToTerms extends BaseOperation<Void> implements Function<Void> {
 
-        // Search for {{ or }}, across lines.
-        private static Pattern TEMPLATE_PATTERN = Pattern.compile("(\\{\\{|\\}\\})", Pattern.DOTALL);
-
-        private int _maxDistanceToLink;
+        private float[] _distanceWeights;
+        private MarkupParser _parser;
+        private TermAnalyzer _analyzer;
+        private int _combineSize;
+        private int _templateCacheSize;
+        private String _templateStorePath;
         
         private transient WikiTermDatum _result;
         private transient WikiTemplates _templates;
-        private transient StringBuilder _curPage;
-        private transient Parser _htmlParser;
-        private transient MyHTMLHandler _handler;
-        private transient Map<String, Integer> _templateCounts;
+        private transient TermExtractor _extractor;
         private transient LoggingFlowProcess _flowProcess;
+        
+        private transient Map<TermRef, TermWeight> _weights;
+        private transient TermRef _lookupKey;
+        private transient Set<String> _articleTerms;
+        private transient WikiTermWeightDatum _weightResult;
+        
+        // Template cache stats that we've already added to the counters.
+        private transient long _cacheHits;
+        private transient long _cacheMisses;
+        private transient long _cacheEvictions;
 
-        public ConvertToTerms(int maxDistanceToLink) {
-            super(ARTICLE_FIELDS.size(), WikiTermDatum.FIELDS);
+        public ConvertToTerms(float[] distanceWeights, MarkupParser parser, TermAnalyzer analyzer, int combineSize, int templateCacheSize, String templateStorePath) {
+            super(ARTICLE_FIELDS.size(), combineSize > 0 ? WikiTermWeightDatum.FIELDS : WikiTermDatum.FIELDS);
             
-            _maxDistanceToLink = maxDistanceToLink;
+            _distanceWeights = distanceWeights;
+            _parser = parser;
+            _analyzer = analyzer;
+            _combineSize = combineSize;
+            _templateCacheSize = templateCacheSize;
+            _templateStorePath = templateStorePath;
         }
 
         @Override
@@ -158,315 +226,210 @@ public class GenerateTermsFlow {
             super.prepare(flowProcess, operationCall);
 
             _result = new WikiTermDatum();
-            _htmlParser = new Parser();
-
-            _handler = new MyHTMLHandler();
-            _htmlParser.setContentHandler(_handler);
-            _htmlParser.setErrorHandler(_handler);
 
             try {
                 _templates = new WikiTemplates();
+                _templates.setCacheSize(_templateCacheSize);
+                if (_templateStorePath != null) {
+                    _templates.setExpander(new TemplateExpander(readTemplateStore(flowProcess)));
+                }
+                
+                _extractor = _parser.makeExtractor(_templates, _analyzer);
             } catch (IOException e) {
                 throw new RuntimeException("Error instantiating WikiTemplates", e);
             }
 
-            _templateCounts = new HashMap<>();
-            
             _flowProcess = new LoggingFlowProcess<>(flowProcess);
+            
+            if (_combineSize > 0) {
+                _weights = new HashMap<>();
+                _lookupKey = new TermRef();
+                _articleTerms = new HashSet<>();
+                _weightResult = new WikiTermWeightDatum();
+            }
         }
 
         @Override
         public void operate(FlowProcess flowProcess, FunctionCall<Void> functionCall) {
+            _flowProcess.increment(WikiwordsCounters.ARTICLES, 1);
+            
             TupleEntry te = functionCall.getArguments();
-
             String title = te.getString(ARTICLE_NAME_FN);
-            String html = WikiModel.toHtml(te.getString(ARTICLE_TEXT_FN));
-
-            newPage(title);
-            emit("<html lang=\"en\">");
-            emit("<head>");
-            emit("<meta http-equiv=\"content-type\" content=\"text/html; charset=utf-8\">");
-            emit("<title>");
-            emit(title);
-            emit("</title>");
-            emit("</head>");
-            emit("<body>");
-
-            Matcher m = TEMPLATE_PATTERN.matcher(html);
-
-            int curOffset = 0;
-            int curDepth = 0;
-            int templateStart = 0;
-
-            while (m.find()) {
-                if (m.group(1).equals("{{")) {
-                    curDepth++;
-                    if (curDepth == 1) {
-                        templateStart = m.start();
-                    }
-
-                    continue;
-                } else if (curDepth == 0) {
-                    // We got an ending }} but we're not nested - ignore it.
-                    LOGGER.warn("Invalid template nesting at offset " + m.start());
-                    continue;
-                } else {
-                    curDepth--;
-
-                    if (curDepth > 0) {
-                        continue;
-                    }
-                }
-
-                // At this point we know we've found the end of the template.
-                // First output everything from curOffset to start of this chunk.
-                emit(html.substring(curOffset, templateStart));
-
-                int templateEnd = m.start() + 2;
-                String templatePlusArgs = html.substring(templateStart + 2, templateEnd - 2);
-
-                // Now run the template through our system
-                String htmlSnippet = _templates.convertToHTML(templatePlusArgs);
-
-                // Keep track of unknown templates
-                if (htmlSnippet == null) {
-                    String template = _templates.getTemplateName(templatePlusArgs);
-                    Integer curCount = _templateCounts.get(template);
-                    if (curCount == null) {
-                        _templateCounts.put(template, 1);
-                    } else {
-                        _templateCounts.put(template, curCount + 1);
-                    }
-                } else {
-                    emit(htmlSnippet);
-                }
-
-                // Advance to the next position.
-                curOffset = templateEnd;
-            }
-
-            // Output the last bit
-            emit(html.substring(curOffset));
-            emit("</body>");
-            emit("</html>");
-
-            // Run TagSoup and our handler on each HTML result
-            InputSource is = new InputSource(new ByteArrayInputStream(_curPage.toString().getBytes(Charset.forName("UTF-8"))));
-            is.setEncoding("UTF-8");
 
             try {
-                _htmlParser.parse(is);
+                _extractor.extract(title, te.getString(ARTICLE_TEXT_FN));
                 _flowProcess.increment(WikiwordsCounters.HTML_PARSE, 1);
                 
-                List<String> terms = _handler.getTerms();
+                List<String> terms = _extractor.getTerms();
                 _result.setArticle(title);
-                for (ArticleLinkPosition articleLink : _handler.getArticleLinks()) {
+                for (ArticleLinkPosition articleLink : _extractor.getArticleLinks()) {
                     _result.setArticleRef(articleLink.getArticle());
-                    for (int i = Math.max(0, articleLink.getLinkPosition() - _maxDistanceToLink); i < Math.min(articleLink.getLinkPosition() + _maxDistanceToLink, terms.size()); i++) {
-                        _result.setTerm(terms.get(i));
-                        _result.setDistance(i - articleLink.getLinkPosition());
-                        functionCall.getOutputCollector().add(_result.getTupleEntry());
+                    int linkPosition = articleLink.getLinkPosition();
+                    for (int i = Math.max(0, linkPosition - _distanceWeights.length + 1); i < Math.min(linkPosition + _distanceWeights.length, terms.size()); i++) {
+                        float weight = _distanceWeights[Math.abs(i - linkPosition)];
+                        if (_combineSize > 0) {
+                            String term = terms.get(i);
+                            addWeight(term, articleLink.getArticle(), weight, 1);
+                            _articleTerms.add(term);
+                        } else {
+                            _result.setTerm(terms.get(i));
+                            _result.setWeight(weight);
+                            functionCall.getOutputCollector().add(_result.getTupleEntry());
+                        }
+                        
                         _flowProcess.increment(WikiwordsCounters.WIKITERM, 1);
                     }
                 }
             } catch (Exception e) {
-                LOGGER.error("Exception parsing HTML for " + title, e);
+                LOGGER.error("Exception parsing markup for " + title, e);
                 _flowProcess.increment(WikiwordsCounters.HTML_PARSE_ERROR, 1);
             }
-        }
-
-
-        private void newPage(String article) {
-            _curPage = new StringBuilder();
-        }
-
-        private void emit(String text) {
-            _curPage.append(text);
-        }
-    }
-    
-    private static class MyHTMLHandler extends DefaultHandler {
-        
-        @SuppressWarnings("serial")
-        private static Set<String> INLINE_HTML_ELEMNTS = new HashSet<String>() {{
-            add("b");
-            add("big");
-            add("i");
-            add("small");
-            add("tt");
-
-            add("abbr");
-            add("acronym");
-            add("cite");
-            add("code");
-            add("dfn");
-            add("em");
-            add("kbd");
-            add("strong");
-            add("samp");
-            add("time");
-            add("var");
-
-            add("a");
-            add("bdo");
-            add("img");
-            add("map");
-            add("object");
-            add("q");
-            add("script");
-            add("span");
-            add("sub");
-            add("sup");
-
-            add("button");
-            add("input");
-            add("label");
-            add("select");
-            add("textarea");
-        }};
-        
-        private XMLPath _path;
-        private StringBuffer _elementText;
-        private StringBuffer _anchorText;
-        private List<String> _terms;
-        private List<ArticleLinkPosition> _articleLinks;
-        
-        public MyHTMLHandler() {
-        }
-        
-        @Override
-        public void startDocument() throws SAXException {
-            super.startDocument();
             
-            _path = new XMLPath();
-            _terms = new ArrayList<>();
-            _elementText = new StringBuffer();
-            _anchorText = new StringBuffer();
-            _articleLinks = new ArrayList<>();
-        }
-        
-        @Override
-        public void endDocument() throws SAXException {
-            // Flush out terms from preceeding text.
-            addTermsFromElementText();
-
-            super.endDocument();
-        }
-        
-        @Override
-        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-            super.startElement(uri, localName, qName, attributes);
-            _path.pushNode(qName);
+            if (_templateCacheSize > 0) {
+                updateCacheCounters();
+            }
             
-            if (_path.atNode("head/title")) {
-                _elementText.setLength(0);
-            } else if (_path.atNode("a")) {
-                _anchorText.setLength(0);
+            if (_combineSize > 0) {
+                // Each article is only processed by one task, so we can count the articles
+                // that each term is in here, and sum those partial counts later.
+                for (String term : _articleTerms) {
+                    addWeight(term, WikiTermWeightDatum.ARTICLE_COUNT_REF, 0, 1);
+                }
                 
-                // Flush out terms from preceeding text.
-                addTermsFromElementText();
+                _articleTerms.clear();
                 
-                // Now if this is a Wikipedia link, we want to save the index of the title.
-                String url = attributes.getValue("href");
-                if (url != null) {
-                    try {
-                        url = URLDecoder.decode(url, "UTF-8");
-                        
-                        // Screen out /File:xxx and /<lang>:xxx links
-                        if (url.startsWith("/") && (url.indexOf(':') == -1)) {
-                            int endIndex = url.indexOf('#') == -1 ? url.length() : url.indexOf('#');
-                            _articleLinks.add(new ArticleLinkPosition(url.substring(1, endIndex), _terms.size()));
-                        }
-                   } catch (UnsupportedEncodingException e) {
-                       throw new RuntimeException("Impossible encoding exception", e);
-                    } catch (IllegalArgumentException e) {
-                        LOGGER.warn("Invalid URL hex sequence in " + url, e);
-                    }
+                if (_weights.size() >= _combineSize) {
+                    emitWeights(functionCall.getOutputCollector());
                 }
-                
-            } else if (!INLINE_HTML_ELEMNTS.contains(qName)) {
-                // depending on element, insert " " to break up text so we don't get words appended together
-                _elementText.append(' ');
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Override
+        public void flush(FlowProcess flowProcess, OperationCall<Void> operationCall) {
+            if (_combineSize > 0) {
+                emitWeights(((FunctionCall<Void>)operationCall).getOutputCollector());
             }
             
+            super.flush(flowProcess, operationCall);
         }
         
-        private void addTermsFromElementText() {
-            // TODO use real parser. Make it something we pass in.
-            BreakIterator iter = BreakIterator.getWordInstance();
-            String text = _elementText.toString();
-            iter.setText(text);
+        private void updateCacheCounters() {
+            long hits = _templates.getCacheHits();
+            long misses = _templates.getCacheMisses();
+            long evictions = _templates.getCacheEvictions();
             
-            int start = iter.first();
-            for (int end = iter.next(); end != BreakIterator.DONE; start = end, end = iter.next()) {
-                 addTerm(text.substring(start, end));
-            }
+            _flowProcess.increment(WikiwordsCounters.TEMPLATE_CACHE_HIT, hits - _cacheHits);
+            _flowProcess.increment(WikiwordsCounters.TEMPLATE_CACHE_MISS, misses - _cacheMisses);
+            _flowProcess.increment(WikiwordsCounters.TEMPLATE_CACHE_EVICTION, evictions - _cacheEvictions);
             
-            _elementText.setLength(0);
+            _cacheHits = hits;
+            _cacheMisses = misses;
+            _cacheEvictions = evictions;
         }
-
-        private boolean addTerm(String term) {
-            term = term.toLowerCase();
-            term = StringUtils.strip(term);
-            term = StringUtils.strip(term, "[](),?!;:.'\"");
-            if (!term.isEmpty() && Character.isLetter(term.charAt(0))) {
-                _terms.add(term);
-                return true;
-            } else {
-                return false;
+        
+        /**
+         * Load the template sources. This works for both local files and HDFS paths, as
+         * in local mode we just get the default Hadoop configuration.
+         */
+        private TemplateStore readTemplateStore(FlowProcess flowProcess) throws IOException {
+            Object config = flowProcess.getConfigCopy();
+            Configuration conf = (config instanceof Configuration) ? (Configuration)config : new Configuration();
+            Path path = new Path(_templateStorePath);
+            try (InputStream is = path.getFileSystem(conf).open(path)) {
+                TemplateStore store = TemplateStore.read(is);
+                LOGGER.info(String.format("Loaded %d templates from %s", store.size(), path));
+                return store;
             }
         }
-
-        @Override
-        public void endElement(String uri, String localName, String qName) throws SAXException {
-            if (_path.atNode("head/title")) {
-               addTerm(_elementText.toString());
-               _elementText.setLength(0);
-            } else  if (_path.atNode("a")) {
-                addTerm(_anchorText.toString());
+        
+        private void addWeight(String term, String articleRef, float weight, int count) {
+            _lookupKey.set(term, articleRef);
+            TermWeight termWeight = _weights.get(_lookupKey);
+            if (termWeight == null) {
+                termWeight = new TermWeight();
+                _weights.put(new TermRef().set(term, articleRef), termWeight);
             }
             
-            _path.popNode(qName);
-            super.endElement(uri, localName, qName);
+            termWeight.add(weight, count);
         }
         
-        @Override
-        public void characters(char[] ch, int start, int length) throws SAXException {
-            super.characters(ch, start, length);
-            
-            if (_path.inNode("a")) {
-                _anchorText.append(ch, start, length);
-            } else {
-                // TODO do we need to worry about text in a <script> tag?
-                _elementText.append(ch, start, length);
+        private void emitWeights(TupleEntryCollector collector) {
+            for (Map.Entry<TermRef, TermWeight> entry : _weights.entrySet()) {
+                TermRef key = entry.getKey();
+                TermWeight value = entry.getValue();
+                _weightResult.setTerm(key.getTerm());
+                _weightResult.setArticleRef(key.getArticleRef());
+                _weightResult.setWeight(value.getWeight());
+                _weightResult.setCount(value.getCount());
+                collector.add(_weightResult.getTupleEntry());
+                _flowProcess.increment(WikiwordsCounters.WIKITERM_WEIGHT, 1);
             }
+            
+            _weights.clear();
+        }
+    }
+    
+    /**
+     * Key for combining term weights. This is mutable, so that we don't have to allocate
+     * a key for every lookup, but keys must not be changed once they're in a map.
+     *
+     */
+    private static class TermRef {
+        private String _term;
+        private String _articleRef;
+        private int _hashCode;
+        
+        public TermRef set(String term, String articleRef) {
+            _term = term;
+            _articleRef = articleRef;
+            _hashCode = (31 * term.hashCode()) + articleRef.hashCode();
+            return this;
+        }
+        
+        public String getTerm() {
+            return _term;
         }
         
-        public List<ArticleLinkPosition> getArticleLinks() {
-            return _articleLinks;
+        public String getArticleRef() {
+            return _articleRef;
         }
         
-        public List<String> getTerms() {
-            return _terms;
+        @Override
+        public int hashCode() {
+            return _hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            
+            if (!(obj instanceof TermRef)) {
+                return false;
+            }
+            
+            TermRef other = (TermRef)obj;
+            return (_hashCode == other._hashCode) && _term.equals(other._term) && _articleRef.equals(other._articleRef);
         }
     }
     
-    private static class ArticleLinkPosition {
-        private String _article;
-        private int _linkPosition;
+    private static class TermWeight {
+        private float _weight;
+        private int _count;
         
-        public ArticleLinkPosition(String article, int linkPosition) {
-            _article = article;
-            _linkPosition = linkPosition;
+        public void add(float weight, int count) {
+            _weight += weight;
+            _count += count;
         }
-
-        public String getArticle() {
-            return _article;
+        
+        public float getWeight() {
+            return _weight;
         }
-
-        public int getLinkPosition() {
-            return _linkPosition;
+        
+        public int getCount() {
+            return _count;
         }
     }
-
 }
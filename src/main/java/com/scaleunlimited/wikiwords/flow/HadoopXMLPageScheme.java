@@ -0,0 +1,80 @@
+package com.scaleunlimited.wikiwords.flow;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Hadoop scheme for reading a Wikipedia dump file (uncompressed, or bzip2 compressed),
+ * where each tuple has a single field with the XML for one <page> element. This scheme
+ * can only be used as a source.
+ *
+ */
+@SuppressWarnings({"serial", "rawtypes", "unchecked"})
+public class HadoopXMLPageScheme extends Scheme<JobConf, RecordReader, OutputCollector, Object[], Object[]> {
+
+    public HadoopXMLPageScheme(Fields fields) {
+        super(fields);
+
+        if (fields.size() != 1) {
+            throw new IllegalArgumentException("Fields must be just the page XML: " + fields);
+        }
+    }
+
+    @Override
+    public boolean isSink() {
+        return false;
+    }
+
+    @Override
+    public void sourceConfInit(FlowProcess<JobConf> flowProcess, Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+        conf.setInputFormat(XMLPageInputFormat.class);
+    }
+
+    @Override
+    public void sourcePrepare(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall) throws IOException {
+        Object[] context = new Object[2];
+        context[0] = sourceCall.getInput().createKey();
+        context[1] = sourceCall.getInput().createValue();
+        sourceCall.setContext(context);
+    }
+
+    @Override
+    public boolean source(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall) throws IOException {
+        Object[] context = sourceCall.getContext();
+        if (!sourceCall.getInput().next(context[0], context[1])) {
+            return false;
+        }
+
+        Tuple tuple = sourceCall.getIncomingEntry().getTuple();
+        tuple.clear();
+        tuple.add(((Text)context[1]).toString());
+        return true;
+    }
+
+    @Override
+    public void sourceCleanup(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall) throws IOException {
+        sourceCall.setContext(null);
+    }
+
+    @Override
+    public void sinkConfInit(FlowProcess<JobConf> flowProcess, Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+        throw new UnsupportedOperationException("Dump pages can't be written by a Cascading flow");
+    }
+
+    @Override
+    public void sink(FlowProcess<JobConf> flowProcess, SinkCall<Object[], OutputCollector> sinkCall) throws IOException {
+        throw new UnsupportedOperationException("Dump pages can't be written by a Cascading flow");
+    }
+}
@@ -0,0 +1,277 @@
+package com.scaleunlimited.wikiwords.flow;
+
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.xml.sax.SAXException;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowDef;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.DebugLevel;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.pipe.Each;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.Retain;
+import cascading.scheme.Scheme;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+
+import com.scaleunlimited.cascading.BasePath;
+import com.scaleunlimited.cascading.BasePlatform;
+import com.scaleunlimited.cascading.local.LocalPlatform;
+import com.scaleunlimited.wikiwords.WorkingConfig;
+import com.scaleunlimited.wikiwords.XMLPageReader;
+import com.scaleunlimited.wikiwords.tools.IngestDumpTool.IngestDumpOptions;
+import com.scaleunlimited.wikiwords.tools.StaxDumpParser;
+import com.scaleunlimited.wikiwords.tools.WikiDumpTool;
+import com.scaleunlimited.wikiwords.tools.WikiDumpTool.WikiDumpFilter;
+import com.scaleunlimited.wikiwords.tools.WikiDumpTool.WikiDumpOptions;
+
+/**
+ * Distributed version of the WikiDumpTool. The dump file (uncompressed, or bzip2 compressed)
+ * is split on <page> boundaries, and pages are classified in the mappers using the same
+ * logic as the WikiDumpTool. Main pages are written to part files (in the text format) in
+ * the working directory's "parts" sub-directory, which can be used as the input to the
+ * GenerateTermsFlow. The category, redirect, disambiguation and article metadata is sorted,
+ * and written to separate sub-directories of the working directory's "metadata" sub-directory.
+ *
+ * Counts of each type of page are saved as counters in the WikiDumpTool group.
+ *
+ */
+public class IngestDumpFlow {
+    private static final Logger LOGGER = Logger.getLogger(IngestDumpFlow.class);
+
+    public static final String COUNTER_GROUP = WikiDumpTool.class.getName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String PAGE_XML_FN = "page_xml";
+    private static final Fields PAGE_XML_FIELDS = new Fields(PAGE_XML_FN);
+
+    private static final String TYPE_FN = "type";
+    private static final String KEY_FN = "key";
+    private static final String VALUE_FN = "value";
+    private static final Fields RESULT_FIELDS = new Fields(TYPE_FN, KEY_FN, VALUE_FN);
+
+    // Result type for main pages, where the value is the part file line.
+    private static final String PART_TYPE = "part";
+
+    private static final String[] METADATA_TYPES = {
+        WikiDumpTool.CATEGORIES_METADATA,
+        WikiDumpTool.REDIRECTS_METADATA,
+        WikiDumpTool.DISAMBIGS_METADATA,
+        WikiDumpTool.ARTICLES_METADATA
+    };
+
+    public static Flow createFlow(IngestDumpOptions options) throws Exception {
+        BasePlatform platform = options.getPlatform(IngestDumpFlow.class);
+        BasePath inputPath = platform.makePath(options.getInputFile());
+        if (!inputPath.exists()) {
+            throw new IllegalArgumentException("Input file must exist: " + inputPath);
+        }
+
+        // Mappers only see <page> elements, so we pass along the header with the namespaces.
+        String header;
+        try (InputStream is = XMLPageReader.decompress(inputPath.openInputStream())) {
+            header = XMLPageReader.readHeader(is);
+        }
+
+        Scheme scheme;
+        if (platform instanceof LocalPlatform) {
+            scheme = new LocalXMLPageScheme(PAGE_XML_FIELDS);
+        } else {
+            scheme = new HadoopXMLPageScheme(PAGE_XML_FIELDS);
+        }
+
+        Tap sourceTap = platform.makeTap(scheme, inputPath, SinkMode.KEEP);
+        Pipe pages = new Pipe("pages");
+        pages = new Each(pages, PAGE_XML_FIELDS, new ClassifyPages(header, options.getSamplePercent()), Fields.RESULTS);
+
+        FlowDef flowDef = new FlowDef()
+            .setName("Ingest dump")
+            .setDebugLevel(options.isDebug() ? DebugLevel.VERBOSE : DebugLevel.NONE)
+            .addSource(pages, sourceTap);
+
+        // Main pages go straight into part files, in the same text format as the WikiDumpTool.
+        Pipe parts = new Pipe(PART_TYPE, pages);
+        parts = new Each(parts, new Fields(TYPE_FN), new KeepType(PART_TYPE));
+        parts = new Retain(parts, new Fields(VALUE_FN));
+        BasePath partsPath = options.getWorkingSubdirPath(WorkingConfig.PARTS_SUBDIR_NAME);
+        flowDef.addTailSink(parts, platform.makeTap(platform.makeTextScheme(), partsPath, SinkMode.REPLACE));
+
+        // Each type of metadata is sorted by key, like the WikiDumpTool's metadata files.
+        BasePath metadataPath = options.getWorkingSubdirPath(WorkingConfig.METADATA_SUBDIR_NAME);
+        for (String type : METADATA_TYPES) {
+            Pipe metadata = new Pipe(type, pages);
+            metadata = new Each(metadata, new Fields(TYPE_FN), new KeepType(type));
+
+            // Disambiguation entries only have a key.
+            if (type.equals(WikiDumpTool.DISAMBIGS_METADATA)) {
+                metadata = new Retain(metadata, new Fields(KEY_FN));
+            } else {
+                metadata = new Retain(metadata, new Fields(KEY_FN, VALUE_FN));
+            }
+
+            metadata = new GroupBy(metadata, new Fields(KEY_FN));
+
+            BasePath outputPath = platform.makePath(metadataPath, type);
+            flowDef.addTailSink(metadata, platform.makeTap(platform.makeTextScheme(), outputPath, SinkMode.REPLACE));
+        }
+
+        return platform.makeFlowConnector().connect(flowDef);
+    }
+
+    /**
+     * Only keep results of one type.
+     *
+     */
+    @SuppressWarnings({"serial", "rawtypes"})
+    private static class KeepType extends BaseOperation<Void> implements Filter<Void> {
+
+        private String _type;
+
+        public KeepType(String type) {
+            super(1);
+
+            _type = type;
+        }
+
+        @Override
+        public boolean isRemove(FlowProcess flowProcess, FilterCall<Void> filterCall) {
+            return !_type.equals(filterCall.getArguments().getString(0));
+        }
+    }
+
+    /**
+     * Parse the XML for a page, and classify it using the WikiDumpTool's logic. The results
+     * are a part file line for main pages, and metadata entries for categories, redirects,
+     * disambiguation pages and articles.
+     *
+     */
+    @SuppressWarnings({"serial", "rawtypes"})
+    private static class ClassifyPages extends BaseOperation<Void> implements Function<Void> {
+
+        private String _header;
+        private float _samplePercent;
+
+        private transient PageClassifier _classifier;
+        private transient StaxDumpParser _parser;
+
+        public ClassifyPages(String header, float samplePercent) {
+            super(1, RESULT_FIELDS);
+
+            _header = header;
+            _samplePercent = samplePercent;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<Void> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            WikiDumpOptions options = new WikiDumpOptions();
+            options.setSamplePercent(_samplePercent * 100.0f);
+
+            try {
+                _classifier = new PageClassifier(options);
+
+                // Get the namespaces from the header, and use them for every page.
+                StaxDumpParser headerParser = new StaxDumpParser(new ByteArrayInputStream((_header + "</mediawiki>").getBytes(UTF_8)), _classifier);
+                headerParser.parse();
+                _parser = new StaxDumpParser(_classifier, headerParser.getSiteinfo());
+            } catch (IOException | SAXException e) {
+                throw new RuntimeException("Error parsing dump header", e);
+            }
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<Void> functionCall) {
+            String xml = functionCall.getArguments().getString(PAGE_XML_FN);
+            _classifier.setCollector(functionCall.getOutputCollector());
+
+            try {
+                _parser.parse(new ByteArrayInputStream(xml.getBytes(UTF_8)));
+            } catch (IOException | SAXException e) {
+                LOGGER.error("Exception parsing page XML", e);
+                flowProcess.increment(COUNTER_GROUP, WikiDumpTool.EXCEPTION_COUNTER, 1);
+            }
+        }
+
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<Void> operationCall) {
+            // The classifier keeps its own counts, which we add to the flow's counters once
+            // at the end.
+            for (Map.Entry<String, Integer> counter : _classifier.getCounters().entrySet()) {
+                flowProcess.increment(COUNTER_GROUP, counter.getKey(), counter.getValue());
+            }
+
+            try {
+                _classifier.close();
+            } catch (IOException e) {
+                LOGGER.warn("Exception closing page classifier", e);
+            }
+
+            super.cleanup(flowProcess, operationCall);
+        }
+    }
+
+    /**
+     * A WikiDumpFilter that emits results as tuples, versus writing part files and
+     * saving metadata in sorted spill files.
+     *
+     */
+    private static class PageClassifier extends WikiDumpFilter {
+
+        private TupleEntry _result;
+        private TupleEntryCollector _collector;
+
+        public PageClassifier(WikiDumpOptions options) throws IOException {
+            super(null, "", options);
+
+            _result = new TupleEntry(RESULT_FIELDS, Tuple.size(RESULT_FIELDS.size()));
+        }
+
+        public void setCollector(TupleEntryCollector collector) {
+            _collector = collector;
+        }
+
+        @Override
+        public void process(WikiArticle article, Siteinfo siteInfo) throws SAXException {
+            if (classify(article)) {
+                // Strip the trailing newline, as the text scheme adds one.
+                String line = new String(encodePage(article), UTF_8);
+                emit(PART_TYPE, article.getTitle(), line.substring(0, line.length() - 1));
+                incrementCounter(WikiDumpTool.MAIN_PAGE_COUNTER);
+            }
+        }
+
+        @Override
+        protected void addMetadata(String type, String key, String value) {
+            emit(type, key, value);
+        }
+
+        private void emit(String type, String key, String value) {
+            _result.setString(TYPE_FN, type);
+            _result.setString(KEY_FN, key);
+            _result.setString(VALUE_FN, value);
+            _collector.add(_result);
+        }
+    }
+}
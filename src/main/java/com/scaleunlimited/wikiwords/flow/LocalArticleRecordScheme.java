@@ -0,0 +1,90 @@
+package com.scaleunlimited.wikiwords.flow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+import com.scaleunlimited.wikiwords.ArticleRecord;
+import com.scaleunlimited.wikiwords.ArticleRecordReader;
+
+/**
+ * Cascading local scheme for reading binary part files generated by the WikiDumpTool. Each
+ * record becomes a tuple with the article title, page id and text, in that order.
+ * This scheme can only be used as a source.
+ *
+ */
+@SuppressWarnings("serial")
+public class LocalArticleRecordScheme extends Scheme<Properties, InputStream, OutputStream, Object[], Void> {
+
+    public LocalArticleRecordScheme(Fields fields) {
+        super(fields);
+
+        if (fields.size() != 3) {
+            throw new IllegalArgumentException("Fields must be title, page id and text: " + fields);
+        }
+    }
+
+    @Override
+    public boolean isSink() {
+        return false;
+    }
+
+    @Override
+    public void sourceConfInit(FlowProcess<Properties> flowProcess, Tap<Properties, InputStream, OutputStream> tap, Properties conf) {
+        // Nothing to configure
+    }
+
+    @Override
+    public void sourcePrepare(FlowProcess<Properties> flowProcess, SourceCall<Object[], InputStream> sourceCall) throws IOException {
+        Object[] context = new Object[2];
+        context[0] = new ArticleRecordReader(sourceCall.getInput());
+        context[1] = new ArticleRecord();
+        sourceCall.setContext(context);
+    }
+
+    @Override
+    public boolean source(FlowProcess<Properties> flowProcess, SourceCall<Object[], InputStream> sourceCall) throws IOException {
+        Object[] context = sourceCall.getContext();
+        ArticleRecordReader reader = (ArticleRecordReader)context[0];
+        ArticleRecord record = (ArticleRecord)context[1];
+
+        if (!reader.next(record)) {
+            return false;
+        }
+
+        Tuple tuple = sourceCall.getIncomingEntry().getTuple();
+        tuple.clear();
+        tuple.add(record.getTitle());
+        tuple.add(record.getPageId());
+        tuple.add(record.getText());
+        return true;
+    }
+
+    @Override
+    public void sourceCleanup(FlowProcess<Properties> flowProcess, SourceCall<Object[], InputStream> sourceCall) throws IOException {
+        Object[] context = sourceCall.getContext();
+        if (context != null) {
+            ((ArticleRecordReader)context[0]).close();
+            sourceCall.setContext(null);
+        }
+    }
+
+    @Override
+    public void sinkConfInit(FlowProcess<Properties> flowProcess, Tap<Properties, InputStream, OutputStream> tap, Properties conf) {
+        throw new UnsupportedOperationException("Article records can't be written by a Cascading flow");
+    }
+
+    @Override
+    public void sink(FlowProcess<Properties> flowProcess, SinkCall<Void, OutputStream> sinkCall) throws IOException {
+        throw new UnsupportedOperationException("Article records can't be written by a Cascading flow");
+    }
+}
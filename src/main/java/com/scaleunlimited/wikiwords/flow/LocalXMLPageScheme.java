@@ -0,0 +1,81 @@
+package com.scaleunlimited.wikiwords.flow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+import com.scaleunlimited.wikiwords.XMLPageReader;
+
+/**
+ * Cascading local scheme for reading a Wikipedia dump file (uncompressed, or bzip2 or
+ * gzip compressed), where each tuple has a single field with the XML for one <page>
+ * element. This scheme can only be used as a source.
+ *
+ */
+@SuppressWarnings("serial")
+public class LocalXMLPageScheme extends Scheme<Properties, InputStream, OutputStream, XMLPageReader, Void> {
+
+    public LocalXMLPageScheme(Fields fields) {
+        super(fields);
+
+        if (fields.size() != 1) {
+            throw new IllegalArgumentException("Fields must be just the page XML: " + fields);
+        }
+    }
+
+    @Override
+    public boolean isSink() {
+        return false;
+    }
+
+    @Override
+    public void sourceConfInit(FlowProcess<Properties> flowProcess, Tap<Properties, InputStream, OutputStream> tap, Properties conf) {
+        // Nothing to configure
+    }
+
+    @Override
+    public void sourcePrepare(FlowProcess<Properties> flowProcess, SourceCall<XMLPageReader, InputStream> sourceCall) throws IOException {
+        sourceCall.setContext(new XMLPageReader(XMLPageReader.decompress(sourceCall.getInput())));
+    }
+
+    @Override
+    public boolean source(FlowProcess<Properties> flowProcess, SourceCall<XMLPageReader, InputStream> sourceCall) throws IOException {
+        XMLPageReader reader = sourceCall.getContext();
+        if (!reader.next()) {
+            return false;
+        }
+
+        Tuple tuple = sourceCall.getIncomingEntry().getTuple();
+        tuple.clear();
+        tuple.add(reader.getPage());
+        return true;
+    }
+
+    @Override
+    public void sourceCleanup(FlowProcess<Properties> flowProcess, SourceCall<XMLPageReader, InputStream> sourceCall) throws IOException {
+        XMLPageReader reader = sourceCall.getContext();
+        if (reader != null) {
+            reader.close();
+            sourceCall.setContext(null);
+        }
+    }
+
+    @Override
+    public void sinkConfInit(FlowProcess<Properties> flowProcess, Tap<Properties, InputStream, OutputStream> tap, Properties conf) {
+        throw new UnsupportedOperationException("Dump pages can't be written by a Cascading flow");
+    }
+
+    @Override
+    public void sink(FlowProcess<Properties> flowProcess, SinkCall<Void, OutputStream> sinkCall) throws IOException {
+        throw new UnsupportedOperationException("Dump pages can't be written by a Cascading flow");
+    }
+}
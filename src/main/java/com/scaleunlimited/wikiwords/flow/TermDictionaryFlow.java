@@ -0,0 +1,168 @@
+package com.scaleunlimited.wikiwords.flow;
+
+import java.lang.reflect.Type;
+import java.util.Iterator;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowDef;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.DebugLevel;
+import cascading.operation.Identity;
+import cascading.pipe.CoGroup;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Merge;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.Discard;
+import cascading.pipe.assembly.Rename;
+import cascading.pipe.assembly.Retain;
+import cascading.pipe.assembly.Unique;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.cascading.BasePlatform;
+import com.scaleunlimited.wikiwords.WorkflowOptions;
+import com.scaleunlimited.wikiwords.WorkingConfig;
+import com.scaleunlimited.wikiwords.datum.WikiTermDatum;
+import com.scaleunlimited.wikiwords.datum.WikiTermIdDatum;
+
+/**
+ * Build dictionaries for the terms and articles in the WikiTermDatum records generated by
+ * the GenerateTermsFlow, and use them to encode those records as WikiTermIdDatum records.
+ * The AnalyzeTermsFlow can then group and join on ints, versus Strings, and only decode
+ * its (much smaller) results.
+ *
+ * Each dictionary maps an id to a term or article name. Ids are assigned in sorted order
+ * of the values, starting at 0. Article names and article refs share one dictionary, as
+ * both are article titles.
+ *
+ */
+public class TermDictionaryFlow {
+
+    public static final String ID_FN = "dictionary_id";
+    public static final String VALUE_FN = "dictionary_value";
+
+    public static final Fields FIELDS = new Fields(new Comparable<?>[] {ID_FN, VALUE_FN}, new Type[] {int.class, String.class});
+
+    public static Flow createFlow(WorkflowOptions options) throws Exception {
+        BasePlatform platform = options.getPlatform(TermDictionaryFlow.class);
+        FlowDef flowDef = new FlowDef()
+            .setName("term dictionary")
+            .setDebugLevel(options.isDebug() ? DebugLevel.VERBOSE : DebugLevel.NONE);
+
+        Tap sourceTap = platform.makeTap(platform.makeBinaryScheme(WikiTermDatum.FIELDS), options.getWorkingSubdirPath(WorkingConfig.TERMS_SUBDIR_NAME), SinkMode.KEEP);
+        Pipe terms = new Pipe("terms");
+        flowDef.addSource(terms, sourceTap);
+
+        Pipe termDictionary = new Pipe("term values", terms);
+        termDictionary = makeDictionary("term dictionary", termDictionary, WikiTermDatum.TERM_FN);
+        flowDef.addTailSink(new Pipe("save term dictionary", termDictionary), makeDictionaryTap(options, WorkingConfig.TERM_DICTIONARY_SUBDIR_NAME, SinkMode.REPLACE));
+
+        Pipe articleNames = new Pipe("article name values", terms);
+        articleNames = new Retain(articleNames, new Fields(WikiTermDatum.ARTICLE_NAME_FN));
+        articleNames = new Rename(articleNames, new Fields(WikiTermDatum.ARTICLE_NAME_FN), new Fields(WikiTermDatum.ARTICLE_REF_FN));
+        Pipe articleRefs = new Pipe("article ref values", terms);
+        articleRefs = new Retain(articleRefs, new Fields(WikiTermDatum.ARTICLE_REF_FN));
+        Pipe articleDictionary = new Merge("article values", articleNames, articleRefs);
+        articleDictionary = makeDictionary("article dictionary", articleDictionary, WikiTermDatum.ARTICLE_REF_FN);
+        flowDef.addTailSink(new Pipe("save article dictionary", articleDictionary), makeDictionaryTap(options, WorkingConfig.ARTICLE_DICTIONARY_SUBDIR_NAME, SinkMode.REPLACE));
+
+        // Replace each string with its id.
+        Pipe termIds = new Pipe("term ids", terms);
+        termIds = encode(termIds, WikiTermDatum.TERM_FN, WikiTermIdDatum.TERM_ID_FN, termDictionary);
+        termIds = encode(termIds, WikiTermDatum.ARTICLE_NAME_FN, WikiTermIdDatum.ARTICLE_ID_FN, articleDictionary);
+        termIds = encode(termIds, WikiTermDatum.ARTICLE_REF_FN, WikiTermIdDatum.ARTICLE_REF_ID_FN, articleDictionary);
+        termIds = new Rename(termIds, new Fields(WikiTermDatum.TERM_WEIGHT_FN), new Fields(WikiTermIdDatum.TERM_WEIGHT_FN));
+        termIds = new Each(termIds, WikiTermIdDatum.FIELDS, new Identity(), Fields.RESULTS);
+
+        Tap termIdsSink = platform.makeTap(platform.makeBinaryScheme(WikiTermIdDatum.FIELDS), options.getWorkingSubdirPath(WorkingConfig.TERM_IDS_SUBDIR_NAME), SinkMode.REPLACE);
+        flowDef.addTailSink(termIds, termIdsSink);
+
+        return platform.makeFlowConnector().connect(flowDef);
+    }
+
+    /**
+     * @return tap for reading or writing a dictionary in <subdirName> of the working directory.
+     */
+    public static Tap makeDictionaryTap(WorkflowOptions options, String subdirName, SinkMode mode) throws Exception {
+        BasePlatform platform = options.getPlatform(TermDictionaryFlow.class);
+        return platform.makeTap(platform.makeBinaryScheme(FIELDS), options.getWorkingSubdirPath(subdirName), mode);
+    }
+
+    /**
+     * Replace the id in <idFieldName> with the dictionary value, in a field called <valueFieldName>
+     * (which can be the same as <idFieldName>). The field is moved to the end of the tuple.
+     *
+     * @param pipe Pipe with tuples to decode
+     * @param idFieldName Field containing dictionary ids
+     * @param valueFieldName Name for the field containing the decoded value
+     * @param dictionary Pipe with dictionary entries
+     * @return pipe with the decoded values
+     */
+    public static Pipe decode(Pipe pipe, String idFieldName, String valueFieldName, Pipe dictionary) {
+        Pipe entries = new Pipe(pipe.getName() + " " + idFieldName + " dictionary", dictionary);
+        Pipe result = new CoGroup(pipe, new Fields(idFieldName), entries, new Fields(ID_FN));
+        result = new Discard(result, new Fields(idFieldName, ID_FN));
+        return new Rename(result, new Fields(VALUE_FN), new Fields(valueFieldName));
+    }
+
+    /**
+     * Replace the string in <valueFieldName> with its dictionary id, in a field called
+     * <idFieldName>. The field is moved to the end of the tuple.
+     */
+    private static Pipe encode(Pipe pipe, String valueFieldName, String idFieldName, Pipe dictionary) {
+        Pipe entries = new Pipe(pipe.getName() + " " + valueFieldName + " dictionary", dictionary);
+        Pipe result = new CoGroup(pipe, new Fields(valueFieldName), entries, new Fields(VALUE_FN));
+        result = new Discard(result, new Fields(valueFieldName, VALUE_FN));
+        return new Rename(result, new Fields(ID_FN), new Fields(idFieldName));
+    }
+
+    /**
+     * Find the unique values in <fieldName>, and assign ids to them.
+     *
+     * @return pipe with ID_FN and VALUE_FN fields.
+     */
+    private static Pipe makeDictionary(String name, Pipe values, String fieldName) {
+        Pipe result = new Pipe(name, values);
+        result = new Retain(result, new Fields(fieldName));
+        result = new Unique(result, new Fields(fieldName));
+        result = new Rename(result, new Fields(fieldName), new Fields(VALUE_FN));
+
+        // Ids have to be assigned in a single group, so that they're unique. The number of
+        // unique values is small compared to the number of terms, so this is OK.
+        result = new GroupBy(result, Fields.NONE, new Fields(VALUE_FN));
+        return new Every(result, new Fields(VALUE_FN), new AssignIds(), Fields.RESULTS);
+    }
+
+    /**
+     * Give each (sorted) value the next id.
+     *
+     */
+    @SuppressWarnings({"serial", "rawtypes"})
+    private static class AssignIds extends BaseOperation<Void> implements Buffer<Void> {
+
+        public AssignIds() {
+            super(1, FIELDS);
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<Void> bufferCall) {
+            Tuple result = Tuple.size(FIELDS.size());
+            int id = 0;
+
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                result.setInteger(0, id++);
+                result.setString(1, iter.next().getString(0));
+                bufferCall.getOutputCollector().add(result);
+            }
+        }
+    }
+}
@@ -24,7 +24,7 @@ import cascading.tuple.Fields;
  * 
  *  - a "doc" field, which is a string with a document identifier.
  *  - a "term" field, which is a string.
- *  - a "termcount" field, which is an integer.
+ *  - a "termcount" field, which is a float (so terms can be weighted).
  *  
  * The output is a pipe that contains tuples with the following fields:
  * 
@@ -63,7 +63,7 @@ public class TfIdfAssembly extends SubAssembly {
                                         new Fields(DOC_FN, TERM_FN), 
                                         new Fields(TERM_COUNT_FN), 
                                         new Fields(TERM_COUNT_PER_DOC_FN), 
-                                        Integer.class);
+                                        Float.class);
         // Output is DOC_FN, TERM_FN, TERM_COUNT_PER_DOC_FN
         
         // For each doc, we need to know the total # of terms too.
@@ -72,7 +72,7 @@ public class TfIdfAssembly extends SubAssembly {
                                         new Fields(DOC_FN),
                                         new Fields(TERM_COUNT_PER_DOC_FN),
                                         new Fields(TOTAL_TERM_COUNT_PER_DOC_FN),
-                                        Integer.class);
+                                        Float.class);
         totalCountPerDocPipe = new Rename(totalCountPerDocPipe, new Fields(DOC_FN), new Fields(TEMP_DOC_FN));
         // Output is TEMP_DOC_FN, TOTAL_TERM_COUNT_PER_DOC_FN
         
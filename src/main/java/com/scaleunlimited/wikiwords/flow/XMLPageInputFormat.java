@@ -0,0 +1,162 @@
+package com.scaleunlimited.wikiwords.flow;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.scaleunlimited.wikiwords.XMLPageReader;
+
+/**
+ * Hadoop input format for Wikipedia dump files, where each record is the XML for one
+ * <page> element. Uncompressed dumps are split on byte offsets, and a page belongs to the
+ * split containing the start of its <page> tag. bzip2-compressed dumps (including the
+ * multistream dumps) are split on bzip2 block boundaries, the same way as Hadoop's
+ * TextInputFormat splits compressed text files. Other compressed files aren't split.
+ *
+ * The key is the offset of the page (for compressed files, the position in the compressed
+ * file when we started reading the page).
+ *
+ */
+public class XMLPageInputFormat extends FileInputFormat<LongWritable, Text> implements JobConfigurable {
+
+    private CompressionCodecFactory _codecs = null;
+
+    @Override
+    public void configure(JobConf conf) {
+        _codecs = new CompressionCodecFactory(conf);
+    }
+
+    @Override
+    protected boolean isSplitable(FileSystem fs, Path file) {
+        CompressionCodec codec = _codecs.getCodec(file);
+        return (codec == null) || (codec instanceof SplittableCompressionCodec);
+    }
+
+    @Override
+    public RecordReader<LongWritable, Text> getRecordReader(InputSplit split, JobConf job, Reporter reporter) throws IOException {
+        reporter.setStatus(split.toString());
+        return new XMLPageRecordReader(job, (FileSplit)split);
+    }
+
+    private static class XMLPageRecordReader implements RecordReader<LongWritable, Text> {
+
+        private XMLPageReader _reader;
+        private Seekable _filePosition;
+        private Decompressor _decompressor;
+        private boolean _compressed;
+        private long _start;
+        private long _end;
+        private boolean _done;
+
+        public XMLPageRecordReader(JobConf job, FileSplit split) throws IOException {
+            Path path = split.getPath();
+            FileSystem fs = path.getFileSystem(job);
+
+            _start = split.getStart();
+            _end = _start + split.getLength();
+            _done = false;
+
+            FSDataInputStream in = fs.open(path);
+            CompressionCodec codec = new CompressionCodecFactory(job).getCodec(path);
+            _compressed = (codec != null);
+            if (!_compressed) {
+                in.seek(_start);
+                _reader = new XMLPageReader(in, _start);
+                _reader.setEnd(_end);
+                _filePosition = in;
+            } else {
+                _decompressor = CodecPool.getDecompressor(codec);
+                if (codec instanceof SplittableCompressionCodec) {
+                    SplitCompressionInputStream cIn = ((SplittableCompressionCodec)codec).createInputStream(in, _decompressor, _start, _end, SplittableCompressionCodec.READ_MODE.BYBLOCK);
+                    _start = cIn.getAdjustedStart();
+                    _end = cIn.getAdjustedEnd();
+                    _reader = new XMLPageReader(cIn);
+                    _filePosition = cIn;
+                } else {
+                    _reader = new XMLPageReader(codec.createInputStream(in, _decompressor));
+                    _filePosition = in;
+                }
+            }
+        }
+
+        @Override
+        public boolean next(LongWritable key, Text value) throws IOException {
+            // With compressed input we only know our position in the compressed file,
+            // so (like Hadoop's LineRecordReader) we read a page if we haven't gone
+            // past the end of the split when we start looking for it.
+            if (_done || (_compressed && (getFilePosition() > _end))) {
+                _done = true;
+                return false;
+            }
+
+            long pagePosition = getFilePosition();
+            if (!_reader.findPage()) {
+                _done = true;
+                return false;
+            }
+
+            _reader.readPage();
+            key.set(_compressed ? pagePosition : _reader.getPageStart());
+            value.set(_reader.getPageBytes(), 0, _reader.getPageLength());
+            return true;
+        }
+
+        private long getFilePosition() throws IOException {
+            return _compressed ? _filePosition.getPos() : _reader.getPosition();
+        }
+
+        @Override
+        public LongWritable createKey() {
+            return new LongWritable();
+        }
+
+        @Override
+        public Text createValue() {
+            return new Text();
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return getFilePosition();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            if (_done || (_end == _start)) {
+                return 1.0f;
+            } else {
+                return Math.min(1.0f, (getFilePosition() - _start) / (float)(_end - _start));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                _reader.close();
+            } finally {
+                if (_decompressor != null) {
+                    CodecPool.returnDecompressor(_decompressor);
+                    _decompressor = null;
+                }
+            }
+        }
+    }
+}
@@ -14,11 +14,19 @@ import com.scaleunlimited.cascading.FlowUtils;
 import com.scaleunlimited.wikiwords.WorkflowOptions;
 import com.scaleunlimited.wikiwords.flow.AnalyzeTermsFlow;
 import com.scaleunlimited.wikiwords.flow.GenerateTermsFlow;
+import com.scaleunlimited.wikiwords.flow.TermDictionaryFlow;
 import com.scaleunlimited.wikiwords.tools.GenerateTermsTool.GenerateTermsOptions;
 
 public class AnalyzeTermsTool extends BaseTool {
 
     private void run(AnalyzeTermsOptions options) throws Exception {
+        if (options.isBuildDictionary()) {
+            Flow dictionaryFlow = TermDictionaryFlow.createFlow(options);
+            FlowUtils.nameFlowSteps(dictionaryFlow);
+            FlowResult fr = FlowRunner.run(dictionaryFlow);
+            options.saveCounters(TermDictionaryFlow.class, fr.getCounters());
+        }
+        
         Flow flow = AnalyzeTermsFlow.createFlow(options);
 
         if (options.getDOTFile() != null) {
@@ -64,14 +72,14 @@ public class AnalyzeTermsTool extends BaseTool {
     public static class AnalyzeTermsOptions extends WorkflowOptions {
         
         private int _totalArticles;
+        private boolean _useIds = false;
+        private boolean _buildDictionary = false;
+        private boolean _useWeights = false;
         
         public AnalyzeTermsOptions() {
             super();
         }
         
-        // TODO support options for how to convert distance to "term count" (weight)
-        // Value at 0, Min value
-        
         public AnalyzeTermsOptions(WorkflowOptions baseOptions) {
             super(baseOptions);
         }
@@ -85,5 +93,32 @@ public class AnalyzeTermsTool extends BaseTool {
             return _totalArticles;
         }
         
+        @Option(name = "-ids", usage = "analyze dictionary-encoded terms (from -builddictionary)", required = false)
+        public void setUseIds(boolean useIds) {
+            _useIds = useIds;
+        }
+
+        public boolean isUseIds() {
+            return _useIds || _buildDictionary;
+        }
+        
+        @Option(name = "-builddictionary", usage = "build term/article dictionaries and encode terms first (implies -ids)", required = false)
+        public void setBuildDictionary(boolean buildDictionary) {
+            _buildDictionary = buildDictionary;
+        }
+
+        public boolean isBuildDictionary() {
+            return _buildDictionary;
+        }
+        
+        @Option(name = "-weights", usage = "analyze combined term weights (from generateterms -combine)", required = false)
+        public void setUseWeights(boolean useWeights) {
+            _useWeights = useWeights;
+        }
+
+        public boolean isUseWeights() {
+            return _useWeights;
+        }
+        
     }
 }
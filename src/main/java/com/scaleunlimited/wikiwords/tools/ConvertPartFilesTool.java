@@ -0,0 +1,158 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.log4j.Logger;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import com.scaleunlimited.wikiwords.ArticleRecordWriter;
+
+/**
+ * Convert text part files (title<tab>Base64 text) generated by the WikiDumpTool into
+ * the binary article record format. The text format doesn't have page ids, so every
+ * converted record gets ArticleRecordWriter.UNKNOWN_PAGE_ID.
+ *
+ */
+public class ConvertPartFilesTool {
+    private static final Logger LOGGER = Logger.getLogger(ConvertPartFilesTool.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public ConvertPartFilesTool() {
+    }
+
+    /**
+     * @return number of articles converted.
+     */
+    public int run(ConvertPartFilesOptions options) throws IOException {
+        File inputDir = new File(options.getInputDirname());
+        if (!inputDir.isDirectory()) {
+            throw new IllegalArgumentException("Input directory must exist: " + inputDir);
+        }
+
+        File outputDir = new File(options.getOutputDirname());
+        outputDir.mkdirs();
+
+        File[] partFiles = inputDir.listFiles();
+        Arrays.sort(partFiles);
+
+        int numArticles = 0;
+        for (File partFile : partFiles) {
+            String name = partFile.getName();
+            if (!name.startsWith("part-") || !(name.endsWith(".txt") || name.endsWith(".gz"))) {
+                continue;
+            }
+
+            File outputFile = new File(outputDir, FilenameUtils.getBaseName(name) + ".bin");
+            int numConverted = convert(partFile, outputFile, options.isCompressed());
+            LOGGER.info(String.format("Converted %d articles from %s to %s", numConverted, partFile, outputFile));
+            numArticles += numConverted;
+        }
+
+        return numArticles;
+    }
+
+    private int convert(File inputFile, File outputFile, boolean compress) throws IOException {
+        InputStream is = new FileInputStream(inputFile);
+        if (inputFile.getName().endsWith(".gz")) {
+            is = new GZIPInputStream(is);
+        }
+
+        int numArticles = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, UTF_8));
+             ArticleRecordWriter writer = new ArticleRecordWriter(new BufferedOutputStream(new FileOutputStream(outputFile)), compress)) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tabIndex = line.indexOf('\t');
+                if (tabIndex == -1) {
+                    throw new IOException(String.format("Got invalid line in %s: %s", inputFile, line));
+                }
+
+                String title = line.substring(0, tabIndex);
+                String text = new String(Base64.decodeBase64(line.substring(tabIndex + 1).getBytes(UTF_8)), UTF_8);
+                writer.write(title, ArticleRecordWriter.UNKNOWN_PAGE_ID, text);
+                numArticles += 1;
+            }
+        }
+
+        return numArticles;
+    }
+
+    public static void main(String[] args) {
+        ConvertPartFilesOptions options = new ConvertPartFilesOptions();
+        CmdLineParser parser = new CmdLineParser(options);
+
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            printUsageAndExit(parser);
+        }
+
+        ConvertPartFilesTool tool = new ConvertPartFilesTool();
+
+        try {
+            tool.run(options);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsageAndExit(parser);
+        } catch (Throwable t) {
+            System.err.println("Exception running tool: " + t.getMessage());
+            t.printStackTrace(System.err);
+            System.exit(-1);
+        }
+    }
+
+    private static void printUsageAndExit(CmdLineParser parser) {
+        parser.printUsage(System.err);
+        System.exit(-1);
+    }
+
+    public static class ConvertPartFilesOptions {
+        private String _inputDirname;
+        private String _outputDirname;
+        private boolean _compress = false;
+
+        @Option(name = "-inputdir", usage = "path to directory containing text part-xxx files", required = true)
+        public void setInputDirname(String inputDirname) {
+            _inputDirname = inputDirname;
+        }
+
+        public String getInputDirname() {
+            return _inputDirname;
+        }
+
+        @Option(name = "-outputdir", usage = "path to directory for binary part-xxx files", required = true)
+        public void setOutputDirname(String outputDirname) {
+            _outputDirname = outputDirname;
+        }
+
+        public String getOutputDirname() {
+            return _outputDirname;
+        }
+
+        @Option(name = "-compress", usage = "compress blocks of records", required = false)
+        public void setCompress(boolean compress) {
+            _compress = compress;
+        }
+
+        public boolean isCompressed() {
+            return _compress;
+        }
+    }
+}
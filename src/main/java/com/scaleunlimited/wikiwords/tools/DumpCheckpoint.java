@@ -0,0 +1,315 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.scaleunlimited.wikiwords.PartManifest;
+
+/**
+ * State of a WikiDumpFilter after it has finished writing a part file, so that
+ * a failed WikiDumpTool run can be resumed from that point. This is saved as a
+ * properties file in the metadata directory.
+ *
+ * The position in the input file is saved as an offset where a resumed run can
+ * start reading, plus the number of pages after that offset that have already been
+ * handled, which are parsed again but skipped before classification:
+ *
+ *  - uncompressed dump: the offset just past the last page, with no pages to skip.
+ *  - parallel (multistream or mapped) parse: the start of the stream or byte range
+ *    the filter was part-way through, and the pages it had handled in that unit.
+ *    The units that the filter had finished are saved as well.
+ *  - compressed (single stream) dump: we can't seek in the file, so the offset is
+ *    zero and all of the pages seen so far are skipped.
+ *
+ * When parsing in parallel each filter has its own checkpoint file, named using the
+ * filter's part file prefix.
+ *
+ * A checkpoint is also used to tell the writer that a part file has been completed,
+ * along with the stats for that part, even when checkpoints aren't being saved.
+ *
+ */
+public class DumpCheckpoint {
+
+    public static final String CHECKPOINT_FILENAME = "checkpoint.properties";
+
+    private static final String PAGES_SEEN_KEY = "pages.seen";
+    private static final String PAGES_ACCEPTED_KEY = "pages.accepted";
+    private static final String PAGES_WRITTEN_KEY = "pages.written";
+    private static final String NEXT_PART_KEY = "next.part";
+    private static final String PAGES_PER_FILE_KEY = "pages.per.file";
+    private static final String TARGET_PART_SIZE_KEY = "target.part.size";
+    private static final String LINK_COST_KEY = "link.cost";
+    private static final String RANDOM_CALLS_KEY = "random.calls";
+    private static final String INPUT_OFFSET_KEY = "input.offset";
+    private static final String INPUT_PAGES_KEY = "input.pages";
+    private static final String COMPLETED_UNITS_KEY = "input.completed.units";
+    private static final String COUNTER_KEY_PREFIX = "counter.";
+    private static final String SPILL_RUNS_KEY_PREFIX = "spill.runs.";
+
+    private long _pagesSeen;
+    private int _pagesAccepted;
+    private int _pagesWritten;
+    private int _nextPart;
+    private int _pagesPerFile;
+    private long _targetPartSize;
+    private int _linkCost;
+    private long _randomCalls;
+    private long _inputOffset;
+    private long _inputPages;
+    private List<Long> _completedUnits;
+    private Map<String, Integer> _counters;
+    private Map<String, List<String>> _spillRuns;
+
+    // Not saved, since the part manifest is written separately.
+    private PartManifest.Part _completedPart;
+
+    public DumpCheckpoint() {
+        _counters = new HashMap<>();
+        _spillRuns = new HashMap<>();
+        _completedUnits = new ArrayList<>();
+    }
+
+    public long getPagesSeen() {
+        return _pagesSeen;
+    }
+
+    public void setPagesSeen(long pagesSeen) {
+        _pagesSeen = pagesSeen;
+    }
+
+    public int getPagesAccepted() {
+        return _pagesAccepted;
+    }
+
+    public void setPagesAccepted(int pagesAccepted) {
+        _pagesAccepted = pagesAccepted;
+    }
+
+    public int getPagesWritten() {
+        return _pagesWritten;
+    }
+
+    public void setPagesWritten(int pagesWritten) {
+        _pagesWritten = pagesWritten;
+    }
+
+    public int getNextPart() {
+        return _nextPart;
+    }
+
+    public void setNextPart(int nextPart) {
+        _nextPart = nextPart;
+    }
+
+    public int getPagesPerFile() {
+        return _pagesPerFile;
+    }
+
+    public void setPagesPerFile(int pagesPerFile) {
+        _pagesPerFile = pagesPerFile;
+    }
+
+    public long getTargetPartSize() {
+        return _targetPartSize;
+    }
+
+    public void setTargetPartSize(long targetPartSize) {
+        _targetPartSize = targetPartSize;
+    }
+
+    public int getLinkCost() {
+        return _linkCost;
+    }
+
+    public void setLinkCost(int linkCost) {
+        _linkCost = linkCost;
+    }
+
+    public long getRandomCalls() {
+        return _randomCalls;
+    }
+
+    public void setRandomCalls(long randomCalls) {
+        _randomCalls = randomCalls;
+    }
+
+    /**
+     * @return offset in the dump file where a resumed run should start reading.
+     */
+    public long getInputOffset() {
+        return _inputOffset;
+    }
+
+    public void setInputOffset(long inputOffset) {
+        _inputOffset = inputOffset;
+    }
+
+    /**
+     * @return number of pages after the input offset that have already been handled.
+     */
+    public long getInputPages() {
+        return _inputPages;
+    }
+
+    public void setInputPages(long inputPages) {
+        _inputPages = inputPages;
+    }
+
+    /**
+     * @return offsets of the units (streams or byte ranges) that have been completely
+     *         handled, when parsing in parallel.
+     */
+    public List<Long> getCompletedUnits() {
+        return _completedUnits;
+    }
+
+    public void setCompletedUnits(List<Long> completedUnits) {
+        _completedUnits = completedUnits;
+    }
+
+    public Map<String, Integer> getCounters() {
+        return _counters;
+    }
+
+    public void setCounters(Map<String, Integer> counters) {
+        _counters = counters;
+    }
+
+    public PartManifest.Part getCompletedPart() {
+        return _completedPart;
+    }
+
+    public void setCompletedPart(PartManifest.Part completedPart) {
+        _completedPart = completedPart;
+    }
+
+    /**
+     * @param name Name of the metadata (e.g. "redirects")
+     * @return names of run files in the spill directory.
+     */
+    public List<String> getSpillRuns(String name) {
+        List<String> result = _spillRuns.get(name);
+        return result == null ? new ArrayList<String>() : result;
+    }
+
+    public void setSpillRuns(String name, List<File> runs) {
+        List<String> runNames = new ArrayList<>();
+        for (File run : runs) {
+            runNames.add(run.getName());
+        }
+
+        _spillRuns.put(name, runNames);
+    }
+
+    /**
+     * Write the checkpoint to <dir>. We write to a temp file first, so that
+     * a crash while saving doesn't leave us with a broken checkpoint.
+     *
+     * @param dir Directory (typically the metadata directory) for the checkpoint file
+     * @param partPrefix Part file prefix of the filter that's saving the checkpoint.
+     * @throws IOException
+     */
+    public void save(File dir, String partPrefix) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(PAGES_SEEN_KEY, "" + _pagesSeen);
+        props.setProperty(PAGES_ACCEPTED_KEY, "" + _pagesAccepted);
+        props.setProperty(PAGES_WRITTEN_KEY, "" + _pagesWritten);
+        props.setProperty(NEXT_PART_KEY, "" + _nextPart);
+        props.setProperty(PAGES_PER_FILE_KEY, "" + _pagesPerFile);
+        props.setProperty(TARGET_PART_SIZE_KEY, "" + _targetPartSize);
+        props.setProperty(LINK_COST_KEY, "" + _linkCost);
+        props.setProperty(RANDOM_CALLS_KEY, "" + _randomCalls);
+        props.setProperty(INPUT_OFFSET_KEY, "" + _inputOffset);
+        props.setProperty(INPUT_PAGES_KEY, "" + _inputPages);
+        if (!_completedUnits.isEmpty()) {
+            props.setProperty(COMPLETED_UNITS_KEY, StringUtils.join(_completedUnits, ','));
+        }
+
+        for (String counter : _counters.keySet()) {
+            props.setProperty(COUNTER_KEY_PREFIX + counter, "" + _counters.get(counter));
+        }
+
+        for (String name : _spillRuns.keySet()) {
+            props.setProperty(SPILL_RUNS_KEY_PREFIX + name, StringUtils.join(_spillRuns.get(name), ','));
+        }
+
+        File checkpointFile = new File(dir, partPrefix + CHECKPOINT_FILENAME);
+        File tempFile = new File(dir, checkpointFile.getName() + ".tmp");
+        try (OutputStream os = new FileOutputStream(tempFile)) {
+            props.store(os, "WikiDumpTool checkpoint");
+        }
+
+        Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static DumpCheckpoint load(File dir) throws IOException {
+        return load(dir, "");
+    }
+
+    /**
+     * @param dir Directory containing the checkpoint file
+     * @param partPrefix Part file prefix of the filter that saved the checkpoint.
+     * @return the saved checkpoint, or null if there isn't one.
+     * @throws IOException
+     */
+    public static DumpCheckpoint load(File dir, String partPrefix) throws IOException {
+        File checkpointFile = new File(dir, partPrefix + CHECKPOINT_FILENAME);
+        if (!checkpointFile.exists()) {
+            return null;
+        }
+
+        Properties props = new Properties();
+        try (InputStream is = new FileInputStream(checkpointFile)) {
+            props.load(is);
+        }
+
+        DumpCheckpoint result = new DumpCheckpoint();
+        result.setPagesSeen(Long.parseLong(props.getProperty(PAGES_SEEN_KEY)));
+        result.setPagesAccepted(Integer.parseInt(props.getProperty(PAGES_ACCEPTED_KEY)));
+        result.setPagesWritten(Integer.parseInt(props.getProperty(PAGES_WRITTEN_KEY)));
+        result.setNextPart(Integer.parseInt(props.getProperty(NEXT_PART_KEY)));
+        result.setPagesPerFile(Integer.parseInt(props.getProperty(PAGES_PER_FILE_KEY)));
+        result.setTargetPartSize(Long.parseLong(props.getProperty(TARGET_PART_SIZE_KEY, "0")));
+        result.setLinkCost(Integer.parseInt(props.getProperty(LINK_COST_KEY, "0")));
+        result.setRandomCalls(Long.parseLong(props.getProperty(RANDOM_CALLS_KEY)));
+        
+        // Older checkpoints only have the number of pages seen, which are skipped from the start of the dump.
+        result.setInputOffset(Long.parseLong(props.getProperty(INPUT_OFFSET_KEY, "0")));
+        result.setInputPages(Long.parseLong(props.getProperty(INPUT_PAGES_KEY, "" + result.getPagesSeen())));
+        for (String unit : StringUtils.split(props.getProperty(COMPLETED_UNITS_KEY, ""), ',')) {
+            result._completedUnits.add(Long.parseLong(unit));
+        }
+
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(COUNTER_KEY_PREFIX)) {
+                result._counters.put(key.substring(COUNTER_KEY_PREFIX.length()), Integer.parseInt(props.getProperty(key)));
+            } else if (key.startsWith(SPILL_RUNS_KEY_PREFIX)) {
+                List<String> runNames = new ArrayList<>();
+                for (String runName : StringUtils.split(props.getProperty(key), ',')) {
+                    runNames.add(runName);
+                }
+
+                result._spillRuns.put(key.substring(SPILL_RUNS_KEY_PREFIX.length()), runNames);
+            }
+        }
+
+        return result;
+    }
+
+    public static void delete(File dir, String partPrefix) {
+        new File(dir, partPrefix + CHECKPOINT_FILENAME).delete();
+    }
+}
@@ -0,0 +1,130 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Hands out the units (streams or byte ranges) of a dump to the threads of a
+ * ParallelDumpParser, in file order.
+ *
+ * When resuming, each thread first gets the unit that its filter was part-way
+ * through, and units that were completely handled by the previous run are skipped.
+ *
+ */
+class DumpUnitQueue {
+
+    private long[] _offsets;
+    private boolean[] _skipped;
+    private int[] _startUnits;
+    private AtomicInteger _nextUnit;
+    private List<PagePositions> _positions;
+
+    /**
+     * @param offsets Sorted offsets of the units in the dump file.
+     * @param numThreads Number of parser threads
+     */
+    public DumpUnitQueue(long[] offsets, int numThreads) {
+        _offsets = offsets;
+        _skipped = new boolean[offsets.length];
+        _startUnits = new int[numThreads];
+        Arrays.fill(_startUnits, -1);
+        _nextUnit = new AtomicInteger(0);
+    }
+
+    /**
+     * @param positions One per thread, or null if page positions aren't needed.
+     */
+    public void setPagePositions(List<PagePositions> positions) {
+        _positions = positions;
+    }
+
+    /**
+     * @param completedUnits Offsets of units that don't need to be parsed again.
+     * @param startUnits Offset of the unit that each thread should parse first, or -1.
+     */
+    public void setResume(Set<Long> completedUnits, long[] startUnits) {
+        for (long offset : completedUnits) {
+            _skipped[getUnit(offset)] = true;
+        }
+
+        for (int i = 0; i < startUnits.length; i++) {
+            if (startUnits[i] != -1) {
+                _startUnits[i] = getUnit(startUnits[i]);
+                _skipped[_startUnits[i]] = true;
+            }
+        }
+    }
+
+    private int getUnit(long offset) {
+        int result = Arrays.binarySearch(_offsets, offset);
+        if (result < 0) {
+            throw new InvalidParameterException("Checkpoint doesn't match the dump, no stream or range starts at offset " + offset);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param thread Index of the calling thread
+     * @return index of the next unit for the thread to parse, or -1 if there are none left.
+     */
+    public int next(int thread) {
+        if (_startUnits[thread] != -1) {
+            int result = _startUnits[thread];
+            _startUnits[thread] = -1;
+            return result;
+        }
+
+        int result;
+        while ((result = _nextUnit.getAndIncrement()) < _offsets.length) {
+            if (!_skipped[result]) {
+                return result;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return filter to use for pages in <unit>, which records the position of each page
+     *         before handing it to <filter>.
+     */
+    public IArticleFilter getFilter(int thread, int unit, IArticleFilter filter) {
+        if (_positions == null) {
+            return filter;
+        }
+
+        return new PositionFilter(filter, _positions.get(thread), _offsets[unit]);
+    }
+
+    private static class PositionFilter implements IArticleFilter {
+
+        private IArticleFilter _filter;
+        private PagePositions _positions;
+        private long _unitOffset;
+        private long _pages;
+
+        public PositionFilter(IArticleFilter filter, PagePositions positions, long unitOffset) {
+            _filter = filter;
+            _positions = positions;
+            _unitOffset = unitOffset;
+            _pages = 0;
+        }
+
+        @Override
+        public void process(WikiArticle article, Siteinfo siteinfo) throws SAXException {
+            _pages += 1;
+            _positions.addPage(_unitOffset, _pages);
+            _filter.process(article, siteinfo);
+        }
+    }
+}
@@ -12,6 +12,10 @@ import com.scaleunlimited.cascading.BaseTool;
 import com.scaleunlimited.cascading.FlowResult;
 import com.scaleunlimited.cascading.FlowRunner;
 import com.scaleunlimited.cascading.FlowUtils;
+import com.scaleunlimited.wikiwords.DistanceWeighting;
+import com.scaleunlimited.wikiwords.MarkupParser;
+import com.scaleunlimited.wikiwords.PartFileFormat;
+import com.scaleunlimited.wikiwords.TermAnalyzer;
 import com.scaleunlimited.wikiwords.WorkflowOptions;
 import com.scaleunlimited.wikiwords.flow.GenerateTermsFlow;
 
@@ -64,6 +68,15 @@ public class GenerateTermsTool extends BaseTool {
     public static class GenerateTermsOptions extends WorkflowOptions {
         private String _inputDirname;
         private int _maxDistanceToLink = 100;
+        private PartFileFormat _inputFormat = PartFileFormat.TEXT;
+        private MarkupParser _parser = MarkupParser.WIKITEXT;
+        private TermAnalyzer _analyzer = TermAnalyzer.SIMPLE;
+        private int _combineSize = 0;
+        private int _templateCacheSize = 0;
+        private String _templateStore = null;
+        private DistanceWeighting _weighting = DistanceWeighting.LINEAR;
+        private float _decay = 0.1f;
+        private float _cutoff = 0.05f;
         
         public GenerateTermsOptions() {
             super();
@@ -87,5 +100,98 @@ public class GenerateTermsTool extends BaseTool {
             return _maxDistanceToLink;
         }
 
+        @Option(name = "-weighting", usage = "how to weight terms by distance to link (linear, exponential or flat)", required = false)
+        public void setWeighting(String weighting) {
+            _weighting = DistanceWeighting.fromName(weighting);
+        }
+
+        public DistanceWeighting getWeighting() {
+            return _weighting;
+        }
+
+        @Option(name = "-decay", usage = "how quickly term weights decrease with distance to link", required = false)
+        public void setDecay(float decay) {
+            _decay = decay;
+        }
+
+        public float getDecay() {
+            return _decay;
+        }
+
+        @Option(name = "-cutoff", usage = "minimum weight for a term to be kept", required = false)
+        public void setCutoff(float cutoff) {
+            _cutoff = cutoff;
+        }
+
+        public float getCutoff() {
+            return _cutoff;
+        }
+        
+        /**
+         * @return weights for terms that are 0...n terms away from a link, where n is
+         *         at most the max distance.
+         */
+        public float[] getDistanceWeights() {
+            return _weighting.getWeights(_maxDistanceToLink, _decay, _cutoff);
+        }
+
+        @Option(name = "-inputformat", usage = "format of part-xxx input files (text or binary)", required = false)
+        public void setInputFormat(String inputFormat) {
+            _inputFormat = PartFileFormat.fromName(inputFormat);
+        }
+
+        public PartFileFormat getInputFormat() {
+            return _inputFormat;
+        }
+
+        @Option(name = "-parser", usage = "how to extract terms from markup (wikitext, or html via bliki)", required = false)
+        public void setParser(String parser) {
+            _parser = MarkupParser.fromName(parser);
+        }
+
+        public MarkupParser getParser() {
+            return _parser;
+        }
+
+        @Option(name = "-analyzer", usage = "how to split text into terms (simple, standard, stopwords, or a language like english)", required = false)
+        public void setAnalyzer(String analyzer) {
+            _analyzer = TermAnalyzer.fromName(analyzer);
+        }
+
+        public TermAnalyzer getAnalyzer() {
+            return _analyzer;
+        }
+
+        @Option(name = "-combine", usage = "max # of term/article ref weights to combine in memory per task (0 = don't combine)", required = false)
+        public void setCombineSize(int combineSize) {
+            _combineSize = combineSize;
+        }
+
+        public int getCombineSize() {
+            return _combineSize;
+        }
+        
+        public boolean isCombine() {
+            return _combineSize > 0;
+        }
+
+        @Option(name = "-templatecache", usage = "max # of chars of converted templates to cache per task (0 = no cache)", required = false)
+        public void setTemplateCacheSize(int templateCacheSize) {
+            _templateCacheSize = templateCacheSize;
+        }
+
+        public int getTemplateCacheSize() {
+            return _templateCacheSize;
+        }
+
+        @Option(name = "-templatestore", usage = "path to templates.txt saved by WikiDumpTool, for expanding templates without a rule", required = false)
+        public void setTemplateStore(String templateStore) {
+            _templateStore = templateStore;
+        }
+
+        public String getTemplateStore() {
+            return _templateStore;
+        }
+
     }
 }
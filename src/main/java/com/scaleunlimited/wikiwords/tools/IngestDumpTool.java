@@ -0,0 +1,88 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import cascading.flow.Flow;
+import cascading.flow.planner.PlannerException;
+
+import com.scaleunlimited.cascading.BaseTool;
+import com.scaleunlimited.cascading.FlowResult;
+import com.scaleunlimited.cascading.FlowRunner;
+import com.scaleunlimited.cascading.FlowUtils;
+import com.scaleunlimited.wikiwords.WorkflowOptions;
+import com.scaleunlimited.wikiwords.flow.IngestDumpFlow;
+
+public class IngestDumpTool extends BaseTool {
+
+    private void run(IngestDumpOptions options) throws Exception {
+        Flow flow = IngestDumpFlow.createFlow(options);
+
+        if (options.getDOTFile() != null) {
+            flow.writeDOT(getDotFileName(options, "ingestdump"));
+            flow.writeStepsDOT(getStepDotFileName(options, "ingestdump"));
+        }
+        
+        FlowUtils.nameFlowSteps(flow);
+        FlowResult fr = FlowRunner.run(flow);
+        options.saveCounters(IngestDumpFlow.class, fr.getCounters());
+    }
+
+    public static void main(String[] args) {
+        IngestDumpOptions options = new IngestDumpOptions();
+        CmdLineParser parser = new CmdLineParser(options);
+
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            printUsageAndExit(parser);
+        }
+
+        IngestDumpTool tool = new IngestDumpTool();
+        
+        try {
+            tool.run(options);
+        } catch (PlannerException e) {
+            e.writeDOT("build/failed-flow.dot");
+            System.err.println("PlannerException: " + e.getMessage());
+            e.printStackTrace(System.err);
+            System.exit(-1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsageAndExit(parser);
+        } catch (Throwable t) {
+            System.err.println("Exception running tool: " + t.getMessage());
+            t.printStackTrace(System.err);
+            System.exit(-1);
+        }
+    }
+    
+    public static class IngestDumpOptions extends WorkflowOptions {
+        private String _inputFile;
+        private float _samplePercent = 1.0f;
+        
+        public IngestDumpOptions() {
+            super();
+        }
+        
+        @Option(name = "-inputfile", usage = "path to Wikipedia dump file (uncompressed, or bzip2 compressed)", required = true)
+        public void setInputFile(String inputFile) {
+            _inputFile = inputFile;
+        }
+
+        public String getInputFile() {
+            return _inputFile;
+        }
+
+        @Option(name = "-samplepercent", usage = "sample percentage (e.g. 10.0 for 10%)", required = false)
+        public void setSamplePercent(float samplePercent) {
+            _samplePercent = samplePercent / 100.0f;
+        }
+
+        public float getSamplePercent() {
+            return _samplePercent;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Throughput and timing stats for a WikiDumpTool run. One instance is shared by all of
+ * the filters (and parser threads) in a run, so everything here is thread-safe.
+ *
+ * We track pages, input bytes (read from the dump file, so compressed if the dump is
+ * compressed) and output bytes (encoded pages written to part files), plus the time
+ * spent in the classify, encode and write stages. Classification times are also kept
+ * per page type, as a histogram with power-of-two microsecond buckets.
+ *
+ * Stats can be logged periodically while the dump is being processed, and are saved
+ * as a properties file in the metadata directory at the end of the run.
+ *
+ */
+public class IngestMetrics {
+    private static final Logger LOGGER = Logger.getLogger(IngestMetrics.class);
+
+    public static final String REPORT_FILENAME = "ingest-metrics.properties";
+
+    public static final int DEFAULT_LOG_INTERVAL = 60;
+
+    public enum Stage {
+        CLASSIFY,
+        ENCODE,
+        WRITE;
+
+        public String getKey() {
+            return name().toLowerCase();
+        }
+    }
+
+    // Bucket i holds times in the range [2^(i-1), 2^i) microseconds, and bucket 0 is for
+    // times less than one microsecond.
+    private static final int NUM_BUCKETS = 40;
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0};
+
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private long _startTime;
+    private AtomicLong _pages;
+    private AtomicLong _inputBytes;
+    private AtomicLong _outputBytes;
+    private AtomicLong[] _stageNanos;
+    private ConcurrentMap<String, Histogram> _pageTypes;
+
+    private ScheduledExecutorService _logger;
+
+    // Values at the time of the last periodic log message, for calculating current rates.
+    private long _lastLogTime;
+    private long _lastPages;
+    private long _lastInputBytes;
+    private long _lastOutputBytes;
+
+    public IngestMetrics() {
+        _startTime = System.nanoTime();
+        _pages = new AtomicLong();
+        _inputBytes = new AtomicLong();
+        _outputBytes = new AtomicLong();
+
+        _stageNanos = new AtomicLong[Stage.values().length];
+        for (int i = 0; i < _stageNanos.length; i++) {
+            _stageNanos[i] = new AtomicLong();
+        }
+
+        _pageTypes = new ConcurrentHashMap<>();
+
+        _lastLogTime = _startTime;
+    }
+
+    /**
+     * Start logging a summary every <intervalSeconds>, until stop() is called.
+     *
+     * @param intervalSeconds Seconds between log messages, or 0 for no logging.
+     */
+    public synchronized void start(int intervalSeconds) {
+        if ((intervalSeconds <= 0) || (_logger != null)) {
+            return;
+        }
+
+        _logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "ingest metrics logger");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+
+        _logger.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                LOGGER.info(getIntervalSummary());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (_logger != null) {
+            _logger.shutdownNow();
+            _logger = null;
+        }
+    }
+
+    /**
+     * Record a classified page.
+     *
+     * @param pageType Counter name for the type of page
+     * @param nanos Time taken to classify the page
+     */
+    public void addPage(String pageType, long nanos) {
+        _pages.incrementAndGet();
+        _stageNanos[Stage.CLASSIFY.ordinal()].addAndGet(nanos);
+
+        Histogram histogram = _pageTypes.get(pageType);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = _pageTypes.putIfAbsent(pageType, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+
+        histogram.add(nanos);
+    }
+
+    public void addEncode(long nanos) {
+        _stageNanos[Stage.ENCODE.ordinal()].addAndGet(nanos);
+    }
+
+    public void addWrite(long numBytes, long nanos) {
+        _outputBytes.addAndGet(numBytes);
+        _stageNanos[Stage.WRITE.ordinal()].addAndGet(nanos);
+    }
+
+    public void addInputBytes(long numBytes) {
+        _inputBytes.addAndGet(numBytes);
+    }
+
+    /**
+     * @param in Stream of data from the dump file
+     * @return stream that adds the number of bytes read to our input bytes.
+     */
+    public InputStream countInput(InputStream in) {
+        return new CountingInputStream(in);
+    }
+
+    public long getPages() {
+        return _pages.get();
+    }
+
+    public long getInputBytes() {
+        return _inputBytes.get();
+    }
+
+    public long getOutputBytes() {
+        return _outputBytes.get();
+    }
+
+    public long getStageNanos(Stage stage) {
+        return _stageNanos[stage.ordinal()].get();
+    }
+
+    /**
+     * @return one line summary of rates since the start of the run.
+     */
+    public String getSummary() {
+        return formatSummary(System.nanoTime() - _startTime, getPages(), getInputBytes(), getOutputBytes());
+    }
+
+    /**
+     * @return one line summary of rates since the last time this was called, and the
+     *         totals so far.
+     */
+    private synchronized String getIntervalSummary() {
+        long now = System.nanoTime();
+        long pages = getPages();
+        long inputBytes = getInputBytes();
+        long outputBytes = getOutputBytes();
+
+        String result = String.format("Current: %s (total %d pages, %.1fMB in, %.1fMB out)",
+                        formatSummary(now - _lastLogTime, pages - _lastPages, inputBytes - _lastInputBytes, outputBytes - _lastOutputBytes),
+                        pages, inputBytes / BYTES_PER_MB, outputBytes / BYTES_PER_MB);
+
+        _lastLogTime = now;
+        _lastPages = pages;
+        _lastInputBytes = inputBytes;
+        _lastOutputBytes = outputBytes;
+        return result;
+    }
+
+    private static String formatSummary(long nanos, long pages, long inputBytes, long outputBytes) {
+        double seconds = Math.max(nanos, 1) / 1000000000.0;
+        return String.format("%.1f pages/sec, %.2f MB/sec in, %.2f MB/sec out", pages / seconds, inputBytes / BYTES_PER_MB / seconds, outputBytes / BYTES_PER_MB / seconds);
+    }
+
+    /**
+     * Save all stats as a properties file. Times are in milliseconds, except for the
+     * page type histograms and percentiles, which are in microseconds. Histogram keys
+     * end with the exclusive upper bound of the bucket.
+     *
+     * @param reportFile File to write
+     * @throws IOException
+     */
+    public void writeReport(File reportFile) throws IOException {
+        long elapsedNanos = System.nanoTime() - _startTime;
+        double seconds = Math.max(elapsedNanos, 1) / 1000000000.0;
+
+        Properties props = new Properties();
+        props.setProperty("elapsed.ms", Long.toString(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+        props.setProperty("pages", Long.toString(getPages()));
+        props.setProperty("pages.per.sec", String.format("%.1f", getPages() / seconds));
+        props.setProperty("input.bytes", Long.toString(getInputBytes()));
+        props.setProperty("input.mb.per.sec", String.format("%.2f", getInputBytes() / BYTES_PER_MB / seconds));
+        props.setProperty("output.bytes", Long.toString(getOutputBytes()));
+        props.setProperty("output.mb.per.sec", String.format("%.2f", getOutputBytes() / BYTES_PER_MB / seconds));
+
+        for (Stage stage : Stage.values()) {
+            props.setProperty("stage." + stage.getKey() + ".ms", Long.toString(TimeUnit.NANOSECONDS.toMillis(getStageNanos(stage))));
+        }
+
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(_pageTypes).entrySet()) {
+            String prefix = "type." + entry.getKey() + ".";
+            Histogram histogram = entry.getValue();
+            props.setProperty(prefix + "count", Long.toString(histogram.getCount()));
+            props.setProperty(prefix + "total.ms", Long.toString(TimeUnit.NANOSECONDS.toMillis(histogram.getTotalNanos())));
+            props.setProperty(prefix + "max.us", Long.toString(TimeUnit.NANOSECONDS.toMicros(histogram.getMaxNanos())));
+
+            for (double percentile : PERCENTILES) {
+                props.setProperty(String.format("%sp%d.us", prefix, (int)percentile), Long.toString(histogram.getPercentileMicros(percentile)));
+            }
+
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                long count = histogram.getBucketCount(i);
+                if (count > 0) {
+                    props.setProperty(prefix + "histogram.us." + getBucketLimit(i), Long.toString(count));
+                }
+            }
+        }
+
+        try (OutputStream os = new FileOutputStream(reportFile)) {
+            props.store(os, "WikiDumpTool ingest metrics");
+        }
+    }
+
+    /**
+     * @return exclusive upper bound of bucket <index>, in microseconds.
+     */
+    private static long getBucketLimit(int index) {
+        return 1L << index;
+    }
+
+    private static int getBucket(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static class Histogram {
+        private AtomicLong _count = new AtomicLong();
+        private AtomicLong _totalNanos = new AtomicLong();
+        private AtomicLong _maxNanos = new AtomicLong();
+        private AtomicLongArray _buckets = new AtomicLongArray(NUM_BUCKETS);
+
+        public void add(long nanos) {
+            _count.incrementAndGet();
+            _totalNanos.addAndGet(nanos);
+            _buckets.incrementAndGet(getBucket(nanos));
+
+            long curMax;
+            while (nanos > (curMax = _maxNanos.get())) {
+                if (_maxNanos.compareAndSet(curMax, nanos)) {
+                    break;
+                }
+            }
+        }
+
+        public long getCount() {
+            return _count.get();
+        }
+
+        public long getTotalNanos() {
+            return _totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return _maxNanos.get();
+        }
+
+        public long getBucketCount(int index) {
+            return _buckets.get(index);
+        }
+
+        /**
+         * @return upper bound of the bucket containing the <percentile> time.
+         */
+        public long getPercentileMicros(double percentile) {
+            long target = (long)Math.ceil(getCount() * percentile / 100.0);
+            long count = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                count += _buckets.get(i);
+                if ((count >= target) && (count > 0)) {
+                    return getBucketLimit(i);
+                }
+            }
+
+            return 0;
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1) {
+                _inputBytes.incrementAndGet();
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                _inputBytes.addAndGet(result);
+            }
+
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(n);
+            _inputBytes.addAndGet(result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.WikiXMLParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Parser for uncompressed dump files, which memory-maps the file and cuts it into byte
+ * ranges that start on <page> boundaries. Ranges are handed out to worker threads as
+ * they finish the previous one, and each range is parsed as a complete dump file, by
+ * adding the <mediawiki> and <siteinfo> header from the start of the file, and the
+ * closing </mediawiki> tag.
+ *
+ * Page text in a dump is escaped, so "<page>" can only occur as the start of a page
+ * element.
+ *
+ * There are many more ranges than threads, both to balance the load and because a
+ * single mapping can't be bigger than 2GB. Ranges are also the units that a resumed run
+ * restarts from, which only works with the same range size as the previous run.
+ *
+ */
+public class MappedDumpParser implements ParallelDumpParser {
+    private static final Logger LOGGER = Logger.getLogger(MappedDumpParser.class);
+
+    public static final int DEFAULT_RANGE_SIZE = 64 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] PAGE_START_TAG = "<page>".getBytes(UTF_8);
+    private static final byte[] MEDIAWIKI_END_TAG = "</mediawiki>".getBytes(UTF_8);
+
+    // How much of the file we map at a time when searching for tags.
+    private static final int SEARCH_WINDOW_SIZE = 1024 * 1024;
+
+    private File _dumpFile;
+    private boolean _staxParser;
+    private boolean _templateText;
+    private IngestMetrics _metrics;
+    private List<PagePositions> _positions;
+    private Set<Long> _completedUnits;
+    private long[] _startUnits;
+    private int _rangeSize;
+
+    public MappedDumpParser(File dumpFile, boolean staxParser) {
+        this(dumpFile, staxParser, DEFAULT_RANGE_SIZE);
+    }
+
+    /**
+     * @param dumpFile Uncompressed dump file
+     * @param staxParser true to parse ranges with the StaxDumpParser, versus bliki's WikiXMLParser
+     * @param rangeSize Target size of each byte range
+     */
+    public MappedDumpParser(File dumpFile, boolean staxParser, int rangeSize) {
+        _dumpFile = dumpFile;
+        _staxParser = staxParser;
+        _rangeSize = rangeSize;
+        _metrics = new IngestMetrics();
+    }
+
+    @Override
+    public void setMetrics(IngestMetrics metrics) {
+        _metrics = metrics;
+    }
+
+    @Override
+    public void setTemplateText(boolean templateText) {
+        _templateText = templateText;
+    }
+
+    @Override
+    public void setPagePositions(List<PagePositions> positions) {
+        _positions = positions;
+    }
+
+    @Override
+    public void setResume(Set<Long> completedUnits, long[] startUnits) {
+        _completedUnits = completedUnits;
+        _startUnits = startUnits;
+    }
+
+    @Override
+    public void parse(List<? extends IArticleFilter> filters) throws IOException {
+        try (final FileChannel channel = FileChannel.open(_dumpFile.toPath(), StandardOpenOption.READ)) {
+            final long[] boundaries = findRangeBoundaries(channel);
+            if (boundaries.length < 2) {
+                LOGGER.warn("No pages found in " + _dumpFile);
+                return;
+            }
+
+            final byte[] header = readBytes(channel, 0, boundaries[0]);
+            final int numRanges = boundaries.length - 1;
+            final DumpUnitQueue ranges = new DumpUnitQueue(Arrays.copyOf(boundaries, numRanges), filters.size());
+            ranges.setPagePositions(_positions);
+            if (_completedUnits != null) {
+                ranges.setResume(_completedUnits, _startUnits);
+            }
+
+            LOGGER.info(String.format("Processing %d byte ranges with %d threads", numRanges, filters.size()));
+
+            ExecutorService executor = Executors.newFixedThreadPool(filters.size());
+            try {
+                List<Future<Integer>> results = new ArrayList<>();
+                for (int i = 0; i < filters.size(); i++) {
+                    final int thread = i;
+                    final IArticleFilter filter = filters.get(i);
+                    results.add(executor.submit(new Callable<Integer>() {
+
+                        @Override
+                        public Integer call() throws Exception {
+                            int rangesParsed = 0;
+                            int rangeIndex;
+                            while ((rangeIndex = ranges.next(thread)) != -1) {
+                                parseRange(channel, boundaries[rangeIndex], boundaries[rangeIndex + 1], header, ranges.getFilter(thread, rangeIndex, filter));
+                                _metrics.addInputBytes(boundaries[rangeIndex + 1] - boundaries[rangeIndex]);
+                                rangesParsed += 1;
+                            }
+
+                            return rangesParsed;
+                        }
+                    }));
+                }
+
+                for (Future<Integer> result : results) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing dump", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Exception parsing dump", e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void parseRange(FileChannel channel, long startOffset, long endOffset, byte[] header, IArticleFilter filter) throws Exception {
+        MappedByteBuffer pages = channel.map(MapMode.READ_ONLY, startOffset, endOffset - startOffset);
+
+        InputStream xml = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                        new ByteArrayInputStream(header),
+                        new ByteBufferInputStream(pages),
+                        new ByteArrayInputStream(MEDIAWIKI_END_TAG))));
+
+        if (_staxParser) {
+            StaxDumpParser parser = new StaxDumpParser(xml, filter);
+            parser.setTemplateText(_templateText);
+            parser.parse();
+        } else {
+            new WikiXMLParser(xml, filter).parse();
+        }
+    }
+
+    /**
+     * Find the offsets of <page> elements that we'll use to split up the file. The first
+     * boundary is the start of the first page, and the last one is the end of the last
+     * page (the start of the closing </mediawiki> tag).
+     *
+     * @return boundaries, or an empty array if there are no pages.
+     */
+    private long[] findRangeBoundaries(FileChannel channel) throws IOException {
+        long fileLength = channel.size();
+        long firstPage = indexOf(channel, PAGE_START_TAG, 0, fileLength);
+        if (firstPage == -1) {
+            return new long[0];
+        }
+
+        long endOfPages = lastIndexOf(channel, MEDIAWIKI_END_TAG, fileLength);
+        if (endOfPages == -1) {
+            LOGGER.warn("No closing </mediawiki> tag found in " + _dumpFile);
+            endOfPages = fileLength;
+        }
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(firstPage);
+
+        long boundary = firstPage;
+        while (true) {
+            boundary = indexOf(channel, PAGE_START_TAG, boundary + _rangeSize, endOfPages);
+            if (boundary == -1) {
+                break;
+            }
+
+            if (boundary - boundaries.get(boundaries.size() - 1) > Integer.MAX_VALUE) {
+                throw new IOException("Byte range is too big to map, at offset " + boundary);
+            }
+
+            boundaries.add(boundary);
+        }
+
+        boundaries.add(endOfPages);
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return offset of the first <target> that starts at or after <start>, and ends before <end>, or -1
+     */
+    private static long indexOf(FileChannel channel, byte[] target, long start, long end) throws IOException {
+        long windowStart = start;
+        while (windowStart + target.length <= end) {
+            int windowSize = (int)Math.min(SEARCH_WINDOW_SIZE, end - windowStart);
+            MappedByteBuffer window = channel.map(MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i <= windowSize - target.length; i++) {
+                if (matches(window, i, target)) {
+                    return windowStart + i;
+                }
+            }
+
+            // Overlap windows, so we find targets that span a window boundary.
+            windowStart += windowSize - target.length + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return offset of the last <target> that ends at or before <end>, or -1
+     */
+    private static long lastIndexOf(FileChannel channel, byte[] target, long end) throws IOException {
+        long windowEnd = end;
+        while (windowEnd >= target.length) {
+            int windowSize = (int)Math.min(SEARCH_WINDOW_SIZE, windowEnd);
+            long windowStart = windowEnd - windowSize;
+            MappedByteBuffer window = channel.map(MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = windowSize - target.length; i >= 0; i--) {
+                if (matches(window, i, target)) {
+                    return windowStart + i;
+                }
+            }
+
+            windowEnd = windowStart + target.length - 1;
+        }
+
+        return -1;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int offset, byte[] target) {
+        for (int i = 0; i < target.length; i++) {
+            if (buffer.get(offset + i) != target[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static byte[] readBytes(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, end - start);
+        byte[] result = new byte[(int)(end - start)];
+        buffer.get(result);
+        return result;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private ByteBuffer _buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return _buffer.hasRemaining() ? (_buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(len, _buffer.remaining());
+            _buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return _buffer.remaining();
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import com.scaleunlimited.wikiwords.WikiTemplates;
+import com.scaleunlimited.wikiwords.XMLPath;
 
 public class MediaWikiTool {
     private static final Logger LOGGER = Logger.getLogger(MediaWikiTool.class);
@@ -81,80 +82,6 @@ public class MediaWikiTool {
         }
     }
 
-    private static class XMLPath {
-        
-        private List<String> _path;
-        
-        public XMLPath() {
-            _path = new ArrayList<>();
-        }
-
-        public void pushNode(String qName) {
-            _path.add(qName);
-        }
-        
-        public void popNode(String qName) {
-            // TODO verify that last item is == qName
-            _path.remove(_path.size() - 1);
-        }
-        
-        private boolean atNode(String nodePath) {
-            String[] nodeNames = nodePath.split("/");
-            boolean isAbsolutePath = nodePath.startsWith("/");
-
-            if (nodeNames.length > _path.size()) {
-                return false;
-            } else if (isAbsolutePath && (nodeNames.length != _path.size())) {
-                return false;
-            }
-
-            
-            int targetPathIndex = nodeNames.length - 1;
-            int curPathIndex = _path.size() - 1;
-            for (; targetPathIndex >= 0; targetPathIndex--, curPathIndex--) {
-                if (!nodeNames[targetPathIndex].equals(_path.get(curPathIndex))) {
-                    return false;
-                }
-            }
-
-            return true;
-        }
-        
-        /**
-         * Return true if our current path contains <nodePath>. This means we're at or
-         * below (deeper) in the document hierarchy than whatever is in <nodePath>
-         * 
-         * @param nodePath
-         * @return
-         */
-        private boolean inNode(String nodePath) {
-            String[] nodeNames = nodePath.split("/");
-            boolean isAbsolutePath = nodePath.startsWith("/");
-
-            for (int startIndex = 0; startIndex <= _path.size() - nodeNames.length; startIndex++) {
-                int targetPathIndex = 0;
-                int curPathIndex = startIndex;
-
-                for (; targetPathIndex < nodeNames.length; targetPathIndex++, curPathIndex++) {
-                    if (!nodeNames[targetPathIndex].equals(_path.get(curPathIndex))) {
-                        if (isAbsolutePath) {
-                            return false;
-                        } else {
-                            break;
-                        }
-                    }
-                }
-                
-                // If we matched the entire <nodePath> we're good.
-                if (targetPathIndex == nodeNames.length){
-                    return true;
-                }
-            }
-
-            return false;
-        }
-    }
-    
     private static class ArticleLinkPosition {
         private String _article;
         private int _linkPosition;
@@ -214,19 +141,24 @@ public class MediaWikiTool {
         }};
         
         private XMLPath _path;
+        private XMLPath.Matcher _titleMatcher;
+        private XMLPath.Matcher _linkMatcher;
         private StringBuffer _elementText;
         private StringBuffer _anchorText;
         private List<String> _terms;
         private List<ArticleLinkPosition> _articleLinks;
         
         public MyHTMLHandler() {
+            _path = new XMLPath();
+            _titleMatcher = _path.compile("head/title");
+            _linkMatcher = _path.compile("a");
         }
         
         @Override
         public void startDocument() throws SAXException {
             super.startDocument();
             
-            _path = new XMLPath();
+            _path.clear();
             _terms = new ArrayList<>();
             _elementText = new StringBuffer();
             _anchorText = new StringBuffer();
@@ -238,9 +170,9 @@ public class MediaWikiTool {
             super.startElement(uri, localName, qName, attributes);
             _path.pushNode(qName);
             
-            if (_path.atNode("head/title")) {
+            if (_titleMatcher.atNode()) {
                 _elementText.setLength(0);
-            } else if (_path.atNode("a")) {
+            } else if (_linkMatcher.atNode()) {
                 _anchorText.setLength(0);
                 
                 // Flush out terms from preceeding text.
@@ -284,10 +216,10 @@ public class MediaWikiTool {
 
         @Override
         public void endElement(String uri, String localName, String qName) throws SAXException {
-            if (_path.atNode("head/title")) {
+            if (_titleMatcher.atNode()) {
                _terms.add(_elementText.toString());
                _elementText.setLength(0);
-            } else  if (_path.atNode("a")) {
+            } else  if (_linkMatcher.atNode()) {
                 _terms.add(_anchorText.toString());
             }
             
@@ -299,7 +231,7 @@ public class MediaWikiTool {
         public void characters(char[] ch, int start, int length) throws SAXException {
             super.characters(ch, start, length);
             
-            if (_path.inNode("a")) {
+            if (_linkMatcher.inNode()) {
                 _anchorText.append(ch, start, length);
             } else {
                 // TODO do we need to worry about text in a <script> tag?
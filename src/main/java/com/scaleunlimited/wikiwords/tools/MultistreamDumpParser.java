@@ -0,0 +1,266 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.WikiXMLParser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Parser for the "pages-articles-multistream.xml.bz2" Wikipedia dumps. These consist of
+ * many independent bzip2 streams, each containing (typically) 100 <page> elements. The
+ * accompanying index file has one "<offset>:<page id>:<title>" line per page, where
+ * offset is the byte position of the stream that contains the page.
+ *
+ * The first stream (before the first indexed offset) contains the <mediawiki> and
+ * <siteinfo> header, which we prepend to every stream so that each one can be
+ * parsed as a complete dump file by a separate thread.
+ *
+ * Streams are parsed with bliki's WikiXMLParser, or optionally with the StaxDumpParser.
+ *
+ * Streams are the units that a resumed run restarts from, so only the streams that
+ * weren't finished by the previous run are decompressed and parsed again.
+ *
+ */
+public class MultistreamDumpParser implements ParallelDumpParser {
+    private static final Logger LOGGER = Logger.getLogger(MultistreamDumpParser.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String MEDIAWIKI_END_TAG = "</mediawiki>";
+    private static final byte[] MEDIAWIKI_END_TAG_BYTES = MEDIAWIKI_END_TAG.getBytes(UTF_8);
+
+    private File _dumpFile;
+    private File _indexFile;
+    private boolean _staxParser;
+    private boolean _templateText;
+    private IngestMetrics _metrics;
+    private List<PagePositions> _positions;
+    private Set<Long> _completedUnits;
+    private long[] _startUnits;
+
+    public MultistreamDumpParser(File dumpFile, File indexFile) {
+        this(dumpFile, indexFile, false);
+    }
+
+    /**
+     * @param staxParser true to parse streams with the StaxDumpParser
+     */
+    public MultistreamDumpParser(File dumpFile, File indexFile, boolean staxParser) {
+        _dumpFile = dumpFile;
+        _indexFile = indexFile;
+        _staxParser = staxParser;
+        _metrics = new IngestMetrics();
+    }
+
+    @Override
+    public void setMetrics(IngestMetrics metrics) {
+        _metrics = metrics;
+    }
+
+    @Override
+    public void setTemplateText(boolean templateText) {
+        _templateText = templateText;
+    }
+
+    @Override
+    public void setPagePositions(List<PagePositions> positions) {
+        _positions = positions;
+    }
+
+    @Override
+    public void setResume(Set<Long> completedUnits, long[] startUnits) {
+        _completedUnits = completedUnits;
+        _startUnits = startUnits;
+    }
+
+    @Override
+    public void parse(List<? extends IArticleFilter> filters) throws IOException {
+        final long[] streamOffsets = readStreamOffsets();
+        if (streamOffsets.length == 0) {
+            throw new IllegalArgumentException("No streams found in index file " + _indexFile);
+        }
+
+        LOGGER.info(String.format("Processing %d streams with %d threads", streamOffsets.length, filters.size()));
+
+        final String header = readHeader(streamOffsets[0]);
+        final DumpUnitQueue streams = new DumpUnitQueue(streamOffsets, filters.size());
+        streams.setPagePositions(_positions);
+        if (_completedUnits != null) {
+            streams.setResume(_completedUnits, _startUnits);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(filters.size());
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < filters.size(); i++) {
+                final int thread = i;
+                final IArticleFilter filter = filters.get(i);
+                results.add(executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        int numStreams = 0;
+                        try (RandomAccessFile raf = new RandomAccessFile(_dumpFile, "r")) {
+                            int streamIndex;
+                            while ((streamIndex = streams.next(thread)) != -1) {
+                                long endOffset = (streamIndex == streamOffsets.length - 1) ? raf.length() : streamOffsets[streamIndex + 1];
+                                parseStream(raf, streamOffsets[streamIndex], endOffset, header, streams.getFilter(thread, streamIndex, filter));
+                                _metrics.addInputBytes(endOffset - streamOffsets[streamIndex]);
+                                numStreams += 1;
+                            }
+                        }
+
+                        return numStreams;
+                    }
+                }));
+            }
+
+            for (Future<Integer> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing multistream dump", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Exception parsing multistream dump", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void parseStream(RandomAccessFile raf, long startOffset, long endOffset, String header, IArticleFilter filter) throws Exception {
+        if (_staxParser) {
+            parseStreamBytes(decompress(raf, startOffset, endOffset), header, filter);
+            return;
+        }
+        
+        String pages = new String(decompress(raf, startOffset, endOffset), UTF_8);
+
+        // The last stream (or the one following it, which isn't in the index) will have the
+        // closing tag for the document, which we add ourselves.
+        int endTagOffset = pages.lastIndexOf(MEDIAWIKI_END_TAG);
+        if (endTagOffset != -1) {
+            pages = pages.substring(0, endTagOffset);
+        }
+
+        StringBuilder xml = new StringBuilder(header.length() + pages.length() + MEDIAWIKI_END_TAG.length());
+        xml.append(header);
+        xml.append(pages);
+        xml.append(MEDIAWIKI_END_TAG);
+
+        WikiXMLParser wxp = new WikiXMLParser(new StringReader(xml.toString()), filter);
+        wxp.parse();
+    }
+
+    /**
+     * Parse the stream with the StaxDumpParser, which reads the bytes directly, so we don't
+     * need to decode the stream into a String first.
+     */
+    private void parseStreamBytes(byte[] pages, String header, IArticleFilter filter) throws Exception {
+        int pagesLength = lastIndexOf(pages, MEDIAWIKI_END_TAG_BYTES);
+        if (pagesLength == -1) {
+            pagesLength = pages.length;
+        }
+
+        InputStream xml = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                        new ByteArrayInputStream(header.getBytes(UTF_8)),
+                        new ByteArrayInputStream(pages, 0, pagesLength),
+                        new ByteArrayInputStream(MEDIAWIKI_END_TAG_BYTES))));
+
+        StaxDumpParser parser = new StaxDumpParser(xml, filter);
+        parser.setTemplateText(_templateText);
+        parser.parse();
+    }
+
+    private static int lastIndexOf(byte[] data, byte[] target) {
+        for (int i = data.length - target.length; i >= 0; i--) {
+            int j = 0;
+            while ((j < target.length) && (data[i + j] == target[j])) {
+                j++;
+            }
+
+            if (j == target.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private String readHeader(long firstStreamOffset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(_dumpFile, "r")) {
+            return new String(decompress(raf, 0, firstStreamOffset), UTF_8);
+        }
+    }
+
+    private byte[] decompress(RandomAccessFile raf, long startOffset, long endOffset) throws IOException {
+        byte[] compressed = new byte[(int)(endOffset - startOffset)];
+        raf.seek(startOffset);
+        raf.readFully(compressed);
+
+        try (InputStream is = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed), true)) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+    /**
+     * Return the sorted list of unique stream offsets found in the index file.
+     *
+     * @return stream offsets
+     * @throws IOException
+     */
+    private long[] readStreamOffsets() throws IOException {
+        TreeSet<Long> offsets = new TreeSet<>();
+
+        InputStream is = new FileInputStream(_indexFile);
+        if (_indexFile.getName().endsWith(".bz2")) {
+            is = new BZip2CompressorInputStream(is, true);
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int colonIndex = line.indexOf(':');
+                if (colonIndex == -1) {
+                    LOGGER.warn("Invalid line in multistream index: " + line);
+                    continue;
+                }
+
+                offsets.add(Long.parseLong(line.substring(0, colonIndex)));
+            }
+        }
+
+        long[] result = new long[offsets.size()];
+        int i = 0;
+        for (Long offset : offsets) {
+            result[i++] = offset;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Stream of uncompressed dump XML that records the file offset just past each </page>
+ * tag as it's read, so we know where each page ends even though the XML parser reads
+ * ahead of the page it's handing to the filter. Page text in a dump is escaped, so
+ * "</page>" can only occur as the end tag of a page element.
+ *
+ */
+public class PageOffsetInputStream extends FilterInputStream {
+
+    private static final byte[] PAGE_END_TAG = "</page>".getBytes(Charset.forName("UTF-8"));
+
+    private PagePositions _positions;
+    private long _position;
+    private int _matched;
+
+    /**
+     * @param in Stream of uncompressed XML
+     * @param startOffset Offset in the file of the stream's current position.
+     * @param positions Where we add the end offset of each page.
+     */
+    public PageOffsetInputStream(InputStream in, long startOffset, PagePositions positions) {
+        super(in);
+
+        _positions = positions;
+        _position = startOffset;
+        _matched = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = super.read();
+        if (result != -1) {
+            update((byte)result);
+        }
+
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int result = super.read(b, off, len);
+        for (int i = 0; i < result; i++) {
+            update(b[off + i]);
+        }
+
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes aren't checked for tags, so read them instead.
+        byte[] buffer = new byte[(int)Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(buffer, 0, (int)Math.min(buffer.length, n - skipped));
+            if (count == -1) {
+                break;
+            }
+
+            skipped += count;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void update(byte b) {
+        _position += 1;
+
+        if (b == PAGE_END_TAG[_matched]) {
+            _matched += 1;
+            if (_matched == PAGE_END_TAG.length) {
+                _positions.addPage(_position);
+                _matched = 0;
+            }
+        } else {
+            // The tag only contains '<' as its first character, so we never have to back up
+            // more than to the start of the tag.
+            _matched = (b == PAGE_END_TAG[0]) ? 1 : 0;
+        }
+    }
+}
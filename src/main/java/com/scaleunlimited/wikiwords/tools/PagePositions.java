@@ -0,0 +1,74 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Positions in the dump file of pages that have been parsed, in the order they were
+ * parsed, so that a WikiDumpFilter can save where a resumed run should start reading.
+ *
+ * The parser (or the input stream it's reading from) adds a position for each page,
+ * and the filter takes them as it classifies each page. With pipelining these happen
+ * in different threads.
+ *
+ * A position is an offset in the dump file, plus the number of pages from that offset
+ * up to and including the page. For a sequential parse of an uncompressed dump, the
+ * offset is just past the end of the page, so the count is zero. When parsing in
+ * parallel, the offset is the start of the unit (stream or byte range) that contains
+ * the page, so a count of one means the page is the first in its unit.
+ *
+ */
+public class PagePositions {
+
+    private Queue<Position> _positions;
+
+    public PagePositions() {
+        _positions = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * @param endOffset Offset just past the end of a page in an uncompressed dump.
+     */
+    public void addPage(long endOffset) {
+        _positions.add(new Position(endOffset, 0));
+    }
+
+    /**
+     * @param unitOffset Offset of the unit that contains the page
+     * @param pages Number of the page within its unit, starting at one.
+     */
+    public void addPage(long unitOffset, long pages) {
+        _positions.add(new Position(unitOffset, pages));
+    }
+
+    /**
+     * @return position of the next page, in parse order.
+     * @throws IllegalStateException if no position was added for the page.
+     */
+    public Position take() {
+        Position result = _positions.poll();
+        if (result == null) {
+            throw new IllegalStateException("No position was recorded for the page");
+        }
+
+        return result;
+    }
+
+    public static class Position {
+        private long _offset;
+        private long _pages;
+
+        public Position(long offset, long pages) {
+            _offset = offset;
+            _pages = pages;
+        }
+
+        public long getOffset() {
+            return _offset;
+        }
+
+        public long getPages() {
+            return _pages;
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.log4j.Logger;
+
+/**
+ * Input stream that decompresses a bzip2 file (single or multi-stream) using multiple
+ * threads.
+ *
+ * Each bzip2 block starts with a 48-bit magic number, and is compressed independently
+ * of other blocks, but blocks aren't byte-aligned. A reader thread scans the compressed
+ * data bit by bit for block (and end of stream) magic numbers, and each block is copied
+ * out into a standalone single-block bzip2 stream that's decompressed by a thread pool.
+ * The decompressed blocks are returned in their original order.
+ *
+ * The magic number can also occur by chance inside a block's compressed data. When that
+ * happens the block won't decompress (the CRC check fails), so we try again with the
+ * following piece of the block appended.
+ *
+ */
+public class ParallelBZip2InputStream extends InputStream {
+    private static final Logger LOGGER = Logger.getLogger(ParallelBZip2InputStream.class);
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+    private static final int MAGIC_BITS = 48;
+    private static final long MAGIC_MASK = (1L << MAGIC_BITS) - 1;
+
+    // Header we use for each single-block stream. The block size of 900K is the maximum,
+    // so it works for blocks from any stream.
+    private static final byte[] STREAM_HEADER = {'B', 'Z', 'h', '9'};
+
+    // Max number of segments we'll join together when a block doesn't decompress, before
+    // deciding that the data is corrupt.
+    private static final int MAX_JOINED_SEGMENTS = 8;
+
+    private InputStream _in;
+    private ExecutorService _executor;
+    private BlockingQueue<PendingSegment> _pending;
+    private Thread _readerThread;
+
+    private byte[] _block;
+    private int _blockOffset;
+    private boolean _done;
+
+    /**
+     * @param in Stream of bzip2-compressed data
+     * @param numThreads Number of threads to use for decompression
+     * @throws IOException if the data doesn't start with a bzip2 stream header.
+     */
+    public ParallelBZip2InputStream(InputStream in, int numThreads) throws IOException {
+        _in = new BufferedInputStream(in);
+
+        _in.mark(3);
+        if ((_in.read() != 'B') || (_in.read() != 'Z') || (_in.read() != 'h')) {
+            throw new IOException("Not a bzip2 stream");
+        }
+
+        _in.reset();
+
+        _executor = Executors.newFixedThreadPool(numThreads);
+
+        // Limit how far ahead of the caller we get, so memory use is bounded.
+        _pending = new ArrayBlockingQueue<>(numThreads * 2);
+
+        _block = new byte[0];
+        _blockOffset = 0;
+        _done = false;
+
+        _readerThread = new Thread(new SegmentReader(), "bzip2 segment reader");
+        _readerThread.setDaemon(true);
+        _readerThread.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBlock()) {
+            return -1;
+        }
+
+        return _block[_blockOffset++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        } else if (!fillBlock()) {
+            return -1;
+        }
+
+        int count = Math.min(len, _block.length - _blockOffset);
+        System.arraycopy(_block, _blockOffset, b, off, count);
+        _blockOffset += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return _block.length - _blockOffset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _done = true;
+        _readerThread.interrupt();
+        _executor.shutdownNow();
+        _in.close();
+    }
+
+    /**
+     * Make sure there's decompressed data available in _block.
+     *
+     * @return false if we're at the end of the data.
+     */
+    private boolean fillBlock() throws IOException {
+        while (!_done && (_blockOffset == _block.length)) {
+            PendingSegment pending = takePending();
+            if (pending.isEnd()) {
+                _done = true;
+            } else if (pending.getSegment().isBlock()) {
+                _block = getDecompressed(pending);
+                _blockOffset = 0;
+            }
+        }
+
+        return _blockOffset < _block.length;
+    }
+
+    private PendingSegment takePending() throws IOException {
+        PendingSegment result;
+        try {
+            result = _pending.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading bzip2 data", e);
+        }
+
+        if (result.getException() != null) {
+            throw new IOException("Exception reading bzip2 data", result.getException());
+        }
+
+        return result;
+    }
+
+    private byte[] getDecompressed(PendingSegment pending) throws IOException {
+        try {
+            return pending.getResult().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decompressing bzip2 data", e);
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof IOException)) {
+                throw new IOException("Exception decompressing bzip2 block", e.getCause());
+            }
+
+            // Probably a magic number inside the block's data, which split it up.
+            return decompressJoined(pending.getSegment());
+        }
+    }
+
+    /**
+     * Join <segment> with following segments until the result decompresses.
+     */
+    private byte[] decompressJoined(Segment segment) throws IOException {
+        BitWriter joined = new BitWriter();
+        joined.write(segment.getData(), segment.getNumBits());
+        for (int i = 1; i < MAX_JOINED_SEGMENTS; i++) {
+            PendingSegment next = takePending();
+            if (next.isEnd()) {
+                break;
+            }
+
+            if (next.getResult() != null) {
+                next.getResult().cancel(false);
+            }
+
+            Segment nextSegment = next.getSegment();
+            joined.write(nextSegment.getData(), nextSegment.getNumBits());
+
+            try {
+                byte[] result = decompress(new Segment(joined.toByteArray(), joined.getNumBits()));
+                LOGGER.debug(String.format("Joined %d segments into one bzip2 block", i + 1));
+                return result;
+            } catch (IOException e) {
+                // Keep trying with more data.
+            }
+        }
+
+        throw new IOException("Invalid bzip2 block");
+    }
+
+    /**
+     * Decompress one block, by wrapping it in a single-block stream. The stream's CRC is
+     * calculated from block CRCs, so for one block it's just the block's CRC.
+     */
+    private static byte[] decompress(Segment segment) throws IOException {
+        BitWriter stream = new BitWriter();
+        for (byte b : STREAM_HEADER) {
+            stream.writeBits(b, 8);
+        }
+
+        stream.write(segment.getData(), segment.getNumBits());
+        stream.writeBits(END_OF_STREAM_MAGIC, MAGIC_BITS);
+        stream.writeBits(segment.getBlockCRC(), 32);
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(1024 * 1024);
+        try (InputStream is = new BZip2CompressorInputStream(new ByteArrayInputStream(stream.toByteArray()))) {
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                result.write(buffer, 0, count);
+            }
+        } catch (RuntimeException e) {
+            // Garbage data can cause unchecked exceptions in the decompressor.
+            throw new IOException("Invalid bzip2 block", e);
+        }
+
+        return result.toByteArray();
+    }
+
+    /**
+     * Scans the compressed data, and splits it into segments that each start with a magic
+     * number (other than the initial stream header). Block segments are queued up for
+     * decompression.
+     */
+    private class SegmentReader implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                readSegments();
+                _pending.put(PendingSegment.END);
+            } catch (InterruptedException e) {
+                // We've been closed.
+            } catch (Exception e) {
+                try {
+                    _pending.put(new PendingSegment(e));
+                } catch (InterruptedException e2) {
+                    // We've been closed.
+                }
+            }
+        }
+
+        private void readSegments() throws IOException, InterruptedException {
+            // All bytes from the one containing the start of the current segment.
+            byte[] buffer = new byte[1024 * 1024];
+            int bufferLength = 0;
+
+            // Bit offset in the buffer of the current segment.
+            int segmentStart = 0;
+
+            // The most recent 64 bits, and how many of those are valid.
+            long bits = 0;
+            int numBits = 0;
+
+            int b;
+            while ((b = _in.read()) != -1) {
+                if (bufferLength == buffer.length) {
+                    byte[] newBuffer = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newBuffer, 0, bufferLength);
+                    buffer = newBuffer;
+                }
+
+                buffer[bufferLength++] = (byte)b;
+                bits = (bits << 8) | b;
+                numBits = Math.min(64, numBits + 8);
+
+                // Check each possible bit alignment of a magic number that ends in this byte,
+                // earliest first.
+                for (int shift = 7; shift >= 0; shift--) {
+                    if (numBits < MAGIC_BITS + shift) {
+                        continue;
+                    }
+
+                    long candidate = (bits >>> shift) & MAGIC_MASK;
+                    if ((candidate != BLOCK_MAGIC) && (candidate != END_OF_STREAM_MAGIC)) {
+                        continue;
+                    }
+
+                    int magicStart = (bufferLength * 8) - shift - MAGIC_BITS;
+                    if (magicStart > segmentStart) {
+                        addSegment(extractBits(buffer, segmentStart, magicStart - segmentStart), magicStart - segmentStart);
+                    }
+
+                    // Shift the buffer so that it starts with the byte containing the magic number.
+                    int startByte = magicStart / 8;
+                    System.arraycopy(buffer, startByte, buffer, 0, bufferLength - startByte);
+                    bufferLength -= startByte;
+                    segmentStart = magicStart % 8;
+                }
+            }
+
+            int endBit = bufferLength * 8;
+            if (endBit > segmentStart) {
+                addSegment(extractBits(buffer, segmentStart, endBit - segmentStart), endBit - segmentStart);
+            }
+        }
+
+        private void addSegment(byte[] data, long numBits) throws InterruptedException {
+            final Segment segment = new Segment(data, numBits);
+            Future<byte[]> result = null;
+            if (segment.isBlock()) {
+                result = _executor.submit(new Callable<byte[]>() {
+
+                    @Override
+                    public byte[] call() throws Exception {
+                        return decompress(segment);
+                    }
+                });
+            }
+
+            _pending.put(new PendingSegment(segment, result));
+        }
+    }
+
+    /**
+     * @return <numBits> bits from <data>, starting at bit <start>, as a byte-aligned array.
+     */
+    private static byte[] extractBits(byte[] data, int start, int numBits) {
+        byte[] result = new byte[(numBits + 7) / 8];
+        int byteOffset = start / 8;
+        int shift = start % 8;
+        for (int i = 0; i < result.length; i++) {
+            int high = (data[byteOffset + i] & 0xFF) << shift;
+            int low = (shift == 0) || (byteOffset + i + 1 >= data.length) ? 0 : (data[byteOffset + i + 1] & 0xFF) >>> (8 - shift);
+            result[i] = (byte)(high | low);
+        }
+
+        // Clear any bits past the end.
+        int extraBits = (result.length * 8) - numBits;
+        if (extraBits > 0) {
+            result[result.length - 1] &= (byte)(0xFF << extraBits);
+        }
+
+        return result;
+    }
+
+    /**
+     * Piece of the compressed data, starting with a magic number (or the stream header).
+     */
+    private static class Segment {
+        private byte[] _data;
+        private long _numBits;
+
+        public Segment(byte[] data, long numBits) {
+            _data = data;
+            _numBits = numBits;
+        }
+
+        public byte[] getData() {
+            return _data;
+        }
+
+        public long getNumBits() {
+            return _numBits;
+        }
+
+        public boolean isBlock() {
+            return (_numBits >= MAGIC_BITS + 32) && (readBits(0, MAGIC_BITS) == BLOCK_MAGIC);
+        }
+
+        /**
+         * @return the CRC that follows the block magic number.
+         */
+        public long getBlockCRC() {
+            return readBits(MAGIC_BITS, 32);
+        }
+
+        private long readBits(int start, int count) {
+            long result = 0;
+            for (int i = start; i < start + count; i++) {
+                result = (result << 1) | ((_data[i / 8] >>> (7 - (i % 8))) & 1);
+            }
+
+            return result;
+        }
+    }
+
+    private static class PendingSegment {
+        public static final PendingSegment END = new PendingSegment(null, null);
+
+        private Segment _segment;
+        private Future<byte[]> _result;
+        private Exception _exception;
+
+        public PendingSegment(Segment segment, Future<byte[]> result) {
+            _segment = segment;
+            _result = result;
+        }
+
+        public PendingSegment(Exception exception) {
+            _exception = exception;
+        }
+
+        public boolean isEnd() {
+            return this == END;
+        }
+
+        public Segment getSegment() {
+            return _segment;
+        }
+
+        public Future<byte[]> getResult() {
+            return _result;
+        }
+
+        public Exception getException() {
+            return _exception;
+        }
+    }
+
+    /**
+     * Accumulates bits into a byte array.
+     */
+    private static class BitWriter {
+        private ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+        private int _curByte = 0;
+        private int _curBits = 0;
+        private long _numBits = 0;
+
+        public void writeBits(long value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                writeBit((int)(value >>> i) & 1);
+            }
+        }
+
+        public void write(byte[] data, long numBits) {
+            int fullBytes = (int)(numBits / 8);
+            if (_curBits == 0) {
+                _bytes.write(data, 0, fullBytes);
+                _numBits += fullBytes * 8L;
+            } else {
+                for (int i = 0; i < fullBytes; i++) {
+                    writeBits(data[i], 8);
+                }
+            }
+
+            int extraBits = (int)(numBits % 8);
+            if (extraBits > 0) {
+                writeBits((data[fullBytes] & 0xFF) >>> (8 - extraBits), extraBits);
+            }
+        }
+
+        private void writeBit(int bit) {
+            _curByte = (_curByte << 1) | bit;
+            _curBits += 1;
+            _numBits += 1;
+            if (_curBits == 8) {
+                _bytes.write(_curByte);
+                _curByte = 0;
+                _curBits = 0;
+            }
+        }
+
+        public long getNumBits() {
+            return _numBits;
+        }
+
+        /**
+         * @return the bits written so far, with the last byte padded with zero bits.
+         */
+        public byte[] toByteArray() {
+            byte[] result = _bytes.toByteArray();
+            if (_curBits == 0) {
+                return result;
+            }
+
+            byte[] padded = new byte[result.length + 1];
+            System.arraycopy(result, 0, padded, 0, result.length);
+            padded[result.length] = (byte)(_curByte << (8 - _curBits));
+            return padded;
+        }
+    }
+}
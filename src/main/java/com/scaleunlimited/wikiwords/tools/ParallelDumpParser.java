@@ -0,0 +1,51 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import info.bliki.wiki.dump.IArticleFilter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parser that splits up a dump file, so that pages can be processed by multiple
+ * threads.
+ *
+ */
+public interface ParallelDumpParser {
+
+    /**
+     * Parse all of the pages in the dump, using one thread per filter. Each filter
+     * is only ever called by a single thread.
+     *
+     * @param filters One filter per worker thread.
+     * @throws IOException
+     */
+    public void parse(List<? extends IArticleFilter> filters) throws IOException;
+
+    /**
+     * @param metrics Stats to update with the number of bytes read from the dump file.
+     */
+    public void setMetrics(IngestMetrics metrics);
+
+    /**
+     * @param templateText true if the filters need the text of template pages, when
+     *        parsing with the StaxDumpParser.
+     */
+    public void setTemplateText(boolean templateText);
+
+    /**
+     * @param positions One per filter, which gets the position of each page that's passed
+     *        to the filter: the offset of the unit (stream or byte range) that contains
+     *        the page, and the number of the page within that unit.
+     */
+    public void setPagePositions(List<PagePositions> positions);
+
+    /**
+     * Only parse what a previous run's filters hadn't handled, based on their checkpoints.
+     *
+     * @param completedUnits Offsets of units that don't need to be parsed again.
+     * @param startUnits One per filter, with the offset of the unit it was part-way through
+     *        (which it will parse first), or -1.
+     */
+    public void setResume(Set<Long> completedUnits, long[] startUnits);
+}
@@ -0,0 +1,249 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.xml.sax.SAXException;
+
+import com.scaleunlimited.wikiwords.tools.WikiDumpTool.WikiDumpFilter;
+
+/**
+ * Article filter that hands off pages from the XML parser to a chain of worker threads,
+ * so that classification, encoding and writing (with compression) of part files don't
+ * slow down parsing of the dump. Each hand-off queue is bounded, which keeps memory
+ * usage in check when a downstream stage can't keep up.
+ *
+ * The stages are:
+ *
+ *  - parse: the caller's thread, which is running the WikiXMLParser.
+ *  - classify: WikiDumpFilter.classify(), which also collects metadata.
+ *  - encode: WikiDumpFilter.encodePage()
+ *  - write: WikiDumpFilter.savePage()
+ *
+ * Checkpoints (see WikiDumpFilter.takeCheckpoint()) are passed down the pipeline after
+ * the page that completes a part file, and the write stage then finishes that part.
+ *
+ */
+public class PipelinedDumpFilter implements IArticleFilter, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(PipelinedDumpFilter.class);
+
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    // Marker that is passed down the pipeline after the last article.
+    private static final Object END_OF_PAGES = new Object();
+
+    private BlockingQueue<Object> _articles;
+    private BlockingQueue<Object> _pages;
+    private BlockingQueue<Object> _encoded;
+
+    private Stage _classifyStage;
+    private Stage _encodeStage;
+    private Stage _writeStage;
+
+    private long _startTime;
+    private long _parseWaitTime;
+    private boolean _closed;
+
+    public PipelinedDumpFilter(WikiDumpFilter filter) {
+        this(filter, DEFAULT_QUEUE_SIZE);
+    }
+
+    public PipelinedDumpFilter(final WikiDumpFilter filter, int queueSize) {
+        _articles = new ArrayBlockingQueue<>(queueSize);
+        _pages = new ArrayBlockingQueue<>(queueSize);
+        _encoded = new ArrayBlockingQueue<>(queueSize);
+
+        _classifyStage = new Stage("classify", _articles, _pages) {
+
+            @Override
+            protected Object process(Object item) throws InterruptedException {
+                WikiArticle article = (WikiArticle)item;
+                if (!filter.classify(article)) {
+                    return null;
+                }
+                
+                // A checkpoint follows the page down the pipeline, so that the part is
+                // finished once the page has been written.
+                DumpCheckpoint checkpoint = filter.takeCheckpoint();
+                if (checkpoint == null) {
+                    return article;
+                }
+                
+                send(article);
+                return checkpoint;
+            }
+        };
+
+        _encodeStage = new Stage("encode", _pages, _encoded) {
+
+            @Override
+            protected Object process(Object item) {
+                if (item instanceof DumpCheckpoint) {
+                    return item;
+                }
+                
+                return filter.encodePage((WikiArticle)item);
+            }
+        };
+
+        _writeStage = new Stage("write", _encoded, null) {
+
+            @Override
+            protected Object process(Object item) {
+                if (item instanceof DumpCheckpoint) {
+                    filter.finishPart((DumpCheckpoint)item);
+                } else {
+                    filter.savePage((byte[])item);
+                }
+                
+                return null;
+            }
+        };
+
+        _startTime = System.nanoTime();
+        _parseWaitTime = 0;
+        _closed = false;
+
+        _classifyStage.start();
+        _encodeStage.start();
+        _writeStage.start();
+    }
+
+    @Override
+    public void process(WikiArticle article, Siteinfo siteinfo) throws SAXException {
+        long startWait = System.nanoTime();
+
+        try {
+            _articles.put(article);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SAXException("Interrupted while queuing article", e);
+        }
+
+        _parseWaitTime += System.nanoTime() - startWait;
+    }
+
+    /**
+     * Wait for all queued articles to make it through the pipeline, and
+     * log how much time each stage spent working versus waiting. This
+     * does not close the WikiDumpFilter.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+
+        _closed = true;
+
+        try {
+            _articles.put(END_OF_PAGES);
+            _classifyStage.join();
+            _encodeStage.join();
+            _writeStage.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for pipeline to finish", e);
+        }
+
+        long parseTime = System.nanoTime() - _startTime;
+        LOGGER.info(String.format("Stage parse: busy %dms, waiting %dms", TimeUnit.NANOSECONDS.toMillis(parseTime - _parseWaitTime), TimeUnit.NANOSECONDS.toMillis(_parseWaitTime)));
+        _classifyStage.logTimes();
+        _encodeStage.logTimes();
+        _writeStage.logTimes();
+
+        for (Stage stage : new Stage[] {_classifyStage, _encodeStage, _writeStage}) {
+            if (stage.getFailure() != null) {
+                throw new IOException(String.format("Exception in %s stage", stage.getName()), stage.getFailure());
+            }
+        }
+    }
+
+    private static abstract class Stage extends Thread {
+
+        private BlockingQueue<Object> _input;
+        private BlockingQueue<Object> _output;
+
+        private long _busyTime;
+        private long _waitTime;
+        private Throwable _failure;
+
+        public Stage(String name, BlockingQueue<Object> input, BlockingQueue<Object> output) {
+            super(name);
+
+            _input = input;
+            _output = output;
+
+            setDaemon(true);
+        }
+
+        /**
+         * Process one item from our input queue.
+         *
+         * @param item Next item to be processed
+         * @return result to send to the next stage, or null if nothing should be sent.
+         */
+        protected abstract Object process(Object item) throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long startWait = System.nanoTime();
+                    Object item = _input.take();
+                    long endWait = System.nanoTime();
+                    _waitTime += endWait - startWait;
+
+                    if (item == END_OF_PAGES) {
+                        send(item);
+                        break;
+                    }
+
+                    // Once we've failed, keep draining our input so that upstream
+                    // stages don't block forever.
+                    if (_failure != null) {
+                        continue;
+                    }
+
+                    try {
+                        Object result = process(item);
+                        _busyTime += System.nanoTime() - endWait;
+
+                        if (result != null) {
+                            send(result);
+                        }
+                    } catch (Exception e) {
+                        LOGGER.error(String.format("Exception in %s stage", getName()), e);
+                        _failure = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                _failure = e;
+            }
+        }
+
+        protected void send(Object item) throws InterruptedException {
+            if (_output != null) {
+                long startWait = System.nanoTime();
+                _output.put(item);
+                _waitTime += System.nanoTime() - startWait;
+            }
+        }
+
+        public Throwable getFailure() {
+            return _failure;
+        }
+
+        public void logTimes() {
+            LOGGER.info(String.format("Stage %s: busy %dms, waiting %dms", getName(), TimeUnit.NANOSECONDS.toMillis(_busyTime), TimeUnit.NANOSECONDS.toMillis(_waitTime)));
+        }
+    }
+}
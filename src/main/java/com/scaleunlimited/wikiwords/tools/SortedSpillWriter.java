@@ -0,0 +1,370 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.io.output.FileWriterWithEncoding;
+import org.apache.log4j.Logger;
+
+/**
+ * Collects key/value entries for metadata files (categories, redirects, etc) without
+ * needing to keep all of them in memory. Once there are more than <maxEntries> entries,
+ * they are sorted and spilled to a "run" file. At the end, all of the runs are merged
+ * into a single sorted text file with one "<key><tab><value>" (or just "<key>" if the
+ * value is null) line per unique key.
+ *
+ * If the same key is added more than once, the most recently added value wins, which
+ * matches what we'd get by putting the entries into a Map.
+ *
+ */
+public class SortedSpillWriter implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(SortedSpillWriter.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 500000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.getKey().compareTo(e2.getKey());
+        }
+    };
+
+    private File _spillDir;
+    private String _name;
+    private int _maxEntries;
+
+    private List<Entry> _entries;
+    private List<File> _runs;
+
+    public SortedSpillWriter(File spillDir, String name) {
+        this(spillDir, name, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param spillDir Directory for run files, which is created if needed.
+     * @param name Name used as the prefix for run files.
+     * @param maxEntries Maximum number of entries to keep in memory.
+     */
+    public SortedSpillWriter(File spillDir, String name, int maxEntries) {
+        _spillDir = spillDir;
+        _name = name;
+        _maxEntries = maxEntries;
+
+        _entries = new ArrayList<>();
+        _runs = new ArrayList<>();
+    }
+
+    public void add(String key) throws IOException {
+        add(key, null);
+    }
+
+    public void add(String key, String value) throws IOException {
+        _entries.add(new Entry(key, value));
+
+        if (_entries.size() >= _maxEntries) {
+            spill();
+        }
+    }
+
+    /**
+     * Spill any in-memory entries, so that all of our state is on disk.
+     *
+     * @return run files with all of the entries added so far.
+     * @throws IOException
+     */
+    public List<File> flush() throws IOException {
+        spill();
+        return new ArrayList<>(_runs);
+    }
+
+    /**
+     * Add run files that were returned by flush(), typically from a previous run
+     * that we're resuming.
+     *
+     * @param runs Run files to add, which are older than any of our entries.
+     */
+    public void addRuns(List<File> runs) {
+        _runs.addAll(0, runs);
+    }
+
+    /**
+     * Take over all of the entries from <other>, which is left empty. Entries from <other> are
+     * treated as being newer than ours.
+     *
+     * @param other Writer with entries to add
+     * @throws IOException
+     */
+    public void merge(SortedSpillWriter other) throws IOException {
+        spill();
+        other.spill();
+
+        _runs.addAll(other._runs);
+        other._runs.clear();
+    }
+
+    /**
+     * Merge everything we've got into <outputFile>, and remove all of our run files.
+     *
+     * @param outputFile Sorted text file to create
+     * @return number of unique keys written.
+     * @throws IOException
+     */
+    public int write(File outputFile) throws IOException {
+        sortEntries();
+
+        // Set up a reader for each run, plus the in-memory entries, which are the newest.
+        List<RunReader> readers = new ArrayList<>();
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(_runs.size() + 1);
+
+        int numKeys = 0;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriterWithEncoding(outputFile, UTF_8))) {
+            for (File run : _runs) {
+                readers.add(new FileRunReader(run, readers.size()));
+            }
+
+            readers.add(new MemoryRunReader(_entries, readers.size()));
+
+            for (RunReader reader : readers) {
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                // Find the newest entry for the smallest key. Each run has unique keys, and
+                // readers with the same key come out of the queue from oldest to newest.
+                RunReader reader = queue.poll();
+                Entry entry = reader.getEntry();
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+
+                while (!queue.isEmpty() && queue.peek().getEntry().getKey().equals(entry.getKey())) {
+                    RunReader duplicate = queue.poll();
+                    entry = duplicate.getEntry();
+                    if (duplicate.advance()) {
+                        queue.add(duplicate);
+                    }
+                }
+
+                bw.write(entry.getKey());
+                if (entry.getValue() != null) {
+                    bw.write('\t');
+                    bw.write(entry.getValue());
+                }
+
+                bw.write('\n');
+                numKeys += 1;
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+
+            close();
+        }
+
+        return numKeys;
+    }
+
+    /**
+     * Discard all entries, and delete our run files.
+     */
+    @Override
+    public void close() throws IOException {
+        _entries.clear();
+
+        for (File run : _runs) {
+            if (!run.delete()) {
+                LOGGER.warn("Unable to delete spill file " + run);
+            }
+        }
+
+        _runs.clear();
+    }
+
+    private void spill() throws IOException {
+        if (_entries.isEmpty()) {
+            return;
+        }
+
+        sortEntries();
+
+        _spillDir.mkdirs();
+        File run = File.createTempFile(_name + "-", ".run", _spillDir);
+        LOGGER.debug(String.format("Spilling %d %s entries to %s", _entries.size(), _name, run));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)))) {
+            for (Entry entry : _entries) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+
+        _runs.add(run);
+        _entries.clear();
+    }
+
+    /**
+     * Sort our in-memory entries by key, keeping only the last one added for any key.
+     */
+    private void sortEntries() {
+        // Collections.sort() is stable, so for the same key, newer entries stay after older ones.
+        Collections.sort(_entries, ENTRY_COMPARATOR);
+
+        int numUnique = 0;
+        for (int i = 0; i < _entries.size(); i++) {
+            if ((i < _entries.size() - 1) && _entries.get(i).getKey().equals(_entries.get(i + 1).getKey())) {
+                continue;
+            }
+
+            _entries.set(numUnique++, _entries.get(i));
+        }
+
+        _entries.subList(numUnique, _entries.size()).clear();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static class Entry {
+        private String _key;
+        private String _value;
+
+        public Entry(String key, String value) {
+            _key = key;
+            _value = value;
+        }
+
+        public String getKey() {
+            return _key;
+        }
+
+        public String getValue() {
+            return _value;
+        }
+    }
+
+    private static abstract class RunReader implements Comparable<RunReader>, Closeable {
+        private int _runIndex;
+        protected Entry _entry;
+
+        public RunReader(int runIndex) {
+            _runIndex = runIndex;
+        }
+
+        public int getRunIndex() {
+            return _runIndex;
+        }
+
+        public Entry getEntry() {
+            return _entry;
+        }
+
+        /**
+         * @return true if there's a next entry.
+         */
+        public abstract boolean advance() throws IOException;
+
+        @Override
+        public int compareTo(RunReader o) {
+            int result = _entry.getKey().compareTo(o._entry.getKey());
+            if (result == 0) {
+                result = Integer.compare(_runIndex, o._runIndex);
+            }
+
+            return result;
+        }
+    }
+
+    private static class FileRunReader extends RunReader {
+        private DataInputStream _in;
+
+        public FileRunReader(File run, int runIndex) throws IOException {
+            super(runIndex);
+
+            _in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+        }
+
+        @Override
+        public boolean advance() throws IOException {
+            String key;
+            try {
+                key = readString(_in);
+            } catch (EOFException e) {
+                return false;
+            }
+
+            _entry = new Entry(key, readString(_in));
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+    }
+
+    private static class MemoryRunReader extends RunReader {
+        private List<Entry> _entries;
+        private int _nextEntry;
+
+        public MemoryRunReader(List<Entry> entries, int runIndex) {
+            super(runIndex);
+
+            _entries = entries;
+            _nextEntry = 0;
+        }
+
+        @Override
+        public boolean advance() {
+            if (_nextEntry < _entries.size()) {
+                _entry = _entries.get(_nextEntry++);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close
+        }
+    }
+}
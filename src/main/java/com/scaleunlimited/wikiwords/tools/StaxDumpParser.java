@@ -0,0 +1,325 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.log4j.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * Streaming (StAX) parser for Wikipedia dump files, which can be used in place of
+ * bliki's WikiXMLParser.
+ *
+ * The WikiXMLParser turns the text of every page into a String, but the WikiDumpFilter
+ * only uses the text of main and category pages (and template pages, if it's saving
+ * them). The millions of file, template, talk, etc pages are just counted. So once we've
+ * got a page's title (which comes before the text), we decide whether the text is needed,
+ * and if not we skip over it without creating any Strings, and the page is passed to the
+ * filter with empty text.
+ *
+ * The text that we do need is collected in a reused buffer, so the only per-page
+ * allocation is for the final String.
+ *
+ * A parser can also be reused to parse many small documents (e.g. one <page> element
+ * each) with the same namespaces, via parse(InputStream).
+ *
+ */
+public class StaxDumpParser {
+    private static final Logger LOGGER = Logger.getLogger(StaxDumpParser.class);
+
+    private static final String NAMESPACE_ELEMENT = "namespace";
+    private static final String PAGE_ELEMENT = "page";
+    private static final String TITLE_ELEMENT = "title";
+    private static final String ID_ELEMENT = "id";
+    private static final String REDIRECT_ELEMENT = "redirect";
+    private static final String REVISION_ELEMENT = "revision";
+    private static final String TEXT_ELEMENT = "text";
+
+    private InputStream _input;
+    private boolean _closeInput;
+    private IArticleFilter _filter;
+    private Siteinfo _siteinfo;
+
+    private XMLInputFactory _factory;
+    private StringBuilder _text;
+    private long _numPages;
+    private long _numSkippedTexts;
+    private boolean _templateText;
+
+    /**
+     * @param dumpFile Dump file, which can be bzip2 or gzip compressed (based on its extension)
+     * @param filter Filter to call with each page
+     * @throws IOException
+     */
+    public StaxDumpParser(File dumpFile, IArticleFilter filter) throws IOException {
+        this(openDumpFile(dumpFile), filter);
+
+        _closeInput = true;
+    }
+
+    /**
+     * @param input Stream of uncompressed dump XML, which isn't closed by parse()
+     * @param filter Filter to call with each page
+     */
+    public StaxDumpParser(InputStream input, IArticleFilter filter) {
+        this(input, filter, new Siteinfo());
+    }
+
+    /**
+     * @param filter Filter to call with each page
+     * @param siteinfo Namespaces to use for pages, e.g. from parsing the dump's header with getSiteinfo().
+     */
+    public StaxDumpParser(IArticleFilter filter, Siteinfo siteinfo) {
+        this(null, filter, siteinfo);
+    }
+
+    private StaxDumpParser(InputStream input, IArticleFilter filter, Siteinfo siteinfo) {
+        _input = input;
+        _closeInput = false;
+        _filter = filter;
+        _siteinfo = siteinfo;
+
+        _factory = XMLInputFactory.newInstance();
+        _factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        _factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+
+        _text = new StringBuilder();
+    }
+
+    public void parse() throws IOException, SAXException {
+        try {
+            parse(_input);
+        } finally {
+            if (_closeInput) {
+                _input.close();
+            }
+        }
+
+        LOGGER.info(String.format("Skipped text for %d of %d pages", _numSkippedTexts, _numPages));
+    }
+
+    /**
+     * Parse a document containing <page> elements, which can be a complete dump or just
+     * a single page. Namespaces found in the document are added to our Siteinfo.
+     *
+     * @param input Stream of uncompressed XML, which isn't closed.
+     */
+    public void parse(InputStream input) throws IOException, SAXException {
+        XMLStreamReader reader = null;
+        try {
+            reader = _factory.createXMLStreamReader(input, "UTF-8");
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                String name = reader.getLocalName();
+                if (name.equals(PAGE_ELEMENT)) {
+                    parsePage(reader);
+                } else if (name.equals(NAMESPACE_ELEMENT)) {
+                    String key = reader.getAttributeValue(null, "key");
+                    _siteinfo.addNamespace(key, reader.getElementText());
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Exception parsing dump file", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    LOGGER.warn("Exception closing XML reader", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param templateText true if the filter needs the text of template pages, versus just
+     *        main and category pages.
+     */
+    public void setTemplateText(boolean templateText) {
+        _templateText = templateText;
+    }
+
+    public Siteinfo getSiteinfo() {
+        return _siteinfo;
+    }
+
+    public long getNumPages() {
+        return _numPages;
+    }
+
+    public long getNumSkippedTexts() {
+        return _numSkippedTexts;
+    }
+
+    /**
+     * Parse one <page> element, and hand it off to the filter.
+     *
+     * @param reader Positioned at the start of the <page> element
+     */
+    private void parsePage(XMLStreamReader reader) throws XMLStreamException, SAXException {
+        DumpPage page = new DumpPage();
+        boolean needsText = true;
+        String text = "";
+
+        // Depth is relative to <page>, so 1 is for child elements of <page>, and 2 for
+        // child elements of <revision> (and <contributor>, etc).
+        int depth = 0;
+        boolean inRevision = false;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 0) {
+                    break;
+                }
+
+                if ((depth == 1) && reader.getLocalName().equals(REVISION_ELEMENT)) {
+                    inRevision = false;
+                }
+
+                depth -= 1;
+                continue;
+            } else if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            depth += 1;
+            String name = reader.getLocalName();
+            if (depth == 1) {
+                if (name.equals(TITLE_ELEMENT)) {
+                    page.setTitle(reader.getElementText(), _siteinfo);
+                    needsText = page.isMain() || page.isCategory() || (_templateText && page.isTemplate());
+                    depth -= 1;
+                } else if (name.equals(ID_ELEMENT)) {
+                    page.setId(reader.getElementText());
+                    depth -= 1;
+                } else if (name.equals(REDIRECT_ELEMENT)) {
+                    page.setRedirect(true);
+                } else if (name.equals(REVISION_ELEMENT)) {
+                    inRevision = true;
+                }
+            } else if (inRevision && (depth == 2)) {
+                if (name.equals(ID_ELEMENT)) {
+                    page.setRevisionId(reader.getElementText());
+                    depth -= 1;
+                } else if (name.equals(TEXT_ELEMENT)) {
+                    if (needsText) {
+                        text = readText(reader);
+                    } else {
+                        skipText(reader);
+                    }
+
+                    depth -= 1;
+                }
+            }
+        }
+
+        page.setText(text);
+        _numPages += 1;
+        _filter.process(page, _siteinfo);
+    }
+
+    /**
+     * Read all of the text up to the end of the current element, without creating
+     * a String for each chunk. Text in dumps is escaped, so there shouldn't be any
+     * nested elements, but if there are then we ignore them (and their text).
+     */
+    private String readText(XMLStreamReader reader) throws XMLStreamException {
+        _text.setLength(0);
+
+        int depth = 0;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth += 1;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 0) {
+                    return _text.toString();
+                }
+
+                depth -= 1;
+            } else if ((depth == 0) && ((event == XMLStreamConstants.CHARACTERS) || (event == XMLStreamConstants.CDATA) || (event == XMLStreamConstants.SPACE))) {
+                _text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+        }
+    }
+
+    private void skipText(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 0;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth += 1;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 0) {
+                    break;
+                }
+
+                depth -= 1;
+            }
+        }
+
+        _numSkippedTexts += 1;
+    }
+
+    private static InputStream openDumpFile(File dumpFile) throws IOException {
+        return decompress(new FileInputStream(dumpFile), dumpFile.getName());
+    }
+
+    /**
+     * @param name Name of the dump file
+     * @return true if the file is compressed (based on its extension), so we can't seek in it.
+     */
+    static boolean isCompressed(String name) {
+        return name.endsWith(".bz2") || name.endsWith(".gz");
+    }
+
+    /**
+     * @param in Stream of data from a dump file
+     * @param name Name of the dump file, used to decide if (and how) it's compressed.
+     * @return stream of uncompressed XML
+     */
+    static InputStream decompress(InputStream in, String name) throws IOException {
+        InputStream is = new BufferedInputStream(in);
+        if (name.endsWith(".bz2")) {
+            return new BZip2CompressorInputStream(is, true);
+        } else if (name.endsWith(".gz")) {
+            return new GZIPInputStream(is);
+        } else {
+            return is;
+        }
+    }
+
+    /**
+     * The WikiArticle that we pass to the filter, which tracks whether the page had
+     * a <redirect> element.
+     */
+    private static class DumpPage extends WikiArticle {
+        private boolean _redirect = false;
+
+        public void setRedirect(boolean redirect) {
+            _redirect = redirect;
+        }
+
+        @Override
+        public boolean isRedirect() {
+            return _redirect;
+        }
+    }
+}
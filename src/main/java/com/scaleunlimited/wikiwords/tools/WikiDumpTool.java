@@ -5,30 +5,34 @@ import info.bliki.wiki.dump.Siteinfo;
 import info.bliki.wiki.dump.WikiArticle;
 import info.bliki.wiki.dump.WikiXMLParser;
 
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
 import java.security.InvalidParameterException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeSet;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.output.FileWriterWithEncoding;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.apache.log4j.Logger;
@@ -37,9 +41,20 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.xml.sax.SAXException;
 
+import com.scaleunlimited.wikiwords.ArticleManifest;
+import com.scaleunlimited.wikiwords.ArticleManifest.Change;
+import com.scaleunlimited.wikiwords.ArticleRecordWriter;
+import com.scaleunlimited.wikiwords.PartFileFormat;
+import com.scaleunlimited.wikiwords.PartManifest;
+import com.scaleunlimited.wikiwords.TemplateStore;
+import com.scaleunlimited.wikiwords.WikiMarkupScanner;
+import com.scaleunlimited.wikiwords.XMLPageReader;
+
 public class WikiDumpTool {
     private static final Logger LOGGER = Logger.getLogger(WikiDumpTool.class);
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
     public static final String MAIN_PAGE_COUNTER = "main-page";
     public static final String REDIRECT_PAGE_COUNTER = "redirect-valid-page";
     public static final String REDIRECT_INVALID_PAGE_COUNTER = "redirect-invalid-page";
@@ -53,9 +68,30 @@ public class WikiDumpTool {
     public static final String UNKNOWN_PAGE_COUNTER = "unknown-page";
     public static final String OTHER_PAGE_COUNTER = "other-page";
     
+    // Incremental processing counters
+    public static final String UNCHANGED_PAGE_COUNTER = "unchanged-page";
+    public static final String ADDED_PAGE_COUNTER = "added-page";
+    public static final String CHANGED_PAGE_COUNTER = "changed-page";
+    public static final String RENAMED_PAGE_COUNTER = "renamed-page";
+    public static final String DELETED_PAGE_COUNTER = "deleted-page";
+    
     public static final String EXCEPTION_COUNTER = "exception";
     
+    // Types of metadata collected while classifying pages.
+    public static final String CATEGORIES_METADATA = "categories";
+    public static final String REDIRECTS_METADATA = "redirects";
+    public static final String DISAMBIGS_METADATA = "disambigs";
+    public static final String ARTICLES_METADATA = "articles";
+    public static final String TEMPLATES_METADATA = "templates";
+    
+    // Subdirectory of the metadata directory for sorted runs of metadata entries.
+    private static final String SPILL_DIRNAME = "spill";
+    
+    // Template sources are much bigger than other metadata entries, so we spill them sooner.
+    private static final int MAX_TEMPLATE_ENTRIES = 10000;
+    
     private List<Exception> _exceptions;
+    private IngestMetrics _metrics;
     
     public WikiDumpTool() {
         // TODO Auto-generated constructor stub
@@ -66,97 +102,164 @@ public class WikiDumpTool {
     }
     
     public Map<String, Integer> run(String inputFilename, String outputDirname, String metadataDirname, int pagesPerFile, int numPages, boolean compressPartFiles, float samplePercent) throws IOException, SAXException {
-        File outputDir = new File(outputDirname);
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile(inputFilename);
+        options.setOutputDir(outputDirname);
+        options.setMetadataDirname(metadataDirname);
+        options.setPagesPerFile(pagesPerFile);
+        options.setNumPages(numPages);
+        options.setCompress(compressPartFiles);
+        options.setSamplePercent(samplePercent * 100.0f);
+        return run(options);
+    }
+    
+    public Map<String, Integer> run(WikiDumpOptions options) throws IOException, SAXException {
+        File outputDir = new File(options.getOutputDir());
         if (!outputDir.exists()) {
             throw new InvalidParameterException("Output directory must exist: " + outputDir);
         } else if (!outputDir.isDirectory()) {
             throw new InvalidParameterException("Output directory can't be a file: " + outputDir);
         }
         
-        FileUtils.cleanDirectory(outputDir);
-        
-        File metadataDir = new File(metadataDirname);
+        File metadataDir = new File(options.getMetadataDirname());
         if (!metadataDir.exists()) {
             throw new InvalidParameterException("Metadata directory must exist: " + metadataDir);
         } else if (!metadataDir.isDirectory()) {
             throw new InvalidParameterException("Metadata directory can't be a file: " + metadataDir);
         }
 
-        FileUtils.cleanDirectory(metadataDir);
+        File previousManifest = null;
+        if (options.getPreviousManifest() != null) {
+            previousManifest = new File(options.getPreviousManifest());
+            if (!previousManifest.isFile()) {
+                throw new InvalidParameterException("Previous manifest file must exist: " + previousManifest);
+            } else if (previousManifest.getCanonicalPath().startsWith(metadataDir.getCanonicalPath() + File.separator)) {
+                throw new InvalidParameterException("Previous manifest file can't be in the metadata directory: " + previousManifest);
+            } else if (isParallel(options)) {
+                throw new InvalidParameterException("Incremental processing isn't supported when processing a dump in parallel");
+            } else if ((options.getSamplePercent() != 1.0f) || (options.getNumPages() != Integer.MAX_VALUE)) {
+                throw new InvalidParameterException("Incremental processing can't be used with sampling or a page limit");
+            }
+        }
+        
+        // Parallel parsing reads the dump itself, so it would silently ignore this option.
+        if (options.isParallelBZip2() && isParallel(options)) {
+            throw new InvalidParameterException("Parallel decompression can't be used when processing a dump in parallel");
+        }
+        
+        List<DumpCheckpoint> checkpoints = null;
+        if (options.isResume()) {
+            checkpoints = loadCheckpoints(metadataDir, options);
+            if (checkpoints == null) {
+                LOGGER.warn("No checkpoint found in " + metadataDir + ", starting from the beginning");
+            }
+        }
+        
+        // When resuming, we keep the completed part files and the saved metadata.
+        if (checkpoints == null) {
+            FileUtils.cleanDirectory(outputDir);
+            FileUtils.cleanDirectory(metadataDir);
+        }
 
-        File inputFile = new File(inputFilename);
+        File inputFile = new File(options.getInputFile());
         if (!inputFile.exists()) {
             throw new InvalidParameterException("Input file must exist: " + inputFile);
         } else if (inputFile.isDirectory()) {
             throw new InvalidParameterException("Input file can't be a directory: " + inputFile);
         }
 
-        WikiDumpFilter filter = new WikiDumpFilter(outputDir, pagesPerFile, numPages, compressPartFiles, samplePercent);
-        WikiXMLParser wxp = new WikiXMLParser(inputFile, filter);
-        wxp.parse();
-
-        filter.close();
+        _metrics = new IngestMetrics();
+        _metrics.start(options.getMetricsInterval());
         
-        // Save off category hierarchy
-        Map<String, Set<String>> categories = filter.getCategories();
-        File categoryFile = new File(metadataDir, "categories.txt");
-        categoryFile.delete();
-        
-        // Note that we write out all entries, even if they don't have any parent category
-        try (BufferedWriter bw = new BufferedWriter(new FileWriterWithEncoding(categoryFile, "UTF-8"))) {
-            for (String childCategory: categories.keySet()) {
-                bw.write(childCategory);
-                bw.write('\t');
-                boolean firstParent = true;
-                for (String parentCategory : categories.get(childCategory)) {
-                    if (!firstParent) {
-                        bw.write('|');
+        WikiDumpFilter filter;
+        try {
+            if (options.getMultistreamIndex() != null) {
+                filter = parseMultistream(inputFile, outputDir, metadataDir, options, checkpoints);
+            } else if (options.isMapped()) {
+                filter = parseMapped(inputFile, outputDir, metadataDir, options, checkpoints);
+            } else {
+                DumpCheckpoint checkpoint = (checkpoints == null) ? null : checkpoints.get(0);
+                filter = new WikiDumpFilter(outputDir, "", options, metadataDir, checkpoint);
+                filter.setMetrics(_metrics);
+                if (options.isPipelined()) {
+                    try (PipelinedDumpFilter pipeline = new PipelinedDumpFilter(filter)) {
+                        parseDump(inputFile, filter, pipeline, options, checkpoint);
                     }
-                    
-                    firstParent = false;
-                    bw.write(parentCategory);
+                } else {
+                    parseDump(inputFile, filter, filter, options, checkpoint);
                 }
-                
-                bw.write('\n');
+
+                filter.close();
             }
-            
-            bw.flush();
+        } finally {
+            _metrics.stop();
+        }
+        
+        LOGGER.info("Overall: " + _metrics.getSummary());
+        
+        // Save off category hierarchy. Note that we only have entries for categories with
+        // at least one parent category.
+        try {
+            filter.writeCategories(new File(metadataDir, "categories.txt"));
         } catch (Exception e) {
             LOGGER.error("Exception saving category info", e);
         }
         
         // Save off redirect info
-        Map<String, String> redirects = filter.getRedirects();
-        File redirectFile = new File(metadataDir, "redirects.txt");
-        redirectFile.delete();
-        
-        try (BufferedWriter bw = new BufferedWriter(new FileWriterWithEncoding(redirectFile, "UTF-8"))) {
-            for (String redirectFrom: redirects.keySet()) {
-                bw.write(redirectFrom);
-                bw.write('\t');
-                bw.write(redirects.get(redirectFrom));
-                bw.write('\n');
-            }
-            
-            bw.flush();
+        try {
+            filter.writeRedirects(new File(metadataDir, "redirects.txt"));
         } catch (Exception e) {
             LOGGER.error("Exception saving redirect info", e);
         }
 
         // Save of disambiguation articles
-        Set<String> disambigs = filter.getDisambigs();
-        File disambigsFile = new File(metadataDir, "disambigs.txt");
-        disambigsFile.delete();
+        try {
+            filter.writeDisambigs(new File(metadataDir, "disambigs.txt"));
+        } catch (Exception e) {
+            LOGGER.error("Exception saving disambiguation info", e);
+        }
         
-        try (BufferedWriter bw = new BufferedWriter(new FileWriterWithEncoding(disambigsFile, "UTF-8"))) {
-            for (String disambig: disambigs) {
-                bw.write(disambig);
-                bw.write('\n');
+        // Save off the list of articles, and for an incremental run, what's changed.
+        File articlesFile = new File(metadataDir, ArticleManifest.MANIFEST_FILENAME);
+        try {
+            filter.writeArticles(articlesFile);
+            if (previousManifest != null) {
+                filter.writeChanges(previousManifest, articlesFile, new File(metadataDir, ArticleManifest.CHANGES_FILENAME));
             }
-            
-            bw.flush();
         } catch (Exception e) {
-            LOGGER.error("Exception saving disambiguation info", e);
+            LOGGER.error("Exception saving article manifest", e);
+        }
+        
+        // Save off template sources, for expanding templates when generating terms.
+        if (options.isSaveTemplates()) {
+            try {
+                filter.writeTemplates(new File(metadataDir, TemplateStore.TEMPLATES_FILENAME));
+            } catch (Exception e) {
+                LOGGER.error("Exception saving templates", e);
+            }
+        }
+        
+        // Save stats for each part file, for use when planning how to process them.
+        try {
+            filter.writeManifest(new File(metadataDir, PartManifest.MANIFEST_FILENAME));
+        } catch (Exception e) {
+            LOGGER.error("Exception saving part file manifest", e);
+        }
+        
+        try {
+            _metrics.writeReport(new File(metadataDir, IngestMetrics.REPORT_FILENAME));
+        } catch (Exception e) {
+            LOGGER.error("Exception saving ingest metrics", e);
+        }
+        
+        FileUtils.deleteQuietly(new File(metadataDir, SPILL_DIRNAME));
+        if (isParallel(options)) {
+            for (int i = 0; i < options.getNumThreads(); i++) {
+                DumpCheckpoint.delete(metadataDir, getPartPrefix(i));
+                FileUtils.deleteQuietly(new File(metadataDir, getPartPrefix(i) + PartManifest.MANIFEST_FILENAME));
+            }
+        } else {
+            DumpCheckpoint.delete(metadataDir, "");
         }
 
         _exceptions = filter.getExceptions();
@@ -164,6 +267,253 @@ public class WikiDumpTool {
         return filter.getCounters();
     }
 
+    /**
+     * Load the checkpoints saved by a previous run, one per filter. When processing a dump in
+     * parallel there's one filter per thread, and a filter that hadn't finished any part
+     * files yet won't have a checkpoint.
+     * 
+     * @return checkpoints (with nulls for filters that don't have one), or null if there aren't any.
+     */
+    private static List<DumpCheckpoint> loadCheckpoints(File metadataDir, WikiDumpOptions options) throws IOException {
+        if (!isParallel(options)) {
+            DumpCheckpoint checkpoint = DumpCheckpoint.load(metadataDir, "");
+            return (checkpoint == null) ? null : Arrays.asList(checkpoint);
+        }
+        
+        // A checkpoint from a filter we won't have means the previous run used more threads.
+        if (DumpCheckpoint.load(metadataDir, getPartPrefix(options.getNumThreads())) != null) {
+            throw new InvalidParameterException("Number of threads doesn't match checkpoint, which used more than " + options.getNumThreads());
+        }
+        
+        List<DumpCheckpoint> result = new ArrayList<>();
+        boolean found = false;
+        for (int i = 0; i < options.getNumThreads(); i++) {
+            DumpCheckpoint checkpoint = DumpCheckpoint.load(metadataDir, getPartPrefix(i));
+            found |= (checkpoint != null);
+            result.add(checkpoint);
+        }
+        
+        return found ? result : null;
+    }
+    
+    /**
+     * Parse the dump file from the start, or from the position saved in <checkpoint>. For an
+     * uncompressed dump we track where each page ends, so a resumed run can seek to just after
+     * the last page that was handled. Compressed dumps are parsed from the start, and the
+     * filter skips the pages it has already handled.
+     * 
+     * @param filter Filter that's saving checkpoints
+     * @param handler Filter to call with each page, which is either <filter> or a pipeline in front of it.
+     * @param checkpoint Checkpoint to resume from, or null
+     */
+    private void parseDump(File inputFile, WikiDumpFilter filter, IArticleFilter handler, WikiDumpOptions options, DumpCheckpoint checkpoint) throws IOException, SAXException {
+        long startOffset = (checkpoint == null) ? 0 : checkpoint.getInputOffset();
+        boolean compressed = StaxDumpParser.isCompressed(inputFile.getName());
+        if (compressed && (startOffset != 0)) {
+            throw new InvalidParameterException("Checkpoint was saved while parsing an uncompressed dump: " + inputFile);
+        }
+        
+        if (options.isParallelBZip2()) {
+            parseParallelBZip2(inputFile, handler, options);
+            return;
+        }
+        
+        // We open the file ourselves, so that we can track how much of it has been read.
+        InputStream in;
+        if (compressed) {
+            in = StaxDumpParser.decompress(_metrics.countInput(new FileInputStream(inputFile)), inputFile.getName());
+        } else {
+            PagePositions positions = new PagePositions();
+            filter.setPagePositions(positions);
+            in = openDump(inputFile, startOffset, positions);
+        }
+        
+        try (InputStream is = in) {
+            if (options.isStaxParser()) {
+                StaxDumpParser parser = new StaxDumpParser(is, handler);
+                parser.setTemplateText(options.isSaveTemplates());
+                parser.parse();
+            } else {
+                new WikiXMLParser(is, handler).parse();
+            }
+        }
+    }
+    
+    /**
+     * Open an uncompressed dump, starting at <startOffset> (which is the end of a page), and
+     * record where each page ends in <positions>. When we don't start at the beginning, the
+     * dump's header is added in front, so that the result is still a complete dump file.
+     */
+    private InputStream openDump(File inputFile, long startOffset, PagePositions positions) throws IOException {
+        String header = null;
+        if (startOffset != 0) {
+            try (InputStream is = new FileInputStream(inputFile)) {
+                header = XMLPageReader.readHeader(is);
+            }
+            
+            LOGGER.info(String.format("Resuming from offset %d in %s", startOffset, inputFile));
+        }
+        
+        FileInputStream fis = new FileInputStream(inputFile);
+        fis.getChannel().position(startOffset);
+        InputStream pages = new PageOffsetInputStream(new BufferedInputStream(_metrics.countInput(fis)), startOffset, positions);
+        if (header == null) {
+            return pages;
+        }
+        
+        return new SequenceInputStream(new ByteArrayInputStream(header.getBytes(UTF_8)), pages);
+    }
+    
+    /**
+     * Parse a bzip2-compressed dump, using multiple threads to decompress its blocks. This
+     * helps with single-stream dumps, where we can't process streams in parallel.
+     */
+    private void parseParallelBZip2(File inputFile, IArticleFilter filter, WikiDumpOptions options) throws IOException, SAXException {
+        if (!inputFile.getName().endsWith(".bz2")) {
+            throw new InvalidParameterException("Parallel decompression requires a bzip2-compressed dump: " + inputFile);
+        }
+        
+        try (InputStream is = new ParallelBZip2InputStream(_metrics.countInput(new FileInputStream(inputFile)), options.getNumThreads())) {
+            if (options.isStaxParser()) {
+                StaxDumpParser parser = new StaxDumpParser(is, filter);
+                parser.setTemplateText(options.isSaveTemplates());
+                parser.parse();
+            } else {
+                new WikiXMLParser(is, filter).parse();
+            }
+        }
+    }
+    
+    private static String getPartPrefix(int worker) {
+        return String.format("%02d-", worker);
+    }
+    
+    /**
+     * Delete the part files with <partPrefix> whose part number is <firstPart> or higher.
+     */
+    private static void deletePartFiles(File outputDir, String partPrefix, int firstPart) {
+        String start = "part-" + partPrefix;
+        for (File partFile : outputDir.listFiles()) {
+            String name = partFile.getName();
+            int dot = name.indexOf('.');
+            if (!name.startsWith(start) || (dot == -1)) {
+                continue;
+            }
+            
+            String partNumber = name.substring(start.length(), dot);
+            if (StringUtils.isNumeric(partNumber) && (Integer.parseInt(partNumber) >= firstPart)) {
+                FileUtils.deleteQuietly(partFile);
+            }
+        }
+    }
+    
+    private static boolean isParallel(WikiDumpOptions options) {
+        return (options.getMultistreamIndex() != null) || options.isMapped();
+    }
+    
+    /**
+     * Parse a pages-articles-multistream dump in parallel, using the stream offsets from
+     * the dump's index file.
+     */
+    private WikiDumpFilter parseMultistream(File inputFile, File outputDir, File metadataDir, WikiDumpOptions options, List<DumpCheckpoint> checkpoints) throws IOException {
+        if (options.isMapped()) {
+            throw new InvalidParameterException("A multistream dump can't be memory-mapped");
+        }
+        
+        File indexFile = new File(options.getMultistreamIndex());
+        if (!indexFile.exists()) {
+            throw new InvalidParameterException("Multistream index file must exist: " + indexFile);
+        }
+        
+        return parseInParallel(new MultistreamDumpParser(inputFile, indexFile, options.isStaxParser()), outputDir, metadataDir, options, checkpoints);
+    }
+    
+    /**
+     * Parse an uncompressed dump in parallel, by memory-mapping it and splitting it up
+     * into byte ranges.
+     */
+    private WikiDumpFilter parseMapped(File inputFile, File outputDir, File metadataDir, WikiDumpOptions options, List<DumpCheckpoint> checkpoints) throws IOException {
+        if (StaxDumpParser.isCompressed(inputFile.getName())) {
+            throw new InvalidParameterException("Only uncompressed dumps can be memory-mapped: " + inputFile);
+        }
+        
+        return parseInParallel(new MappedDumpParser(inputFile, options.isStaxParser(), options.getRangeSize()), outputDir, metadataDir, options, checkpoints);
+    }
+    
+    /**
+     * Parse a dump using one thread (and one WikiDumpFilter) per worker, and then merge all
+     * of the worker results into a single filter.
+     * 
+     * Each worker saves its own checkpoints. When resuming, a worker continues with the unit
+     * (stream or byte range) it was part-way through, and units that any worker finished
+     * before its checkpoint aren't parsed again.
+     * 
+     * @param checkpoints One per worker (or null for a worker without one), or null if we're not resuming.
+     * @return filter with the combined counters and metadata from all workers.
+     */
+    private WikiDumpFilter parseInParallel(ParallelDumpParser parser, File outputDir, File metadataDir, WikiDumpOptions options, List<DumpCheckpoint> checkpoints) throws IOException {
+        if (options.getNumPages() != Integer.MAX_VALUE) {
+            throw new InvalidParameterException("Number of pages can't be limited when processing a dump in parallel");
+        }
+        
+        List<WikiDumpFilter> filters = new ArrayList<>();
+        List<IArticleFilter> workerFilters = new ArrayList<>();
+        List<PagePositions> positions = new ArrayList<>();
+        Set<Long> completedUnits = new HashSet<>();
+        long[] startUnits = new long[options.getNumThreads()];
+        for (int i = 0; i < options.getNumThreads(); i++) {
+            String partPrefix = getPartPrefix(i);
+            DumpCheckpoint checkpoint = (checkpoints == null) ? null : checkpoints.get(i);
+            startUnits[i] = -1;
+            if (checkpoints != null) {
+                // Units aren't handed out in the same order as before, so get rid of parts
+                // that were written after the checkpoint, versus relying on them being replaced.
+                deletePartFiles(outputDir, partPrefix, (checkpoint == null) ? 0 : checkpoint.getNextPart());
+                if (checkpoint != null) {
+                    startUnits[i] = checkpoint.getInputOffset();
+                    completedUnits.addAll(checkpoint.getCompletedUnits());
+                }
+            }
+            
+            WikiDumpFilter filter = new WikiDumpFilter(outputDir, partPrefix, options, metadataDir, checkpoint);
+            filter.setMetrics(_metrics);
+            filters.add(filter);
+            workerFilters.add(options.isPipelined() ? new PipelinedDumpFilter(filter) : filter);
+            
+            PagePositions filterPositions = new PagePositions();
+            filter.setPagePositions(filterPositions);
+            positions.add(filterPositions);
+        }
+        
+        parser.setMetrics(_metrics);
+        parser.setTemplateText(options.isSaveTemplates());
+        parser.setPagePositions(positions);
+        if (checkpoints != null) {
+            parser.setResume(completedUnits, startUnits);
+        }
+        
+        try {
+            parser.parse(workerFilters);
+        } finally {
+            for (IArticleFilter workerFilter : workerFilters) {
+                if (workerFilter instanceof PipelinedDumpFilter) {
+                    ((PipelinedDumpFilter)workerFilter).close();
+                }
+            }
+            
+            for (WikiDumpFilter filter : filters) {
+                filter.close();
+            }
+        }
+        
+        WikiDumpFilter result = filters.get(0);
+        for (int i = 1; i < filters.size(); i++) {
+            result.merge(filters.get(i));
+        }
+        
+        return result;
+    }
+    
     public boolean hasExceptions() {
         return !_exceptions.isEmpty();
     }
@@ -171,6 +521,10 @@ public class WikiDumpTool {
     public List<Exception> getExceptions() {
         return _exceptions;
     }
+    
+    public IngestMetrics getMetrics() {
+        return _metrics;
+    }
 
     public static void main(String[] args) {
         WikiDumpOptions options = new WikiDumpOptions();
@@ -180,7 +534,7 @@ public class WikiDumpTool {
             parser.parseArgument(args);
             
             WikiDumpTool tool = new WikiDumpTool();
-            Map<String, Integer> counters = tool.run(options.getInputFile(), options.getOutputDir(), options.getMetadataDirname(), options.getPagesPerFile(), options.getNumPages(), options.isCompressed(), options.getSamplePercent());
+            Map<String, Integer> counters = tool.run(options);
             for (String counter : counters.keySet()) {
                 LOGGER.info(String.format("%s: %d", counter, counters.get(counter)));
             }
@@ -202,90 +556,303 @@ public class WikiDumpTool {
         System.exit(-1);
     }
 
-    protected static class WikiDumpFilter implements IArticleFilter, Closeable {
+    public static class WikiDumpFilter implements IArticleFilter, Closeable {
 
-        private static Pattern CATEGORY_PATTERN = Pattern.compile("\\[\\[Category:(.+?)\\]\\]", Pattern.CASE_INSENSITIVE);
-        private static Pattern REDIRECT_PATTERN = Pattern.compile("#REDIRECT[ \t]*:*[ \n]*\\[\\[(.+?)(#.+?|)\\]\\]", Pattern.CASE_INSENSITIVE);
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-        private static Pattern makeTemplatePattern(String templateName) {
-            return Pattern.compile("\\{\\{[ \t]*" + templateName + "[ \t]*(\\|.*|)\\}\\}", Pattern.CASE_INSENSITIVE);
-        }
-        
         // List of templates found on https://en.wikipedia.org/wiki/Category:Disambiguation_message_boxes
         // and described on https://en.wikipedia.org/wiki/Template:Disambiguation. This is a dynamic set,
-        // so unfortunately it can quickly become out of date.
+        // so unfortunately it can quickly become out of date. Names are in the normalized (lower-case)
+        // form returned by WikiMarkupScanner.
         
         // FUTURE - process templates to find those triggering disambiguation (via usage of Dmbox template)
-        private static Pattern[] DISAMBIGUATION_PATTERNS = new Pattern[] {
-            // {{disambiguation|geo|ship}}
-            makeTemplatePattern("disambiguation"),
-            // {{disambig}}
-            makeTemplatePattern("disambig"),
-            // {{Disambig-Plants}}
-            makeTemplatePattern("disambig\\-[^ \t]+"),
-            // {{Disamb}}
-            makeTemplatePattern("disamb"),
-            // {{DAB}}
-            makeTemplatePattern("dab"),
-            // {{Disambiguation cleanup}}
-            makeTemplatePattern("disambiguation[ \t]+cleanup"),
-            // {{Airport disambiguation}}
-            makeTemplatePattern("[^ \t]+[ \t]+disambiguation"),
-            // {{Numberdis}}
-            makeTemplatePattern("numberdis"),
-            // {{Letter-NumberCombDisambig}}
-            makeTemplatePattern("Letter\\-NumberCombDisambig"),
-            // {{Hndis}}
-            makeTemplatePattern("hndis"),
-            // {{Hndis-cleanup}}
-            makeTemplatePattern("hndis\\-cleanup"),
-            // {{Geodis}}
-            makeTemplatePattern("geodis"),
-            // {{Mil-unit-dis}}
-            makeTemplatePattern("Mil\\-unit\\-dis"),
-        };
+        private static final Set<String> DISAMBIGUATION_TEMPLATES = new HashSet<>(Arrays.asList(
+            "disambiguation",               // {{disambiguation|geo|ship}}
+            "disambig",                     // {{disambig}}
+            "disamb",                       // {{Disamb}}
+            "dab",                          // {{DAB}}
+            "disambiguation cleanup",       // {{Disambiguation cleanup}}
+            "numberdis",                    // {{Numberdis}}
+            "letter-numbercombdisambig",    // {{Letter-NumberCombDisambig}}
+            "hndis",                        // {{Hndis}}
+            "hndis-cleanup",                // {{Hndis-cleanup}}
+            "geodis",                       // {{Geodis}}
+            "mil-unit-dis"                  // {{Mil-unit-dis}}
+        ));
+        
+        // {{Disambig-Plants}}
+        private static final String DISAMBIGUATION_TEMPLATE_PREFIX = "disambig-";
+        
+        // {{Airport disambiguation}}
+        private static final String DISAMBIGUATION_TEMPLATE_SUFFIX = " disambiguation";
+        
+        private static boolean isDisambiguationTemplate(String name) {
+            if (DISAMBIGUATION_TEMPLATES.contains(name)) {
+                return true;
+            } else if (name.startsWith(DISAMBIGUATION_TEMPLATE_PREFIX)) {
+                return (name.length() > DISAMBIGUATION_TEMPLATE_PREFIX.length()) && (name.indexOf(' ') == -1);
+            } else if (name.endsWith(DISAMBIGUATION_TEMPLATE_SUFFIX)) {
+                // Only a single word before "disambiguation".
+                int prefixLength = name.length() - DISAMBIGUATION_TEMPLATE_SUFFIX.length();
+                return (prefixLength > 0) && (name.lastIndexOf(' ', prefixLength - 1) == -1);
+            } else {
+                return false;
+            }
+        }
+        
         
         private boolean _compressPartFiles;
+        private PartFileFormat _format;
         private float _samplePercent;
         private File _outputDir;
+        private String _partPrefix;
         private int _pagesPerFile;
+        private long _targetPartSize;
+        private int _linkCost;
         private int _numPages;
         private int _curPage;
+        private int _numWritten;
         private int _curPart;
         
-        private BufferedWriter _writer;
+        private File _partFile;
+        private OutputStream _partStream;
+        private ArticleRecordWriter _recordWriter;
         private List<Exception> _exceptions;
         private Map<String, Integer> _counters;
-        private Map<String, Set<String>> _categories;
-        private Map<String, String> _redirects;
-        private Set<String> _disambigs;
+        private SortedSpillWriter _categories;
+        private SortedSpillWriter _redirects;
+        private SortedSpillWriter _disambigs;
+        private SortedSpillWriter _articles;
+        private SortedSpillWriter _templates;
+        private boolean _saveTemplates;
+        
+        // Used to find articles that haven't changed since the previous run, when
+        // we're only outputting new and changed articles.
+        private MessageDigest _digest;
+        private ArticleManifest.EntryLookup _previousArticles;
         
         private Random _rand;
+        private long _randomCalls;
+        private WikiMarkupScanner _scanner;
+        
+        // Stats for completed part files, and for the part that classify() is filling.
+        private PartManifest _manifest;
+        private PartManifest.Part _classifyPart;
+        
+        // Checkpoint support
+        private File _checkpointDir;
+        private File _spillDir;
+        private long _pagesSeen;
+        private long _pagesToSkip;
+        private DumpCheckpoint _pendingCheckpoint;
+        
+        // Where the page being classified came from in the dump file, or null positions
+        // if we can only count pages from the start of the dump.
+        private PagePositions _pagePositions;
+        private long _inputOffset;
+        private long _inputPages;
+        private List<Long> _completedUnits;
+        
+        // Timing and throughput stats, which can be shared by multiple filters.
+        private IngestMetrics _metrics;
+        
+        // Counter for the type of the page being classified.
+        private String _pageType;
         
         public WikiDumpFilter(File outputDir, int pagesPerFile, int numPages, boolean compressPartFiles, float samplePercent) throws IOException {
+            this(outputDir, "", makeOptions(pagesPerFile, numPages, compressPartFiles, samplePercent));
+        }
+        
+        /**
+         * @param partPrefix Text inserted after "part-" in each part file name, so that multiple filters
+         *        can write into the same output directory.
+         */
+        public WikiDumpFilter(File outputDir, String partPrefix, WikiDumpOptions options) throws IOException {
+            this(outputDir, partPrefix, options, null, null);
+        }
+        
+        /**
+         * @param checkpointDir Directory where we save a checkpoint after each part file is
+         *        completed, or null for no checkpoints.
+         * @param checkpoint State to resume from, or null to start from the beginning.
+         */
+        public WikiDumpFilter(File outputDir, String partPrefix, WikiDumpOptions options, File checkpointDir, DumpCheckpoint checkpoint) throws IOException {
             _outputDir = outputDir;
-            _compressPartFiles = compressPartFiles;
-            _samplePercent = samplePercent;
-            _pagesPerFile = pagesPerFile;
-            _numPages = numPages;
+            _partPrefix = partPrefix;
+            _compressPartFiles = options.isCompressed();
+            _format = options.getFormat();
+            _samplePercent = options.getSamplePercent();
+            _pagesPerFile = options.getPagesPerFile();
+            _targetPartSize = options.getTargetPartSize();
+            _linkCost = options.getLinkCost();
+            _numPages = options.getNumPages();
             _curPage = 0;
+            _numWritten = 0;
             _curPart = 0;
             
             _exceptions = new ArrayList<>();
             _counters = new HashMap<>();
-            _categories = new HashMap<String, Set<String>>();
-            _redirects = new HashMap<>();
-            _disambigs = new HashSet<>();
+            // Metadata is spilled to sorted run files as we go, so that memory usage doesn't
+            // depend on the size of the dump.
+            _spillDir = getSpillDir(options);
+            int maxEntries = options.getMaxMetadataEntries();
+            _categories = new SortedSpillWriter(_spillDir, partPrefix + CATEGORIES_METADATA, maxEntries);
+            _redirects = new SortedSpillWriter(_spillDir, partPrefix + REDIRECTS_METADATA, maxEntries);
+            _disambigs = new SortedSpillWriter(_spillDir, partPrefix + DISAMBIGS_METADATA, maxEntries);
+            _articles = new SortedSpillWriter(_spillDir, partPrefix + ARTICLES_METADATA, maxEntries);
+            _templates = new SortedSpillWriter(_spillDir, partPrefix + TEMPLATES_METADATA, Math.min(maxEntries, MAX_TEMPLATE_ENTRIES));
+            _saveTemplates = options.isSaveTemplates();
             
-            _writer = makePartFileWriter();
+            _digest = ArticleManifest.makeDigest();
+            if (options.getPreviousManifest() != null) {
+                _previousArticles = new ArticleManifest.EntryLookup(new File(options.getPreviousManifest()));
+            }
             
+            _scanner = new WikiMarkupScanner();
+            _manifest = new PartManifest();
+            _classifyPart = new PartManifest.Part();
             _rand = new Random(0L);
+            _randomCalls = 0;
+            _metrics = new IngestMetrics();
+            
+            _checkpointDir = checkpointDir;
+            _pagesSeen = 0;
+            _pagesToSkip = 0;
+            _inputOffset = 0;
+            _inputPages = 0;
+            _completedUnits = new ArrayList<>();
+            if (checkpoint != null) {
+                restore(checkpoint);
+            }
+        }
+        
+        private void restore(DumpCheckpoint checkpoint) throws IOException {
+            if (checkpoint.getPagesPerFile() != _pagesPerFile) {
+                throw new InvalidParameterException(String.format("Pages per file (%d) doesn't match checkpoint (%d)", _pagesPerFile, checkpoint.getPagesPerFile()));
+            } else if ((checkpoint.getTargetPartSize() != _targetPartSize) || (checkpoint.getLinkCost() != _linkCost)) {
+                throw new InvalidParameterException(String.format("Target part size (%d) and link cost (%d) don't match checkpoint (%d, %d)", _targetPartSize, _linkCost, checkpoint.getTargetPartSize(), checkpoint.getLinkCost()));
+            }
+            
+            LOGGER.info(String.format("Resuming at part %d, after %d pages (skipping %d pages from offset %d)", checkpoint.getNextPart(), checkpoint.getPagesSeen(), checkpoint.getInputPages(), checkpoint.getInputOffset()));
+            
+            _pagesSeen = checkpoint.getPagesSeen();
+            _pagesToSkip = checkpoint.getInputPages();
+            _inputOffset = checkpoint.getInputOffset();
+            _completedUnits.addAll(checkpoint.getCompletedUnits());
+            _curPage = checkpoint.getPagesAccepted();
+            _numWritten = checkpoint.getPagesWritten();
+            _curPart = checkpoint.getNextPart();
+            _counters.putAll(checkpoint.getCounters());
+            
+            // Get the random number generator back to the same state, for sampling.
+            for (long i = 0; i < checkpoint.getRandomCalls(); i++) {
+                _rand.nextFloat();
+            }
+            
+            _randomCalls = checkpoint.getRandomCalls();
+            
+            // The manifest can have an extra part, if we failed after writing it but before
+            // saving the checkpoint.
+            File manifestFile = getCheckpointManifestFile();
+            if (manifestFile.exists()) {
+                _manifest = PartManifest.read(manifestFile);
+                _manifest.truncate(_curPart);
+            }
+            
+            // Restore the metadata we'd saved, and get rid of anything we wrote after the checkpoint.
+            Set<File> runs = new HashSet<>();
+            runs.addAll(restoreRuns(_categories, checkpoint.getSpillRuns(CATEGORIES_METADATA)));
+            runs.addAll(restoreRuns(_redirects, checkpoint.getSpillRuns(REDIRECTS_METADATA)));
+            runs.addAll(restoreRuns(_disambigs, checkpoint.getSpillRuns(DISAMBIGS_METADATA)));
+            runs.addAll(restoreRuns(_articles, checkpoint.getSpillRuns(ARTICLES_METADATA)));
+            runs.addAll(restoreRuns(_templates, checkpoint.getSpillRuns(TEMPLATES_METADATA)));
+            
+            File[] spillFiles = _spillDir.listFiles();
+            if (spillFiles != null) {
+                for (File spillFile : spillFiles) {
+                    if (spillFile.getName().startsWith(_partPrefix) && !runs.contains(spillFile)) {
+                        FileUtils.deleteQuietly(spillFile);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * @return manifest of the part files covered by our checkpoint, which is the regular
+         *         manifest unless we're one of several filters.
+         */
+        private File getCheckpointManifestFile() {
+            return new File(_checkpointDir, _partPrefix + PartManifest.MANIFEST_FILENAME);
+        }
+        
+        private List<File> restoreRuns(SortedSpillWriter writer, List<String> runNames) throws IOException {
+            List<File> runs = new ArrayList<>();
+            for (String runName : runNames) {
+                File run = new File(_spillDir, runName);
+                if (!run.exists()) {
+                    throw new IOException("Missing spill file from checkpoint: " + run);
+                }
+                
+                runs.add(run);
+            }
+            
+            writer.addRuns(runs);
+            return runs;
         }
 
+        private static WikiDumpOptions makeOptions(int pagesPerFile, int numPages, boolean compressPartFiles, float samplePercent) {
+            WikiDumpOptions options = new WikiDumpOptions();
+            options.setPagesPerFile(pagesPerFile);
+            options.setNumPages(numPages);
+            options.setCompress(compressPartFiles);
+            options.setSamplePercent(samplePercent * 100.0f);
+            return options;
+        }
+        
         @Override
         public void process(WikiArticle article, Siteinfo siteInfo) throws SAXException {
+            if (classify(article)) {
+                savePage(encodePage(article));
+                
+                DumpCheckpoint checkpoint = takeCheckpoint();
+                if (checkpoint != null) {
+                    finishPart(checkpoint);
+                }
+            }
+        }
+        
+        /**
+         * Figure out what type of page we've got, update counts and metadata, and
+         * decide whether it's a main page that should be saved.
+         * 
+         * @param article Page from the dump
+         * @return true if the page should be written to a part file.
+         */
+        public boolean classify(WikiArticle article) {
+            long startTime = System.nanoTime();
+            _pageType = null;
+            boolean result = classifyPage(article);
+            
+            // Pages skipped when resuming (or past the page limit) don't have a type.
+            if (_pageType != null) {
+                _metrics.addPage(_pageType, System.nanoTime() - startTime);
+            }
+            
+            return result;
+        }
+        
+        private boolean classifyPage(WikiArticle article) {
+            updatePosition();
+            if (_pagesToSkip > 0) {
+                // We're resuming, and already handled this page.
+                _pagesToSkip -= 1;
+                return false;
+            }
+            
+            _pagesSeen += 1;
+            
             if (_curPage >= _numPages) {
-                return;
+                return false;
             }
             
             String title = article.getTitle();
@@ -295,103 +862,384 @@ public class WikiDumpTool {
             if (article.isCategory()) {
                 if (!title.startsWith("Category:")) {
                     LOGGER.error("Invalid category page title: " + title);
-                    incrementCounter(CATEGORY_INVALID_PAGE_COUNTER);
+                    countPage(CATEGORY_INVALID_PAGE_COUNTER);
                 } else {
-                    Set<String> parentCategories = getParentCategories(text);
+                    _scanner.scan(text);
+                    Set<String> parentCategories = getParentCategories(_scanner);
                     if (!parentCategories.isEmpty()) {
                         // Only save this off if we have parent categories.
                         String categoryName = convertTitleToArticle(title.substring("Category:".length()));
-                        _categories.put(categoryName, parentCategories);
+                        addMetadata(CATEGORIES_METADATA, categoryName, StringUtils.join(parentCategories, '|'));
                     }
                     
-                    incrementCounter(CATEGORY_PAGE_COUNTER);
+                    countPage(CATEGORY_PAGE_COUNTER);
                 }
             } else if (article.isFile()) {
-                incrementCounter(FILE_PAGE_COUNTER);
+                countPage(FILE_PAGE_COUNTER);
             } else if (article.isTemplate()) {
-                incrementCounter(TEMPLATE_PAGE_COUNTER);
+                if (_saveTemplates) {
+                    saveTemplate(title, text);
+                }
+                
+                countPage(TEMPLATE_PAGE_COUNTER);
             } else if (article.isProject()) {
-                incrementCounter(PROJECT_PAGE_COUNTER);
+                countPage(PROJECT_PAGE_COUNTER);
             } else if (article.isModule()) {
-                incrementCounter(MODULE_PAGE_COUNTER);
+                countPage(MODULE_PAGE_COUNTER);
             } else if (article.isUnknown()) {
                 LOGGER.warn(String.format("Unknown article type for page %s", title));
-                incrementCounter(UNKNOWN_PAGE_COUNTER);
+                countPage(UNKNOWN_PAGE_COUNTER);
             } else if (article.isRedirect()) {
                 // Redirect is a main page with an extra flag.
-                String redirectArticle = getRedirect(text);
+                _scanner.scan(text);
+                String redirectArticle = getRedirect(_scanner);
                 if (redirectArticle != null) {
-                    _redirects.put(convertTitleToArticle(title), redirectArticle);
-                    incrementCounter(REDIRECT_PAGE_COUNTER);
+                    addMetadata(REDIRECTS_METADATA, convertTitleToArticle(title), redirectArticle);
+                    countPage(REDIRECT_PAGE_COUNTER);
                 } else {
                     LOGGER.warn(String.format("Redirect article without #REDIRECT directive on page %s: %s", title, text));
-                    incrementCounter(REDIRECT_INVALID_PAGE_COUNTER);
+                    countPage(REDIRECT_INVALID_PAGE_COUNTER);
                 }
             } else if (!article.isMain()) {
-                incrementCounter(OTHER_PAGE_COUNTER);
+                countPage(OTHER_PAGE_COUNTER);
             } else if (title.contains("(disambiguation)")) {
-                if (!isDisambiguation(text)) {
+                _scanner.scan(text);
+                if (!isDisambiguation(_scanner)) {
                     LOGGER.warn(String.format("Disambiguation article without disambiguation template on page %s: %s", title, text));
                 }
                 
-                _disambigs.add(convertTitleToArticle(title));
-                incrementCounter(DISAMBIGUATION_PAGE_COUNTER);
-            } else if (isDisambiguation(text)) {
-                _disambigs.add(convertTitleToArticle(title));
-                incrementCounter(DISAMBIGUATION_PAGE_COUNTER);
+                addMetadata(DISAMBIGS_METADATA, convertTitleToArticle(title), null);
+                countPage(DISAMBIGUATION_PAGE_COUNTER);
+            } else if (isDisambiguation(scan(text))) {
+                addMetadata(DISAMBIGS_METADATA, convertTitleToArticle(title), null);
+                countPage(DISAMBIGUATION_PAGE_COUNTER);
             } else {
+                _pageType = MAIN_PAGE_COUNTER;
                 if (_samplePercent != 1.0f) {
                     // If the percent was 1.0, we should always process it.
+                    _randomCalls += 1;
                     if (_rand.nextFloat() > _samplePercent) {
-                        return;
+                        return false;
                     }
                 }
                 
+                // Every article goes into the manifest, so that a later incremental run
+                // can tell which ones have changed.
+                long pageId = getPageId(article);
+                String hash = ArticleManifest.hashText(_digest, text);
+                String manifestTitle = cleanText(title);
+                if (pageId != ArticleRecordWriter.UNKNOWN_PAGE_ID) {
+                    String revisionId = article.getRevisionId() == null ? "" : article.getRevisionId();
+                    addMetadata(ARTICLES_METADATA, ArticleManifest.formatPageId(pageId), ArticleManifest.makeValue(revisionId, hash, manifestTitle));
+                }
+                
+                if (isUnchanged(pageId, hash, manifestTitle)) {
+                    countPage(UNCHANGED_PAGE_COUNTER);
+                    return false;
+                }
+                
+                _curPage += 1;
+                
+                // The scanner has already processed the text, when we checked for disambiguation.
+                _classifyPart.setNumPages(_classifyPart.getNumPages() + 1);
+                _classifyPart.setTextLength(_classifyPart.getTextLength() + text.length());
+                _classifyPart.setNumLinks(_classifyPart.getNumLinks() + _scanner.getNumLinks());
+                _classifyPart.setCost(_classifyPart.getCost() + text.length() + ((long)_linkCost * _scanner.getNumLinks()));
+                
+                // If this page completes a part file, then once it has been written
+                // we can close the part and save a checkpoint.
+                if (isPartFull()) {
+                    _pendingCheckpoint = makeCheckpoint();
+                }
+                
+                return true;
+            }
+            
+            return false;
+        }
+        
+        /**
+         * Save the source of a template page, minus the parts that aren't used when it's
+         * transcluded. Documentation and test subpages are skipped, as they're never used.
+         */
+        private void saveTemplate(String title, String text) {
+            if (title.endsWith("/doc") || title.endsWith("/sandbox") || title.endsWith("/testcases")) {
+                return;
+            }
+            
+            // The title has the (possibly localized) namespace, which we don't want.
+            String name = TemplateStore.normalizeName(title.substring(title.indexOf(':') + 1));
+            addMetadata(TEMPLATES_METADATA, name, TemplateStore.encodeSource(TemplateStore.cleanSource(text)));
+        }
+        
+        /**
+         * @return true if we're only outputting new and changed articles, and this article
+         *         is in the previous manifest with the same content hash and title. Renamed
+         *         articles are output, since their data is keyed by title.
+         */
+        private boolean isUnchanged(long pageId, String hash, String title) {
+            if ((_previousArticles == null) || (pageId == ArticleRecordWriter.UNKNOWN_PAGE_ID)) {
+                return false;
+            }
+            
+            try {
+                ArticleManifest.Entry previous = _previousArticles.getEntry(pageId);
+                return (previous != null) && previous.getHash().equals(hash) && previous.getTitle().equals(title);
+            } catch (IOException e) {
+                LOGGER.error("Exception reading previous article manifest", e);
+                incrementCounter(EXCEPTION_COUNTER);
+                addException(e);
+                
+                // Stop checking, so from now on all articles are written.
+                closePreviousArticles();
+                return false;
+            }
+        }
+        
+        private void closePreviousArticles() {
+            if (_previousArticles != null) {
                 try {
-                    int partNumber = _curPage / _pagesPerFile;
-                    if (partNumber > _curPart) {
-                        _writer.close();
-
-                        _curPart = partNumber;
-                        _writer = makePartFileWriter();
-                    }
-
-                    // Write out this page, and increment counts.
-                    _writer.append(cleanText(title));
-                    _writer.append('\t');
-                    _writer.append(encodeText(text));
-                    _writer.append('\n');
-
-                    _curPage += 1;
-                    incrementCounter(MAIN_PAGE_COUNTER);
+                    _previousArticles.close();
                 } catch (IOException e) {
-                    LOGGER.error("Exception saving main page", e);
-                    incrementCounter(EXCEPTION_COUNTER);
-                    addException(e);
+                    LOGGER.warn("Exception closing previous article manifest", e);
+                }
+                
+                _previousArticles = null;
+            }
+        }
+        
+        /**
+         * A part is full once it has <pagesPerFile> pages, or (if there's a target part size)
+         * when the estimated cost of processing its pages reaches the target size. The cost
+         * of a page is the length of its text, plus <linkCost> for each link, as both parsing
+         * and term generation scale with these.
+         */
+        private boolean isPartFull() {
+            if (_classifyPart.getNumPages() >= _pagesPerFile) {
+                return true;
+            }
+            
+            return (_targetPartSize > 0) && (_classifyPart.getCost() >= _targetPartSize);
+        }
+        
+        /**
+         * Convert a main page into the bytes that we save in the part file. For the text
+         * format this is a line with the title, a tab, and the Base64-encoded text. For the
+         * binary format it's an article record (see ArticleRecordWriter).
+         * 
+         * @param article Main page from the dump
+         * @return encoded page
+         */
+        public byte[] encodePage(WikiArticle article) {
+            long startTime = System.nanoTime();
+            byte[] result = encode(article);
+            _metrics.addEncode(System.nanoTime() - startTime);
+            return result;
+        }
+        
+        private byte[] encode(WikiArticle article) {
+            if (_format == PartFileFormat.BINARY) {
+                return ArticleRecordWriter.encode(article.getTitle(), getPageId(article), article.getText());
+            }
+            
+            byte[] title = cleanText(article.getTitle()).getBytes(UTF_8);
+            byte[] text = Base64.encodeBase64(article.getText().getBytes(UTF_8));
+            byte[] result = new byte[title.length + 1 + text.length + 1];
+            System.arraycopy(title, 0, result, 0, title.length);
+            result[title.length] = '\t';
+            System.arraycopy(text, 0, result, title.length + 1, text.length);
+            result[result.length - 1] = '\n';
+            return result;
+        }
+        
+        private long getPageId(WikiArticle article) {
+            try {
+                return Long.parseLong(article.getId());
+            } catch (NumberFormatException e) {
+                LOGGER.warn(String.format("Invalid page id '%s' for page %s", article.getId(), article.getTitle()));
+                return ArticleRecordWriter.UNKNOWN_PAGE_ID;
+            }
+        }
+        
+        /**
+         * @param positions Where each page that we classify came from in the dump file, so that
+         *        checkpoints can save where a resumed run should start reading.
+         */
+        public void setPagePositions(PagePositions positions) {
+            _pagePositions = positions;
+        }
+        
+        private void updatePosition() {
+            if (_pagePositions == null) {
+                return;
+            }
+            
+            // When parsing in parallel, the first page of a unit means we're done with the previous one.
+            PagePositions.Position position = _pagePositions.take();
+            if ((position.getPages() == 1) && (_inputPages > 0)) {
+                _completedUnits.add(_inputOffset);
+            }
+            
+            _inputOffset = position.getOffset();
+            _inputPages = position.getPages();
+        }
+        
+        /**
+         * Return the checkpoint for the part file that's completed by the page most recently
+         * accepted by classify(), or null if that page didn't complete a part. This must be
+         * called from the same thread as classify(), and the result passed to finishPart()
+         * once the page has been written.
+         */
+        public DumpCheckpoint takeCheckpoint() {
+            DumpCheckpoint result = _pendingCheckpoint;
+            _pendingCheckpoint = null;
+            return result;
+        }
+        
+        private DumpCheckpoint makeCheckpoint() {
+            DumpCheckpoint checkpoint = new DumpCheckpoint();
+            checkpoint.setPagesSeen(_pagesSeen);
+            checkpoint.setPagesAccepted(_curPage);
+            checkpoint.setPagesPerFile(_pagesPerFile);
+            checkpoint.setTargetPartSize(_targetPartSize);
+            checkpoint.setLinkCost(_linkCost);
+            checkpoint.setRandomCalls(_randomCalls);
+            
+            if (_pagePositions == null) {
+                checkpoint.setInputOffset(0);
+                checkpoint.setInputPages(_pagesSeen);
+            } else {
+                checkpoint.setInputOffset(_inputOffset);
+                checkpoint.setInputPages(_inputPages);
+                checkpoint.setCompletedUnits(new ArrayList<>(_completedUnits));
+            }
+            
+            checkpoint.setCompletedPart(_classifyPart);
+            _classifyPart = new PartManifest.Part();
+            
+            if (_checkpointDir == null) {
+                return checkpoint;
+            }
+            
+            synchronized (this) {
+                checkpoint.setCounters(new HashMap<>(_counters));
+            }
+            
+            // Get all metadata onto disk, so we can reference it from the checkpoint.
+            try {
+                checkpoint.setSpillRuns(CATEGORIES_METADATA, _categories.flush());
+                checkpoint.setSpillRuns(REDIRECTS_METADATA, _redirects.flush());
+                checkpoint.setSpillRuns(DISAMBIGS_METADATA, _disambigs.flush());
+                checkpoint.setSpillRuns(ARTICLES_METADATA, _articles.flush());
+                checkpoint.setSpillRuns(TEMPLATES_METADATA, _templates.flush());
+            } catch (IOException e) {
+                LOGGER.error("Exception flushing metadata for checkpoint, disabling checkpoints", e);
+                incrementCounter(EXCEPTION_COUNTER);
+                addException(e);
+                _checkpointDir = null;
+            }
+            
+            return checkpoint;
+        }
+        
+        /**
+         * Close the current part file, and (if we're checkpointing) save the checkpoint.
+         * This must be called after all pages in the part have been saved.
+         * 
+         * @param checkpoint Result of calling takeCheckpoint()
+         */
+        public void finishPart(DumpCheckpoint checkpoint) {
+            try {
+                finishPartFile(checkpoint.getCompletedPart());
+                if (_checkpointDir == null) {
+                    return;
+                }
+                
+                checkpoint.setPagesWritten(_numWritten);
+                checkpoint.setNextPart(_curPart);
+                
+                // Pages are counted when written, so the classify-time count is behind.
+                synchronized (this) {
+                    Integer mainPages = _counters.get(MAIN_PAGE_COUNTER);
+                    if (mainPages != null) {
+                        checkpoint.getCounters().put(MAIN_PAGE_COUNTER, mainPages);
+                    }
                 }
+                
+                _manifest.write(getCheckpointManifestFile());
+                checkpoint.save(_checkpointDir, _partPrefix);
+            } catch (IOException e) {
+                LOGGER.error("Exception finishing part file", e);
+                incrementCounter(EXCEPTION_COUNTER);
+                addException(e);
+            }
+        }
+        
+        /**
+         * Write out the (encoded) page, switching to a new part file when needed.
+         * 
+         * @param page Result of calling encodePage()
+         */
+        public void savePage(byte[] page) {
+            try {
+                writePage(page);
+            } catch (IOException e) {
+                LOGGER.error("Exception saving main page", e);
+                incrementCounter(EXCEPTION_COUNTER);
+                addException(e);
+            }
+        }
+        
+        private void writePage(byte[] page) throws IOException {
+            long startTime = System.nanoTime();
+            
+            // Part files are opened when their first page is written, so a filter that
+            // never writes a page doesn't create an empty part file.
+            if (_partFile == null) {
+                openPartFile();
+            }
+
+            // Write out this page, and increment counts.
+            if (_recordWriter != null) {
+                _recordWriter.writeRecord(page);
+            } else {
+                _partStream.write(page);
             }
+            
+            _numWritten += 1;
+            incrementCounter(MAIN_PAGE_COUNTER);
+            _metrics.addWrite(page.length, System.nanoTime() - startTime);
         }
 
         private String convertTitleToArticle(String title) {
-            return title.replaceAll(" ",  "_");
+            return title.replace(' ',  '_');
         }
 
+        private WikiMarkupScanner scan(String text) {
+            _scanner.scan(text);
+            return _scanner;
+        }
+        
         protected String getRedirect(String text) {
-            Matcher m = REDIRECT_PATTERN.matcher(text);
-            if (m.find()) {
-                return m.group(1).replaceAll(" ", "_");
-            } else {
-                return null;
-            }
+            return getRedirect(scan(text));
         }
 
+        private String getRedirect(WikiMarkupScanner scanner) {
+            String redirect = scanner.getRedirect();
+            return redirect == null ? null : convertTitleToArticle(redirect);
+        }
+        
         protected boolean isDisambiguation(String text) {
-            for (Pattern p : DISAMBIGUATION_PATTERNS) {
-                Matcher m = p.matcher(text);
-                if (m.find()) {
+            return isDisambiguation(scan(text));
+        }
+
+        private boolean isDisambiguation(WikiMarkupScanner scanner) {
+            for (String templateName : scanner.getTemplateNames()) {
+                if (isDisambiguationTemplate(templateName)) {
                     return true;
                 }
             }
+            
             return false;
         }
 
@@ -404,22 +1252,26 @@ public class WikiDumpTool {
          * @return Set of parent category names.
          */
         protected Set<String> getParentCategories(String text) {
-            Matcher m = CATEGORY_PATTERN.matcher(text);
-
-            Set<String> parentCategories = new HashSet<>();
-            while (m.find()) {
-                String parentCategory = m.group(1);
-                if (parentCategory.indexOf('|') != -1) {
-                    parentCategory = parentCategory.substring(0, parentCategory.indexOf('|'));
-                }
-                
+            return getParentCategories(scan(text));
+        }
+        
+        private Set<String> getParentCategories(WikiMarkupScanner scanner) {
+            Set<String> parentCategories = new TreeSet<>();
+            for (String parentCategory : scanner.getCategories()) {
                 parentCategories.add(convertTitleToArticle(parentCategory));
             }
             
             return parentCategories;
         }
         
-        private int incrementCounter(String counter) {
+        private void countPage(String pageType) {
+            _pageType = pageType;
+            incrementCounter(pageType);
+        }
+        
+        // Synchronized, as with a PipelinedDumpFilter we'll be called by both the
+        // classify and write stages.
+        protected synchronized int incrementCounter(String counter) {
             Integer curCount = _counters.get(counter);
             int newCount;
             if (curCount == null) {
@@ -436,18 +1288,18 @@ public class WikiDumpTool {
             return title.replaceAll("[\t\n\r]", " ");
         }
         
-        private String encodeText(String text) {
-            try {
-                return new String(Base64.encodeBase64(text.getBytes("UTF-8")), "UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException("Impossible encoding exception", e);
-            }
-        }
-
+        /**
+         * Close the last part file. This must only be called once all pages have
+         * been saved.
+         */
         @Override
         public void close() throws IOException {
-            _writer.close();
-            _writer = null;
+            closePreviousArticles();
+            
+            if (_partFile != null) {
+                finishPartFile(_classifyPart);
+                _classifyPart = new PartManifest.Part();
+            }
         }
         
         public boolean hasExceptions() {
@@ -458,52 +1310,297 @@ public class WikiDumpTool {
             return _exceptions;
         }
         
+        public IngestMetrics getMetrics() {
+            return _metrics;
+        }
+        
+        /**
+         * Use <metrics> for stats, so that they can be shared with other filters.
+         */
+        public void setMetrics(IngestMetrics metrics) {
+            _metrics = metrics;
+        }
+        
         public Map<String, Integer> getCounters() {
             return _counters;
         }
         
-        public Map<String, Set<String>> getCategories() {
-            return _categories;
+        /**
+         * Write out the sorted category hierarchy, with one "<category><tab><parent>|<parent>..."
+         * line per category.
+         * 
+         * @return number of categories written.
+         */
+        public int writeCategories(File categoryFile) throws IOException {
+            return _categories.write(categoryFile);
+        }
+        
+        /**
+         * Write out the sorted redirects, with one "<from article><tab><to article>" line per redirect.
+         * 
+         * @return number of redirects written.
+         */
+        public int writeRedirects(File redirectFile) throws IOException {
+            return _redirects.write(redirectFile);
+        }
+        
+        /**
+         * Write out the sorted disambiguation articles, one per line.
+         * 
+         * @return number of articles written.
+         */
+        public int writeDisambigs(File disambigsFile) throws IOException {
+            return _disambigs.write(disambigsFile);
+        }
+        
+        /**
+         * Write out the article manifest, with one "<page id><tab><revision id><tab><hash><tab><title>"
+         * line per article, sorted by page id.
+         * 
+         * @return number of articles written.
+         */
+        public int writeArticles(File articlesFile) throws IOException {
+            return _articles.write(articlesFile);
+        }
+        
+        /**
+         * Write out the sorted template sources, with one "<template name><tab><Base64-encoded source>"
+         * line per template. See TemplateStore.
+         * 
+         * @return number of templates written.
+         */
+        public int writeTemplates(File templatesFile) throws IOException {
+            return _templates.write(templatesFile);
+        }
+        
+        /**
+         * Compare the previous and current article manifests, write out the changes, and
+         * update our counters with the number of added, changed and deleted articles.
+         */
+        public void writeChanges(File previousManifest, File currentManifest, File changesFile) throws IOException {
+            Map<Change, Integer> changes = ArticleManifest.writeChanges(previousManifest, currentManifest, changesFile);
+            
+            synchronized (this) {
+                _counters.put(ADDED_PAGE_COUNTER, changes.get(Change.ADDED));
+                _counters.put(CHANGED_PAGE_COUNTER, changes.get(Change.CHANGED));
+                _counters.put(RENAMED_PAGE_COUNTER, changes.get(Change.RENAMED));
+                _counters.put(DELETED_PAGE_COUNTER, changes.get(Change.DELETED));
+            }
+        }
+        
+        /**
+         * Write out stats for all of the part files, sorted by file name.
+         * 
+         * @return number of part files.
+         */
+        public int writeManifest(File manifestFile) throws IOException {
+            _manifest.write(manifestFile);
+            return _manifest.size();
+        }
+        
+        public PartManifest getManifest() {
+            return _manifest;
+        }
+        
+        private static File getSpillDir(WikiDumpOptions options) {
+            if (options.getMetadataDirname() == null) {
+                return new File(FileUtils.getTempDirectory(), SPILL_DIRNAME);
+            } else {
+                return new File(options.getMetadataDirname(), SPILL_DIRNAME);
+            }
+        }
+        
+        /**
+         * Save a metadata entry. Subclasses can override this to send metadata somewhere
+         * other than our sorted spill files.
+         * 
+         * @param type One of the xxx_METADATA types
+         * @param key Entry key, e.g. the article name
+         * @param value Entry value, or null if there's only a key
+         */
+        protected void addMetadata(String type, String key, String value) {
+            try {
+                getMetadataWriter(type).add(key, value);
+            } catch (IOException e) {
+                LOGGER.error("Exception saving metadata for " + key, e);
+                incrementCounter(EXCEPTION_COUNTER);
+                addException(e);
+            }
         }
         
-        public Map<String, String> getRedirects() {
-            return _redirects;
+        private SortedSpillWriter getMetadataWriter(String type) {
+            switch (type) {
+                case CATEGORIES_METADATA:
+                    return _categories;
+                case REDIRECTS_METADATA:
+                    return _redirects;
+                case DISAMBIGS_METADATA:
+                    return _disambigs;
+                case ARTICLES_METADATA:
+                    return _articles;
+                case TEMPLATES_METADATA:
+                    return _templates;
+                default:
+                    throw new IllegalArgumentException("Unknown metadata type: " + type);
+            }
         }
         
-        public Set<String> getDisambigs() {
-            return _disambigs;
+        /**
+         * Add the counters, metadata and exceptions from <other> to this filter. This
+         * is used to combine the results of filters that processed separate parts of
+         * the same dump.
+         * 
+         * @param other filter with results to add to ours.
+         */
+        public void merge(WikiDumpFilter other) throws IOException {
+            for (String counter : other._counters.keySet()) {
+                Integer curCount = _counters.get(counter);
+                _counters.put(counter, other._counters.get(counter) + (curCount == null ? 0 : curCount));
+            }
+            
+            _categories.merge(other._categories);
+            _redirects.merge(other._redirects);
+            _disambigs.merge(other._disambigs);
+            _articles.merge(other._articles);
+            _templates.merge(other._templates);
+            _manifest.merge(other._manifest);
+            
+            for (Exception e : other._exceptions) {
+                addException(e);
+            }
         }
         
-        private void addException(IOException e) {
+        // Synchronized for the same reason as incrementCounter().
+        private synchronized void addException(Exception e) {
             if (_exceptions.size() < 100) {
                 _exceptions.add(e);
             }
         }
 
-        private BufferedWriter makePartFileWriter() throws IOException {
-            File f = new File(_outputDir, String.format("part-%03d.%s", _curPart, _compressPartFiles ? "gz" : "txt"));
-            LOGGER.info("Writing to new part file: " + f);
-            OutputStream os = new FileOutputStream(f);
+        private void openPartFile() throws IOException {
+            String extension;
+            if (_format == PartFileFormat.BINARY) {
+                extension = "bin";
+            } else {
+                extension = _compressPartFiles ? "gz" : "txt";
+            }
             
-            if (_compressPartFiles) {
-                os = new GZIPOutputStream(os);
+            _partFile = new File(_outputDir, String.format("part-%s%03d.%s", _partPrefix, _curPart, extension));
+            LOGGER.info("Writing to new part file: " + _partFile);
+            OutputStream os = new FileOutputStream(_partFile);
+            
+            if (_format == PartFileFormat.BINARY) {
+                // Binary files do their own (block) compression.
+                _recordWriter = new ArticleRecordWriter(new BufferedOutputStream(os), _compressPartFiles);
+            } else {
+                if (_compressPartFiles) {
+                    os = new GZIPOutputStream(os);
+                }
+                
+                _partStream = new BufferedOutputStream(os);
             }
+        }
+        
+        /**
+         * Close the current part file, add it to the manifest, and move on to the next part.
+         * 
+         * @param stats Stats for the pages in the part, collected by classify()
+         */
+        private void finishPartFile(PartManifest.Part stats) throws IOException {
+            closePartFile();
+            
+            stats.setName(_partFile.getName());
+            stats.setNumBytes(_partFile.length());
+            _manifest.add(stats);
             
-            return new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+            _partFile = null;
+            _curPart += 1;
+        }
+        
+        private void closePartFile() throws IOException {
+            if (_recordWriter != null) {
+                _recordWriter.close();
+                _recordWriter = null;
+            }
+            
+            if (_partStream != null) {
+                _partStream.close();
+                _partStream = null;
+            }
         }
     }
     
-    private static class WikiDumpOptions {
+    public static class WikiDumpOptions {
         private boolean _debug = false;
         private boolean _compress = false;
+        private boolean _pipelined = false;
+        private boolean _staxParser = false;
         
         private String _inputFile;
+        private String _multistreamIndex;
+        private boolean _mapped = false;
+        private boolean _parallelBZip2 = false;
+        private int _rangeSize = MappedDumpParser.DEFAULT_RANGE_SIZE;
+        private int _numThreads = Runtime.getRuntime().availableProcessors();
+        private int _metricsInterval = IngestMetrics.DEFAULT_LOG_INTERVAL;
         private String _outputDir;
         private String _metadataDirname;
         private int _pagesPerFile = 100000;
+        private long _targetPartSize = 0;
+        private int _linkCost = 0;
         private int _numPages = Integer.MAX_VALUE;
         private float _samplePercent = 1.0f;
+        private PartFileFormat _format = PartFileFormat.TEXT;
+        private int _maxMetadataEntries = SortedSpillWriter.DEFAULT_MAX_ENTRIES;
+        private boolean _resume = false;
+        private String _previousManifest;
+        private boolean _saveTemplates = false;
         
+        @Option(name = "-templates", usage = "save the source of template pages to templates.txt in the metadata directory", required = false)
+        public void setSaveTemplates(boolean saveTemplates) {
+            _saveTemplates = saveTemplates;
+        }
+
+        public boolean isSaveTemplates() {
+            return _saveTemplates;
+        }
+        
+        @Option(name = "-resume", usage = "resume from the checkpoint saved by a previous (failed) run", required = false)
+        public void setResume(boolean resume) {
+            _resume = resume;
+        }
+
+        public boolean isResume() {
+            return _resume;
+        }
+        
+        @Option(name = "-previousmanifest", usage = "path to articles.txt from a previous run, to only output new and changed articles", required = false)
+        public void setPreviousManifest(String previousManifest) {
+            _previousManifest = previousManifest;
+        }
+
+        public String getPreviousManifest() {
+            return _previousManifest;
+        }
+        
+        @Option(name = "-maxmetadataentries", usage = "max number of category/redirect/disambiguation entries to keep in memory", required = false)
+        public void setMaxMetadataEntries(int maxMetadataEntries) {
+            _maxMetadataEntries = maxMetadataEntries;
+        }
+
+        public int getMaxMetadataEntries() {
+            return _maxMetadataEntries;
+        }
+
+        @Option(name = "-format", usage = "part file format (text or binary)", required = false)
+        public void setFormat(String format) {
+            _format = PartFileFormat.fromName(format);
+        }
+
+        public PartFileFormat getFormat() {
+            return _format;
+        }
+
         @Option(name = "-samplepercent", usage = "sample percentage (e.g. 10.0 for 10%)", required = false)
         public void setSamplePercent(float samplePercent) {
             _samplePercent = samplePercent / 100.0f;
@@ -531,6 +1628,24 @@ public class WikiDumpTool {
             return _compress;
         }
 
+        @Option(name = "-pipeline", usage = "classify, encode and write pages in separate threads", required = false)
+        public void setPipelined(boolean pipelined) {
+            _pipelined = pipelined;
+        }
+
+        public boolean isPipelined() {
+            return _pipelined;
+        }
+
+        @Option(name = "-staxparser", usage = "use the streaming parser, which skips the text of pages that are only counted", required = false)
+        public void setStaxParser(boolean staxParser) {
+            _staxParser = staxParser;
+        }
+
+        public boolean isStaxParser() {
+            return _staxParser;
+        }
+
         @Option(name = "-numpages", usage = "number of pages to output", required = false)
         public void setNumPages(int numPages) {
             _numPages = numPages;
@@ -549,6 +1664,24 @@ public class WikiDumpTool {
             return _pagesPerFile;
         }
 
+        @Option(name = "-targetpartsize", usage = "target size of part files, as estimated processing cost (characters of text, plus link cost)", required = false)
+        public void setTargetPartSize(long targetPartSize) {
+            _targetPartSize = targetPartSize;
+        }
+
+        public long getTargetPartSize() {
+            return _targetPartSize;
+        }
+
+        @Option(name = "-linkcost", usage = "estimated processing cost of each link, in characters, for -targetpartsize", required = false)
+        public void setLinkCost(int linkCost) {
+            _linkCost = linkCost;
+        }
+
+        public int getLinkCost() {
+            return _linkCost;
+        }
+
         @Option(name = "-inputfile", usage = "path to Wikipedia dump file", required = true)
         public void setInputFile(String inputFile) {
             _inputFile = inputFile;
@@ -558,6 +1691,60 @@ public class WikiDumpTool {
             return _inputFile;
         }
 
+        @Option(name = "-multistreamindex", usage = "path to index file for a multistream dump, enables parallel processing", required = false)
+        public void setMultistreamIndex(String multistreamIndex) {
+            _multistreamIndex = multistreamIndex;
+        }
+
+        public String getMultistreamIndex() {
+            return _multistreamIndex;
+        }
+
+        @Option(name = "-mapped", usage = "memory-map an uncompressed dump, and process byte ranges in parallel", required = false)
+        public void setMapped(boolean mapped) {
+            _mapped = mapped;
+        }
+
+        public boolean isMapped() {
+            return _mapped;
+        }
+
+        @Option(name = "-parallelbzip2", usage = "decompress the blocks of a bzip2 dump in parallel", required = false)
+        public void setParallelBZip2(boolean parallelBZip2) {
+            _parallelBZip2 = parallelBZip2;
+        }
+
+        public boolean isParallelBZip2() {
+            return _parallelBZip2;
+        }
+
+        @Option(name = "-rangesize", usage = "target size in bytes of each range of a memory-mapped dump", required = false)
+        public void setRangeSize(int rangeSize) {
+            _rangeSize = rangeSize;
+        }
+
+        public int getRangeSize() {
+            return _rangeSize;
+        }
+
+        @Option(name = "-threads", usage = "number of threads to use for processing a multistream or memory-mapped dump, or for bzip2 decompression", required = false)
+        public void setNumThreads(int numThreads) {
+            _numThreads = numThreads;
+        }
+
+        public int getNumThreads() {
+            return _numThreads;
+        }
+
+        @Option(name = "-metricsinterval", usage = "seconds between logging throughput stats, or 0 to disable", required = false)
+        public void setMetricsInterval(int metricsInterval) {
+            _metricsInterval = metricsInterval;
+        }
+
+        public int getMetricsInterval() {
+            return _metricsInterval;
+        }
+
         @Option(name = "-outputdir", usage = "path to directory for part-xxx results", required = true)
         public void setOutputDir(String outputDir) {
             _outputDir = outputDir;
@@ -0,0 +1,134 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ArticleRecordTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        checkRoundTrip(false, ArticleRecordWriter.DEFAULT_BLOCK_SIZE);
+        checkRoundTrip(true, ArticleRecordWriter.DEFAULT_BLOCK_SIZE);
+    }
+
+    @Test
+    public void testMultipleBlocks() throws Exception {
+        // Small block size so that we get many blocks, including ones with
+        // a single record that's bigger than the block size.
+        checkRoundTrip(false, 100);
+        checkRoundTrip(true, 100);
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ArticleRecordWriter writer = new ArticleRecordWriter(baos, true);
+        writer.close();
+
+        ArticleRecordReader reader = new ArticleRecordReader(new ByteArrayInputStream(baos.toByteArray()));
+        assertFalse(reader.next(new ArticleRecord()));
+        reader.close();
+    }
+
+    @Test
+    public void testInvalidFile() throws Exception {
+        try {
+            new ArticleRecordReader(new ByteArrayInputStream("title\tdGV4dA==\n".getBytes("UTF-8")));
+            fail("Should have thrown exception");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSplits() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ArticleRecordWriter writer = new ArticleRecordWriter(baos, true, 500);
+        for (int i = 0; i < 200; i++) {
+            writer.write(makeTitle(i), i, makeText(i % 20));
+        }
+
+        writer.close();
+        byte[] data = baos.toByteArray();
+
+        // Include split sizes that put split points inside the file header, and
+        // ones that are smaller than a block.
+        for (int splitSize : new int[] {7, 100, 1000, 5000, data.length}) {
+            List<Long> pageIds = new ArrayList<>();
+            for (long start = 0; start < data.length; start += splitSize) {
+                readSplit(data, start, Math.min(start + splitSize, data.length), pageIds);
+            }
+
+            assertEquals("Split size " + splitSize, 200, pageIds.size());
+            for (int i = 0; i < 200; i++) {
+                assertEquals("Split size " + splitSize, i, (long)pageIds.get(i));
+            }
+        }
+    }
+
+    private void readSplit(byte[] data, long start, long end, List<Long> pageIds) throws IOException {
+        ArticleRecordReader reader = new ArticleRecordReader(new ByteArrayInputStream(data));
+        assertTrue(reader.isSplittable());
+
+        if (start > 0) {
+            reader.seek(Math.max(start, reader.getPosition()));
+            if (!reader.sync()) {
+                reader.close();
+                return;
+            }
+        }
+
+        reader.setEnd(end);
+
+        ArticleRecord record = new ArticleRecord();
+        while (reader.next(record)) {
+            assertEquals(makeTitle((int)record.getPageId()), record.getTitle());
+            pageIds.add(record.getPageId());
+        }
+
+        reader.close();
+    }
+
+    private void checkRoundTrip(boolean compress, int blockSize) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ArticleRecordWriter writer = new ArticleRecordWriter(baos, compress, blockSize);
+
+        for (int i = 0; i < 50; i++) {
+            writer.write(makeTitle(i), i, makeText(i));
+        }
+
+        writer.close();
+
+        ArticleRecordReader reader = new ArticleRecordReader(new ByteArrayInputStream(baos.toByteArray()));
+        ArticleRecord record = new ArticleRecord();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(reader.next(record));
+            assertEquals(makeTitle(i), record.getTitle());
+            assertEquals(i, record.getPageId());
+            assertEquals(makeText(i), record.getText());
+        }
+
+        assertFalse(reader.next(record));
+        reader.close();
+    }
+
+    private String makeTitle(int i) {
+        return "Título " + i;
+    }
+
+    private String makeText(int i) {
+        StringBuilder result = new StringBuilder();
+        for (int j = 0; j < i; j++) {
+            result.append("'''Text''' with [[links]] and ünïcödé\n");
+        }
+
+        return result.toString();
+    }
+}
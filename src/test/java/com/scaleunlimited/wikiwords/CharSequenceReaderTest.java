@@ -0,0 +1,36 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class CharSequenceReaderTest {
+
+    @Test
+    public void testSegments() throws Exception {
+        StringBuilder builder = new StringBuilder("0123456789");
+        CharSequenceReader reader = new CharSequenceReader();
+        reader.add("<a>").add(builder, 2, 5).add(builder, 5, 5).add("").add(builder, 8, 10).add("</a>");
+        assertEquals("<a>23489</a>", IOUtils.toString(reader));
+        assertEquals(-1, reader.read());
+        
+        // Reading one character at a time has to cross segment boundaries.
+        reader.clear();
+        reader.add("ab").add(builder, 0, 1).add(new StringBuffer("cd"));
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[1];
+        while (reader.read(buffer, 0, 1) != -1) {
+            result.append(buffer[0]);
+        }
+        
+        assertEquals("ab0cd", result.toString());
+    }
+    
+    @Test
+    public void testEmpty() throws Exception {
+        CharSequenceReader reader = new CharSequenceReader();
+        assertEquals(-1, reader.read());
+        assertEquals(0, reader.read(new char[10], 0, 0));
+    }
+}
@@ -0,0 +1,48 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DistanceWeightingTest {
+
+    @Test
+    public void testSymmetric() throws Exception {
+        for (DistanceWeighting weighting : DistanceWeighting.values()) {
+            assertEquals(1.0f, weighting.getWeight(0, 0.1f), 0.0001f);
+            
+            for (int distance = 1; distance < 20; distance++) {
+                assertEquals(weighting.getWeight(distance, 0.1f), weighting.getWeight(-distance, 0.1f), 0.0f);
+                assertTrue(weighting.getWeight(distance, 0.1f) <= weighting.getWeight(distance - 1, 0.1f));
+            }
+        }
+    }
+
+    @Test
+    public void testCutoff() throws Exception {
+        float[] weights = DistanceWeighting.LINEAR.getWeights(100, 0.1f, 0.05f);
+        assertEquals(10, weights.length);
+        assertEquals(1.0f, weights[0], 0.0001f);
+        assertEquals(0.1f, weights[9], 0.0001f);
+        
+        // Max distance is inclusive.
+        assertEquals(6, DistanceWeighting.FLAT.getWeights(5, 0.1f, 0.05f).length);
+        
+        weights = DistanceWeighting.EXPONENTIAL.getWeights(100, 0.5f, 0.1f);
+        assertEquals(5, weights.length);
+        assertTrue(weights[4] >= 0.1f);
+        assertTrue(DistanceWeighting.EXPONENTIAL.getWeight(5, 0.5f) < 0.1f);
+    }
+    
+    @Test
+    public void testFromName() throws Exception {
+        assertEquals(DistanceWeighting.EXPONENTIAL, DistanceWeighting.fromName("exponential"));
+        
+        try {
+            DistanceWeighting.fromName("cubic");
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TemplateCacheTest {
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        TemplateCache cache = new TemplateCache(10000);
+        
+        assertFalse(cache.contains("convert|5|km"));
+        cache.put("convert|5|km", "");
+        cache.put("unknown", null);
+        
+        assertTrue(cache.contains("convert|5|km"));
+        assertEquals("", cache.get("convert|5|km"));
+        assertTrue(cache.contains("unknown"));
+        assertNull(cache.get("unknown"));
+        
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        // Room for about three small entries.
+        TemplateCache cache = new TemplateCache(250);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        assertEquals(3, cache.getNumEntries());
+        
+        // Use "a", so "b" is the least recently used.
+        assertTrue(cache.contains("a"));
+        cache.put("d", "4");
+        assertEquals(3, cache.getNumEntries());
+        assertEquals(1, cache.getEvictions());
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("a"));
+        
+        // A big entry pushes out everything else, and one that's too big isn't cached.
+        cache.put("e", new String(new char[150]));
+        assertEquals(1, cache.getNumEntries());
+        assertTrue(cache.getSize() <= 250);
+        
+        cache.put("f", new String(new char[250]));
+        assertFalse(cache.contains("f"));
+        assertTrue(cache.contains("e"));
+    }
+
+    @Test
+    public void testWikiTemplatesCache() throws Exception {
+        WikiTemplates templates = new WikiTemplates();
+        templates.setCacheSize(10000);
+        
+        for (int i = 0; i < 3; i++) {
+            assertEquals(" [http://en.wikipedia.org/wiki/Some_article Some article] ", templates.convertToMarkup("main|Some article"));
+            assertNull(templates.convertToMarkup("not a template"));
+        }
+        
+        assertEquals(4, templates.getCacheHits());
+        assertEquals(2, templates.getCacheMisses());
+        
+        templates.setCacheSize(0);
+        assertEquals("1900", templates.convertToMarkup("currentyear"));
+        assertEquals(0, templates.getCacheHits());
+    }
+}
@@ -0,0 +1,125 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TemplateExpanderTest {
+
+    @Test
+    public void testParameters() throws Exception {
+        TemplateStore store = new TemplateStore();
+        store.add("Greeting", "Hello {{{1}}}, from {{{from|nobody}}}{{{missing}}}");
+        store.add("Link", "[[{{{1}}}|{{{2|{{{1}}}}}}]]");
+        TemplateExpander expander = new TemplateExpander(store);
+        
+        assertEquals("Hello  World , from nobody", expander.expand("greeting| World "));
+        assertEquals("Hello World, from me", expander.expand("Greeting|World| from = me "));
+        assertEquals("[[Some article|Some article]]", expander.expand("link|Some article"));
+        assertEquals("[[Some article|text]]", expander.expand("Template:Link|Some article|text"));
+        assertNull(expander.expand("unknown|arg"));
+    }
+
+    @Test
+    public void testNestedTemplates() throws Exception {
+        TemplateStore store = new TemplateStore();
+        store.add("Outer", "<{{inner|{{{1}}}|b=[[x|y]]}}>");
+        store.add("Inner", "{{{1}}}-{{{b}}}{{unknown}}");
+        store.add("Redirect", "#REDIRECT [[Template:Outer]]");
+        store.add("Recursive", "x{{recursive}}");
+        store.add("Dynamic", "{{{{{1}}}|dynamic}}");
+        TemplateExpander expander = new TemplateExpander(store, 3);
+        
+        assertEquals("<a-[[x|y]]>", expander.expand("outer|a"));
+        assertEquals("<a-[[x|y]]>", expander.expand("redirect|a"));
+        assertEquals("xxx", expander.expand("recursive"));
+        assertEquals("<dynamic-[[x|y]]>", expander.expand("dynamic|outer"));
+    }
+
+    @Test(timeout = 10000)
+    public void testUnclosedBraces() throws Exception {
+        TemplateStore store = new TemplateStore();
+        store.add("B", "b");
+        store.add("Broken", "a {{x {{{y {{b}} {{{1}}} c");
+        
+        // A long run of unclosed braces, which has to be parsed in linear time.
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            source.append(i % 3 == 0 ? "{{{x " : "{{x ");
+        }
+        
+        store.add("Unclosed", source.toString() + "{{b}}");
+        TemplateExpander expander = new TemplateExpander(store);
+        
+        assertEquals("a {{x {{{y b 1 c", expander.expand("broken|1"));
+        assertEquals(source.toString() + "b", expander.expand("unclosed"));
+    }
+
+    @Test(timeout = 10000)
+    public void testExpansionLimit() throws Exception {
+        TemplateStore store = new TemplateStore();
+        store.add("Repeat", "{{{1}}}{{{1}}}{{{1}}}{{{1}}}{{{1}}}{{{1}}}{{{1}}}{{{1}}}{{{1}}}{{{1}}}");
+        TemplateExpander expander = new TemplateExpander(store);
+        
+        assertEquals("xxxxxxxxxx", expander.expand("repeat|x"));
+        assertEquals(1000, expander.expand("repeat|{{repeat|{{repeat|x}}}}").length());
+        
+        // Without a limit, this would be 10^10 chars. Values of arguments count against
+        // the limit too, so we can't say how much of the result we'll get.
+        String nested = "x";
+        for (int i = 0; i < 10; i++) {
+            nested = "{{repeat|" + nested + "}}";
+        }
+        
+        String result = expander.expand(nested.substring(2, nested.length() - 2));
+        assertTrue(result.length() <= TemplateExpander.MAX_EXPANSION_LENGTH);
+        
+        // The limit is per expansion.
+        assertEquals("xxxxxxxxxx", expander.expand("repeat|x"));
+    }
+
+    @Test
+    public void testParserFunctions() throws Exception {
+        TemplateStore store = new TemplateStore();
+        store.add("If", "{{#if: {{{1|}}} | yes {{{1}}} | no }}");
+        store.add("Ifeq", "{{#ifeq: {{{1}}} | a | same | different }}");
+        store.add("Switch", "{{#switch: {{{1}}} | a = first | b | c = second | #default = other }}");
+        store.add("Case", "{{lc:ABC}} {{uc:abc}} {{ucfirst:abc}} {{lcfirst:ABC}}{{!}}{{#invoke:Module|main}}");
+        TemplateExpander expander = new TemplateExpander(store);
+        
+        assertEquals("yes x", expander.expand("if|x"));
+        assertEquals("no", expander.expand("if"));
+        assertEquals("same", expander.expand("ifeq|a"));
+        assertEquals("different", expander.expand("ifeq|b"));
+        assertEquals("first", expander.expand("switch|a"));
+        assertEquals("second", expander.expand("switch|b"));
+        assertEquals("other", expander.expand("switch|d"));
+        assertEquals("abc ABC Abc aBC|", expander.expand("case"));
+        assertEquals("yes", expander.expand("#if: x | yes | no"));
+    }
+
+    @Test
+    public void testWikiTemplates() throws Exception {
+        TemplateStore store = new TemplateStore();
+        store.add("Birth place", "born in [[{{{1}}}]]");
+        store.add("Citation needed", "[citation needed]");
+        
+        WikiTemplates templates = new WikiTemplates();
+        templates.setExpander(new TemplateExpander(store));
+        WikitextTermExtractor extractor = new WikitextTermExtractor(templates);
+        
+        // Rules win over expansion, so the citation is still ignored.
+        extractor.extract("Title", "Someone {{Birth place|Paris}}{{citation needed}}.");
+        assertEquals(Arrays.asList("title", "someone", "born", "in", "paris"), extractor.getTerms());
+        assertEquals("Paris@4", extractor.getArticleLinks().get(0).toString());
+        
+        // Templates in the output of a template aren't expanded again, so this doesn't loop.
+        store.add("((", "{{");
+        store.add("))", "}}");
+        store.add("Loop", "{{((}}loop{{))}}");
+        extractor.extract("Title", "Some {{loop}} text");
+        assertEquals(Arrays.asList("title", "some", "loop", "text"), extractor.getTerms());
+    }
+}
@@ -0,0 +1,36 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class TemplateStoreTest {
+
+    @Test
+    public void testNormalizeName() throws Exception {
+        assertEquals("citation needed", TemplateStore.normalizeName(" Citation_needed "));
+        assertEquals("citation needed", TemplateStore.normalizeName("Template:Citation  needed"));
+        assertEquals("lang-fr", TemplateStore.normalizeName("Lang-fr"));
+    }
+
+    @Test
+    public void testCleanSource() throws Exception {
+        assertEquals("Hello {{{1}}}", TemplateStore.cleanSource("Hello <!-- comment -->{{{1}}}<noinclude>\n{{Documentation}}</noinclude>"));
+        assertEquals("Shown only when included", TemplateStore.cleanSource("<includeonly>Shown only when included</includeonly><noinclude>Docs"));
+        assertEquals("ab", TemplateStore.cleanSource("Docs <onlyinclude>a</onlyinclude> more docs <ONLYINCLUDE>b</ONLYINCLUDE>"));
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        String lines = String.format("convert\t%s\nflag\t%s\n", TemplateStore.encodeSource("{{{1}}} {{{2}}}"), TemplateStore.encodeSource("Français\n|x"));
+        TemplateStore store = TemplateStore.read(new ByteArrayInputStream(lines.getBytes(Charset.forName("UTF-8"))));
+        
+        assertEquals(2, store.size());
+        assertEquals("{{{1}}} {{{2}}}", store.getSource("convert"));
+        assertEquals("Français\n|x", store.getSource("flag"));
+        assertNull(store.getSource("missing"));
+    }
+}
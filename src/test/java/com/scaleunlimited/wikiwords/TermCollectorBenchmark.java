@@ -0,0 +1,76 @@
+package com.scaleunlimited.wikiwords;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of collecting the terms for one article, with a TermCollector that's
+ * reused between articles (as in the GenerateTermsFlow). Run it via "ant benchmark", or
+ * the main() method, which adds the GC profiler. The gc.alloc.rate.norm result is the
+ * number of bytes allocated per article.
+ *
+ * The article is 300 runs of text, each followed by a link, which is typical of the
+ * bigger articles in a dump.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermCollectorBenchmark {
+
+    private static final int LINKS_PER_ARTICLE = 300;
+
+    private static final String TEXT = " The quick, brown fox (jumped) over 12 lazy dogs; isn't \"it\" grand. ";
+
+    @Param({"simple", "english"})
+    private String _analyzer;
+
+    private TermCollector _collector;
+
+    @Setup
+    public void setup() {
+        _collector = new TermCollector(TermAnalyzer.fromName(_analyzer));
+    }
+
+    @Benchmark
+    public List<String> collectArticle() {
+        _collector.reset();
+        _collector.addTitle("Some Article");
+
+        for (int i = 0; i < LINKS_PER_ARTICLE; i++) {
+            _collector.addText(TEXT);
+            _collector.startLink("Target");
+            _collector.addText("Link text");
+            _collector.endLink();
+        }
+
+        _collector.finish();
+        return _collector.getTerms();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(TermCollectorBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
@@ -0,0 +1,57 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TermCollectorTest {
+
+    @Test
+    public void testSimple() throws Exception {
+        TermCollector collector = new TermCollector();
+        collector.reset();
+        collector.addTitle("The Title");
+        collector.addText(" The (quick) brown \"fox\", 12 dogs; it's ");
+        collector.startLink("Some_article");
+        collector.addText("Linked Text");
+        collector.endLink();
+        collector.addText("after");
+        collector.finish();
+        
+        assertEquals(Arrays.asList("the title", "the", "quick", "brown", "fox", "dogs", "it's", "linked text", "after"), collector.getTerms());
+        assertEquals("Some_article@7", collector.getArticleLinks().get(0).toString());
+    }
+
+    @Test
+    public void testAnalyzer() throws Exception {
+        TermCollector collector = new TermCollector(TermAnalyzer.ENGLISH);
+        
+        // Make sure the analyzer's token stream is reset properly when it's reused.
+        for (int i = 0; i < 2; i++) {
+            collector.reset();
+            collector.addTitle("The Title");
+            collector.addText("The quick brown foxes were jumping ");
+            collector.startLink("Some_article");
+            collector.addText("Linked Text");
+            collector.endLink();
+            collector.addText(" over 12 lazy dogs");
+            collector.finish();
+            
+            // Link text and titles are single terms, and aren't stemmed.
+            assertEquals(Arrays.asList("the title", "quick", "brown", "fox", "were", "jump", "linked text", "over", "lazi", "dog"), collector.getTerms());
+            assertEquals("Some_article@6", collector.getArticleLinks().get(0).toString());
+        }
+    }
+    
+    @Test
+    public void testStandardAnalyzer() throws Exception {
+        TermCollector collector = new TermCollector(TermAnalyzer.STANDARD);
+        collector.reset();
+        collector.addText("The (quick) brown \"Fox\", 12 dogs");
+        collector.finish();
+        
+        assertEquals(Arrays.asList("the", "quick", "brown", "fox", "dogs"), collector.getTerms());
+    }
+}
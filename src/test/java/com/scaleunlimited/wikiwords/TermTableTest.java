@@ -0,0 +1,49 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TermTableTest {
+
+    @Test
+    public void testIntern() throws Exception {
+        TermTable table = new TermTable(100000);
+        char[] buffer = "xxtermyytermzz".toCharArray();
+        
+        String term = table.intern(buffer, 2, 4);
+        assertEquals("term", term);
+        assertSame(term, table.intern(buffer, 8, 4));
+        assertEquals(1, table.size());
+        
+        assertEquals("", table.intern(buffer, 0, 0));
+        assertEquals("t", table.intern(buffer, 2, 1));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void testGrowing() throws Exception {
+        TermTable table = new TermTable(100000);
+        String[] terms = new String[10000];
+        for (int i = 0; i < terms.length; i++) {
+            char[] buffer = ("term-" + i).toCharArray();
+            terms[i] = table.intern(buffer, 0, buffer.length);
+        }
+        
+        assertEquals(terms.length, table.size());
+        for (int i = 0; i < terms.length; i++) {
+            char[] buffer = ("term-" + i).toCharArray();
+            assertSame(terms[i], table.intern(buffer, 0, buffer.length));
+        }
+    }
+    
+    @Test
+    public void testMaxTerms() throws Exception {
+        TermTable table = new TermTable(10);
+        for (int i = 0; i < 25; i++) {
+            char[] buffer = ("term-" + i).toCharArray();
+            assertEquals("term-" + i, table.intern(buffer, 0, buffer.length));
+            assertTrue(table.size() <= 10);
+        }
+    }
+}
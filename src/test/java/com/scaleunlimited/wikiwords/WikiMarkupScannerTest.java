@@ -0,0 +1,60 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class WikiMarkupScannerTest {
+
+    @Test
+    public void testTemplateNames() {
+        WikiMarkupScanner scanner = new WikiMarkupScanner();
+        
+        scanner.scan("{{Infobox  person|name={{nowrap|Joe}}}} text {{ Airport\tdisambiguation }} {{{param}}}");
+        assertEquals(Arrays.asList("infobox person", "nowrap", "airport disambiguation", "param"), scanner.getTemplateNames());
+        
+        // Not templates
+        scanner.scan("{{unclosed} {{\n}} {{}} {{ | x}}");
+        assertTrue(scanner.getTemplateNames().isEmpty());
+    }
+    
+    @Test
+    public void testCategories() {
+        WikiMarkupScanner scanner = new WikiMarkupScanner();
+        
+        scanner.scan("[[Category:Radar stations|Sort key]] [[link]] [[category:Cold War]] [[Category:Broken\n]] [[Category:]]");
+        assertEquals(Arrays.asList("Radar stations", "Cold War"), scanner.getCategories());
+        assertNull(scanner.getRedirect());
+    }
+    
+    @Test
+    public void testLinks() {
+        WikiMarkupScanner scanner = new WikiMarkupScanner();
+        
+        scanner.scan("[[link]] and [[other|text]] [[Category:Not a link]] [[File:x.jpg|[[nested]]]]");
+        assertEquals(4, scanner.getNumLinks());
+        
+        scanner.scan("#REDIRECT [[Target]]");
+        assertEquals(0, scanner.getNumLinks());
+    }
+    
+    @Test
+    public void testRedirect() {
+        WikiMarkupScanner scanner = new WikiMarkupScanner();
+        
+        scanner.scan("#REDIRECT [[Target page#Section]] [[Category:Redirects]]");
+        assertEquals("Target page", scanner.getRedirect());
+        assertEquals(Arrays.asList("Redirects"), scanner.getCategories());
+        
+        // Only the first valid directive counts.
+        scanner.scan("#redirect nothing\n#REDIRECT :: \n[[First]]\n#REDIRECT [[Second]]");
+        assertEquals("First", scanner.getRedirect());
+        
+        // Scanner state is reset for each page.
+        scanner.scan("No directive here");
+        assertNull(scanner.getRedirect());
+        assertTrue(scanner.getCategories().isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class WikiTemplatesTest {
+
+    @Test
+    public void testRules() throws Exception {
+        WikiTemplates templates = new WikiTemplates(Arrays.asList(
+                        "# Comment",
+                        "exact => ignore",
+                        "cite .+ => constant:prefix",
+                        ".+-stub => constant:suffix # comment",
+                        "lang-.. => constant:regex",
+                        "cite web-stub => constant:exact",
+                        "see => alias:see also",
+                        "see also => alias:further",
+                        "further => articles"));
+        
+        assertEquals("", templates.convertToMarkup("Exact"));
+        assertEquals("prefix", templates.convertToMarkup("cite web|title=Something"));
+        assertEquals("suffix", templates.convertToMarkup("bio-stub"));
+        assertEquals("regex", templates.convertToMarkup("lang-fr|Texte"));
+        assertNull(templates.convertToMarkup("lang-fra"));
+        
+        // Both .+ rules need at least one other character.
+        assertNull(templates.convertToMarkup("cite "));
+        assertNull(templates.convertToMarkup("-stub"));
+
+        // First matching rule wins, even if a later one is exact.
+        assertEquals("prefix", templates.convertToMarkup("cite web-stub"));
+        
+        // Aliases are followed, and the result is cached.
+        assertEquals(" [http://en.wikipedia.org/wiki/Some_article Some article] ", templates.convertToMarkup("see|Some article"));
+        assertEquals(" [http://en.wikipedia.org/wiki/Other Other] ", templates.convertToMarkup("see|Other"));
+        
+        assertNull(templates.convertToMarkup("unknown template"));
+        assertNull(templates.convertToMarkup("unknown template"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAliasLoop() throws Exception {
+        new WikiTemplates(Arrays.asList(
+                        "see => alias:see also",
+                        "see also => alias:see"));
+    }
+
+    @Test
+    public void testDefaultRules() throws Exception {
+        WikiTemplates templates = new WikiTemplates();
+        
+        assertEquals("", templates.convertToMarkup("citation needed|date=May 2014"));
+        assertEquals("", templates.convertToMarkup("infobox person|name=Someone"));
+        assertEquals("", templates.convertToMarkup("physics-stub"));
+        assertEquals("", templates.convertToMarkup("fr icon"));
+        assertEquals("1900", templates.convertToMarkup("CURRENTYEAR"));
+        assertEquals(" Philosophy, ", templates.convertToMarkup("portal box|Philosophy"));
+        assertNull(templates.convertToMarkup("election box candidate|name=Someone"));
+    }
+}
@@ -0,0 +1,57 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WikitextTermExtractorTest {
+
+    @Test
+    public void testLinks() throws Exception {
+        WikitextTermExtractor extractor = new WikitextTermExtractor();
+
+        extractor.extract("Title", "Some [[political philosophy]] and [[State (polity)|states]]es, [[Category:Not a link]] [[fr:Pas de lien]] [[Page#Section|section]] [[#Local]].");
+        assertEquals(Arrays.asList("title", "some", "political philosophy", "and", "stateses", "fr:pas de lien", "section"), extractor.getTerms());
+        assertEquals(Arrays.asList("Political_philosophy@2", "State_(polity)@4", "Page@6"), getLinks(extractor));
+    }
+
+    @Test
+    public void testMarkup() throws Exception {
+        WikitextTermExtractor extractor = new WikitextTermExtractor();
+
+        extractor.extract("Title", "== Heading ==\n'''Bold''' and ''italic'' &amp; text<ref>A [[Note]]</ref>{{unknown template|[[Hidden]]}}\n* item<!-- comment -->\n<references/>");
+        assertEquals(Arrays.asList("title", "heading", "bold", "and", "italic", "text", "item", "a", "note"), extractor.getTerms());
+        assertEquals(Arrays.asList("Note@8"), getLinks(extractor));
+    }
+
+    @Test
+    public void testImages() throws Exception {
+        WikitextTermExtractor extractor = new WikitextTermExtractor();
+
+        extractor.extract("Title", "[[File:Photo.jpg|thumb|left|200px|A [[caption]] here]] [[Image:Icon.png|20px|No caption]] after");
+        assertEquals(Arrays.asList("title", "a", "caption", "here", "after"), extractor.getTerms());
+        assertEquals(Arrays.asList("Caption@2"), getLinks(extractor));
+    }
+
+    @Test
+    public void testExternalLinks() throws Exception {
+        WikitextTermExtractor extractor = new WikitextTermExtractor();
+
+        extractor.extract("Title", "See [http://example.com the site] or [http://example.com], http://bare.com/x. ISBN 0-85345-175-3");
+        assertEquals(Arrays.asList("title", "see", "the site", "or", "http://bare.com/x", "isbn 0-85345-175-3"), extractor.getTerms());
+        assertTrue(extractor.getArticleLinks().isEmpty());
+    }
+
+    private static List<String> getLinks(TermExtractor extractor) {
+        List<String> result = new ArrayList<>();
+        for (ArticleLinkPosition link : extractor.getArticleLinks()) {
+            result.add(link.toString());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,111 @@
+package com.scaleunlimited.wikiwords;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class XMLPageReaderTest {
+
+    private static final File DUMP_FILE = new File("src/test/resources/enwiki-snippet.xml");
+
+    @Test
+    public void testReadPages() throws Exception {
+        List<String> pages = readPages(new ByteArrayInputStream(FileUtils.readFileToByteArray(DUMP_FILE)));
+        assertEquals(50, pages.size());
+        for (String page : pages) {
+            assertTrue(page.startsWith("<page>"));
+            assertTrue(page.endsWith("</page>"));
+            assertEquals(1, page.split("<title>").length - 1);
+        }
+    }
+
+    @Test
+    public void testSplits() throws Exception {
+        byte[] data = FileUtils.readFileToByteArray(DUMP_FILE);
+        List<Long> expected = readPageStarts(data, 0, data.length);
+        assertEquals(50, expected.size());
+
+        // Every page should be read by exactly one split, whatever the split size.
+        for (int splitSize : new int[] {100, 999, 10000, data.length / 3, data.length}) {
+            List<Long> pageStarts = new ArrayList<>();
+            for (int start = 0; start < data.length; start += splitSize) {
+                pageStarts.addAll(readPageStarts(data, start, Math.min(data.length, start + splitSize)));
+            }
+
+            assertEquals("Split size " + splitSize, expected, pageStarts);
+        }
+    }
+
+    @Test
+    public void testReadHeader() throws Exception {
+        String header = XMLPageReader.readHeader(new ByteArrayInputStream(FileUtils.readFileToByteArray(DUMP_FILE)));
+        assertTrue(header.startsWith("<mediawiki"));
+        assertTrue(header.trim().endsWith("</siteinfo>"));
+        assertFalse(header.contains("<page>"));
+    }
+
+    @Test
+    public void testMultistreamBZip2() throws Exception {
+        byte[] data = FileUtils.readFileToByteArray(DUMP_FILE);
+
+        // Compress the dump as a series of independent bzip2 streams.
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int streamSize = data.length / 4;
+        for (int start = 0; start < data.length; start += streamSize) {
+            BZip2CompressorOutputStream bzos = new BZip2CompressorOutputStream(baos);
+            bzos.write(data, start, Math.min(streamSize, data.length - start));
+            bzos.finish();
+        }
+
+        List<String> expected = readPages(new ByteArrayInputStream(data));
+        assertEquals(expected, readPages(XMLPageReader.decompress(new ByteArrayInputStream(baos.toByteArray()))));
+    }
+
+    @Test
+    public void testTruncatedPage() throws Exception {
+        XMLPageReader reader = new XMLPageReader(new ByteArrayInputStream("<mediawiki><page><title>x</title>".getBytes("UTF-8")));
+        try {
+            reader.next();
+            fail("Should have thrown exception");
+        } catch (EOFException e) {
+            // expected
+        }
+
+        reader.close();
+    }
+
+    private static List<String> readPages(InputStream is) throws IOException {
+        List<String> result = new ArrayList<>();
+        try (XMLPageReader reader = new XMLPageReader(is)) {
+            while (reader.next()) {
+                result.add(reader.getPage());
+            }
+        }
+
+        return result;
+    }
+
+    private static List<Long> readPageStarts(byte[] data, int start, int end) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (XMLPageReader reader = new XMLPageReader(new ByteArrayInputStream(data, start, data.length - start), start)) {
+            reader.setEnd(end);
+            while (reader.next()) {
+                assertEquals("<page>", new String(data, (int)reader.getPageStart(), 6, "UTF-8"));
+                result.add(reader.getPageStart());
+            }
+        }
+
+        return result;
+    }
+}
@@ -77,4 +77,54 @@ public class XMLPathTest {
         }
     }
 
+    @Test
+    public void testMatchers() {
+        XMLPath path = new XMLPath();
+        XMLPath.Matcher title = path.compile("head/title");
+        XMLPath.Matcher link = path.compile("a");
+        XMLPath.Matcher body = path.compile("/html/body");
+        
+        path.pushNode("html");
+        path.pushNode("head");
+        assertFalse(title.atNode());
+        path.pushNode("title");
+        assertTrue(title.atNode());
+        assertTrue(title.inNode());
+        path.popNode("title");
+        assertFalse(title.atNode());
+        assertFalse(title.inNode());
+        path.popNode("head");
+        
+        path.pushNode("body");
+        assertTrue(body.atNode());
+        path.pushNode("p");
+        assertFalse(body.atNode());
+        assertTrue(body.inNode());
+        
+        path.pushNode("a");
+        assertTrue(link.atNode());
+        path.pushNode("b");
+        assertFalse(link.atNode());
+        assertTrue(link.inNode());
+        
+        // Nested links
+        path.pushNode("a");
+        assertTrue(link.atNode());
+        path.popNode("a");
+        assertTrue(link.inNode());
+        path.popNode("b");
+        path.popNode("a");
+        assertFalse(link.inNode());
+        
+        // Paths compiled after nodes have been pushed still work.
+        XMLPath.Matcher para = path.compile("body/p");
+        assertTrue(para.atNode());
+        assertTrue(path.inNode("/html"));
+        assertFalse(path.atNode("/body/p"));
+        
+        path.clear();
+        assertFalse(para.inNode());
+        assertFalse(body.inNode());
+        assertTrue(path.atNode("/"));
+    }
 }
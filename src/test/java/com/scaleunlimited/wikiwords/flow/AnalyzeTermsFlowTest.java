@@ -2,13 +2,22 @@ package com.scaleunlimited.wikiwords.flow;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Test;
 
 import cascading.flow.Flow;
+import cascading.tap.Tap;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntryIterator;
 
+import com.scaleunlimited.cascading.BasePlatform;
 import com.scaleunlimited.cascading.FlowResult;
 import com.scaleunlimited.cascading.FlowRunner;
 import com.scaleunlimited.wikiwords.WikiwordsCounters;
+import com.scaleunlimited.wikiwords.WorkingConfig;
 import com.scaleunlimited.wikiwords.tools.AnalyzeTermsTool.AnalyzeTermsOptions;
 import com.scaleunlimited.wikiwords.tools.GenerateTermsTool.GenerateTermsOptions;
 
@@ -29,4 +38,88 @@ public class AnalyzeTermsFlowTest {
         // TODO validate results.
     }
 
+    @Test
+    public void testIds() throws Exception {
+        GenerateTermsOptions termsOptions = GenerateTermsFlowTest.generateTerms("build/test/AnalyzeTermsFlowTest/testIds");
+        
+        long numArticles = termsOptions.getCounter(GenerateTermsFlow.class, WikiwordsCounters.ARTICLES);
+        AnalyzeTermsOptions options = new AnalyzeTermsOptions(termsOptions);
+        options.setTotalArticles((int)numArticles);
+        FlowRunner.run(AnalyzeTermsFlow.createFlow(options));
+        List<String> termDF = readResults(options, WorkingConfig.TERMDF_SUBDIR_NAME, false);
+        List<String> termScores = readResults(options, WorkingConfig.TERM_SCORES_SUBDIR_NAME, true);
+        
+        options.setBuildDictionary(true);
+        FlowRunner.run(TermDictionaryFlow.createFlow(options));
+        FlowRunner.run(AnalyzeTermsFlow.createFlow(options));
+        
+        assertFalse(termDF.isEmpty());
+        assertEquals(termDF, readResults(options, WorkingConfig.TERMDF_SUBDIR_NAME, false));
+        assertScoresEqual(termScores, readResults(options, WorkingConfig.TERM_SCORES_SUBDIR_NAME, true));
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        GenerateTermsOptions termsOptions = GenerateTermsFlowTest.generateTerms("build/test/AnalyzeTermsFlowTest/testWeights");
+        
+        long numArticles = termsOptions.getCounter(GenerateTermsFlow.class, WikiwordsCounters.ARTICLES);
+        AnalyzeTermsOptions options = new AnalyzeTermsOptions(termsOptions);
+        options.setTotalArticles((int)numArticles);
+        FlowRunner.run(AnalyzeTermsFlow.createFlow(options));
+        List<String> termDF = readResults(options, WorkingConfig.TERMDF_SUBDIR_NAME, false);
+        List<String> termScores = readResults(options, WorkingConfig.TERM_SCORES_SUBDIR_NAME, true);
+        
+        termsOptions.setCombineSize(1000);
+        FlowRunner.run(GenerateTermsFlow.createFlow(termsOptions));
+        options.setUseWeights(true);
+        FlowRunner.run(AnalyzeTermsFlow.createFlow(options));
+        
+        assertFalse(termDF.isEmpty());
+        assertEquals(termDF, readResults(options, WorkingConfig.TERMDF_SUBDIR_NAME, false));
+        assertScoresEqual(termScores, readResults(options, WorkingConfig.TERM_SCORES_SUBDIR_NAME, true));
+    }
+
+    /**
+     * Term weights are floats, so sums can differ slightly depending on the order of the
+     * values being summed.
+     */
+    private static void assertScoresEqual(List<String> expected, List<String> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            String[] expectedFields = expected.get(i).split("\t");
+            String[] actualFields = actual.get(i).split("\t");
+            assertEquals(expectedFields[0], actualFields[0]);
+            
+            float expectedScore = Float.parseFloat(expectedFields[1]);
+            assertEquals(expectedScore, Float.parseFloat(actualFields[1]), expectedScore / 10000);
+        }
+    }
+
+    /**
+     * Read the results in <subdirName>, sorted so that they don't depend on the order of
+     * the output.
+     * 
+     * @param skipArticle Don't include the article, as which article is picked for the top
+     *        scores of a term can differ when several articles have the same score.
+     */
+    private static List<String> readResults(AnalyzeTermsOptions options, String subdirName, boolean skipArticle) throws Exception {
+        BasePlatform platform = options.getPlatform(AnalyzeTermsFlowTest.class);
+        Tap tap = platform.makeTap(platform.makeTextScheme(), options.getWorkingSubdirPath(subdirName));
+        TupleEntryIterator iter = tap.openForRead(platform.makeFlowProcess());
+        List<String> result = new ArrayList<>();
+        while (iter.hasNext()) {
+            Tuple tuple = iter.next().getTuple();
+            String line = tuple.getString(tuple.size() - 1);
+            if (skipArticle) {
+                String[] fields = line.split("\t");
+                result.add(fields[0] + "\t" + fields[2]);
+            } else {
+                result.add(line);
+            }
+        }
+        
+        iter.close();
+        Collections.sort(result);
+        return result;
+    }
 }
@@ -4,6 +4,9 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
@@ -18,12 +21,16 @@ import com.scaleunlimited.cascading.BasePath;
 import com.scaleunlimited.cascading.BasePlatform;
 import com.scaleunlimited.cascading.FlowResult;
 import com.scaleunlimited.cascading.FlowRunner;
+import com.scaleunlimited.wikiwords.MarkupParser;
+import com.scaleunlimited.wikiwords.PartFileFormat;
 import com.scaleunlimited.wikiwords.WikiwordsCounters;
 import com.scaleunlimited.wikiwords.WorkflowOptions;
 import com.scaleunlimited.wikiwords.WorkingConfig;
 import com.scaleunlimited.wikiwords.datum.WikiTermDatum;
+import com.scaleunlimited.wikiwords.datum.WikiTermWeightDatum;
 import com.scaleunlimited.wikiwords.tools.GenerateTermsTool.GenerateTermsOptions;
 import com.scaleunlimited.wikiwords.tools.WikiDumpTool;
+import com.scaleunlimited.wikiwords.tools.WikiDumpTool.WikiDumpOptions;
 
 public class GenerateTermsFlowTest {
 
@@ -48,7 +55,100 @@ public class GenerateTermsFlowTest {
         assertEquals(15, (long)counters.get(counterName));
     }
 
+    @Test
+    public void testBinaryInput() throws Exception {
+        GenerateTermsOptions options = generateTerms("build/test/GenerateTermsFlowTest/testBinaryInput", PartFileFormat.BINARY);
+        
+        Map<String, Long> counters = options.getCounters(GenerateTermsFlow.class);
+        assertEquals(15, (long)counters.get(WorkflowOptions.getFlowCounterName(WikiwordsCounters.ARTICLES)));
+    }
+
+    @Test
+    public void testParserParity() throws Exception {
+        GenerateTermsOptions htmlOptions = generateTerms("build/test/GenerateTermsFlowTest/testParserParity/html", PartFileFormat.TEXT, MarkupParser.HTML);
+        GenerateTermsOptions wikitextOptions = generateTerms("build/test/GenerateTermsFlowTest/testParserParity/wikitext", PartFileFormat.TEXT, MarkupParser.WIKITEXT);
+        
+        List<String> htmlTerms = readTerms(htmlOptions);
+        List<String> wikitextTerms = readTerms(wikitextOptions);
+        assertFalse(htmlTerms.isEmpty());
+        assertEquals(htmlTerms, wikitextTerms);
+    }
+
+    @Test
+    public void testCombine() throws Exception {
+        GenerateTermsOptions options = generateTerms("build/test/GenerateTermsFlowTest/testCombine");
+        
+        // Sum up what we'd expect from the uncombined terms.
+        BasePlatform platform = options.getPlatform(GenerateTermsFlowTest.class);
+        Tap tap = platform.makeTap(platform.makeBinaryScheme(WikiTermDatum.FIELDS), options.getWorkingSubdirPath(WorkingConfig.TERMS_SUBDIR_NAME));
+        TupleEntryIterator iter = tap.openForRead(platform.makeFlowProcess());
+        WikiTermDatum datum = new WikiTermDatum();
+        long numTerms = 0;
+        double totalWeight = 0;
+        while (iter.hasNext()) {
+            datum.setTupleEntry(iter.next());
+            numTerms += 1;
+            totalWeight += datum.getWeight();
+        }
+        
+        iter.close();
+        
+        // Use a small size, so that we flush several times.
+        options.setCombineSize(100);
+        FlowResult fr = FlowRunner.run(GenerateTermsFlow.createFlow(options));
+        options.saveCounters(GenerateTermsFlow.class, fr.getCounters());
+        
+        tap = platform.makeTap(platform.makeBinaryScheme(WikiTermWeightDatum.FIELDS), options.getWorkingSubdirPath(WorkingConfig.TERM_WEIGHTS_SUBDIR_NAME));
+        iter = tap.openForRead(platform.makeFlowProcess());
+        WikiTermWeightDatum weightDatum = new WikiTermWeightDatum();
+        long numRecords = 0;
+        long numCombinedTerms = 0;
+        double combinedWeight = 0;
+        while (iter.hasNext()) {
+            weightDatum.setTupleEntry(iter.next());
+            numRecords += 1;
+            if (!weightDatum.isArticleCount()) {
+                numCombinedTerms += weightDatum.getCount();
+                combinedWeight += weightDatum.getWeight();
+            }
+        }
+        
+        iter.close();
+        
+        assertTrue(numTerms > 0);
+        assertEquals(numTerms, numCombinedTerms);
+        assertEquals(totalWeight, combinedWeight, 0.01);
+        assertTrue(numRecords < numTerms);
+        assertEquals(numRecords, options.getCounter(GenerateTermsFlow.class, WikiwordsCounters.WIKITERM_WEIGHT));
+    }
+
+    private static List<String> readTerms(GenerateTermsOptions options) throws Exception {
+        BasePlatform platform = options.getPlatform(GenerateTermsFlowTest.class);
+        Tap tap = platform.makeTap(platform.makeBinaryScheme(WikiTermDatum.FIELDS), options.getWorkingSubdirPath(WorkingConfig.TERMS_SUBDIR_NAME));
+        TupleEntryIterator iter = tap.openForRead(platform.makeFlowProcess());
+        WikiTermDatum datum = new WikiTermDatum();
+        List<String> result = new ArrayList<>();
+        while (iter.hasNext()) {
+            datum.setTupleEntry(iter.next());
+            result.add(datum.getTuple().toString());
+        }
+        
+        iter.close();
+        
+        // Order depends on the order that part file lines are read.
+        Collections.sort(result);
+        return result;
+    }
+
     protected static GenerateTermsOptions generateTerms(String testDirname) throws Exception {
+        return generateTerms(testDirname, PartFileFormat.TEXT);
+    }
+    
+    protected static GenerateTermsOptions generateTerms(String testDirname, PartFileFormat format) throws Exception {
+        return generateTerms(testDirname, format, MarkupParser.WIKITEXT);
+    }
+    
+    protected static GenerateTermsOptions generateTerms(String testDirname, PartFileFormat format, MarkupParser parser) throws Exception {
         final String inputDirname = testDirname + "/in";
         File inputDir = new File(inputDirname);
         inputDir.mkdirs();
@@ -58,8 +158,16 @@ public class GenerateTermsFlowTest {
         metadataDir.mkdirs();
         
         // Run WikiDumpTool to generate a file
+        WikiDumpOptions dumpOptions = new WikiDumpOptions();
+        dumpOptions.setInputFile("src/test/resources/enwiki-snippet.xml");
+        dumpOptions.setOutputDir(inputDirname);
+        dumpOptions.setMetadataDirname(metadataDirname);
+        dumpOptions.setPagesPerFile(100);
+        dumpOptions.setNumPages(100);
+        dumpOptions.setFormat(format.name());
+        
         WikiDumpTool tool = new WikiDumpTool();
-        tool.run("src/test/resources/enwiki-snippet.xml", inputDirname, metadataDirname, 100, 100);
+        tool.run(dumpOptions);
         
         // Run our flow, in test mode
         final String workingDirname = testDirname + "/working";
@@ -70,6 +178,8 @@ public class GenerateTermsFlowTest {
         options.setDebug(true);
         options.setMaxDistance(20);
         options.setInputDirname(inputDirname);
+        options.setInputFormat(format.name());
+        options.setParser(parser.name());
         options.setWorkingDirname(workingDirname);
         
         Flow flow = GenerateTermsFlow.createFlow(options);
@@ -0,0 +1,156 @@
+package com.scaleunlimited.wikiwords.flow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import cascading.flow.Flow;
+
+import com.scaleunlimited.cascading.FlowResult;
+import com.scaleunlimited.cascading.FlowRunner;
+import com.scaleunlimited.wikiwords.ArticleManifest;
+import com.scaleunlimited.wikiwords.WikiwordsCounters;
+import com.scaleunlimited.wikiwords.WorkflowOptions;
+import com.scaleunlimited.wikiwords.WorkingConfig;
+import com.scaleunlimited.wikiwords.tools.GenerateTermsTool.GenerateTermsOptions;
+import com.scaleunlimited.wikiwords.tools.IngestDumpTool.IngestDumpOptions;
+import com.scaleunlimited.wikiwords.tools.WikiDumpTool;
+import com.scaleunlimited.wikiwords.tools.WikiDumpTool.WikiDumpOptions;
+import com.scaleunlimited.wikiwords.tools.WikiDumpToolTest;
+
+public class IngestDumpFlowTest {
+
+    private static final String DUMP_FILENAME = "src/test/resources/enwiki-snippet.xml";
+    
+    @Test
+    public void test() throws Exception {
+        final String testDirname = "build/test/IngestDumpFlowTest/test";
+        IngestDumpOptions options = ingestDump(testDirname, DUMP_FILENAME);
+        
+        Map<String, Long> counters = options.getCounters(IngestDumpFlow.class);
+        assertEquals(15, getCounter(counters, WikiDumpTool.MAIN_PAGE_COUNTER));
+        assertEquals(25, getCounter(counters, WikiDumpTool.REDIRECT_PAGE_COUNTER));
+        assertEquals(4, getCounter(counters, WikiDumpTool.FILE_PAGE_COUNTER));
+        assertEquals(3, getCounter(counters, WikiDumpTool.DISAMBIGUATION_PAGE_COUNTER));
+        assertEquals(2, getCounter(counters, WikiDumpTool.CATEGORY_PAGE_COUNTER));
+        
+        // We should get the same part file lines and metadata as the WikiDumpTool.
+        File expectedDir = runWikiDumpTool(testDirname);
+        File workingDir = new File(options.getWorkingDirname());
+        
+        List<String> expectedLines = FileUtils.readLines(new File(expectedDir, "part-000.txt"), "UTF-8");
+        List<String> lines = readLines(new File(workingDir, WorkingConfig.PARTS_SUBDIR_NAME));
+        assertEquals(expectedLines.size(), lines.size());
+        assertTrue(lines.containsAll(expectedLines));
+        
+        File metadataDir = new File(workingDir, WorkingConfig.METADATA_SUBDIR_NAME);
+        assertEquals(FileUtils.readLines(new File(expectedDir, "categories.txt"), "UTF-8"),
+                        readLines(new File(metadataDir, WikiDumpTool.CATEGORIES_METADATA)));
+        assertEquals(FileUtils.readLines(new File(expectedDir, "redirects.txt"), "UTF-8"),
+                        readLines(new File(metadataDir, WikiDumpTool.REDIRECTS_METADATA)));
+        assertEquals(FileUtils.readLines(new File(expectedDir, "disambigs.txt"), "UTF-8"),
+                        readLines(new File(metadataDir, WikiDumpTool.DISAMBIGS_METADATA)));
+        assertEquals(FileUtils.readLines(new File(expectedDir, ArticleManifest.MANIFEST_FILENAME), "UTF-8"),
+                        readLines(new File(metadataDir, WikiDumpTool.ARTICLES_METADATA)));
+        
+        // And the part files can be used directly by GenerateTermsFlow.
+        GenerateTermsOptions termsOptions = new GenerateTermsOptions();
+        termsOptions.setDebug(true);
+        termsOptions.setMaxDistance(20);
+        termsOptions.setInputDirname(new File(workingDir, WorkingConfig.PARTS_SUBDIR_NAME).getPath());
+        termsOptions.setWorkingDirname(workingDir.getPath());
+        
+        Flow flow = GenerateTermsFlow.createFlow(termsOptions);
+        FlowResult fr = FlowRunner.run(flow);
+        termsOptions.saveCounters(GenerateTermsFlow.class, fr.getCounters());
+        assertEquals(15, termsOptions.getCounter(GenerateTermsFlow.class, WikiwordsCounters.ARTICLES));
+    }
+
+    @Test
+    public void testMultistreamDump() throws Exception {
+        final String testDirname = "build/test/IngestDumpFlowTest/testMultistreamDump";
+        File testDir = new File(testDirname);
+        testDir.mkdirs();
+        
+        File dumpFile = new File(testDir, "enwiki-multistream.xml.bz2");
+        WikiDumpToolTest.makeMultistreamDump(new File(DUMP_FILENAME), dumpFile, new File(testDir, "enwiki-multistream-index.txt"), 4);
+        
+        IngestDumpOptions options = ingestDump(testDirname, dumpFile.getPath());
+        Map<String, Long> counters = options.getCounters(IngestDumpFlow.class);
+        assertEquals(15, getCounter(counters, WikiDumpTool.MAIN_PAGE_COUNTER));
+        assertEquals(25, getCounter(counters, WikiDumpTool.REDIRECT_PAGE_COUNTER));
+        assertEquals(3, getCounter(counters, WikiDumpTool.DISAMBIGUATION_PAGE_COUNTER));
+        
+        File workingDir = new File(options.getWorkingDirname());
+        assertEquals(15, readLines(new File(workingDir, WorkingConfig.PARTS_SUBDIR_NAME)).size());
+    }
+    
+    /**
+     * Read the lines from a flow's output, which can be a single file, or a directory
+     * of part files.
+     */
+    private static List<String> readLines(File output) throws Exception {
+        if (!output.isDirectory()) {
+            return FileUtils.readLines(output, "UTF-8");
+        }
+        
+        List<String> result = new ArrayList<>();
+        File[] files = output.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.getName().startsWith("part-")) {
+                result.addAll(FileUtils.readLines(file, "UTF-8"));
+            }
+        }
+        
+        return result;
+    }
+    
+    private static long getCounter(Map<String, Long> counters, String counter) {
+        Long count = counters.get(WorkflowOptions.getFlowCounterName(IngestDumpFlow.COUNTER_GROUP, counter));
+        return (count == null ? 0 : count);
+    }
+    
+    private static IngestDumpOptions ingestDump(String testDirname, String inputFilename) throws Exception {
+        final String workingDirname = testDirname + "/working";
+        File workingDir = new File(workingDirname);
+        workingDir.mkdirs();
+        
+        IngestDumpOptions options = new IngestDumpOptions();
+        options.setDebug(true);
+        options.setInputFile(inputFilename);
+        options.setWorkingDirname(workingDirname);
+        
+        Flow flow = IngestDumpFlow.createFlow(options);
+        FlowResult fr = FlowRunner.run(flow);
+        options.saveCounters(IngestDumpFlow.class, fr.getCounters());
+        
+        return options;
+    }
+    
+    /**
+     * Run the WikiDumpTool on the same dump, with all of the part files and metadata
+     * going into one directory.
+     * 
+     * @return directory with the results.
+     */
+    private static File runWikiDumpTool(String testDirname) throws Exception {
+        File outputDir = new File(testDirname, "expected");
+        outputDir.mkdirs();
+        
+        WikiDumpOptions dumpOptions = new WikiDumpOptions();
+        dumpOptions.setInputFile(DUMP_FILENAME);
+        dumpOptions.setOutputDir(outputDir.getPath());
+        dumpOptions.setMetadataDirname(outputDir.getPath());
+        
+        new WikiDumpTool().run(dumpOptions);
+        return outputDir;
+    }
+}
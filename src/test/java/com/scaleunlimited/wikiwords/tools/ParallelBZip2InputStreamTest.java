@@ -0,0 +1,111 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class ParallelBZip2InputStreamTest {
+
+    @Test
+    public void testSingleStream() throws Exception {
+        byte[] data = FileUtils.readFileToByteArray(new File("src/test/resources/enwiki-snippet.xml"));
+
+        // Use the smallest block size, so that we get several blocks.
+        byte[] compressed = compress(data, 1);
+        for (int numThreads : new int[] {1, 4}) {
+            assertTrue(Arrays.equals(data, decompress(compressed, numThreads)));
+        }
+    }
+
+    @Test
+    public void testManyBlocks() throws Exception {
+        // Random text that compresses poorly, so blocks end up at arbitrary bit offsets.
+        Random rand = new Random(1L);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 2 * 1024 * 1024) {
+            text.append(Integer.toString(rand.nextInt(), 36));
+            text.append(rand.nextBoolean() ? ' ' : '\n');
+        }
+
+        byte[] data = text.toString().getBytes("UTF-8");
+        byte[] compressed = compress(data, 1);
+        assertTrue(Arrays.equals(data, decompress(compressed, 3)));
+        
+        // Make sure we agree with the sequential decompressor.
+        try (InputStream is = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed))) {
+            assertTrue(Arrays.equals(IOUtils.toByteArray(is), decompress(compressed, 3)));
+        }
+    }
+
+    @Test
+    public void testMultipleStreams() throws Exception {
+        byte[] data = FileUtils.readFileToByteArray(new File("src/test/resources/enwiki-snippet.xml"));
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        int offset = 0;
+        int streamSize = 40 * 1024;
+        while (offset < data.length) {
+            int length = Math.min(streamSize, data.length - offset);
+            compressed.write(compress(Arrays.copyOfRange(data, offset, offset + length), 9));
+            offset += length;
+        }
+
+        assertTrue(Arrays.equals(data, decompress(compressed.toByteArray(), 2)));
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        assertEquals(0, decompress(compress(new byte[0], 9), 2).length);
+    }
+
+    @Test
+    public void testNotBZip2() throws Exception {
+        try {
+            new ParallelBZip2InputStream(new ByteArrayInputStream("<mediawiki>".getBytes("UTF-8")), 2);
+            fail("Should have rejected uncompressed data");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        byte[] data = FileUtils.readFileToByteArray(new File("src/test/resources/enwiki-snippet.xml"));
+        byte[] compressed = compress(data, 1);
+
+        try {
+            decompress(Arrays.copyOf(compressed, compressed.length / 2), 2);
+            fail("Should have failed with truncated data");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] compress(byte[] data, int blockSize) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (OutputStream os = new BZip2CompressorOutputStream(result, blockSize)) {
+            os.write(data);
+        }
+
+        return result.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed, int numThreads) throws IOException {
+        try (InputStream is = new ParallelBZip2InputStream(new ByteArrayInputStream(compressed), numThreads)) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+}
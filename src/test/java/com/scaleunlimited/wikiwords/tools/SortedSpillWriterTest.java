@@ -0,0 +1,64 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class SortedSpillWriterTest {
+
+    @Test
+    public void testSortingAndDuplicates() throws Exception {
+        File testDir = new File("build/test/SortedSpillWriterTest/testSortingAndDuplicates/");
+        FileUtils.deleteQuietly(testDir);
+        File spillDir = new File(testDir, "spill");
+        
+        SortedSpillWriter writer = new SortedSpillWriter(spillDir, "test", 3);
+        writer.add("c", "1");
+        writer.add("a", "1");
+        writer.add("c", "2");
+        writer.add("b", "1");
+        writer.add("a", "2");
+        writer.add("d");
+        writer.add("a", "3");
+        
+        // We should have spilled at least twice.
+        assertEquals(2, spillDir.list().length);
+        
+        File outputFile = new File(testDir, "output.txt");
+        assertEquals(4, writer.write(outputFile));
+        
+        List<String> lines = FileUtils.readLines(outputFile, "UTF-8");
+        assertEquals(Arrays.asList("a\t3", "b\t1", "c\t2", "d"), lines);
+        
+        // Run files should be gone.
+        assertEquals(0, spillDir.list().length);
+    }
+    
+    @Test
+    public void testMerge() throws Exception {
+        File testDir = new File("build/test/SortedSpillWriterTest/testMerge/");
+        FileUtils.deleteQuietly(testDir);
+        File spillDir = new File(testDir, "spill");
+        
+        SortedSpillWriter writer1 = new SortedSpillWriter(spillDir, "test1", 2);
+        writer1.add("x", "old");
+        writer1.add("z", "1");
+        writer1.add("y", "1");
+        
+        SortedSpillWriter writer2 = new SortedSpillWriter(spillDir, "test2", 100);
+        writer2.add("x", "new");
+        writer2.add("w", "1");
+        
+        writer1.merge(writer2);
+        
+        File outputFile = new File(testDir, "output.txt");
+        assertEquals(4, writer1.write(outputFile));
+        assertEquals(Arrays.asList("w\t1", "x\tnew", "y\t1", "z\t1"), FileUtils.readLines(outputFile, "UTF-8"));
+        assertEquals(0, spillDir.list().length);
+    }
+}
@@ -0,0 +1,60 @@
+package com.scaleunlimited.wikiwords.tools;
+
+import static org.junit.Assert.*;
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+import info.bliki.wiki.dump.WikiXMLParser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class StaxDumpParserTest {
+
+    private static final File DUMP_FILE = new File("src/test/resources/enwiki-snippet.xml");
+    
+    @Test
+    public void testSameAsWikiXMLParser() throws Exception {
+        CollectingFilter expected = new CollectingFilter();
+        new WikiXMLParser(DUMP_FILE, expected).parse();
+        
+        CollectingFilter actual = new CollectingFilter();
+        StaxDumpParser parser = new StaxDumpParser(DUMP_FILE, actual);
+        parser.parse();
+        
+        assertEquals(50, expected.getPages().size());
+        assertEquals(expected.getPages().size(), actual.getPages().size());
+        for (int i = 0; i < expected.getPages().size(); i++) {
+            // One category page has an (unescaped) <nowiki> element in its text, which
+            // we ignore, but the WikiXMLParser treats as the end of the text.
+            if (!expected.getPages().get(i).startsWith("Category:Fayetteville FireAntz players|")) {
+                assertEquals(expected.getPages().get(i), actual.getPages().get(i));
+            }
+        }
+        
+        // The text of file, template, etc pages should have been skipped.
+        assertEquals(50, parser.getNumPages());
+        assertTrue(parser.getNumSkippedTexts() > 0);
+        assertTrue(parser.getNumSkippedTexts() < 50);
+    }
+    
+    private static class CollectingFilter implements IArticleFilter {
+        private List<String> _pages = new ArrayList<>();
+        
+        @Override
+        public void process(WikiArticle article, Siteinfo siteinfo) throws SAXException {
+            // We only care about the text for pages that the WikiDumpFilter uses.
+            String text = (article.isMain() || article.isCategory()) ? article.getText() : "";
+            _pages.add(String.format("%s|%s|%s|%d|%b|%b|%s", article.getTitle(), article.getId(), article.getRevisionId(),
+                            article.getIntegerNamespace(), article.isRedirect(), article.isUnknown(), text));
+        }
+        
+        public List<String> getPages() {
+            return _pages;
+        }
+    }
+}
@@ -1,19 +1,52 @@
 package com.scaleunlimited.wikiwords.tools;
 
 import static org.junit.Assert.*;
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+import info.bliki.wiki.dump.WikiXMLParser;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
 import org.junit.Test;
+import org.xml.sax.SAXException;
 
+import com.scaleunlimited.wikiwords.ArticleManifest;
+import com.scaleunlimited.wikiwords.ArticleRecord;
+import com.scaleunlimited.wikiwords.ArticleRecordReader;
+import com.scaleunlimited.wikiwords.ArticleRecordWriter;
+import com.scaleunlimited.wikiwords.PartManifest;
+import com.scaleunlimited.wikiwords.TemplateStore;
+import com.scaleunlimited.wikiwords.tools.ConvertPartFilesTool.ConvertPartFilesOptions;
 import com.scaleunlimited.wikiwords.tools.WikiDumpTool.WikiDumpFilter;
+import com.scaleunlimited.wikiwords.tools.WikiDumpTool.WikiDumpOptions;
 
 public class WikiDumpToolTest {
 
@@ -72,6 +105,14 @@ public class WikiDumpToolTest {
         // Verify we got a categories file with 1 entry
         lines = IOUtils.readLines(new FileReader(new File(metadataDir, "categories.txt")));
         assertEquals(1, lines.size());
+        
+        // Verify we got a manifest with all three part files
+        List<PartManifest.Part> parts = PartManifest.read(new File(metadataDir, PartManifest.MANIFEST_FILENAME)).getParts();
+        assertEquals(3, parts.size());
+        for (PartManifest.Part part : parts) {
+            assertEquals(5, part.getNumPages());
+            assertEquals(new File(outputDir, part.getName()).length(), part.getNumBytes());
+        }
     }
 
     @Test
@@ -94,6 +135,499 @@ public class WikiDumpToolTest {
         assertTrue(new File(outputDir, "part-001.gz").exists());
     }
     
+    @Test
+    public void testPipelined() throws Exception {
+        WikiDumpTool tool = new WikiDumpTool();
+        
+        File outputDir = new File("build/test/WikiDumpToolTest/testPipelined/output/");
+        outputDir.mkdirs();
+        
+        File metadataDir = new File("build/test/WikiDumpToolTest/testPipelined/metadata/");
+        metadataDir.mkdirs();
+        
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setPagesPerFile(5);
+        options.setCompress(true);
+        options.setPipelined(true);
+        
+        Map<String, Integer> counters = tool.run(options);
+        assertEquals(15, (int)counters.get(WikiDumpTool.MAIN_PAGE_COUNTER));
+        assertEquals(25, (int)counters.get(WikiDumpTool.REDIRECT_PAGE_COUNTER));
+        assertEquals(3, (int)counters.get(WikiDumpTool.DISAMBIGUATION_PAGE_COUNTER));
+        assertNull(counters.get(WikiDumpTool.EXCEPTION_COUNTER));
+
+        assertTrue(new File(outputDir, "part-000.gz").exists());
+        assertTrue(new File(outputDir, "part-001.gz").exists());
+        assertTrue(new File(outputDir, "part-002.gz").exists());
+        assertFalse(new File(outputDir, "part-003.gz").exists());
+        
+        List<String> lines = IOUtils.readLines(new GZIPInputStream(new FileInputStream(new File(outputDir, "part-002.gz"))), "UTF-8");
+        assertEquals(5, lines.size());
+    }
+    
+    @Test
+    public void testBinaryFormat() throws Exception {
+        WikiDumpTool tool = new WikiDumpTool();
+        
+        File testDir = new File("build/test/WikiDumpToolTest/testBinaryFormat/");
+        File textDir = new File(testDir, "text");
+        textDir.mkdirs();
+        File binaryDir = new File(testDir, "binary");
+        binaryDir.mkdirs();
+        File convertedDir = new File(testDir, "converted");
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+        
+        tool.run("src/test/resources/enwiki-snippet.xml", textDir.getAbsolutePath(), metadataDir.getAbsolutePath(), 10, Integer.MAX_VALUE);
+        
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(binaryDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setPagesPerFile(10);
+        options.setCompress(true);
+        options.setFormat("binary");
+        
+        Map<String, Integer> counters = tool.run(options);
+        assertEquals(15, (int)counters.get(WikiDumpTool.MAIN_PAGE_COUNTER));
+        assertNull(counters.get(WikiDumpTool.EXCEPTION_COUNTER));
+
+        assertTrue(new File(binaryDir, "part-000.bin").exists());
+        assertTrue(new File(binaryDir, "part-001.bin").exists());
+        assertFalse(new File(binaryDir, "part-002.bin").exists());
+        
+        List<ArticleRecord> articles = readArticles(binaryDir);
+        assertEquals(15, articles.size());
+        for (ArticleRecord article : articles) {
+            assertTrue(article.getPageId() > 0);
+        }
+        
+        // Converting the text files should give us the same articles, other than the page ids.
+        ConvertPartFilesOptions convertOptions = new ConvertPartFilesOptions();
+        convertOptions.setInputDirname(textDir.getAbsolutePath());
+        convertOptions.setOutputDirname(convertedDir.getAbsolutePath());
+        assertEquals(15, new ConvertPartFilesTool().run(convertOptions));
+        
+        List<ArticleRecord> converted = readArticles(convertedDir);
+        assertEquals(articles.size(), converted.size());
+        for (int i = 0; i < articles.size(); i++) {
+            assertEquals(articles.get(i).getTitle(), converted.get(i).getTitle());
+            assertEquals(articles.get(i).getText(), converted.get(i).getText());
+            assertEquals(ArticleRecordWriter.UNKNOWN_PAGE_ID, converted.get(i).getPageId());
+        }
+    }
+    
+    private List<ArticleRecord> readArticles(File dir) throws IOException {
+        List<ArticleRecord> result = new ArrayList<>();
+        
+        File[] partFiles = dir.listFiles();
+        Arrays.sort(partFiles);
+        for (File partFile : partFiles) {
+            try (ArticleRecordReader reader = new ArticleRecordReader(new FileInputStream(partFile))) {
+                ArticleRecord record = new ArticleRecord();
+                while (reader.next(record)) {
+                    result.add(record);
+                    record = new ArticleRecord();
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    @Test
+    public void testTargetPartSize() throws Exception {
+        WikiDumpTool tool = new WikiDumpTool();
+        
+        File outputDir = new File("build/test/WikiDumpToolTest/testTargetPartSize/output/");
+        outputDir.mkdirs();
+        
+        File metadataDir = new File("build/test/WikiDumpToolTest/testTargetPartSize/metadata/");
+        metadataDir.mkdirs();
+        
+        final long targetPartSize = 20000;
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setTargetPartSize(targetPartSize);
+        options.setLinkCost(10);
+        options.setPipelined(true);
+        
+        Map<String, Integer> counters = tool.run(options);
+        assertEquals(15, (int)counters.get(WikiDumpTool.MAIN_PAGE_COUNTER));
+        assertNull(counters.get(WikiDumpTool.EXCEPTION_COUNTER));
+        
+        // Every part but the last should have just reached the target size, and the
+        // manifest should match what's in the output directory.
+        List<PartManifest.Part> parts = PartManifest.read(new File(metadataDir, PartManifest.MANIFEST_FILENAME)).getParts();
+        assertTrue(parts.size() > 1);
+        assertEquals(parts.size(), outputDir.list().length);
+        
+        int numPages = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            PartManifest.Part part = parts.get(i);
+            assertEquals(String.format("part-%03d.txt", i), part.getName());
+            assertEquals(new File(outputDir, part.getName()).length(), part.getNumBytes());
+            assertEquals(part.getNumPages(), IOUtils.readLines(new FileReader(new File(outputDir, part.getName()))).size());
+            assertEquals(part.getTextLength() + (10 * part.getNumLinks()), part.getCost());
+            
+            if (i < parts.size() - 1) {
+                assertTrue(part.getCost() >= targetPartSize);
+            }
+            
+            numPages += part.getNumPages();
+        }
+        
+        assertEquals(15, numPages);
+    }
+    
+    @Test
+    public void testIncremental() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testIncremental/");
+        
+        // First do a complete run, to get the article manifest.
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+        
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setMaxMetadataEntries(4);
+        
+        new WikiDumpTool().run(options);
+        
+        File articlesFile = new File(metadataDir, ArticleManifest.MANIFEST_FILENAME);
+        List<String> articles = FileUtils.readLines(articlesFile, "UTF-8");
+        assertEquals(15, articles.size());
+        assertSorted(articles);
+        
+        // Fake up a previous manifest where one article was different, one had another title
+        // (but the same text), one didn't exist, and one has since been deleted.
+        List<String> previousArticles = new ArrayList<>(articles);
+        String[] changedFields = previousArticles.get(2).split("\t");
+        changedFields[2] = "0000000000000000";
+        previousArticles.set(2, StringUtils.join(changedFields, '\t'));
+        String[] renamedFields = previousArticles.get(4).split("\t");
+        String renamedTitle = renamedFields[3];
+        renamedFields[3] = "Old title";
+        previousArticles.set(4, StringUtils.join(renamedFields, '\t'));
+        String addedArticle = previousArticles.remove(5);
+        previousArticles.add(0, ArticleManifest.formatPageId(1) + "\t1\t0123456789abcdef\tDeleted article");
+        
+        File previousManifest = new File(testDir, "previous-articles.txt");
+        FileUtils.writeLines(previousManifest, "UTF-8", previousArticles, "\n");
+        
+        // Now do an incremental run, which should only output the added, changed and renamed articles.
+        options.setPreviousManifest(previousManifest.getAbsolutePath());
+        Map<String, Integer> counters = new WikiDumpTool().run(options);
+        assertEquals(3, (int)counters.get(WikiDumpTool.MAIN_PAGE_COUNTER));
+        assertEquals(12, (int)counters.get(WikiDumpTool.UNCHANGED_PAGE_COUNTER));
+        assertEquals(1, (int)counters.get(WikiDumpTool.ADDED_PAGE_COUNTER));
+        assertEquals(1, (int)counters.get(WikiDumpTool.CHANGED_PAGE_COUNTER));
+        assertEquals(1, (int)counters.get(WikiDumpTool.RENAMED_PAGE_COUNTER));
+        assertEquals(1, (int)counters.get(WikiDumpTool.DELETED_PAGE_COUNTER));
+        assertNull(counters.get(WikiDumpTool.EXCEPTION_COUNTER));
+        
+        List<String> lines = FileUtils.readLines(new File(outputDir, "part-000.txt"), "UTF-8");
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith(changedFields[3] + "\t"));
+        assertTrue(lines.get(1).startsWith(renamedTitle + "\t"));
+        assertTrue(lines.get(2).startsWith(addedArticle.split("\t")[3] + "\t"));
+        
+        // We still get the full manifest, for use by the next run.
+        assertEquals(articles, FileUtils.readLines(articlesFile, "UTF-8"));
+        
+        List<String> changes = FileUtils.readLines(new File(metadataDir, ArticleManifest.CHANGES_FILENAME), "UTF-8");
+        assertEquals(Arrays.asList(ArticleManifest.formatPageId(1) + "\tdeleted\tDeleted article",
+                                   changedFields[0] + "\tchanged\t" + changedFields[3],
+                                   renamedFields[0] + "\trenamed\t" + renamedTitle + "\tOld title",
+                                   addedArticle.split("\t")[0] + "\tadded\t" + addedArticle.split("\t")[3]), changes);
+    }
+    
+    @Test
+    public void testSpilledMetadata() throws Exception {
+        WikiDumpTool tool = new WikiDumpTool();
+        
+        File outputDir = new File("build/test/WikiDumpToolTest/testSpilledMetadata/output/");
+        outputDir.mkdirs();
+        
+        File metadataDir = new File("build/test/WikiDumpToolTest/testSpilledMetadata/metadata/");
+        metadataDir.mkdirs();
+        
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setMaxMetadataEntries(2);
+        
+        Map<String, Integer> counters = tool.run(options);
+        assertEquals(25, (int)counters.get(WikiDumpTool.REDIRECT_PAGE_COUNTER));
+        assertNull(counters.get(WikiDumpTool.EXCEPTION_COUNTER));
+        
+        // Metadata files should be complete and sorted, and the spill files removed.
+        List<String> lines = IOUtils.readLines(new FileReader(new File(metadataDir, "redirects.txt")));
+        assertEquals(25, lines.size());
+        assertSorted(lines);
+        
+        lines = IOUtils.readLines(new FileReader(new File(metadataDir, "disambigs.txt")));
+        assertEquals(3, lines.size());
+        assertSorted(lines);
+        
+        assertEquals(1, IOUtils.readLines(new FileReader(new File(metadataDir, "categories.txt"))).size());
+        assertFalse(new File(metadataDir, "spill").exists());
+    }
+    
+    @Test
+    public void testTemplates() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testTemplates/");
+        testDir.mkdirs();
+        
+        // The snippet doesn't have any template pages, so add some.
+        String dump = FileUtils.readFileToString(new File("src/test/resources/enwiki-snippet.xml"), "UTF-8");
+        dump = dump.replace("</mediawiki>", makeTemplatePage("Template:Birth place", "[[{{{1}}}]]<noinclude>Documentation</noinclude>", 100)
+                        + makeTemplatePage("Template:Birth place/doc", "Documentation", 101)
+                        + "</mediawiki>");
+        File dumpFile = new File(testDir, "enwiki-templates.xml");
+        FileUtils.write(dumpFile, dump, "UTF-8");
+        
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+        
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile(dumpFile.getAbsolutePath());
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setSaveTemplates(true);
+        
+        for (boolean staxParser : new boolean[] {false, true}) {
+            options.setStaxParser(staxParser);
+            Map<String, Integer> counters = new WikiDumpTool().run(options);
+            assertEquals(2, (int)counters.get(WikiDumpTool.TEMPLATE_PAGE_COUNTER));
+            
+            TemplateStore store;
+            try (InputStream is = new FileInputStream(new File(metadataDir, TemplateStore.TEMPLATES_FILENAME))) {
+                store = TemplateStore.read(is);
+            }
+            
+            assertEquals(1, store.size());
+            assertEquals("[[{{{1}}}]]", store.getSource("birth place"));
+        }
+    }
+    
+    private String makeTemplatePage(String title, String text, int id) {
+        return String.format("  <page>\n    <title>%s</title>\n    <ns>10</ns>\n    <id>%d</id>\n    <revision>\n"
+                        + "      <id>%d</id>\n      <text xml:space=\"preserve\">%s</text>\n    </revision>\n  </page>\n",
+                        title, id, id, StringEscapeUtils.escapeXml(text));
+    }
+    
+    private void assertSorted(List<String> lines) {
+        for (int i = 1; i < lines.size(); i++) {
+            assertTrue(lines.get(i - 1).compareTo(lines.get(i)) < 0);
+        }
+    }
+    
+    @Test
+    public void testResume() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testResume/");
+        
+        // First do a complete run, to get the expected results.
+        File expectedOutputDir = new File(testDir, "expected-output");
+        expectedOutputDir.mkdirs();
+        File expectedMetadataDir = new File(testDir, "expected-metadata");
+        expectedMetadataDir.mkdirs();
+        
+        WikiDumpOptions options = makeResumeOptions(expectedOutputDir, expectedMetadataDir);
+        Map<String, Integer> expectedCounters = new WikiDumpTool().run(options);
+        
+        // Now simulate a run that dies part-way through the dump.
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        FileUtils.cleanDirectory(outputDir);
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+        FileUtils.cleanDirectory(metadataDir);
+        
+        options = makeResumeOptions(outputDir, metadataDir);
+        final WikiDumpFilter filter = new WikiDumpFilter(outputDir, "", options, metadataDir, null);
+        PagePositions positions = new PagePositions();
+        filter.setPagePositions(positions);
+        IArticleFilter failingFilter = new IArticleFilter() {
+            private int _numPages = 0;
+            
+            @Override
+            public void process(WikiArticle article, Siteinfo siteinfo) throws SAXException {
+                if (++_numPages > 35) {
+                    throw new SAXException("Simulated failure");
+                }
+                
+                filter.process(article, siteinfo);
+            }
+        };
+        
+        try (InputStream is = new PageOffsetInputStream(new FileInputStream(options.getInputFile()), 0, positions)) {
+            new WikiXMLParser(is, failingFilter).parse();
+            fail("Should have thrown exception");
+        } catch (SAXException e) {
+            // expected
+        }
+        
+        // The dump is uncompressed, so we know where the last page before the checkpoint ends.
+        DumpCheckpoint checkpoint = DumpCheckpoint.load(metadataDir);
+        assertNotNull(checkpoint);
+        assertTrue(checkpoint.getNextPart() > 0);
+        assertTrue(checkpoint.getInputOffset() > 0);
+        assertEquals(0, checkpoint.getInputPages());
+        
+        // Resume, and verify we get the same results as the complete run, without reading
+        // the start of the dump again.
+        options.setResume(true);
+        WikiDumpTool tool = new WikiDumpTool();
+        Map<String, Integer> counters = tool.run(options);
+        assertEquals(expectedCounters, counters);
+        assertEquals(new File(options.getInputFile()).length() - checkpoint.getInputOffset(), tool.getMetrics().getInputBytes());
+        
+        for (String filename : expectedOutputDir.list()) {
+            assertTrue(FileUtils.contentEquals(new File(expectedOutputDir, filename), new File(outputDir, filename)));
+        }
+        
+        assertEquals(expectedOutputDir.list().length, outputDir.list().length);
+        
+        for (String filename : new String[] {"categories.txt", "redirects.txt", "disambigs.txt", ArticleManifest.MANIFEST_FILENAME, PartManifest.MANIFEST_FILENAME}) {
+            assertTrue(FileUtils.contentEquals(new File(expectedMetadataDir, filename), new File(metadataDir, filename)));
+        }
+        
+        assertNull(DumpCheckpoint.load(metadataDir));
+    }
+    
+    @Test
+    public void testResumeMultistream() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testResumeMultistream/");
+        testDir.mkdirs();
+        
+        File dumpFile = new File(testDir, "enwiki-multistream.xml.bz2");
+        File indexFile = new File(testDir, "enwiki-multistream-index.txt");
+        makeMultistreamDump(new File("src/test/resources/enwiki-snippet.xml"), dumpFile, indexFile, 4);
+        
+        // First do a complete run, to get the expected results.
+        File expectedOutputDir = new File(testDir, "expected-output");
+        expectedOutputDir.mkdirs();
+        File expectedMetadataDir = new File(testDir, "expected-metadata");
+        expectedMetadataDir.mkdirs();
+        
+        WikiDumpOptions options = makeResumeMultistreamOptions(dumpFile, indexFile, expectedOutputDir, expectedMetadataDir);
+        Map<String, Integer> expectedCounters = new WikiDumpTool().run(options);
+        
+        // Now simulate a run where every thread dies part-way through the dump.
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        FileUtils.cleanDirectory(outputDir);
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+        FileUtils.cleanDirectory(metadataDir);
+        
+        options = makeResumeMultistreamOptions(dumpFile, indexFile, outputDir, metadataDir);
+        final AtomicInteger numPages = new AtomicInteger();
+        List<IArticleFilter> failingFilters = new ArrayList<>();
+        List<PagePositions> positions = new ArrayList<>();
+        for (int i = 0; i < options.getNumThreads(); i++) {
+            final WikiDumpFilter filter = new WikiDumpFilter(outputDir, String.format("%02d-", i), options, metadataDir, null);
+            PagePositions filterPositions = new PagePositions();
+            filter.setPagePositions(filterPositions);
+            positions.add(filterPositions);
+            failingFilters.add(new IArticleFilter() {
+                
+                @Override
+                public void process(WikiArticle article, Siteinfo siteinfo) throws SAXException {
+                    if (numPages.incrementAndGet() > 35) {
+                        throw new SAXException("Simulated failure");
+                    }
+                    
+                    filter.process(article, siteinfo);
+                }
+            });
+        }
+        
+        MultistreamDumpParser parser = new MultistreamDumpParser(dumpFile, indexFile);
+        parser.setPagePositions(positions);
+        try {
+            parser.parse(failingFilters);
+            fail("Should have thrown exception");
+        } catch (IOException e) {
+            // expected
+        }
+        
+        // Each thread has its own checkpoint, with the offset of the stream it was in.
+        boolean foundCheckpoint = false;
+        for (int i = 0; i < options.getNumThreads(); i++) {
+            DumpCheckpoint checkpoint = DumpCheckpoint.load(metadataDir, String.format("%02d-", i));
+            if (checkpoint != null) {
+                foundCheckpoint = true;
+                assertTrue(checkpoint.getNextPart() > 0);
+                assertTrue(checkpoint.getInputPages() > 0);
+            }
+        }
+        
+        assertTrue(foundCheckpoint);
+        
+        // Resume, and verify we get the same results as the complete run.
+        options.setResume(true);
+        WikiDumpTool tool = new WikiDumpTool();
+        Map<String, Integer> counters = tool.run(options);
+        assertEquals(expectedCounters, counters);
+        assertTrue(tool.getMetrics().getInputBytes() < dumpFile.length());
+        
+        // Threads don't get the same streams as before, so just check that we've got the same pages.
+        assertEquals(readPartLines(expectedOutputDir), readPartLines(outputDir));
+        
+        for (String filename : new String[] {"categories.txt", "redirects.txt", "disambigs.txt", ArticleManifest.MANIFEST_FILENAME}) {
+            assertTrue(FileUtils.contentEquals(new File(expectedMetadataDir, filename), new File(metadataDir, filename)));
+        }
+        
+        for (int i = 0; i < options.getNumThreads(); i++) {
+            assertNull(DumpCheckpoint.load(metadataDir, String.format("%02d-", i)));
+        }
+    }
+    
+    private WikiDumpOptions makeResumeMultistreamOptions(File dumpFile, File indexFile, File outputDir, File metadataDir) {
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile(dumpFile.getAbsolutePath());
+        options.setMultistreamIndex(indexFile.getAbsolutePath());
+        options.setNumThreads(2);
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setPagesPerFile(3);
+        return options;
+    }
+    
+    private List<String> readPartLines(File dir) throws IOException {
+        List<String> result = new ArrayList<>();
+        for (File partFile : dir.listFiles()) {
+            result.addAll(FileUtils.readLines(partFile, "UTF-8"));
+        }
+        
+        Collections.sort(result);
+        return result;
+    }
+    
+    private WikiDumpOptions makeResumeOptions(File outputDir, File metadataDir) {
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setPagesPerFile(3);
+        options.setSamplePercent(80.0f);
+        return options;
+    }
+    
     @Test
     public void testCategoryHandling() throws Exception {
         File outputDir = new File("build/test/WikiDumpToolTest/testRedirectHandling");
@@ -186,4 +720,388 @@ public class WikiDumpToolTest {
         assertTrue(new File(outputDir, "part-000.txt").exists());
         assertFalse(new File(outputDir, "part-001.txt").exists());
     }
+
+    @Test
+    public void testMultistream() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testMultistream/");
+        testDir.mkdirs();
+        
+        File dumpFile = new File(testDir, "enwiki-multistream.xml.bz2");
+        File indexFile = new File(testDir, "enwiki-multistream-index.txt");
+        makeMultistreamDump(new File("src/test/resources/enwiki-snippet.xml"), dumpFile, indexFile, 4);
+        
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+        
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile(dumpFile.getAbsolutePath());
+        options.setMultistreamIndex(indexFile.getAbsolutePath());
+        options.setNumThreads(3);
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setPagesPerFile(5);
+        
+        WikiDumpTool tool = new WikiDumpTool();
+        Map<String, Integer> counters = tool.run(options);
+        
+        // We should get the same results as when processing the regular dump file.
+        assertEquals(15, (int)counters.get(WikiDumpTool.MAIN_PAGE_COUNTER));
+        assertEquals(25, (int)counters.get(WikiDumpTool.REDIRECT_PAGE_COUNTER));
+        assertEquals(4, (int)counters.get(WikiDumpTool.FILE_PAGE_COUNTER));
+        assertEquals(3, (int)counters.get(WikiDumpTool.DISAMBIGUATION_PAGE_COUNTER));
+        assertEquals(2, (int)counters.get(WikiDumpTool.CATEGORY_PAGE_COUNTER));
+        assertNull(counters.get(WikiDumpTool.EXCEPTION_COUNTER));
+        
+        // Each thread writes its own part files, so just check the total number of pages.
+        int numPages = 0;
+        for (File partFile : outputDir.listFiles()) {
+            assertTrue(partFile.getName().startsWith("part-"));
+            for (String line : IOUtils.readLines(new FileReader(partFile))) {
+                assertEquals(2, line.split("\t").length);
+                numPages += 1;
+            }
+        }
+        
+        assertEquals(15, numPages);
+        
+        assertEquals(25, IOUtils.readLines(new FileReader(new File(metadataDir, "redirects.txt"))).size());
+        assertEquals(3, IOUtils.readLines(new FileReader(new File(metadataDir, "disambigs.txt"))).size());
+        assertEquals(1, IOUtils.readLines(new FileReader(new File(metadataDir, "categories.txt"))).size());
+    }
+
+    @Test
+    public void testMapped() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testMapped/");
+
+        File expectedOutputDir = new File(testDir, "expected-output");
+        expectedOutputDir.mkdirs();
+        File expectedMetadataDir = new File(testDir, "expected-metadata");
+        expectedMetadataDir.mkdirs();
+
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(expectedOutputDir.getAbsolutePath());
+        options.setMetadataDirname(expectedMetadataDir.getAbsolutePath());
+        options.setPagesPerFile(5);
+        Map<String, Integer> expectedCounters = new WikiDumpTool().run(options);
+
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+
+        // Use small ranges, so that every thread gets several of them.
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setMapped(true);
+        options.setRangeSize(8 * 1024);
+        options.setNumThreads(3);
+
+        for (boolean staxParser : new boolean[] {false, true}) {
+            options.setStaxParser(staxParser);
+            Map<String, Integer> counters = new WikiDumpTool().run(options);
+            assertEquals(expectedCounters, counters);
+
+            // Each thread writes its own part files, so just check the total number of pages.
+            int numPages = 0;
+            for (File partFile : outputDir.listFiles()) {
+                assertTrue(partFile.getName().startsWith("part-"));
+                numPages += FileUtils.readLines(partFile, "UTF-8").size();
+            }
+
+            assertEquals((int)expectedCounters.get(WikiDumpTool.MAIN_PAGE_COUNTER), numPages);
+
+            for (String filename : new String[] {"categories.txt", "redirects.txt", "disambigs.txt", ArticleManifest.MANIFEST_FILENAME}) {
+                assertTrue(FileUtils.contentEquals(new File(expectedMetadataDir, filename), new File(metadataDir, filename)));
+            }
+        }
+    }
+
+    @Test
+    public void testMappedRequiresUncompressedDump() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testMappedRequiresUncompressedDump/");
+        File dumpFile = new File(testDir, "enwiki-multistream.xml.bz2");
+        File indexFile = new File(testDir, "enwiki-multistream-index.txt");
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+        makeMultistreamDump(new File("src/test/resources/enwiki-snippet.xml"), dumpFile, indexFile, 4);
+
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile(dumpFile.getAbsolutePath());
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setMapped(true);
+
+        try {
+            new WikiDumpTool().run(options);
+            fail("Should have rejected a compressed dump");
+        } catch (InvalidParameterException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testMetrics/");
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+
+        File inputFile = new File("src/test/resources/enwiki-snippet.xml");
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile(inputFile.getPath());
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setPagesPerFile(5);
+        options.setPipelined(true);
+        
+        WikiDumpTool tool = new WikiDumpTool();
+        Map<String, Integer> counters = tool.run(options);
+        
+        Properties report = new Properties();
+        try (InputStream is = new FileInputStream(new File(metadataDir, IngestMetrics.REPORT_FILENAME))) {
+            report.load(is);
+        }
+        
+        assertEquals(50, Integer.parseInt(report.getProperty("pages")));
+        assertEquals(inputFile.length(), Long.parseLong(report.getProperty("input.bytes")));
+        
+        long partFilesSize = 0;
+        for (File partFile : outputDir.listFiles()) {
+            partFilesSize += partFile.length();
+        }
+        
+        assertEquals(partFilesSize, Long.parseLong(report.getProperty("output.bytes")));
+        assertEquals(partFilesSize, tool.getMetrics().getOutputBytes());
+        
+        // Every type of page we counted should have a histogram.
+        for (String pageType : new String[] {WikiDumpTool.MAIN_PAGE_COUNTER, WikiDumpTool.REDIRECT_PAGE_COUNTER, WikiDumpTool.DISAMBIGUATION_PAGE_COUNTER}) {
+            String prefix = "type." + pageType + ".";
+            int count = Integer.parseInt(report.getProperty(prefix + "count"));
+            assertEquals((int)counters.get(pageType), count);
+            
+            int histogramCount = 0;
+            for (String key : report.stringPropertyNames()) {
+                if (key.startsWith(prefix + "histogram.us.")) {
+                    histogramCount += Integer.parseInt(report.getProperty(key));
+                }
+            }
+            
+            assertEquals(count, histogramCount);
+            assertNotNull(report.getProperty(prefix + "p99.us"));
+        }
+        
+        for (IngestMetrics.Stage stage : IngestMetrics.Stage.values()) {
+            assertNotNull(report.getProperty("stage." + stage.getKey() + ".ms"));
+        }
+    }
+
+    @Test
+    public void testParallelBZip2() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testParallelBZip2/");
+        testDir.mkdirs();
+
+        File expectedOutputDir = new File(testDir, "expected-output");
+        expectedOutputDir.mkdirs();
+        File expectedMetadataDir = new File(testDir, "expected-metadata");
+        expectedMetadataDir.mkdirs();
+
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(expectedOutputDir.getAbsolutePath());
+        options.setMetadataDirname(expectedMetadataDir.getAbsolutePath());
+        options.setPagesPerFile(5);
+        Map<String, Integer> expectedCounters = new WikiDumpTool().run(options);
+
+        // Use the smallest block size, so that we get several blocks.
+        File dumpFile = new File(testDir, "enwiki-snippet.xml.bz2");
+        try (OutputStream os = new BZip2CompressorOutputStream(new FileOutputStream(dumpFile), 1)) {
+            FileUtils.copyFile(new File("src/test/resources/enwiki-snippet.xml"), os);
+        }
+
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+
+        options.setInputFile(dumpFile.getAbsolutePath());
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setParallelBZip2(true);
+        options.setNumThreads(3);
+
+        for (boolean staxParser : new boolean[] {false, true}) {
+            options.setStaxParser(staxParser);
+            Map<String, Integer> counters = new WikiDumpTool().run(options);
+            assertEquals(expectedCounters, counters);
+
+            // Pages are still processed in order, so the part files should be the same.
+            assertEquals(expectedOutputDir.list().length, outputDir.list().length);
+            for (File expectedPartFile : expectedOutputDir.listFiles()) {
+                assertTrue(FileUtils.contentEquals(expectedPartFile, new File(outputDir, expectedPartFile.getName())));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBZip2RequiresBZip2Dump() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testParallelBZip2RequiresBZip2Dump/");
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setParallelBZip2(true);
+
+        try {
+            new WikiDumpTool().run(options);
+            fail("Should have rejected an uncompressed dump");
+        } catch (InvalidParameterException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParallelBZip2RequiresSequentialParsing() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testParallelBZip2RequiresSequentialParsing/");
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setParallelBZip2(true);
+        options.setMapped(true);
+
+        try {
+            new WikiDumpTool().run(options);
+            fail("Should have rejected parallel decompression with a memory-mapped dump");
+        } catch (InvalidParameterException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStaxParser() throws Exception {
+        File testDir = new File("build/test/WikiDumpToolTest/testStaxParser/");
+        
+        File expectedOutputDir = new File(testDir, "expected-output");
+        expectedOutputDir.mkdirs();
+        File expectedMetadataDir = new File(testDir, "expected-metadata");
+        expectedMetadataDir.mkdirs();
+        
+        WikiDumpOptions options = new WikiDumpOptions();
+        options.setInputFile("src/test/resources/enwiki-snippet.xml");
+        options.setOutputDir(expectedOutputDir.getAbsolutePath());
+        options.setMetadataDirname(expectedMetadataDir.getAbsolutePath());
+        options.setPagesPerFile(5);
+        Map<String, Integer> expectedCounters = new WikiDumpTool().run(options);
+        
+        // We should get exactly the same results with the streaming parser.
+        File outputDir = new File(testDir, "output");
+        outputDir.mkdirs();
+        File metadataDir = new File(testDir, "metadata");
+        metadataDir.mkdirs();
+        
+        options.setOutputDir(outputDir.getAbsolutePath());
+        options.setMetadataDirname(metadataDir.getAbsolutePath());
+        options.setStaxParser(true);
+        Map<String, Integer> counters = new WikiDumpTool().run(options);
+        assertEquals(expectedCounters, counters);
+        
+        assertEquals(expectedOutputDir.list().length, outputDir.list().length);
+        for (String filename : expectedOutputDir.list()) {
+            assertTrue(FileUtils.contentEquals(new File(expectedOutputDir, filename), new File(outputDir, filename)));
+        }
+        
+        for (String filename : expectedMetadataDir.list()) {
+            // Timings will be different.
+            if (filename.equals(IngestMetrics.REPORT_FILENAME)) {
+                continue;
+            }
+            
+            assertTrue(FileUtils.contentEquals(new File(expectedMetadataDir, filename), new File(metadataDir, filename)));
+        }
+        
+        // And with a multistream dump.
+        File dumpFile = new File(testDir, "enwiki-multistream.xml.bz2");
+        File indexFile = new File(testDir, "enwiki-multistream-index.txt");
+        makeMultistreamDump(new File("src/test/resources/enwiki-snippet.xml"), dumpFile, indexFile, 4);
+        
+        options.setInputFile(dumpFile.getAbsolutePath());
+        options.setMultistreamIndex(indexFile.getAbsolutePath());
+        options.setNumThreads(2);
+        counters = new WikiDumpTool().run(options);
+        assertEquals(expectedCounters, counters);
+        
+        for (String filename : new String[] {"categories.txt", "redirects.txt", "disambigs.txt", ArticleManifest.MANIFEST_FILENAME}) {
+            assertTrue(FileUtils.contentEquals(new File(expectedMetadataDir, filename), new File(metadataDir, filename)));
+        }
+    }
+    
+    /**
+     * Create a multistream version of <inputFile>, in the same format as the pages-articles-multistream
+     * dumps from Wikipedia (header stream, N streams of <pagesPerStream> pages, and a final stream
+     * with the closing </mediawiki> tag), along with the matching index file.
+     */
+    public static void makeMultistreamDump(File inputFile, File dumpFile, File indexFile, int pagesPerStream) throws IOException {
+        final Pattern pagePattern = Pattern.compile("[ \\t]*<page>.+?</page>\\s*", Pattern.DOTALL);
+        final Pattern titlePattern = Pattern.compile("<title>(.+?)</title>");
+        final Pattern idPattern = Pattern.compile("<id>(.+?)</id>");
+        
+        String xml = FileUtils.readFileToString(inputFile, "UTF-8");
+        
+        try (CountingOutputStream os = new CountingOutputStream(new FileOutputStream(dumpFile));
+             Writer indexWriter = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8")) {
+            Matcher m = pagePattern.matcher(xml);
+            m.find();
+            writeStream(os, xml.substring(0, m.start()));
+            
+            int pageEnd = m.start();
+            StringBuilder pages = new StringBuilder();
+            int numPages = 0;
+            do {
+                String page = m.group();
+                Matcher titleMatcher = titlePattern.matcher(page);
+                titleMatcher.find();
+                Matcher idMatcher = idPattern.matcher(page);
+                idMatcher.find();
+                indexWriter.write(String.format("%d:%s:%s\n", os.getByteCount(), idMatcher.group(1), titleMatcher.group(1)));
+                
+                pages.append(page);
+                pageEnd = m.end();
+                numPages += 1;
+                
+                if ((numPages % pagesPerStream) == 0) {
+                    writeStream(os, pages.toString());
+                    pages.setLength(0);
+                }
+            } while (m.find());
+            
+            if (pages.length() > 0) {
+                writeStream(os, pages.toString());
+            }
+            
+            writeStream(os, xml.substring(pageEnd));
+        }
+    }
+    
+    private static void writeStream(OutputStream os, String text) throws IOException {
+        BZip2CompressorOutputStream bzos = new BZip2CompressorOutputStream(os);
+        bzos.write(text.getBytes("UTF-8"));
+        bzos.finish();
+    }
 }